@@ -0,0 +1,52 @@
+package com.caju.benchmarks;
+
+import com.caju.enums.CategoryWallet;
+import com.caju.services.CategoryClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MCC to wallet lookups: the linear scan over {@link CategoryWallet} against the indexed table of
+ * {@link CategoryClassifier} used on the authorization path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CategoryBenchmark {
+
+    // mapped to FOOD, to MEAL, not mapped, malformed
+    @Param({"5411", "5812", "7299", "54a1"})
+    private String mcc;
+
+    private CategoryClassifier classifier;
+
+    @Setup
+    public void setup() {
+        classifier = new CategoryClassifier();
+        classifier.load();
+    }
+
+    @Benchmark
+    public CategoryWallet enumLookup() {
+        return CategoryWallet.getCategoryByMcc(mcc);
+    }
+
+    @Benchmark
+    public CategoryWallet tableLookup() {
+        return classifier.getCategoryByMcc(mcc);
+    }
+}
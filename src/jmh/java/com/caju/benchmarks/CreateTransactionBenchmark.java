@@ -0,0 +1,89 @@
+package com.caju.benchmarks;
+
+import com.caju.CajuTransactionApplication;
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.enums.TransactionResponseEnum;
+import com.caju.services.TransactionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole {@link TransactionService} authorization through its transactional proxy, against the application
+ * context on an in-memory H2: account lookup, category resolution, wallet debit, transaction insert and
+ * spending summary. Every call is approved; the seeded wallets are topped up so they never run out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CreateTransactionBenchmark {
+
+    @Param({"false", "true"})
+    private boolean withFallback;
+
+    @Param({"false", "true"})
+    private boolean considerMerchant;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+    private TransactionDTO transactionDTO;
+
+    @Setup
+    public void setup() throws IOException {
+        Path directory = Files.createTempDirectory("caju-benchmark");
+        context = new SpringApplicationBuilder(CajuTransactionApplication.class)
+                .web(WebApplicationType.NONE)
+                // arguments, as default properties would lose to application.properties
+                .run("--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+                        // an in-memory url would otherwise make Hibernate recreate the seeded tables
+                        "--spring.jpa.hibernate.ddl-auto=none",
+                        "--spring.jpa.properties.hibernate.show_sql=false",
+                        "--logging.level.root=WARN",
+                        "--caju.write-behind.directory=" + directory.resolve("write-behind"),
+                        "--caju.journal.directory=" + directory.resolve("journal"));
+        context.getBean(JdbcTemplate.class).update("UPDATE wallets SET balance = 1000000000000 WHERE id_account = 1");
+        transactionService = context.getBean(TransactionService.class);
+        transactionDTO = new TransactionDTO("1", BigDecimal.ONE, "5811", "PADARIA DO ZE               SAO PAULO BR");
+        // a benchmark of rejections would look fast and mean nothing
+        ResponseDTO response = createTransaction();
+        if (!TransactionResponseEnum.APPROVED.getCode().equals(response.code())) {
+            throw new IllegalStateException("Benchmark transaction not approved: " + response);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ResponseDTO createTransaction() {
+        return withFallback
+                ? transactionService.createTransactionWithFallback(transactionDTO, considerMerchant)
+                : transactionService.createTransaction(transactionDTO, considerMerchant);
+    }
+}
@@ -0,0 +1,96 @@
+package com.caju.benchmarks;
+
+import com.caju.dto.TransactionDTO;
+import com.caju.enums.CategoryWallet;
+import com.caju.services.CategoryClassifier;
+import com.caju.services.MerchantClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merchant name classification over a corpus of names laid out like the ones acquirers send: a 25 character
+ * name padded with spaces, the city and the country. With {@code cacheSize=0} every call misses the
+ * resolution cache and scans the name with the keyword automaton.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MerchantBenchmark {
+
+    private static final List<String> NAMES = List.of(
+            "PADARIA DO ZE", "PADARIA BELLA PAULISTA", "RESTAURANTE SABOR MINEIRO", "IFOOD *RESTAURANTE", "UBER *EATS",
+            "MERCADO EXTRA", "EMPORIO SANTA MARIA", "QUITANDA DA VILA", "SUPERMERCADO DIA", "HORTIFRUTI MARKET",
+            "POSTO IPIRANGA", "DROGASIL", "FARMACIA SAO JOAO", "NETFLIX.COM", "UBER *TRIP", "99 *POP",
+            "PAG*JOSEDASILVA", "MP*LOJADOCENTRO", "AMAZON MARKETPLACE", "LOJAS AMERICANAS", "CINEMARK", "SMART FIT",
+            "BURGER KING", "MC DONALDS", "OUTBACK STEAKHOUSE", "CAFE DO PONTO", "ACOUGUE BOI GORDO", "PET SHOP AMIGO");
+    private static final List<String> CITIES = List.of(
+            "SAO PAULO", "RIO DE JANEIR", "BELO HORIZON", "CURITIBA", "PORTO ALEGRE", "SALVADOR", "RECIFE", "FORTALEZA");
+
+    @Param({"1000", "100000"})
+    private int corpusSize;
+
+    @Param({"100000", "0"})
+    private long cacheSize;
+
+    private MerchantClassifier merchantClassifier;
+    private CategoryClassifier categoryClassifier;
+    private String[] merchants;
+    private TransactionDTO[] transactions;
+    private int next;
+
+    @Setup
+    public void setup() {
+        merchantClassifier = new MerchantClassifier();
+        ReflectionTestUtils.setField(merchantClassifier, "location", "classpath:merchant-keywords.txt");
+        ReflectionTestUtils.setField(merchantClassifier, "cacheMaxSize", cacheSize);
+        merchantClassifier.load();
+        categoryClassifier = new CategoryClassifier();
+        ReflectionTestUtils.setField(categoryClassifier, "merchantClassifier", merchantClassifier);
+        categoryClassifier.load();
+
+        Random random = new Random(42);
+        merchants = new String[corpusSize];
+        transactions = new TransactionDTO[corpusSize];
+        for (int i = 0; i < corpusSize; i++) {
+            String name = NAMES.get(random.nextInt(NAMES.size()));
+            // branches of the same chain differ by a store number, as in real statements
+            if (random.nextBoolean()) name = name + " " + random.nextInt(1000);
+            merchants[i] = "%-25.25s %-13.13s BR".formatted(name, CITIES.get(random.nextInt(CITIES.size())));
+            transactions[i] = new TransactionDTO("1", BigDecimal.TEN, "5999", merchants[i]);
+        }
+    }
+
+    @Benchmark
+    public MerchantClassifier.Resolution resolve() {
+        return merchantClassifier.resolve(merchants[nextIndex()]);
+    }
+
+    @Benchmark
+    public CategoryWallet categoryForTransaction() {
+        return categoryClassifier.getCategoryForTransaction(transactions[nextIndex()], true);
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == corpusSize ? 0 : index + 1;
+        return index;
+    }
+}
@@ -0,0 +1,55 @@
+package com.caju.benchmarks;
+
+import com.caju.entities.Wallet;
+import com.caju.utils.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cents arithmetic of {@link Wallet#debit} and {@link Wallet#credit}. The balance starts high enough that a run
+ * never drives it negative; the amount is converted to cents once, as the authorization paths do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalletBenchmark {
+
+    @Param({"100", "12.34"})
+    private String amount;
+
+    private long amountInCents;
+    private Wallet wallet;
+
+    @Setup
+    public void setup() {
+        amountInCents = Money.toCents(new BigDecimal(amount));
+        wallet = Wallet.builder().balance(new BigDecimal("1000000000000.00")).version(0L).build();
+    }
+
+    @Benchmark
+    public long debit() {
+        wallet.debit(amountInCents);
+        return wallet.getBalanceInCents();
+    }
+
+    @Benchmark
+    public long credit() {
+        wallet.credit(amountInCents);
+        return wallet.getBalanceInCents();
+    }
+}
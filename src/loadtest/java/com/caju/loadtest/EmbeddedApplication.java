@@ -0,0 +1,72 @@
+package com.caju.loadtest;
+
+import com.caju.CajuTransactionApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The application started inside the load test JVM on a random port, over an in-memory H2 seeded with the
+ * accounts of the synthetic traffic. The seed runs as an extra {@code spring.sql.init} script, so it is in place
+ * before anything reads the database, the in-memory engine included.
+ */
+public final class EmbeddedApplication implements AutoCloseable {
+
+    private static final List<String> CATEGORIES = List.of("FOOD", "MEAL", "CASH");
+
+    private final ConfigurableApplicationContext context;
+
+    private EmbeddedApplication(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+
+    public static EmbeddedApplication start(LoadTestConfig config) throws IOException {
+        Path directory = Files.createTempDirectory("caju-loadtest");
+        Path seed = directory.resolve("seed.sql");
+        Files.writeString(seed, seedScript(config));
+
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.datasource.url", "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE");
+        // an in-memory url would otherwise make Hibernate recreate the seeded tables
+        properties.put("spring.jpa.hibernate.ddl-auto", "none");
+        properties.put("spring.jpa.properties.hibernate.show_sql", "false");
+        properties.put("spring.sql.init.data-locations", "classpath:data.sql," + seed.toUri());
+        properties.put("logging.level.root", "WARN");
+        properties.put("caju.write-behind.directory", directory.resolve("write-behind").toString());
+        properties.put("caju.journal.directory", directory.resolve("journal").toString());
+        // repeated arguments would be joined rather than overridden
+        properties.putAll(config.appProperties());
+        String[] args = properties.entrySet().stream().map(entry -> "--" + entry.getKey() + "=" + entry.getValue()).toArray(String[]::new);
+        return new EmbeddedApplication(new SpringApplicationBuilder(CajuTransactionApplication.class).run(args));
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+
+    private static String seedScript(LoadTestConfig config) {
+        long first = config.firstAccountId();
+        long last = first + config.accounts() - 1;
+        StringBuilder script = new StringBuilder();
+        script.append("INSERT INTO ACCOUNTS (id, name) SELECT X, 'Load test ' || X FROM SYSTEM_RANGE(%d, %d);\n".formatted(first, last));
+        for (String category : CATEGORIES) {
+            script.append("INSERT INTO WALLETS (balance, id_account, category) SELECT %d, X, '%s' FROM SYSTEM_RANGE(%d, %d);\n"
+                    .formatted(config.initialBalance(), category, first, last));
+        }
+        return script.toString();
+    }
+}
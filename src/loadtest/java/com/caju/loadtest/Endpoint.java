@@ -0,0 +1,27 @@
+package com.caju.loadtest;
+
+/**
+ * The four authorization endpoints of {@code TransactionController}, keyed in the configuration by {@link #getKey()}.
+ */
+public enum Endpoint {
+    TRANSACTION("transaction", "/transaction/"),
+    TRANSACTION_WITH_FALLBACK("transaction-with-fallback", "/transaction/with-fallback"),
+    L2_TRANSACTION("l2-transaction", "/l2/transaction/"),
+    L2_TRANSACTION_WITH_FALLBACK("l2-transaction-with-fallback", "/l2/transaction/with-fallback");
+
+    private final String key;
+    private final String path;
+
+    Endpoint(String key, String path) {
+        this.key = key;
+        this.path = path;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,116 @@
+package com.caju.loadtest;
+
+import com.caju.enums.TransactionResponseEnum;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies and result codes of a run, by endpoint. Each worker fills its own report and the reports are
+ * merged at the end, so recording never contends. Latencies are kept in microseconds.
+ */
+public final class LoadReport {
+
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Map<Endpoint, Histogram> latencies = new EnumMap<>(Endpoint.class);
+    private final Map<String, Long> codes = new TreeMap<>();
+
+    /**
+     * @param  endpoint   the endpoint called
+     * @param  code       the response code, or a description of the failure
+     * @param  nanos      the latency, from when the request was due to be sent
+     */
+    public void record(Endpoint endpoint, String code, long nanos) {
+        latencies.computeIfAbsent(endpoint, e -> newHistogram())
+                .recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_LATENCY_MICROS));
+        codes.merge(code, 1L, Long::sum);
+    }
+
+    public void add(LoadReport other) {
+        other.latencies.forEach((endpoint, histogram) -> latencies.computeIfAbsent(endpoint, e -> newHistogram()).add(histogram));
+        other.codes.forEach((code, count) -> codes.merge(code, count, Long::sum));
+    }
+
+    public long requests() {
+        return codes.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public void print(PrintStream out, double seconds) {
+        long requests = requests();
+        out.printf("Requests: %d in %.1f s, %.1f/s%n%n", requests, seconds, requests / seconds);
+        out.printf("%-32s %10s %10s %9s %9s %9s %9s %9s%n", "latency (ms)", "count", "per s", "p50", "p90", "p99", "p99.9", "max");
+        latencies.forEach((endpoint, histogram) -> printLatency(out, endpoint.getPath(), histogram, seconds));
+        printLatency(out, "all", all(), seconds);
+        out.printf("%n%-32s %10s %9s%n", "result", "count", "share");
+        codes.forEach((code, count) -> out.printf("%-32s %10d %8.2f%%%n", describe(code), count, 100.0 * count / requests));
+    }
+
+    public static void printSummaryHeader(PrintStream out) {
+        out.printf("%-16s %10s %9s %9s %9s %9s %9s%n", "run", "per s", "p50", "p99", "p99.9", "max", "approved");
+    }
+
+    /**
+     * Prints one line comparing this run with the others, latencies in milliseconds.
+     */
+    public void printSummary(PrintStream out, String run, double seconds) {
+        Histogram all = all();
+        long requests = requests();
+        out.printf("%-16s %10.1f %9.2f %9.2f %9.2f %9.2f %8.2f%%%n", run, requests / seconds,
+                all.getValueAtPercentile(50) / 1000.0, all.getValueAtPercentile(99) / 1000.0,
+                all.getValueAtPercentile(99.9) / 1000.0, all.getMaxValue() / 1000.0,
+                requests == 0 ? 0 : 100.0 * codes.getOrDefault(TransactionResponseEnum.APPROVED.getCode(), 0L) / requests);
+    }
+
+    /**
+     * Writes the percentile distribution of each endpoint and of all of them, in milliseconds, in the format
+     * the HdrHistogram plotter reads.
+     */
+    public void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (Map.Entry<Endpoint, Histogram> entry : latencies.entrySet()) {
+            write(directory.resolve(entry.getKey().getKey() + ".hgrm"), entry.getValue());
+        }
+        write(directory.resolve("all.hgrm"), all());
+    }
+
+    private Histogram all() {
+        Histogram all = newHistogram();
+        latencies.values().forEach(all::add);
+        return all;
+    }
+
+    private static void printLatency(PrintStream out, String name, Histogram histogram, double seconds) {
+        StringBuilder line = new StringBuilder("%-32s %10d %10.1f".formatted(name, histogram.getTotalCount(), histogram.getTotalCount() / seconds));
+        Arrays.stream(PERCENTILES).forEach(percentile -> line.append(" %9.2f".formatted(histogram.getValueAtPercentile(percentile) / 1000.0)));
+        line.append(" %9.2f".formatted(histogram.getMaxValue() / 1000.0));
+        out.println(line);
+    }
+
+    private static String describe(String code) {
+        return Arrays.stream(TransactionResponseEnum.values())
+                .filter(response -> response.getCode().equals(code))
+                .findFirst()
+                .map(response -> code + " " + response.name())
+                .orElse(code);
+    }
+
+    private static void write(Path file, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private static Histogram newHistogram() {
+        return new Histogram(HIGHEST_LATENCY_MICROS, 3);
+    }
+}
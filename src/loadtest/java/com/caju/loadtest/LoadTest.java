@@ -0,0 +1,162 @@
+package com.caju.loadtest;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends authorization traffic to the four transaction endpoints and reports throughput, latency percentiles
+ * and the mix of result codes.
+ *
+ * <p>Each worker keeps one request in flight. With a {@code rate}, workers send on a fixed schedule and latency
+ * is measured from when a request was due, so a stalled server shows up as latency instead of as fewer
+ * requests. Without it, workers send as soon as the previous response arrives.
+ *
+ * <p>Run with {@code mvn -Ploadtest test-compile exec:java}; the configuration is
+ * {@code src/loadtest/resources/loadtest.properties} unless {@code -Dloadtest.config} names another file.
+ */
+public final class LoadTest {
+
+    private final LoadTestConfig config;
+    private final TrafficSource traffic;
+    private final ObjectMapper objectMapper;
+    private final HttpClient client;
+    private final Map<Endpoint, URI> uris = new EnumMap<>(Endpoint.class);
+
+    LoadTest(LoadTestConfig config, TrafficSource traffic, ObjectMapper objectMapper, String baseUrl) {
+        this.config = config;
+        this.traffic = traffic;
+        this.objectMapper = objectMapper;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(config.requestTimeoutMs()))
+                .build();
+        for (Endpoint endpoint : Endpoint.values()) {
+            uris.put(endpoint, URI.create(baseUrl + endpoint.getPath()));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.load(System.getProperty("loadtest.config", args.length > 0 ? args[0] : "loadtest.properties"));
+        ObjectMapper objectMapper = new ObjectMapper();
+        TrafficSource traffic = TrafficSource.of(config, objectMapper);
+        System.out.printf("Traffic: %s%nWorkers: %d, %s, %d s warmup, %d s measured%n", traffic.describe(),
+                config.concurrency(), config.rate() > 0 ? config.rate() + " requests/s" : "closed loop",
+                config.warmupSeconds(), config.durationSeconds());
+        if (config.runs().isEmpty()) {
+            run(config, traffic, objectMapper);
+            return;
+        }
+        Map<String, LoadReport> reports = new LinkedHashMap<>();
+        for (String run : config.runs().keySet()) {
+            System.out.printf("%n== %s: %s%n", run, config.runs().get(run));
+            // every run replays the same traffic from the start
+            reports.put(run, run(config.forRun(run), TrafficSource.of(config, objectMapper), objectMapper));
+        }
+        System.out.println();
+        LoadReport.printSummaryHeader(System.out);
+        reports.forEach((run, report) -> report.printSummary(System.out, run, config.durationSeconds()));
+    }
+
+    private static LoadReport run(LoadTestConfig config, TrafficSource traffic, ObjectMapper objectMapper) throws Exception {
+        EmbeddedApplication application = config.isEmbedded() ? EmbeddedApplication.start(config) : null;
+        try {
+            String baseUrl = application != null ? application.baseUrl() : config.target().replaceAll("/+$", "");
+            System.out.printf("Target: %s%n%n", baseUrl);
+            LoadReport report = new LoadTest(config, traffic, objectMapper, baseUrl).run();
+            report.print(System.out, config.durationSeconds());
+            if (!config.reportDirectory().isEmpty()) {
+                report.write(Path.of(config.reportDirectory()));
+                System.out.printf("%nLatency distributions written to %s%n", config.reportDirectory());
+            }
+            return report;
+        } finally {
+            if (application != null) application.close();
+        }
+    }
+
+    LoadReport run() throws InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(config.warmupSeconds());
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(config.durationSeconds());
+        // virtual workers, so thousands of connections cost the generator little
+        ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            List<Future<LoadReport>> results = new ArrayList<>();
+            for (int worker = 0; worker < config.concurrency(); worker++) {
+                int id = worker;
+                results.add(workers.submit(() -> work(id, start, measureFrom, end)));
+            }
+            LoadReport report = new LoadReport();
+            for (Future<LoadReport> result : results) {
+                report.add(result.get());
+            }
+            return report;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private LoadReport work(int worker, long start, long measureFrom, long end) throws InterruptedException {
+        Random random = new Random(config.seed() + worker);
+        LoadReport report = new LoadReport();
+        long interval = config.rate() > 0 ? TimeUnit.SECONDS.toNanos(config.concurrency()) / config.rate() : 0;
+        // spread the schedules so the workers do not all send at once
+        long due = start + interval * worker / config.concurrency();
+        while (true) {
+            long now = System.nanoTime();
+            if (interval == 0) {
+                due = now;
+            } else if (due - now > 0) {
+                LockSupport.parkNanos(due - now);
+            }
+            if (due - end >= 0 || Thread.currentThread().isInterrupted()) break;
+            Endpoint endpoint = traffic.nextEndpoint(random);
+            String code = send(endpoint, traffic.nextTransaction(random));
+            if (due - measureFrom >= 0) report.record(endpoint, code, System.nanoTime() - due);
+            due += interval;
+        }
+        return report;
+    }
+
+    /**
+     * @return  the response code, or what went wrong when there is none
+     */
+    private String send(Endpoint endpoint, TransactionDTO transactionDTO) throws InterruptedException {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(uris.get(endpoint))
+                    .timeout(Duration.ofMillis(config.requestTimeoutMs()))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(transactionDTO)))
+                    .build();
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) return "HTTP " + response.statusCode();
+            return objectMapper.readValue(response.body(), ResponseDTO.class).code();
+        } catch (HttpTimeoutException e) {
+            return "timeout";
+        } catch (IOException e) {
+            return "I/O error";
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.caju.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Settings of a load test run, read from a properties file. A system property {@code loadtest.<key>} overrides
+ * the key of the same name, and keys starting with {@code app.} are passed to the embedded application.
+ *
+ * @param target            {@code embedded}, or the base url of a running instance
+ * @param durationSeconds   how long results are recorded
+ * @param warmupSeconds     how long traffic runs before results are recorded
+ * @param concurrency       number of workers, each with one request in flight
+ * @param rate              requests per second across all workers, 0 for as fast as responses come back
+ * @param requestTimeoutMs  how long a request may take before it counts as an error
+ * @param source            {@code synthetic}, or {@code replay} to send the transactions of {@code replayFile}
+ * @param replayFile        NDJSON of transactions, as sent to the endpoints or as exported by /transaction/export
+ * @param accounts          number of accounts the synthetic traffic spreads over
+ * @param firstAccountId    id of the hottest account; the others follow it
+ * @param zipfExponent      skew of the account distribution, 0 for uniform
+ * @param initialBalance    balance of each wallet seeded into the embedded application
+ * @param amountMin         smallest synthetic amount, in whole units
+ * @param amountMax         largest synthetic amount, in whole units
+ * @param mccs              MCCs of the synthetic traffic, drawn uniformly
+ * @param merchants         merchant names of the synthetic traffic, drawn uniformly
+ * @param endpointWeights   share of the traffic each endpoint gets
+ * @param seed              seed of the traffic, so runs can be repeated
+ * @param reportDirectory   where the latency distributions are written, blank for none
+ * @param appProperties     properties of the embedded application
+ * @param runs              names of the runs to compare, each against a fresh embedded application with the
+ *                          properties {@code run.<name>.<key>} added to {@code appProperties}; empty for a single run
+ */
+public record LoadTestConfig(String target, int durationSeconds, int warmupSeconds, int concurrency, int rate,
+                             int requestTimeoutMs, String source, String replayFile, int accounts, long firstAccountId,
+                             double zipfExponent, long initialBalance, int amountMin, int amountMax, List<String> mccs,
+                             List<String> merchants, Map<Endpoint, Integer> endpointWeights, long seed,
+                             String reportDirectory, Map<String, String> appProperties,
+                             Map<String, Map<String, String>> runs) {
+
+    private static final String SYSTEM_PREFIX = "loadtest.";
+    private static final String APP_PREFIX = "app.";
+    private static final String RUN_PREFIX = "run.";
+
+    /**
+     * @param  location  a file path, or a classpath resource when no such file exists
+     */
+    public static LoadTestConfig load(String location) {
+        Properties properties = new Properties();
+        Path path = Path.of(location);
+        try (InputStream input = Files.exists(path) ? Files.newInputStream(path) : LoadTestConfig.class.getResourceAsStream("/" + location)) {
+            if (input == null) throw new IllegalArgumentException("Load test configuration not found: " + location);
+            properties.load(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read load test configuration " + location, e);
+        }
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith(SYSTEM_PREFIX) && !name.equals(SYSTEM_PREFIX + "config"))
+                .forEach(name -> properties.setProperty(name.substring(SYSTEM_PREFIX.length()), System.getProperty(name)));
+        return from(properties);
+    }
+
+    static LoadTestConfig from(Properties properties) {
+        Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+        for (Endpoint endpoint : Endpoint.values()) {
+            int weight = integer(properties, "endpoint." + endpoint.getKey(), 1);
+            if (weight > 0) weights.put(endpoint, weight);
+        }
+        if (weights.isEmpty()) throw new IllegalArgumentException("Every endpoint has weight 0");
+        Map<String, String> appProperties = new LinkedHashMap<>();
+        properties.stringPropertyNames().stream().filter(name -> name.startsWith(APP_PREFIX)).sorted()
+                .forEach(name -> appProperties.put(name.substring(APP_PREFIX.length()), properties.getProperty(name)));
+        Map<String, Map<String, String>> runs = new LinkedHashMap<>();
+        if (properties.containsKey("runs")) {
+            for (String run : list(properties, "runs", "")) {
+                Map<String, String> runProperties = new LinkedHashMap<>();
+                String prefix = RUN_PREFIX + run + ".";
+                properties.stringPropertyNames().stream().filter(name -> name.startsWith(prefix)).sorted()
+                        .forEach(name -> runProperties.put(name.substring(prefix.length()), properties.getProperty(name)));
+                runs.put(run, runProperties);
+            }
+        }
+        LoadTestConfig config = new LoadTestConfig(
+                properties.getProperty("target", "embedded").strip(),
+                integer(properties, "duration-seconds", 30),
+                integer(properties, "warmup-seconds", 5),
+                integer(properties, "concurrency", 32),
+                integer(properties, "rate", 0),
+                integer(properties, "request-timeout-ms", 5000),
+                properties.getProperty("source", "synthetic").strip(),
+                properties.getProperty("replay-file", "").strip(),
+                integer(properties, "accounts", 10_000),
+                Long.parseLong(properties.getProperty("first-account-id", "1000").strip()),
+                Double.parseDouble(properties.getProperty("zipf-exponent", "1.1").strip()),
+                Long.parseLong(properties.getProperty("initial-balance", "1000000").strip()),
+                integer(properties, "amount-min", 1),
+                integer(properties, "amount-max", 200),
+                list(properties, "mccs", "5411,5412,5811,5812,5999"),
+                list(properties, "merchants", "PADARIA DO ZE               SAO PAULO BR"),
+                weights,
+                Long.parseLong(properties.getProperty("seed", "42").strip()),
+                properties.getProperty("report-directory", "").strip(),
+                appProperties,
+                runs);
+        config.validate();
+        return config;
+    }
+
+    /**
+     * @return  the configuration of one of the {@link #runs()}, reporting to a directory of its own
+     */
+    public LoadTestConfig forRun(String run) {
+        Map<String, String> merged = new LinkedHashMap<>(appProperties);
+        merged.putAll(runs.get(run));
+        return new LoadTestConfig(target, durationSeconds, warmupSeconds, concurrency, rate, requestTimeoutMs, source,
+                replayFile, accounts, firstAccountId, zipfExponent, initialBalance, amountMin, amountMax, mccs, merchants,
+                endpointWeights, seed, reportDirectory.isEmpty() ? "" : Path.of(reportDirectory, run).toString(), merged, Map.of());
+    }
+
+    public boolean isEmbedded() {
+        return "embedded".equals(target);
+    }
+
+    public boolean isReplay() {
+        return "replay".equals(source);
+    }
+
+    private void validate() {
+        if (durationSeconds <= 0) throw new IllegalArgumentException("duration-seconds must be positive");
+        if (concurrency <= 0) throw new IllegalArgumentException("concurrency must be positive");
+        if (accounts <= 0) throw new IllegalArgumentException("accounts must be positive");
+        if (amountMin <= 0 || amountMax < amountMin) throw new IllegalArgumentException("amount-min and amount-max must satisfy 0 < min <= max");
+        if (!isReplay() && !"synthetic".equals(source)) throw new IllegalArgumentException("source must be synthetic or replay: " + source);
+        if (isReplay() && replayFile.isEmpty()) throw new IllegalArgumentException("source=replay needs a replay-file");
+        if (!runs.isEmpty() && !isEmbedded()) throw new IllegalArgumentException("runs need target=embedded, each starts its own application");
+    }
+
+    private static int integer(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.strip());
+    }
+
+    private static List<String> list(Properties properties, String key, String defaultValue) {
+        List<String> values = new ArrayList<>();
+        Arrays.stream(properties.getProperty(key, defaultValue).split(","))
+                .map(String::strip)
+                .filter(value -> !value.isEmpty())
+                .forEach(values::add);
+        if (values.isEmpty()) throw new IllegalArgumentException(key + " must not be empty");
+        return List.copyOf(values);
+    }
+}
@@ -0,0 +1,101 @@
+package com.caju.loadtest;
+
+import com.caju.dto.TransactionDTO;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The requests a load test sends: each call picks an endpoint by weight and a transaction, either synthesized
+ * with a Zipf-skewed account or taken in order from a recorded stream, which is replayed from the start when
+ * it runs out. Safe to share between workers as long as each passes its own {@link Random}.
+ */
+public final class TrafficSource {
+
+    private final LoadTestConfig config;
+    private final Endpoint[] endpoints;
+    private final int[] cumulativeWeights;
+    private final ZipfSampler accounts;
+    private final List<TransactionDTO> recorded;
+    private final AtomicLong position = new AtomicLong();
+
+    private TrafficSource(LoadTestConfig config, List<TransactionDTO> recorded) {
+        this.config = config;
+        this.recorded = recorded;
+        this.accounts = recorded == null ? new ZipfSampler(config.accounts(), config.zipfExponent()) : null;
+        endpoints = config.endpointWeights().keySet().toArray(Endpoint[]::new);
+        cumulativeWeights = new int[endpoints.length];
+        int total = 0;
+        for (int i = 0; i < endpoints.length; i++) {
+            total += config.endpointWeights().get(endpoints[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    public static TrafficSource of(LoadTestConfig config, ObjectMapper objectMapper) {
+        return new TrafficSource(config, config.isReplay() ? read(Path.of(config.replayFile()), objectMapper) : null);
+    }
+
+    public Endpoint nextEndpoint(Random random) {
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= draw) i++;
+        return endpoints[i];
+    }
+
+    public TransactionDTO nextTransaction(Random random) {
+        if (recorded != null) {
+            return recorded.get((int) (position.getAndIncrement() % recorded.size()));
+        }
+        long account = config.firstAccountId() + accounts.next(random);
+        int amount = config.amountMin() + random.nextInt(config.amountMax() - config.amountMin() + 1);
+        return new TransactionDTO(Long.toString(account), BigDecimal.valueOf(amount),
+                config.mccs().get(random.nextInt(config.mccs().size())),
+                config.merchants().get(random.nextInt(config.merchants().size())));
+    }
+
+    /**
+     * Describes the traffic for the report, including how much of it the hottest accounts get.
+     */
+    public String describe() {
+        if (recorded != null) {
+            return "replay of %d transactions from %s".formatted(recorded.size(), config.replayFile());
+        }
+        return "synthetic over %d accounts, zipf exponent %.2f: hottest account %.1f%%, top 1%% of accounts %.1f%% of requests"
+                .formatted(config.accounts(), config.zipfExponent(), 100 * accounts.share(1),
+                        100 * accounts.share(Math.max(1, config.accounts() / 100)));
+    }
+
+    /**
+     * Reads one transaction per line. Lines of /transaction/export are accepted too: credits are skipped and
+     * {@code idAccount} stands for {@code account}.
+     */
+    private static List<TransactionDTO> read(Path file, ObjectMapper objectMapper) {
+        List<TransactionDTO> transactions = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                JsonNode node = objectMapper.readTree(line);
+                if ("CREDIT".equals(node.path("operation").asText())) continue;
+                JsonNode account = node.has("account") ? node.get("account") : node.get("idAccount");
+                transactions.add(new TransactionDTO(account == null ? null : account.asText(),
+                        node.path("totalAmount").decimalValue(), node.path("mcc").asText(null), node.path("merchant").asText(null)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read replay file " + file, e);
+        }
+        if (transactions.isEmpty()) throw new IllegalArgumentException("Replay file has no transactions: " + file);
+        return transactions;
+    }
+}
@@ -0,0 +1,88 @@
+package com.caju.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import java.time.Duration;
+
+/**
+ * Non-blocking authorization stack of the {@code reactive} profile: WebFlux on Netty, and R2DBC connections to
+ * {@code spring.r2dbc.url}, which must name the same database as {@code spring.datasource.url}. The driver is
+ * looked up from the URL: H2 by default, or PostgreSQL with r2dbc-postgresql on the classpath ({@code mvn -Ppostgresql}).
+ *
+ * <p>The R2DBC connection factory is deliberately not a bean. Spring Boot drops the JDBC {@code DataSource} and the
+ * JPA transaction manager as soon as one exists, and everything but the authorization routes still runs on them.
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveConfig {
+
+    @Value("${spring.r2dbc.url:}")
+    private String url;
+    @Value("${spring.r2dbc.username:${spring.datasource.username:}}")
+    private String username;
+    @Value("${spring.r2dbc.password:${spring.datasource.password:}}")
+    private String password;
+    @Value("${caju.reactive.pool.initial-size:10}")
+    private int poolInitialSize;
+    @Value("${caju.reactive.pool.max-size:10}")
+    private int poolMaxSize;
+    @Value("${caju.reactive.pool.max-acquire-time-ms:30000}")
+    private long poolMaxAcquireTimeMs;
+
+    private ConnectionPool pool;
+
+    /**
+     * Netty rather than Tomcat, which is also on the classpath and would otherwise be picked first.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Bean
+    public DatabaseClient databaseClient() {
+        return DatabaseClient.create(pool());
+    }
+
+    @Bean
+    public TransactionalOperator reactiveTransactionalOperator() {
+        return TransactionalOperator.create(new R2dbcTransactionManager(pool()));
+    }
+
+    @PreDestroy
+    public void close() {
+        if (pool != null) pool.dispose();
+    }
+
+    private synchronized ConnectionPool pool() {
+        if (pool == null) {
+            if (url.isBlank()) {
+                throw new IllegalStateException("The reactive profile needs spring.r2dbc.url, e.g. r2dbc:postgresql://localhost:5432/caju");
+            }
+            ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(url).mutate();
+            if (!username.isEmpty()) options.option(ConnectionFactoryOptions.USER, username);
+            if (!password.isEmpty()) options.option(ConnectionFactoryOptions.PASSWORD, password);
+            ConnectionFactory connectionFactory = ConnectionFactories.get(options.build());
+            pool = new ConnectionPool(ConnectionPoolConfiguration.builder(connectionFactory)
+                    .name("caju-r2dbc")
+                    .initialSize(poolInitialSize)
+                    .maxSize(poolMaxSize)
+                    .maxAcquireTime(Duration.ofMillis(poolMaxAcquireTimeMs))
+                    .build());
+        }
+        return pool;
+    }
+}
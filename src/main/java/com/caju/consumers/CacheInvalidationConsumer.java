@@ -0,0 +1,37 @@
+package com.caju.consumers;
+
+import com.caju.dto.CacheInvalidationDTO;
+import com.caju.services.AccountWalletCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies the invalidations published by the other instances. Each instance joins with a group of its own,
+ * so every instance sees every message, starting from the latest offset since its caches start empty.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "caju.cache.bus", havingValue = "kafka")
+public class CacheInvalidationConsumer {
+
+    @Autowired
+    private AccountWalletCache cache;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @KafkaListener(topics = "${caju.cache.bus.topic:cache-invalidations}",
+            groupId = "caju-cache-#{T(java.util.UUID).randomUUID().toString()}",
+            properties = "auto.offset.reset=latest")
+    public void onInvalidation(String message) {
+        try {
+            cache.onInvalidation(objectMapper.readValue(message, CacheInvalidationDTO.class));
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring malformed cache invalidation {}", message, e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.caju.consumers;
+
+import com.caju.services.TransactionBatchProcessor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Consumes authorization requests from Kafka in micro-batches. Producers must key the records by
+ * account id so every request of an account lands on the same partition and keeps its order.
+ */
+@Component
+@ConditionalOnProperty(name = "caju.kafka.enabled", havingValue = "true")
+public class TransactionRequestConsumer {
+
+    @Autowired
+    private TransactionBatchProcessor processor;
+
+    @KafkaListener(topics = "${caju.kafka.request-topic:transaction-requests}", batch = "true",
+            concurrency = "${caju.kafka.consumer-concurrency:1}")
+    public void onTransactions(List<ConsumerRecord<String, String>> records) {
+        processor.process(records);
+    }
+}
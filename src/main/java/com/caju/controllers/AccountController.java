@@ -1,23 +1,45 @@
 package com.caju.controllers;
 
-import com.caju.services.AccountService;
+import com.caju.services.AccountListingService;
 import io.swagger.v3.oas.annotations.Operation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/account")
+@Profile("!reactive")
 public class AccountController {
 
     @Autowired
-    private AccountService service;
+    private AccountListingService listingService;
 
-    @Operation(summary = "Get all accounts")
+    @Operation(summary = "Get all accounts, streamed as a JSON array; prefer the paginated listing or the export")
     @GetMapping("all")
-    public ResponseEntity getAllAccounts() {
-        return ResponseEntity.ok(service.getAllAccounts());
+    public ResponseEntity<StreamingResponseBody> getAllAccounts() {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(listingService::exportAccountsAsArray);
+    }
+
+    @Operation(summary = "Get a page of accounts, continuing from the cursor of the previous page")
+    @GetMapping("page")
+    public ResponseEntity getAccountPage(@RequestParam(required = false) String cursor,
+                                         @RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(listingService.getAccountPage(cursor, limit));
+        } catch (IllegalArgumentException illegalArgumentException) {
+            return ResponseEntity.badRequest().body(illegalArgumentException.getMessage());
+        }
+    }
+
+    @Operation(summary = "Export every account with its wallet balances as newline-delimited JSON")
+    @GetMapping("export")
+    public ResponseEntity<StreamingResponseBody> exportAccounts() {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(listingService::exportAccounts);
     }
 }
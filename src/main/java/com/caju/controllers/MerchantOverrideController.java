@@ -0,0 +1,44 @@
+package com.caju.controllers;
+
+import com.caju.dto.MerchantOverrideDTO;
+import com.caju.services.MerchantClassifier;
+import io.swagger.v3.oas.annotations.Operation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/merchant-override")
+public class MerchantOverrideController {
+
+    @Autowired
+    private MerchantClassifier service;
+
+    @Operation(summary = "Get all merchant overrides")
+    @GetMapping("all")
+    public ResponseEntity getAllOverrides() {
+        return ResponseEntity.ok(service.getOverrides());
+    }
+
+    @Operation(summary = "Map a merchant name to an MCC, taking priority over keyword matching")
+    @PutMapping
+    public ResponseEntity saveOverride(@RequestBody MerchantOverrideDTO overrideDTO) {
+        try {
+            return ResponseEntity.ok(service.saveOverride(overrideDTO));
+        } catch (IllegalArgumentException illegalArgumentException) {
+            return ResponseEntity.badRequest().body(illegalArgumentException.getMessage());
+        }
+    }
+
+    @Operation(summary = "Remove the override of a merchant name")
+    @DeleteMapping
+    public ResponseEntity deleteOverride(@RequestParam String merchant) {
+        return service.deleteOverride(merchant) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+}
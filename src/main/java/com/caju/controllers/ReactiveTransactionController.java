@@ -0,0 +1,67 @@
+package com.caju.controllers;
+
+import com.caju.dto.TransactionDTO;
+import com.caju.services.ReactiveTransactionService;
+import io.swagger.v3.oas.annotations.Operation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Authorization routes of {@link TransactionController} on WebFlux, served under the {@code reactive} profile.
+ */
+@RestController
+@RequestMapping("/")
+@Profile("reactive")
+public class ReactiveTransactionController {
+
+    @Autowired
+    private ReactiveTransactionService transactionService;
+
+    @Value("${caju.transaction.batch.max-size:1000}")
+    private int batchMaxSize;
+
+    @Operation(summary = "Authenticates a transaction with fallback")
+    @PostMapping("transaction/with-fallback")
+    public Mono<ResponseEntity> authTransactionWithFallBack(@RequestBody TransactionDTO transaction) {
+        return transactionService.authorize(transaction, true, false).map(ResponseEntity::ok);
+    }
+
+    @Operation(summary = "Authenticates a transaction")
+    @PostMapping("transaction/")
+    public Mono<ResponseEntity> authTransaction(@RequestBody TransactionDTO transaction) {
+        return transactionService.authorize(transaction, false, false).map(ResponseEntity::ok);
+    }
+
+    @Operation(summary = "Authenticates a transaction with fallback consider merchant for MCC ")
+    @PostMapping("/l2/transaction/with-fallback")
+    public Mono<ResponseEntity> authTransactionWithFallBackConsiderMerchantForMCC(@RequestBody TransactionDTO transaction) {
+        return transactionService.authorize(transaction, true, true).map(ResponseEntity::ok);
+    }
+
+    @Operation(summary = "Authenticates a transaction consider merchant for MCC")
+    @PostMapping("/l2/transaction/")
+    public Mono<ResponseEntity> authTransactionConsiderMerchantForMCC(@RequestBody TransactionDTO transaction) {
+        return transactionService.authorize(transaction, false, true).map(ResponseEntity::ok);
+    }
+
+    @Operation(summary = "Authenticates a batch of transactions, answering one response per item in order")
+    @PostMapping("transaction/batch")
+    public Mono<ResponseEntity> authTransactionBatch(@RequestBody List<TransactionDTO> transactions,
+                                                     @RequestParam(defaultValue = "false") boolean withFallback,
+                                                     @RequestParam(defaultValue = "false") boolean considerMerchantForMCC) {
+        if (transactions.size() > batchMaxSize) {
+            return Mono.just(ResponseEntity.badRequest().body("Batch size %d exceeds the limit of %d".formatted(transactions.size(), batchMaxSize)));
+        }
+        return transactionService.authorizeBatch(transactions, withFallback, considerMerchantForMCC).map(ResponseEntity::ok);
+    }
+}
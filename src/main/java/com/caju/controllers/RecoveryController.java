@@ -0,0 +1,40 @@
+package com.caju.controllers;
+
+import com.caju.services.WalletRecoveryService;
+import io.swagger.v3.oas.annotations.Operation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/recovery")
+public class RecoveryController {
+
+    @Autowired
+    private WalletRecoveryService service;
+
+    @Operation(summary = "Snapshot the wallet balances and versions, returning the last transaction id when it was taken")
+    @PostMapping("/snapshot")
+    public ResponseEntity takeSnapshot() {
+        return ResponseEntity.ok(service.takeSnapshot());
+    }
+
+    @Operation(summary = "Replay the transaction history and report wallets whose balance differs")
+    @PostMapping("/verify")
+    public ResponseEntity verify() {
+        return ResponseEntity.ok(service.verify());
+    }
+
+    @Operation(summary = "Replay the transaction history and correct wallets whose balance differs")
+    @PostMapping("/rebuild")
+    public ResponseEntity rebuild() {
+        try {
+            return ResponseEntity.ok(service.rebuild());
+        } catch (IllegalStateException illegalStateException) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(illegalStateException.getMessage());
+        }
+    }
+}
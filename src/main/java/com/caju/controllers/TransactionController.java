@@ -1,51 +1,121 @@
 package com.caju.controllers;
 
 import com.caju.dto.TransactionDTO;
-import com.caju.services.TransactionService;
+import com.caju.enums.CategoryWallet;
+import com.caju.services.TransactionAuthorizer;
+import com.caju.services.SpendingSummaryService;
+import com.caju.services.TransactionHistoryService;
 import io.swagger.v3.oas.annotations.Operation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
 
 @RestController
 @RequestMapping("/")
+@Profile("!reactive")
 public class TransactionController {
 
     @Autowired
-    private TransactionService service;
+    private TransactionAuthorizer authorizer;
+
+    @Autowired
+    private TransactionHistoryService historyService;
+
+    @Autowired
+    private SpendingSummaryService summaryService;
 
-    @Operation(summary = "Get all transactions")
+    @Value("${caju.transaction.batch.max-size:1000}")
+    private int batchMaxSize;
+
+    @Operation(summary = "Get all transactions, streamed as a JSON array; prefer the paginated history or the export")
     @GetMapping("transaction/all")
-    public ResponseEntity getAllTransactions() {
-        return ResponseEntity.ok(service.getAllTransactions());
+    public ResponseEntity<StreamingResponseBody> getAllTransactions() {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(historyService::exportAsArray);
+    }
+
+    @Operation(summary = "Get a page of an account's transactions, continuing from the cursor of the previous page")
+    @GetMapping("transaction/history")
+    public ResponseEntity getTransactionHistory(@RequestParam Long account,
+                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                @RequestParam(required = false) String cursor,
+                                                @RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(historyService.getPage(account, from, to, cursor, limit));
+        } catch (IllegalArgumentException illegalArgumentException) {
+            return ResponseEntity.badRequest().body(illegalArgumentException.getMessage());
+        }
+    }
+
+    @Operation(summary = "Export transactions as newline-delimited JSON, optionally filtered by account and time range")
+    @GetMapping("transaction/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(@RequestParam(required = false) Long account,
+                                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(output -> historyService.export(account, from, to, output));
+    }
+
+    @Operation(summary = "Get an account's daily spending per wallet category, optionally limited to a category and a range of days")
+    @GetMapping("transaction/summary")
+    public ResponseEntity getSpendingSummary(@RequestParam Long account,
+                                             @RequestParam(required = false) CategoryWallet category,
+                                             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return ResponseEntity.ok(summaryService.getSummaries(account, category, from, to));
+    }
+
+    @Operation(summary = "Recompute every spending summary from the transaction history")
+    @PostMapping("transaction/summary/backfill")
+    public ResponseEntity backfillSpendingSummaries() {
+        return ResponseEntity.ok(summaryService.backfill());
     }
 
     @Operation(summary = "Authenticates a transaction with fallback")
     @PostMapping("transaction/with-fallback")
     public ResponseEntity authTransactionWithFallBack(@RequestBody TransactionDTO transaction) {
-        return ResponseEntity.ok(service.createTransactionWithFallback(transaction, false));
+        return ResponseEntity.ok(authorizer.authorize(transaction, true, false));
     }
 
     @Operation(summary = "Authenticates a transaction")
     @PostMapping("transaction/")
     public ResponseEntity authTransaction(@RequestBody TransactionDTO transaction) {
-        return ResponseEntity.ok(service.createTransaction(transaction, false));
+        return ResponseEntity.ok(authorizer.authorize(transaction, false, false));
     }
 
     @Operation(summary = "Authenticates a transaction with fallback consider merchant for MCC ")
     @PostMapping("/l2/transaction/with-fallback")
     public ResponseEntity authTransactionWithFallBackConsiderMerchantForMCC(@RequestBody TransactionDTO transaction) {
-        return ResponseEntity.ok(service.createTransactionWithFallback(transaction, true));
+        return ResponseEntity.ok(authorizer.authorize(transaction, true, true));
     }
 
     @Operation(summary = "Authenticates a transaction consider merchant for MCC")
     @PostMapping("/l2/transaction/")
     public ResponseEntity authTransactionConsiderMerchantForMCC(@RequestBody TransactionDTO transaction) {
-        return ResponseEntity.ok(service.createTransaction(transaction, true));
+        return ResponseEntity.ok(authorizer.authorize(transaction, false, true));
     }
-}
 
+    @Operation(summary = "Authenticates a batch of transactions, answering one response per item in order")
+    @PostMapping("transaction/batch")
+    public ResponseEntity authTransactionBatch(@RequestBody List<TransactionDTO> transactions,
+                                               @RequestParam(defaultValue = "false") boolean withFallback,
+                                               @RequestParam(defaultValue = "false") boolean considerMerchantForMCC) {
+        if (transactions.size() > batchMaxSize) {
+            return ResponseEntity.badRequest().body("Batch size %d exceeds the limit of %d".formatted(transactions.size(), batchMaxSize));
+        }
+        return ResponseEntity.ok(authorizer.authorizeBatch(transactions, withFallback, considerMerchantForMCC));
+    }
+}
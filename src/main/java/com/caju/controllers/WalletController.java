@@ -1,32 +1,50 @@
 package com.caju.controllers;
 
 import com.caju.dto.WalletDTO;
-import com.caju.entities.Wallet;
 import com.caju.exceptions.AccountNotFoundException;
 import com.caju.exceptions.IncorrectUpdateWallet;
 import com.caju.exceptions.UpdateAccountException;
 import com.caju.exceptions.WalletNotFoundException;
+import com.caju.services.AccountListingService;
 import com.caju.services.WalletService;
 import io.swagger.v3.oas.annotations.Operation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/wallet")
+@Profile("!reactive")
 public class WalletController {
 
     @Autowired
     private WalletService service;
+    @Autowired
+    private AccountListingService listingService;
 
-    @Operation(summary = "Get all wallets")
+    @Operation(summary = "Get all wallets, streamed as a JSON array; prefer the paginated listing")
     @GetMapping("all")
-    public ResponseEntity getAllWallets() {
-        return ResponseEntity.ok(service.getAllWallets());
+    public ResponseEntity<StreamingResponseBody> getAllWallets() {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(listingService::exportWalletsAsArray);
+    }
+
+    @Operation(summary = "Get a page of wallets, continuing from the cursor of the previous page")
+    @GetMapping("page")
+    public ResponseEntity getWalletPage(@RequestParam(required = false) String cursor,
+                                        @RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(listingService.getWalletPage(cursor, limit));
+        } catch (IllegalArgumentException illegalArgumentException) {
+            return ResponseEntity.badRequest().body(illegalArgumentException.getMessage());
+        }
     }
 
     @Operation(summary = "Create wallets by account id")
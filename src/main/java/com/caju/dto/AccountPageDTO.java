@@ -0,0 +1,9 @@
+package com.caju.dto;
+
+import java.util.List;
+
+/**
+ * A page of accounts ordered by id. {@code nextCursor} is null on the last page.
+ */
+public record AccountPageDTO(List<AccountSummaryDTO> accounts, String nextCursor) {
+}
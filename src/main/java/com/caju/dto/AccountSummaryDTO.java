@@ -0,0 +1,4 @@
+package com.caju.dto;
+
+public record AccountSummaryDTO(Long id, String name) {
+}
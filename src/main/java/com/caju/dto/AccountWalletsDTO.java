@@ -0,0 +1,9 @@
+package com.caju.dto;
+
+import java.util.List;
+
+/**
+ * An account with the balances of its wallets, as written by the account export.
+ */
+public record AccountWalletsDTO(Long id, String name, List<WalletBalanceDTO> wallets) {
+}
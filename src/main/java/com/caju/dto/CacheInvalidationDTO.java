@@ -0,0 +1,7 @@
+package com.caju.dto;
+
+/**
+ * An entry to drop from the local caches of every instance. A null key drops the whole cache.
+ */
+public record CacheInvalidationDTO(String origin, String cache, Long key) {
+}
@@ -0,0 +1,4 @@
+package com.caju.dto;
+
+public record MerchantOverrideDTO(String merchant, String mcc) {
+}
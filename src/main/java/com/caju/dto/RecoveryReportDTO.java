@@ -0,0 +1,7 @@
+package com.caju.dto;
+
+import java.util.List;
+
+public record RecoveryReportDTO(boolean rebuilt, long snapshotLastTransactionId, long rowsReplayed, long unattributedRows,
+                                long elapsedMillis, long rowsPerSecond, int walletsChecked, List<WalletDriftDTO> mismatches) {
+}
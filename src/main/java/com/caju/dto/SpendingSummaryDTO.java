@@ -0,0 +1,10 @@
+package com.caju.dto;
+
+import com.caju.enums.CategoryWallet;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+public record SpendingSummaryDTO(Long idAccount, CategoryWallet category, LocalDate day, long transactionCount,
+                                 BigDecimal totalAmount, BigDecimal maxAmount) {
+}
@@ -0,0 +1,4 @@
+package com.caju.dto;
+
+public record SummaryBackfillDTO(int partitions, long summaries, long elapsedMillis) {
+}
@@ -1,6 +1,25 @@
 package com.caju.dto;
 
+import com.caju.utils.Money;
+
 import java.math.BigDecimal;
 
-public record TransactionDTO(String account, BigDecimal totalAmount, String mcc, String merchant) {
+/**
+ * @param idempotencyKey  optional key chosen by the acquirer; a retry with the same key on the same account is
+ *                        answered with the original response instead of being authorized again
+ */
+public record TransactionDTO(String account, BigDecimal totalAmount, String mcc, String merchant, String idempotencyKey) {
+
+    public TransactionDTO(String account, BigDecimal totalAmount, String mcc, String merchant) {
+        this(account, totalAmount, mcc, merchant, null);
+    }
+
+    /**
+     * The one conversion of the amount received in JSON; authorization paths call it once and work in cents from there.
+     *
+     * @throws ArithmeticException if the amount has a fraction of a cent
+     */
+    public long totalAmountInCents() {
+        return Money.toCents(totalAmount);
+    }
 }
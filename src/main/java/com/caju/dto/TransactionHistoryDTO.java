@@ -0,0 +1,11 @@
+package com.caju.dto;
+
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionOperation;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+public record TransactionHistoryDTO(Long id, Long idAccount, BigDecimal totalAmount, String mcc, String merchant,
+                                    CategoryWallet category, TransactionOperation operation, LocalDateTime createdAt) {
+}
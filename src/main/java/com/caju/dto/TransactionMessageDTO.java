@@ -0,0 +1,4 @@
+package com.caju.dto;
+
+public record TransactionMessageDTO(TransactionDTO transaction, boolean withFallback, boolean considerMerchantForMCC) {
+}
@@ -0,0 +1,9 @@
+package com.caju.dto;
+
+import java.util.List;
+
+/**
+ * A page of the transaction history. {@code nextCursor} is null on the last page.
+ */
+public record TransactionPageDTO(List<TransactionHistoryDTO> transactions, String nextCursor) {
+}
@@ -0,0 +1,8 @@
+package com.caju.dto;
+
+import com.caju.enums.CategoryWallet;
+
+import java.math.BigDecimal;
+
+public record WalletBalanceDTO(Long idAccount, CategoryWallet category, BigDecimal balance) {
+}
@@ -0,0 +1,10 @@
+package com.caju.dto;
+
+import com.caju.enums.CategoryWallet;
+
+/**
+ * @param category        the wallet that was charged
+ * @param walletVersion   the version the wallet got from the charge
+ */
+public record WalletChargeDTO(CategoryWallet category, long walletVersion) {
+}
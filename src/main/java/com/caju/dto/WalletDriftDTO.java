@@ -0,0 +1,8 @@
+package com.caju.dto;
+
+import com.caju.enums.CategoryWallet;
+
+import java.math.BigDecimal;
+
+public record WalletDriftDTO(Long idAccount, CategoryWallet category, BigDecimal storedBalance, BigDecimal replayedBalance) {
+}
@@ -0,0 +1,9 @@
+package com.caju.dto;
+
+import java.util.List;
+
+/**
+ * A page of wallets ordered by account and category. {@code nextCursor} is null on the last page.
+ */
+public record WalletPageDTO(List<WalletBalanceDTO> wallets, String nextCursor) {
+}
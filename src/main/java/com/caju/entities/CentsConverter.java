@@ -0,0 +1,24 @@
+package com.caju.entities;
+
+import com.caju.utils.Money;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.math.BigDecimal;
+
+/**
+ * Maps an amount kept in cents to a {@code DECIMAL(19, 2)} column. A null column reads as zero.
+ */
+@Converter
+public class CentsConverter implements AttributeConverter<Long, BigDecimal> {
+
+    @Override
+    public BigDecimal convertToDatabaseColumn(Long cents) {
+        return cents == null ? null : Money.fromCents(cents);
+    }
+
+    @Override
+    public Long convertToEntityAttribute(BigDecimal amount) {
+        return amount == null ? 0L : Money.toCents(amount);
+    }
+}
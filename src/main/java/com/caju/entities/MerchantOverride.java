@@ -0,0 +1,27 @@
+package com.caju.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity(name = "merchant_overrides")
+public class MerchantOverride {
+
+    // normalized merchant name, see KeywordAutomaton.normalize
+    @Id
+    private String merchant;
+
+    @Column(length = 4, nullable = false)
+    private String mcc;
+
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+}
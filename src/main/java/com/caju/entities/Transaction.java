@@ -1,14 +1,19 @@
 package com.caju.entities;
 
 import com.caju.entities.Account;
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionOperation;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.PrePersist;
+import jakarta.persistence.SequenceGenerator;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -26,23 +31,38 @@ import java.time.LocalDateTime;
 public class Transaction {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transactions_seq")
+    @SequenceGenerator(name = "transactions_seq", sequenceName = "transactions_seq", allocationSize = 50)
     private Long id;
     @ManyToOne(optional = false)
     @JoinColumn(name = "id_account", nullable = false)
     private Account account;
-    @Column
+    @Column(precision = 19, scale = 2)
     private BigDecimal totalAmount;
     @Column
     private String mcc;
     @Column
     private String merchant;
+    @Enumerated(EnumType.STRING)
+    @Column(length = 10)
+    private CategoryWallet category;
+    @Enumerated(EnumType.STRING)
+    @Column(length = 10, nullable = false)
+    @Builder.Default
+    private TransactionOperation operation = TransactionOperation.DEBIT;
+    /**
+     * Version the charged wallet got from this change, which orders the rows of a wallet by commit.
+     */
+    @Column
+    private Long walletVersion;
     @CreatedDate
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
     @PrePersist
     public void prePersist() {
-        createdAt = LocalDateTime.now();
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
     }
 }
@@ -1,10 +1,14 @@
 package com.caju.entities;
 
+import com.caju.utils.Money;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.EmbeddedId;
 import jakarta.persistence.Entity;
 import jakarta.persistence.NamedQueries;
 import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Version;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -30,15 +34,46 @@ public class Wallet implements Serializable {
     @EmbeddedId
     private WalletKey id;
 
-    @Column
-    private BigDecimal balance;
+    /**
+     * The balance in cents; {@link #getBalance()} is the same balance as an amount.
+     */
+    @JsonIgnore
+    @Convert(converter = CentsConverter.class)
+    @Column(name = "balance", precision = 19, scale = 2)
+    private long balanceInCents;
 
-    public void credit(BigDecimal amount) {
-        this.balance = this.balance.add(amount);
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
+    public BigDecimal getBalance() {
+        return Money.fromCents(balanceInCents);
+    }
+
+    /**
+     * @throws ArithmeticException if the balance has a fraction of a cent
+     */
+    public void setBalance(BigDecimal balance) {
+        this.balanceInCents = balance == null ? 0 : Money.toCents(balance);
+    }
+
+    public boolean covers(long amountInCents) {
+        return balanceInCents >= amountInCents;
     }
 
-    public void debit(BigDecimal amount) {
-        this.balance = this.balance.subtract(amount).setScale(2, BigDecimal.ROUND_HALF_UP);
+    public void credit(long amountInCents) {
+        this.balanceInCents += amountInCents;
+    }
+
+    public void debit(long amountInCents) {
+        this.balanceInCents -= amountInCents;
+    }
+
+    public static class WalletBuilder {
+
+        public WalletBuilder balance(BigDecimal balance) {
+            return balanceInCents(balance == null ? 0 : Money.toCents(balance));
+        }
     }
 }
 
@@ -0,0 +1,6 @@
+package com.caju.enums;
+
+public enum TransactionOperation {
+    DEBIT,
+    CREDIT
+}
@@ -8,7 +8,8 @@ import lombok.Getter;
 public enum TransactionResponseEnum {
     APPROVED("00"),
     ERROR("07"),
-    INSUFFICIENT_FUNDS("51");
+    INSUFFICIENT_FUNDS("51"),
+    DEADLINE_EXCEEDED("91");
 
     String code;
 }
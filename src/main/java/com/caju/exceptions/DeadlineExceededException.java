@@ -0,0 +1,7 @@
+package com.caju.exceptions;
+
+public class DeadlineExceededException extends Exception {
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
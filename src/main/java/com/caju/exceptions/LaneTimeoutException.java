@@ -0,0 +1,21 @@
+package com.caju.exceptions;
+
+/**
+ * The result of an account lane task was not ready in time.
+ */
+public class LaneTimeoutException extends Exception {
+
+    private final boolean neverStarted;
+
+    public LaneTimeoutException(boolean neverStarted) {
+        super("Account lane did not answer in time");
+        this.neverStarted = neverStarted;
+    }
+
+    /**
+     * @return  true if the task was cancelled before it started, so it will not run at all
+     */
+    public boolean neverStarted() {
+        return neverStarted;
+    }
+}
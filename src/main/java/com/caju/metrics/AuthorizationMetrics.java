@@ -0,0 +1,143 @@
+package com.caju.metrics;
+
+import com.caju.enums.TransactionResponseEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of authorizations end to end ({@code caju.authorization}) and per stage
+ * ({@code caju.authorization.stage}), tagged by endpoint variant and result code, plus how often the
+ * category came from the MCC, a merchant keyword or a merchant override. Every meter is registered up
+ * front so recording is an array lookup; histogram buckets are set with the
+ * {@code management.metrics.distribution.*} properties.
+ */
+@Component
+public class AuthorizationMetrics {
+
+    public enum Variant {
+        PLAIN("plain"), FALLBACK("fallback"), L2("l2"), L2_FALLBACK("l2_fallback");
+
+        private final String tag;
+
+        Variant(String tag) {
+            this.tag = tag;
+        }
+
+        public static Variant of(boolean withFallback, boolean isConsiderMerchantForMCC) {
+            if (isConsiderMerchantForMCC) return withFallback ? L2_FALLBACK : L2;
+            return withFallback ? FALLBACK : PLAIN;
+        }
+    }
+
+    /**
+     * Deadline tag of requests that ran out of time while queued for their lane.
+     */
+    public static final String LANE_WAIT = "lane_wait";
+    /**
+     * Deadline tag of requests that ran out of time after their last stage check, e.g. during the commit.
+     */
+    public static final String AFTER_LAST_CHECK = "completion";
+
+    private static final TransactionResponseEnum[] RESULTS = TransactionResponseEnum.values();
+    private static final AuthorizationTrace.Stage[] STAGES = AuthorizationTrace.Stage.values();
+    private static final AuthorizationTrace.CategorySource[] SOURCES = AuthorizationTrace.CategorySource.values();
+
+    private final Timer[][] totals = new Timer[Variant.values().length][RESULTS.length];
+    private final Timer[][][] stages = new Timer[STAGES.length][Variant.values().length][RESULTS.length];
+    private final Counter[][] categorySources = new Counter[SOURCES.length][Variant.values().length];
+    private final Counter[] compensations = new Counter[Variant.values().length];
+    private final MeterRegistry registry;
+
+    public AuthorizationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Variant variant : Variant.values()) {
+            compensations[variant.ordinal()] = Counter.builder("caju.authorization.compensations")
+                    .description("Approvals reversed because they committed after the caller had answered 91")
+                    .tag("variant", variant.tag)
+                    .register(registry);
+            for (TransactionResponseEnum result : RESULTS) {
+                totals[variant.ordinal()][result.ordinal()] = Timer.builder("caju.authorization")
+                        .description("Authorization latency, including the wait on the account lane")
+                        .tag("variant", variant.tag)
+                        .tag("result", result.getCode())
+                        .register(registry);
+                for (AuthorizationTrace.Stage stage : STAGES) {
+                    stages[stage.ordinal()][variant.ordinal()][result.ordinal()] = Timer.builder("caju.authorization.stage")
+                            .description("Time spent in one stage of an authorization")
+                            .tag("stage", stage.getTag())
+                            .tag("variant", variant.tag)
+                            .tag("result", result.getCode())
+                            .register(registry);
+                }
+            }
+            for (AuthorizationTrace.CategorySource source : SOURCES) {
+                categorySources[source.ordinal()][variant.ordinal()] = Counter.builder("caju.authorization.category.source")
+                        .description("Authorizations whose wallet category came from the MCC, a merchant keyword or a merchant override")
+                        .tag("source", source.name().toLowerCase())
+                        .tag("variant", variant.tag)
+                        .register(registry);
+            }
+        }
+    }
+
+    /**
+     * Records the end-to-end latency of an authorization.
+     *
+     * @param  variant      the endpoint variant
+     * @param  resultCode   the response code sent back
+     * @param  totalNanos   the latency as seen by the caller
+     */
+    public void recordTotal(Variant variant, String resultCode, long totalNanos) {
+        totals[variant.ordinal()][resultIndex(resultCode)].record(totalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the stages a trace reached and where its category came from.
+     *
+     * @param  variant      the endpoint variant
+     * @param  resultCode   the response code sent back
+     * @param  trace        the stage timings, or null if none were taken
+     */
+    public void recordStages(Variant variant, String resultCode, AuthorizationTrace trace) {
+        if (trace == null) return;
+        int result = resultIndex(resultCode);
+        for (AuthorizationTrace.Stage stage : STAGES) {
+            if (trace.reached(stage)) {
+                stages[stage.ordinal()][variant.ordinal()][result].record(trace.nanos(stage), TimeUnit.NANOSECONDS);
+            }
+        }
+        if (trace.categorySource() != null) {
+            categorySources[trace.categorySource().ordinal()][variant.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Counts an authorization that ran out of time. Registered on first use, since timeouts are rare.
+     *
+     * @param  variant   the endpoint variant
+     * @param  stage     the stage whose check found the budget spent, {@link #LANE_WAIT} or {@link #AFTER_LAST_CHECK}
+     */
+    public void deadlineExceeded(Variant variant, String stage) {
+        Counter.builder("caju.authorization.deadline.exceeded")
+                .description("Authorizations that ran out of their latency budget, by the stage where it ran out")
+                .tag("stage", stage)
+                .tag("variant", variant.tag)
+                .register(registry)
+                .increment();
+    }
+
+    public void compensated(Variant variant) {
+        compensations[variant.ordinal()].increment();
+    }
+
+    private static int resultIndex(String resultCode) {
+        for (TransactionResponseEnum result : RESULTS) {
+            if (result.getCode().equals(resultCode)) return result.ordinal();
+        }
+        return TransactionResponseEnum.ERROR.ordinal();
+    }
+}
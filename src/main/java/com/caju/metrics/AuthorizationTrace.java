@@ -0,0 +1,94 @@
+package com.caju.metrics;
+
+/**
+ * Stage timings of the authorization running on the current thread. The authorizer opens a trace before
+ * routing a request and hands it to {@link AuthorizationMetrics} once the result code is known, so every
+ * stage is tagged with the outcome of the whole request. Without an open trace, as on the batch path,
+ * the static hooks do nothing and do not read the clock.
+ */
+public final class AuthorizationTrace {
+
+    public enum Stage {
+        ACCOUNT_LOOKUP("account_lookup"),
+        CATEGORY_RESOLUTION("category_resolution"),
+        WALLET_READ("wallet_read"),
+        FUNDS_CHECK("funds_check"),
+        DEBIT_WRITE("debit_write"),
+        TRANSACTION_INSERT("transaction_insert");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    public enum CategorySource {
+        MCC, MERCHANT, OVERRIDE
+    }
+
+    private static final ThreadLocal<AuthorizationTrace> CURRENT = new ThreadLocal<>();
+
+    private final long[] stageNanos = new long[Stage.values().length];
+    private final boolean[] reached = new boolean[Stage.values().length];
+    private CategorySource categorySource;
+
+    private AuthorizationTrace() {
+    }
+
+    /**
+     * Opens a trace on the current thread, replacing any trace left open.
+     */
+    public static void begin() {
+        CURRENT.set(new AuthorizationTrace());
+    }
+
+    /**
+     * Closes the trace of the current thread.
+     *
+     * @return  the trace, or null if none was open
+     */
+    public static AuthorizationTrace end() {
+        AuthorizationTrace trace = CURRENT.get();
+        CURRENT.remove();
+        return trace;
+    }
+
+    /**
+     * @return  the start of a stage, to pass to {@link #stop}
+     */
+    public static long start() {
+        return CURRENT.get() == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Adds the time elapsed since {@code start} to a stage. A stage run more than once is summed.
+     */
+    public static void stop(Stage stage, long start) {
+        AuthorizationTrace trace = CURRENT.get();
+        if (trace == null) return;
+        trace.stageNanos[stage.ordinal()] += System.nanoTime() - start;
+        trace.reached[stage.ordinal()] = true;
+    }
+
+    public static void categoryResolvedBy(CategorySource source) {
+        AuthorizationTrace trace = CURRENT.get();
+        if (trace != null) trace.categorySource = source;
+    }
+
+    boolean reached(Stage stage) {
+        return reached[stage.ordinal()];
+    }
+
+    long nanos(Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    CategorySource categorySource() {
+        return categorySource;
+    }
+}
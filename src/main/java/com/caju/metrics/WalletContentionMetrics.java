@@ -0,0 +1,50 @@
+package com.caju.metrics;
+
+import com.caju.enums.CategoryWallet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Counters describing how often optimistic wallet updates collide, tagged by wallet category.
+ * {@code conflicts / attempts} is the share of debit round trips lost to contention.
+ */
+@Component
+public class WalletContentionMetrics {
+
+    private final Map<CategoryWallet, Counter> attempts = new EnumMap<>(CategoryWallet.class);
+    private final Map<CategoryWallet, Counter> conflicts = new EnumMap<>(CategoryWallet.class);
+    private final Map<CategoryWallet, Counter> exhausted = new EnumMap<>(CategoryWallet.class);
+
+    public WalletContentionMetrics(MeterRegistry registry) {
+        for (CategoryWallet category : CategoryWallet.values()) {
+            attempts.put(category, Counter.builder("caju.wallet.update.attempts")
+                    .description("Conditional wallet updates sent to the database")
+                    .tag("category", category.name())
+                    .register(registry));
+            conflicts.put(category, Counter.builder("caju.wallet.update.conflicts")
+                    .description("Conditional wallet updates that lost a race with a concurrent update")
+                    .tag("category", category.name())
+                    .register(registry));
+            exhausted.put(category, Counter.builder("caju.wallet.update.retries.exhausted")
+                    .description("Wallet updates abandoned after the maximum number of attempts")
+                    .tag("category", category.name())
+                    .register(registry));
+        }
+    }
+
+    public void attempt(CategoryWallet category) {
+        attempts.get(category).increment();
+    }
+
+    public void conflict(CategoryWallet category) {
+        conflicts.get(category).increment();
+    }
+
+    public void exhausted(CategoryWallet category) {
+        exhausted.get(category).increment();
+    }
+}
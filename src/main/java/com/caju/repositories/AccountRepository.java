@@ -3,8 +3,11 @@ package com.caju.repositories;
 import com.caju.entities.Account;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface AccountRepository extends JpaRepository<Account, String> {
     Optional<Account> findById(Long id);
+    List<Account> findByIdIn(Collection<Long> ids);
 }
@@ -0,0 +1,7 @@
+package com.caju.repositories;
+
+import com.caju.entities.MerchantOverride;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface MerchantOverrideRepository extends JpaRepository<MerchantOverride, String> {
+}
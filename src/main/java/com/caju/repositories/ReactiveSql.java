@@ -0,0 +1,29 @@
+package com.caju.repositories;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+
+/**
+ * SQL of the reactive repositories that differs between the databases they run on.
+ */
+final class ReactiveSql {
+
+    private ReactiveSql() {
+    }
+
+    /**
+     * @return whether the client is connected to PostgreSQL rather than H2
+     */
+    static boolean isPostgreSql(DatabaseClient databaseClient) {
+        return databaseClient.getConnectionFactory().getMetadata().getName().contains("PostgreSQL");
+    }
+
+    /**
+     * Runs an UPDATE and returns columns of the rows it changed: {@code UPDATE ... RETURNING} on PostgreSQL, and a
+     * {@code FINAL TABLE} query on H2, which has no RETURNING.
+     */
+    static String updateReturning(DatabaseClient databaseClient, String update, String columns) {
+        return isPostgreSql(databaseClient)
+                ? update + " RETURNING " + columns
+                : "SELECT " + columns + " FROM FINAL TABLE (" + update + ")";
+    }
+}
@@ -0,0 +1,145 @@
+package com.caju.repositories;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.entities.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * R2DBC counterpart of the writes made for an approved transaction: the history row, its daily spending summary
+ * and the answer stored under its idempotency key.
+ */
+@Repository
+@Profile("reactive")
+public class ReactiveTransactionRepository {
+
+    private static final String INSERT = "INSERT INTO transactions (id, id_account, total_amount, mcc, merchant, category, operation, wallet_version, created_at) " +
+            "VALUES (:id, :idAccount, :totalAmount, :mcc, :merchant, :category, :operation, :walletVersion, :createdAt)";
+
+    /**
+     * The {@code allocationSize} of {@code transactions_seq} on {@link Transaction}: every value taken reserves it
+     * and the next 49 ids, which is how Hibernate's pooled-lo optimizer reads the sequence too.
+     */
+    private static final int ALLOCATION_SIZE = 50;
+
+    /**
+     * Same upsert as {@code SpendingSummaryService}, for a single debit.
+     */
+    private static final String UPSERT_SUMMARY = "MERGE INTO spending_summaries s USING (VALUES (CAST(:idAccount AS BIGINT), CAST(:category AS VARCHAR(10)), " +
+            "CAST(:spentOn AS DATE), CAST(1 AS BIGINT), CAST(:amount AS DECIMAL(19, 2)), CAST(:amount AS DECIMAL(19, 2)))) " +
+            "v(id_account, category, spent_on, transaction_count, total_amount, max_amount) " +
+            "ON s.id_account = v.id_account AND s.category = v.category AND s.spent_on = v.spent_on " +
+            "WHEN MATCHED THEN UPDATE SET transaction_count = s.transaction_count + v.transaction_count, " +
+            "total_amount = s.total_amount + v.total_amount, max_amount = GREATEST(s.max_amount, v.max_amount) " +
+            "WHEN NOT MATCHED THEN INSERT (id_account, category, spent_on, transaction_count, total_amount, max_amount) " +
+            "VALUES (v.id_account, v.category, v.spent_on, v.transaction_count, v.total_amount, v.max_amount)";
+
+    private static final String INSERT_IDEMPOTENCY_KEY = "INSERT INTO idempotency_keys (id_account, idempotency_key, code, message, created_at) " +
+            "VALUES (:idAccount, :idempotencyKey, :code, :message, :createdAt)";
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    private final AtomicReference<IdBlock> ids = new AtomicReference<>(new IdBlock(1, 0));
+
+    /**
+     * Inserts a transaction, stamping it with the current time when it has none.
+     *
+     * @param  transaction   the transaction to insert; its id is ignored
+     */
+    public Mono<Void> save(Transaction transaction) {
+        if (transaction.getCreatedAt() == null) transaction.setCreatedAt(LocalDateTime.now());
+        return nextId().flatMap(id -> insert(id, transaction));
+    }
+
+    private Mono<Void> insert(long id, Transaction transaction) {
+        DatabaseClient.GenericExecuteSpec insert = databaseClient.sql(INSERT)
+                .bind("id", id)
+                .bind("idAccount", transaction.getAccount().getId())
+                .bind("operation", transaction.getOperation().name())
+                .bind("createdAt", transaction.getCreatedAt());
+        insert = bindNullable(insert, "totalAmount", transaction.getTotalAmount(), BigDecimal.class);
+        insert = bindNullable(insert, "mcc", transaction.getMcc(), String.class);
+        insert = bindNullable(insert, "merchant", transaction.getMerchant(), String.class);
+        insert = bindNullable(insert, "category", transaction.getCategory() == null ? null : transaction.getCategory().name(), String.class);
+        insert = bindNullable(insert, "walletVersion", transaction.getWalletVersion(), Long.class);
+        return insert.then();
+    }
+
+    /**
+     * Adds an approved debit to the summary of its account, category and day.
+     *
+     * @param  transaction   the debit just inserted, inside the transaction that inserted it
+     */
+    public Mono<Void> addToSpendingSummary(Transaction transaction) {
+        return databaseClient.sql(UPSERT_SUMMARY)
+                .bind("idAccount", transaction.getAccount().getId())
+                .bind("category", transaction.getCategory().name())
+                .bind("spentOn", transaction.getCreatedAt().toLocalDate())
+                .bind("amount", transaction.getTotalAmount())
+                .then();
+    }
+
+    /**
+     * Stores the answer given to a request under its idempotency key, failing with a
+     * {@link org.springframework.dao.DuplicateKeyException} if the account already used the key.
+     */
+    public Mono<Void> saveIdempotencyKey(Long accountId, String idempotencyKey, ResponseDTO response, Instant createdAt) {
+        return databaseClient.sql(INSERT_IDEMPOTENCY_KEY)
+                .bind("idAccount", accountId)
+                .bind("idempotencyKey", idempotencyKey)
+                .bind("code", response.code())
+                .bind("message", response.message())
+                .bind("createdAt", LocalDateTime.ofInstant(createdAt, ZoneId.systemDefault()))
+                .then();
+    }
+
+    /**
+     * Reads the answer stored under an idempotency key.
+     */
+    public Mono<ResponseDTO> findIdempotencyKey(Long accountId, String idempotencyKey) {
+        return databaseClient.sql("SELECT code, message FROM idempotency_keys WHERE id_account = :idAccount AND idempotency_key = :idempotencyKey")
+                .bind("idAccount", accountId)
+                .bind("idempotencyKey", idempotencyKey)
+                .map((row, metadata) -> new ResponseDTO(row.get("code", String.class), row.get("message", String.class)))
+                .one();
+    }
+
+    /**
+     * Hands out the ids of the block last taken from {@code transactions_seq}, taking the next block once it is
+     * used up. Blocks taken concurrently only leave ids unused: an id is never handed out twice.
+     */
+    private Mono<Long> nextId() {
+        return Mono.defer(() -> {
+            for (IdBlock block = ids.get(); block.next() <= block.last(); block = ids.get()) {
+                if (ids.compareAndSet(block, new IdBlock(block.next() + 1, block.last()))) return Mono.just(block.next());
+            }
+            return databaseClient.sql(nextSequenceValue())
+                    .map((row, metadata) -> row.get(0, Long.class))
+                    .one()
+                    .doOnNext(first -> ids.set(new IdBlock(first + 1, first + ALLOCATION_SIZE - 1)));
+        });
+    }
+
+    private String nextSequenceValue() {
+        return ReactiveSql.isPostgreSql(databaseClient)
+                ? "SELECT nextval('transactions_seq')"
+                : "VALUES NEXT VALUE FOR transactions_seq";
+    }
+
+    private record IdBlock(long next, long last) {
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindNullable(DatabaseClient.GenericExecuteSpec spec, String name, Object value, Class<?> type) {
+        return value == null ? spec.bindNull(name, type) : spec.bind(name, value);
+    }
+}
@@ -0,0 +1,71 @@
+package com.caju.repositories;
+
+import com.caju.dto.WalletChargeDTO;
+import com.caju.enums.CategoryWallet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+
+/**
+ * R2DBC counterpart of the debits in {@link WalletRepository}, with the same single-statement SQL on H2 and
+ * {@code UPDATE ... RETURNING} on PostgreSQL.
+ */
+@Repository
+@Profile("reactive")
+public class ReactiveWalletRepository {
+
+    private static final String DEBIT_IF_SUFFICIENT_FUNDS = "UPDATE wallets SET balance = balance - :amount, version = version + 1 " +
+            "WHERE id_account = :idAccount AND category = :category AND balance >= :amount";
+
+    private static final String DEBIT_WITH_FALLBACK = "UPDATE wallets SET balance = balance - :amount, version = version + 1 " +
+            "WHERE id_account = :idAccount AND balance >= :amount AND category = (" +
+            "SELECT CASE WHEN w.balance >= :amount THEN w.category ELSE 'CASH' END FROM wallets w " +
+            "WHERE w.id_account = :idAccount AND w.category = :category)";
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    /**
+     * Debits the wallet only if its balance covers the amount, in one statement.
+     *
+     * @return the new version of the wallet, empty when the wallet does not exist or the balance is insufficient
+     */
+    public Mono<Long> debitIfSufficientFunds(Long idAccount, CategoryWallet category, BigDecimal amount) {
+        return databaseClient.sql(ReactiveSql.updateReturning(databaseClient, DEBIT_IF_SUFFICIENT_FUNDS, "version"))
+                .bind("idAccount", idAccount)
+                .bind("category", category.name())
+                .bind("amount", amount)
+                .map(row -> row.get("version", Long.class))
+                .one();
+    }
+
+    /**
+     * Debits the category wallet if it covers the amount, otherwise the CASH wallet if that one does, in one statement.
+     * Nothing is debited when the category wallet does not exist.
+     *
+     * @return the wallet that was charged and its new version, empty when neither wallet could cover the amount
+     */
+    public Mono<WalletChargeDTO> debitWithFallback(Long idAccount, CategoryWallet category, BigDecimal amount) {
+        return databaseClient.sql(ReactiveSql.updateReturning(databaseClient, DEBIT_WITH_FALLBACK, "category, version"))
+                .bind("idAccount", idAccount)
+                .bind("category", category.name())
+                .bind("amount", amount)
+                .map(row -> new WalletChargeDTO(CategoryWallet.valueOf(row.get("category", String.class)), row.get("version", Long.class)))
+                .one();
+    }
+
+    /**
+     * @return the balance of the wallet, empty when the wallet does not exist
+     */
+    public Mono<BigDecimal> findBalance(Long idAccount, CategoryWallet category) {
+        return databaseClient.sql("SELECT balance FROM wallets WHERE id_account = :idAccount AND category = :category")
+                .bind("idAccount", idAccount)
+                .bind("category", category.name())
+                .map(row -> row.get("balance", BigDecimal.class))
+                .one();
+    }
+}
@@ -2,12 +2,74 @@ package com.caju.repositories;
 
 import com.caju.entities.Wallet;
 import com.caju.entities.WalletKey;
+import com.caju.enums.CategoryWallet;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface WalletRepository extends JpaRepository<Wallet, Long> {
     Optional<Wallet> findById(WalletKey walletKey);
     Optional<List<Wallet>> findByAccountId(Long idAccount);
+
+    /**
+     * Loads and locks every wallet of the given accounts in one query, for batch authorization.
+     * Rows are locked in key order so concurrent batches cannot deadlock each other.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select w from wallets w where w.id.account.id in :idAccounts order by w.id.account.id, w.id.category")
+    List<Wallet> findForUpdateByAccountIdIn(@Param("idAccounts") Collection<Long> idAccounts);
+
+    /**
+     * Debits the wallet unconditionally.
+     *
+     * @return the new version of the wallet, empty when the wallet does not exist
+     */
+    @Transactional
+    @Query(value = "SELECT version FROM FINAL TABLE (UPDATE wallets SET balance = balance - :amount, version = version + 1 WHERE id_account = :idAccount AND category = :#{#category.name()})", nativeQuery = true)
+    Optional<Long> subtractFromBalance(@Param("idAccount") Long idAccount, @Param("category") CategoryWallet category, @Param("amount") BigDecimal amount);
+
+    /**
+     * Credits the wallet.
+     *
+     * @return the new version of the wallet, empty when the wallet does not exist
+     */
+    @Transactional
+    @Query(value = "SELECT version FROM FINAL TABLE (UPDATE wallets SET balance = balance + :amount, version = version + 1 WHERE id_account = :idAccount AND category = :#{#category.name()})", nativeQuery = true)
+    Optional<Long> addToBalance(@Param("idAccount") Long idAccount, @Param("category") CategoryWallet category, @Param("amount") BigDecimal amount);
+
+    /**
+     * Debits the wallet only if its balance covers the amount, in one statement.
+     *
+     * @return the new version of the wallet, empty when the wallet does not exist or the balance is insufficient
+     */
+    @Transactional
+    @Query(value = "SELECT version FROM FINAL TABLE (UPDATE wallets SET balance = balance - :amount, version = version + 1 WHERE id_account = :idAccount AND category = :#{#category.name()} AND balance >= :amount)", nativeQuery = true)
+    Optional<Long> debitIfSufficientFunds(@Param("idAccount") Long idAccount, @Param("category") CategoryWallet category, @Param("amount") BigDecimal amount);
+
+    /**
+     * Debits the category wallet if it covers the amount, otherwise the CASH wallet if that one does, in one statement.
+     * Nothing is debited when the category wallet does not exist.
+     *
+     * @return the wallet that was charged and its new version, empty when neither wallet could cover the amount
+     */
+    @Transactional
+    @Query(value = "SELECT category, version FROM FINAL TABLE (" +
+            "UPDATE wallets SET balance = balance - :amount, version = version + 1 " +
+            "WHERE id_account = :idAccount AND balance >= :amount AND category = (" +
+            "SELECT CASE WHEN w.balance >= :amount THEN w.category ELSE 'CASH' END FROM wallets w " +
+            "WHERE w.id_account = :idAccount AND w.category = :#{#category.name()}))", nativeQuery = true)
+    Optional<ChargedWallet> debitWithFallback(@Param("idAccount") Long idAccount, @Param("category") CategoryWallet category, @Param("amount") BigDecimal amount);
+
+    interface ChargedWallet {
+        String getCategory();
+        Long getVersion();
+    }
 }
@@ -0,0 +1,7 @@
+package com.caju.repositories;
+
+import com.caju.entities.WriteBehindCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface WriteBehindCheckpointRepository extends JpaRepository<WriteBehindCheckpoint, String> {
+}
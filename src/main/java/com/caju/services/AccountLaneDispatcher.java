@@ -0,0 +1,148 @@
+package com.caju.services;
+
+import com.caju.exceptions.LaneTimeoutException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs authorizations on a fixed set of single-threaded lanes chosen by hashing the account id.
+ * Every request for an account goes through the same lane, so its read-check-debit sequence never
+ * interleaves with another one for the same wallets, while different accounts run in parallel.
+ * Lanes are opt-in with {@code caju.authorization.lanes.enabled}; without them the task runs on the calling
+ * thread. With {@code spring.threads.virtual.enabled} the lanes run on virtual threads.
+ */
+@Component
+public class AccountLaneDispatcher {
+
+    @Value("${caju.authorization.lanes.enabled:false}")
+    private boolean enabled;
+    @Value("${caju.authorization.lanes.count:16}")
+    private int laneCount;
+    @Value("${caju.authorization.lanes.queue-capacity:10000}")
+    private int queueCapacity;
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ExecutorService[] lanes;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String name = "account-lane-" + i;
+            // a virtual lane gives its carrier back while the authorization waits on JDBC
+            ThreadFactory threadFactory = virtualThreads ? Thread.ofVirtual().name(name).factory() : runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            };
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (lanes == null) return;
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            lane.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Runs the task on the lane owning the account and waits for its result.
+     * When lanes are disabled the task runs on the calling thread.
+     *
+     * @param  account  the account id as received in the transaction
+     * @param  task     the work to run
+     * @return          the task result
+     * @throws java.util.concurrent.RejectedExecutionException if the lane queue is full
+     */
+    public <T> T dispatch(String account, Callable<T> task) {
+        try {
+            if (lanes == null) return task.call();
+            Future<T> future = lanes[laneOf(account)].submit(task);
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for account lane", e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        } catch (Exception e) {
+            throw propagate(e);
+        }
+    }
+
+    /**
+     * Runs the task on the lane owning the account and waits for its result at most until the timeout.
+     * On timeout the task is cancelled if it has not started yet; a task already running is left to finish,
+     * so it must watch the same deadline. When lanes are disabled the task runs on the calling thread.
+     *
+     * @param  account        the account id as received in the transaction
+     * @param  task           the work to run
+     * @param  timeoutNanos   how long to wait for the result
+     * @return                the task result
+     * @throws LaneTimeoutException if the result is not ready in time
+     * @throws java.util.concurrent.RejectedExecutionException if the lane queue is full
+     */
+    public <T> T dispatch(String account, Callable<T> task, long timeoutNanos) throws LaneTimeoutException {
+        Future<T> future = null;
+        // whoever flips it first decides: the lane runs the task, or the caller withdraws it unstarted
+        AtomicBoolean claimed = new AtomicBoolean();
+        try {
+            if (lanes == null) return task.call();
+            future = lanes[laneOf(account)].submit(() -> {
+                if (!claimed.compareAndSet(false, true)) throw new CancellationException("Withdrawn by the caller");
+                return task.call();
+            });
+            return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            boolean neverStarted = claimed.compareAndSet(false, true);
+            future.cancel(false);
+            throw new LaneTimeoutException(neverStarted);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for account lane", e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        } catch (Exception e) {
+            throw propagate(e);
+        }
+    }
+
+    /**
+     * Maps an account to its lane. Numeric ids are hashed by value so "1" and "01" share a lane.
+     */
+    int laneOf(String account) {
+        int hash;
+        try {
+            hash = Long.hashCode(Long.parseLong(account));
+        } catch (NumberFormatException e) {
+            hash = account == null ? 0 : account.hashCode();
+        }
+        return Math.floorMod(hash, laneCount);
+    }
+
+    private static RuntimeException propagate(Throwable throwable) {
+        if (throwable instanceof RuntimeException runtimeException) return runtimeException;
+        if (throwable instanceof Error error) throw error;
+        return new IllegalStateException(throwable);
+    }
+}
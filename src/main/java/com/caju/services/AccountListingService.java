@@ -0,0 +1,170 @@
+package com.caju.services;
+
+import com.caju.dto.AccountPageDTO;
+import com.caju.dto.AccountSummaryDTO;
+import com.caju.dto.AccountWalletsDTO;
+import com.caju.dto.WalletBalanceDTO;
+import com.caju.dto.WalletPageDTO;
+import com.caju.enums.CategoryWallet;
+import com.caju.utils.JsonRowWriter;
+import com.caju.utils.PageCursor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Back-office listings of accounts and wallets. Rows are read as DTO projections with plain SQL, never as
+ * entities, so listing does not fill the persistence context or touch the lazy {@code Account.wallets}.
+ * Pages continue from a keyset cursor and exports stream from a JDBC cursor of
+ * {@code caju.listing.fetch-size} rows, so neither grows with the number of accounts.
+ */
+@Service
+public class AccountListingService {
+
+    private static final String ACCOUNT_COLUMNS = "SELECT id, name FROM accounts";
+    private static final String WALLET_COLUMNS = "SELECT id_account, category, balance FROM wallets";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${caju.listing.max-page-size:1000}")
+    private int maxPageSize = 1000;
+    @Value("${caju.listing.fetch-size:1000}")
+    private int fetchSize = 1000;
+
+    /**
+     * Reads one page of accounts in id order.
+     *
+     * @param  cursor   the {@code nextCursor} of the previous page, or null for the first page
+     * @param  limit    the page size, capped at {@code caju.listing.max-page-size}
+     * @return          the page and the cursor of the next one
+     * @throws IllegalArgumentException if the cursor is malformed or the limit is not positive
+     */
+    public AccountPageDTO getAccountPage(String cursor, int limit) {
+        int pageSize = pageSize(limit);
+        List<AccountSummaryDTO> rows;
+        if (isFirstPage(cursor)) {
+            rows = jdbcTemplate.query(ACCOUNT_COLUMNS + " ORDER BY id LIMIT ?", ACCOUNT_MAPPER, pageSize + 1);
+        } else {
+            long lastId = parseLong(PageCursor.decode(cursor, 1)[0], cursor);
+            rows = jdbcTemplate.query(ACCOUNT_COLUMNS + " WHERE id > ? ORDER BY id LIMIT ?", ACCOUNT_MAPPER, lastId, pageSize + 1);
+        }
+        if (rows.size() <= pageSize) return new AccountPageDTO(rows, null);
+        AccountSummaryDTO last = rows.get(pageSize - 1);
+        return new AccountPageDTO(List.copyOf(rows.subList(0, pageSize)), PageCursor.encode(last.id()));
+    }
+
+    /**
+     * Reads one page of wallets in {@code (id_account, category)} order.
+     *
+     * @param  cursor   the {@code nextCursor} of the previous page, or null for the first page
+     * @param  limit    the page size, capped at {@code caju.listing.max-page-size}
+     * @return          the page and the cursor of the next one
+     * @throws IllegalArgumentException if the cursor is malformed or the limit is not positive
+     */
+    public WalletPageDTO getWalletPage(String cursor, int limit) {
+        int pageSize = pageSize(limit);
+        List<WalletBalanceDTO> rows;
+        if (isFirstPage(cursor)) {
+            rows = jdbcTemplate.query(WALLET_COLUMNS + " ORDER BY id_account, category LIMIT ?", WALLET_MAPPER, pageSize + 1);
+        } else {
+            String[] key = PageCursor.decode(cursor, 2);
+            rows = jdbcTemplate.query(WALLET_COLUMNS + " WHERE (id_account, category) > (?, ?) ORDER BY id_account, category LIMIT ?",
+                    WALLET_MAPPER, parseLong(key[0], cursor), key[1], pageSize + 1);
+        }
+        if (rows.size() <= pageSize) return new WalletPageDTO(rows, null);
+        WalletBalanceDTO last = rows.get(pageSize - 1);
+        return new WalletPageDTO(List.copyOf(rows.subList(0, pageSize)), PageCursor.encode(last.idAccount(), last.category().name()));
+    }
+
+    /**
+     * Writes every account as a JSON array of {@link AccountSummaryDTO}, streamed from a JDBC cursor.
+     *
+     * @param  output   where the array is written
+     */
+    public void exportAccountsAsArray(OutputStream output) {
+        JsonRowWriter writer = JsonRowWriter.array(objectMapper, output);
+        stream(ACCOUNT_COLUMNS + " ORDER BY id", resultSet -> writer.write(ACCOUNT_MAPPER.mapRow(resultSet, 0)));
+        writer.finish();
+    }
+
+    /**
+     * Writes every wallet as a JSON array of {@link WalletBalanceDTO}, streamed from a JDBC cursor.
+     *
+     * @param  output   where the array is written
+     */
+    public void exportWalletsAsArray(OutputStream output) {
+        JsonRowWriter writer = JsonRowWriter.array(objectMapper, output);
+        stream(WALLET_COLUMNS + " ORDER BY id_account, category", resultSet -> writer.write(WALLET_MAPPER.mapRow(resultSet, 0)));
+        writer.finish();
+    }
+
+    /**
+     * Writes every account with its wallet balances as newline-delimited JSON. Accounts and wallets are read
+     * with a single ordered join and grouped on the fly, so only the current account is held in memory.
+     *
+     * @param  output   where the lines are written
+     */
+    public void exportAccounts(OutputStream output) {
+        JsonRowWriter writer = JsonRowWriter.ndjson(objectMapper, output);
+        AccountWalletsDTO[] current = new AccountWalletsDTO[1];
+        stream("SELECT a.id, a.name, w.category, w.balance FROM accounts a LEFT JOIN wallets w ON w.id_account = a.id ORDER BY a.id, w.category", resultSet -> {
+            long id = resultSet.getLong("id");
+            if (current[0] == null || current[0].id() != id) {
+                if (current[0] != null) writer.write(current[0]);
+                current[0] = new AccountWalletsDTO(id, resultSet.getString("name"), new ArrayList<>());
+            }
+            String category = resultSet.getString("category");
+            if (category != null) {
+                current[0].wallets().add(new WalletBalanceDTO(id, CategoryWallet.valueOf(category), resultSet.getBigDecimal("balance")));
+            }
+        });
+        if (current[0] != null) writer.write(current[0]);
+    }
+
+    private void stream(String sql, RowCallbackHandler handler) {
+        JdbcTemplate streaming = new JdbcTemplate(dataSource);
+        streaming.setFetchSize(fetchSize);
+        // drivers such as PostgreSQL only honour the fetch size inside a transaction
+        transactionTemplate.executeWithoutResult(status -> streaming.query(sql, handler));
+    }
+
+    private int pageSize(int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Page size must be positive");
+        return Math.min(limit, maxPageSize);
+    }
+
+    private static boolean isFirstPage(String cursor) {
+        return cursor == null || cursor.isBlank();
+    }
+
+    private static long parseLong(String value, String cursor) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+    }
+
+    private static final RowMapper<AccountSummaryDTO> ACCOUNT_MAPPER = (resultSet, rowNum) ->
+            new AccountSummaryDTO(resultSet.getLong("id"), resultSet.getString("name"));
+
+    private static final RowMapper<WalletBalanceDTO> WALLET_MAPPER = (resultSet, rowNum) ->
+            new WalletBalanceDTO(resultSet.getLong("id_account"), CategoryWallet.valueOf(resultSet.getString("category")), resultSet.getBigDecimal("balance"));
+}
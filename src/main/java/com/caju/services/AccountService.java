@@ -6,6 +6,7 @@ import com.caju.repositories.AccountRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.List;
 
 @Service
@@ -13,19 +14,30 @@ public class AccountService {
 
     @Autowired
     private AccountRepository repository;
-
-    public List<Account> getAllAccounts() {
-        return repository.findAll();
-    }
+    @Autowired
+    private AccountWalletCache cache;
 
     /**
-     * Retrieves an Account object from the repository based on the provided id.
+     * Retrieves an Account object based on the provided id, from the cache when it was read before.
      *
      * @param  id   the identifier of the account to retrieve
      * @return      the Account object with the given id
      * @throws AccountNotFoundException if no account is found with the given id
      */
     public Account getAccountById(String id) throws AccountNotFoundException {
-        return repository.findById(Long.valueOf(id)).orElseThrow(() -> new AccountNotFoundException(String.format("No account found for id %s", id)));
+        Account account = cache.getAccount(Long.valueOf(id), key -> repository.findById(key).orElse(null));
+        if (account == null) throw new AccountNotFoundException(String.format("No account found for id %s", id));
+        return account;
+    }
+
+    /**
+     * Retrieves the accounts with the given ids, loading the ones not cached in a single query.
+     *
+     * @param  ids   the identifiers of the accounts to retrieve
+     * @return       the accounts found, in no particular order
+     */
+    public List<Account> getAccountsByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) return List.of();
+        return List.copyOf(cache.getAccounts(ids, missing -> repository.findByIdIn(List.copyOf(missing))).values());
     }
 }
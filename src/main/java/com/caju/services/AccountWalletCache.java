@@ -0,0 +1,192 @@
+package com.caju.services;
+
+import com.caju.dto.CacheInvalidationDTO;
+import com.caju.entities.Account;
+import com.caju.entities.Wallet;
+import com.caju.entities.WalletKey;
+import com.caju.utils.CallerLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Local read-through caches of accounts and their wallets, evicted on every wallet write and across instances
+ * through the {@link CacheInvalidationBus}.
+ */
+@Component
+public class AccountWalletCache {
+
+    static final String ACCOUNTS = "accounts";
+    static final String WALLETS = "wallets";
+
+    @Autowired
+    private CacheInvalidationBus invalidationBus;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${caju.cache.accounts.max-size:100000}")
+    private long accountsMaxSize = 100_000;
+    @Value("${caju.cache.accounts.expire-after-write-minutes:60}")
+    private long accountsExpireAfterWriteMinutes = 60;
+    @Value("${caju.cache.wallets.max-size:100000}")
+    private long walletsMaxSize = 100_000;
+    @Value("${caju.cache.wallets.expire-after-write-seconds:30}")
+    private long walletsExpireAfterWriteSeconds = 30;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private CallerLoadingCache<Long, Account> accounts = newCache(accountsMaxSize, Duration.ofMinutes(accountsExpireAfterWriteMinutes));
+    private CallerLoadingCache<Long, List<Wallet>> wallets = newCache(walletsMaxSize, Duration.ofSeconds(walletsExpireAfterWriteSeconds));
+
+    @PostConstruct
+    public void init() {
+        accounts = newCache(accountsMaxSize, Duration.ofMinutes(accountsExpireAfterWriteMinutes));
+        wallets = newCache(walletsMaxSize, Duration.ofSeconds(walletsExpireAfterWriteSeconds));
+        if (meterRegistry != null) {
+            monitor(accounts.synchronous(), ACCOUNTS);
+            monitor(wallets.synchronous(), WALLETS);
+        }
+    }
+
+    /**
+     * Returns the cached account, loading it on a miss. Accounts that are not found are not cached.
+     *
+     * @param  id       the account id
+     * @param  loader   loads the account, returning null if it does not exist
+     * @return          a detached copy of the account, or null
+     */
+    public Account getAccount(Long id, Function<Long, Account> loader) {
+        return accounts.get(id, key -> detachedCopy(loader.apply(key)));
+    }
+
+    /**
+     * Returns the cached accounts, loading every missing one with a single call.
+     *
+     * @param  ids      the account ids
+     * @param  loader   loads the missing accounts, returning only those that exist
+     * @return          detached copies of the accounts found, by id
+     */
+    public Map<Long, Account> getAccounts(Collection<Long> ids, Function<Set<? extends Long>, List<Account>> loader) {
+        return accounts.getAll(ids, missing -> {
+            Map<Long, Account> loaded = new HashMap<>();
+            for (Account account : loader.apply(missing)) {
+                loaded.put(account.getId(), detachedCopy(account));
+            }
+            return loaded;
+        });
+    }
+
+    /**
+     * Returns the cached wallet snapshot of an account, loading it on a miss. Null results are not cached.
+     *
+     * @param  accountId   the account id
+     * @param  loader      loads the wallets of the account, returning null if they cannot be found
+     * @return             detached copies of the wallets, or null
+     */
+    public List<Wallet> getWallets(Long accountId, Function<Long, List<Wallet>> loader) {
+        return wallets.get(accountId, key -> {
+            List<Wallet> loaded = loader.apply(key);
+            return loaded == null ? null : loaded.stream().map(AccountWalletCache::detachedCopy).toList();
+        });
+    }
+
+    /**
+     * Drops the wallet snapshot of an account on every instance, now and after the current transaction completes.
+     *
+     * @param  accountId   the account whose wallets changed
+     */
+    public void evictWallets(Long accountId) {
+        wallets.synchronous().invalidate(accountId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    wallets.synchronous().invalidate(accountId);
+                    publish(WALLETS, accountId);
+                }
+            });
+        } else {
+            publish(WALLETS, accountId);
+        }
+    }
+
+    /**
+     * Drops every wallet snapshot on every instance, for writes that do not go through {@link WalletService}.
+     */
+    public void evictAllWallets() {
+        wallets.synchronous().invalidateAll();
+        publish(WALLETS, null);
+    }
+
+    /**
+     * Applies an invalidation received from another instance.
+     *
+     * @param  invalidation   the entry to drop; messages published by this instance are ignored
+     */
+    public void onInvalidation(CacheInvalidationDTO invalidation) {
+        if (instanceId.equals(invalidation.origin())) return;
+        Cache<Long, ?> cache = ACCOUNTS.equals(invalidation.cache()) ? accounts.synchronous() : WALLETS.equals(invalidation.cache()) ? wallets.synchronous() : null;
+        if (cache == null) return;
+        if (invalidation.key() == null) {
+            cache.invalidateAll();
+        } else {
+            cache.invalidate(invalidation.key());
+        }
+    }
+
+    private void publish(String cache, Long key) {
+        if (invalidationBus != null) {
+            invalidationBus.publish(new CacheInvalidationDTO(instanceId, cache, key));
+        }
+    }
+
+    private void monitor(Cache<Long, ?> cache, String name) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        Gauge.builder("caju.cache.hit.ratio", cache, monitored -> monitored.stats().hitRate())
+                .description("Share of lookups answered from the cache since startup")
+                .tag("cache", name)
+                .register(meterRegistry);
+    }
+
+    private static <V> CallerLoadingCache<Long, V> newCache(long maximumSize, Duration expireAfterWrite) {
+        return new CallerLoadingCache<>(Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats());
+    }
+
+    /**
+     * Copies the account without its lazy wallet collection, which cannot be loaded once the session is closed.
+     */
+    private static Account detachedCopy(Account account) {
+        if (account == null) return null;
+        Account copy = new Account();
+        copy.setId(account.getId());
+        copy.setName(account.getName());
+        return copy;
+    }
+
+    private static Wallet detachedCopy(Wallet wallet) {
+        return Wallet.builder()
+                .id(new WalletKey(detachedCopy(wallet.getId().getAccount()), wallet.getId().getCategory()))
+                .balance(wallet.getBalance())
+                .version(wallet.getVersion())
+                .build();
+    }
+}
@@ -0,0 +1,126 @@
+package com.caju.services;
+
+import com.caju.exceptions.DeadlineExceededException;
+import com.caju.metrics.AuthorizationTrace.Stage;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Time budget of one authorization, shared by the thread waiting for the answer and the lane running it.
+ *
+ * <p>The lane checks the budget after every stage and rolls back once it is spent. A debit can still
+ * commit just as the waiting thread gives up, so the lane claims the answer only after the commit: if the
+ * waiting thread already answered {@code 91}, the claim fails and the debit is compensated.
+ * Without an open deadline, as on the batch path, the static hooks do nothing.
+ */
+public final class AuthorizationDeadline {
+
+    private enum State { PENDING, ANSWERED, ABANDONED }
+
+    private static final ThreadLocal<AuthorizationDeadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+    private volatile Stage exceededIn;
+    private volatile boolean compensated;
+
+    private AuthorizationDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @param  start          when the request was received, from {@link System#nanoTime()}
+     * @param  budgetNanos    the time allowed
+     * @return                the deadline of the request
+     */
+    public static AuthorizationDeadline startingAt(long start, long budgetNanos) {
+        return new AuthorizationDeadline(start + budgetNanos);
+    }
+
+    /**
+     * Makes the deadline visible to the stages running on the current thread, until {@link #close()}.
+     */
+    public void open() {
+        CURRENT.set(this);
+    }
+
+    public void close() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Fails the authorization if its budget is spent, recording the stage that was running when it ran out.
+     *
+     * @param  stage   the stage that just finished
+     * @throws DeadlineExceededException if the budget is spent or the waiting thread gave up
+     */
+    public static void check(Stage stage) throws DeadlineExceededException {
+        AuthorizationDeadline deadline = CURRENT.get();
+        if (deadline == null) return;
+        if (deadline.state.get() == State.ABANDONED || System.nanoTime() - deadline.deadlineNanos >= 0) {
+            if (deadline.exceededIn == null) deadline.exceededIn = stage;
+            throw new DeadlineExceededException("Authorization deadline exceeded after " + stage.getTag());
+        }
+    }
+
+    /**
+     * Claims the answer for an approval once it is durable, or runs the compensation if the waiting thread
+     * already gave up. Inside a database transaction this happens after the commit, in a new transaction.
+     *
+     * @param  compensation   undoes the approval
+     */
+    public static void onApproved(Runnable compensation) {
+        AuthorizationDeadline deadline = CURRENT.get();
+        if (deadline == null) return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    if (!deadline.claim()) deadline.compensate(compensation);
+                }
+            });
+        } else if (!deadline.claim()) {
+            deadline.compensate(compensation);
+        }
+    }
+
+    /**
+     * Gives up waiting. Fails if the lane already claimed the answer, which the caller must then wait for.
+     */
+    public boolean abandon() {
+        return state.compareAndSet(State.PENDING, State.ABANDONED);
+    }
+
+    public boolean isAbandoned() {
+        return state.get() == State.ABANDONED;
+    }
+
+    /**
+     * @return  the nanoseconds left, zero or negative once spent
+     */
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    /**
+     * @return  the stage whose check found the budget spent, or null
+     */
+    public Stage exceededIn() {
+        return exceededIn;
+    }
+
+    public boolean isCompensated() {
+        return compensated;
+    }
+
+    private void compensate(Runnable compensation) {
+        compensation.run();
+        compensated = true;
+    }
+
+    private boolean claim() {
+        return state.compareAndSet(State.PENDING, State.ANSWERED);
+    }
+}
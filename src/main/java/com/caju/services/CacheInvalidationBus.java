@@ -0,0 +1,12 @@
+package com.caju.services;
+
+import com.caju.dto.CacheInvalidationDTO;
+
+/**
+ * Carries cache invalidations to the other instances of the service. Implementations only deliver;
+ * receivers hand what they get to {@link AccountWalletCache#onInvalidation(CacheInvalidationDTO)}.
+ */
+public interface CacheInvalidationBus {
+
+    void publish(CacheInvalidationDTO invalidation);
+}
@@ -0,0 +1,167 @@
+package com.caju.services;
+
+import com.caju.dto.TransactionDTO;
+import com.caju.enums.CategoryWallet;
+import com.caju.metrics.AuthorizationTrace;
+import com.caju.metrics.AuthorizationTrace.CategorySource;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Resolves the wallet charged by a transaction. MCCs are looked up in a table indexed by the numeric code,
+ * so a lookup is a bounds check and an array read. The table is loaded from {@code caju.mcc.table-location}
+ * and swapped atomically when the file changes; without a location it is built from {@link CategoryWallet}.
+ */
+@Slf4j
+@Component
+public class CategoryClassifier {
+
+    private static final int MCC_LENGTH = 4;
+    private static final int MCC_SPACE = 10_000;
+
+    @Autowired
+    private MerchantClassifier merchantClassifier = new MerchantClassifier();
+
+    @Value("${caju.mcc.table-location:}")
+    private String tableLocation = "";
+
+    private volatile CategoryWallet[] table = defaultTable();
+    private long tableLastModified;
+
+    /**
+     * Loads the configured table. A broken file fails the startup instead of silently charging everything to CASH.
+     */
+    @PostConstruct
+    public void load() {
+        if (tableLocation.isBlank()) return;
+        Resource resource = new DefaultResourceLoader().getResource(tableLocation);
+        table = readTable(resource);
+        tableLastModified = lastModified(resource);
+        log.info("MCC table loaded from {}", tableLocation);
+    }
+
+    /**
+     * Reloads the table when its file changed. A file that fails to parse is logged and the current table kept.
+     */
+    @Scheduled(fixedDelayString = "${caju.mcc.reload-interval-ms:30000}")
+    public void reloadIfChanged() {
+        if (tableLocation.isBlank()) return;
+        Resource resource = new DefaultResourceLoader().getResource(tableLocation);
+        long lastModified = lastModified(resource);
+        if (lastModified == 0 || lastModified == tableLastModified) return;
+        try {
+            table = readTable(resource);
+            tableLastModified = lastModified;
+            log.info("MCC table reloaded from {}", tableLocation);
+        } catch (RuntimeException e) {
+            log.error("Unable to reload MCC table from {}, keeping the current one", tableLocation, e);
+        }
+    }
+
+    /**
+     * Resolves the wallet for a merchant category code. Codes that are not four digits or not mapped go to CASH.
+     *
+     * @param  mcc   the merchant category code
+     * @return       the wallet category for the code
+     */
+    public CategoryWallet getCategoryByMcc(String mcc) {
+        int code = parseMcc(mcc);
+        return code < 0 ? CategoryWallet.CASH : table[code];
+    }
+
+    /**
+     * Resolves the wallet charged by a transaction, optionally letting the merchant name take priority over the MCC.
+     *
+     * @param  transactionDTO            the transaction details
+     * @param  isConsiderMerchantForMCC  flag indicating whether to consider the merchant for MCC
+     * @return                           the wallet category to charge
+     */
+    public CategoryWallet getCategoryForTransaction(TransactionDTO transactionDTO, boolean isConsiderMerchantForMCC) {
+        if (isConsiderMerchantForMCC) {
+            MerchantClassifier.Resolution resolution = merchantClassifier.resolve(transactionDTO.merchant());
+            if (resolution.overrideMcc() != null) {
+                AuthorizationTrace.categoryResolvedBy(CategorySource.OVERRIDE);
+                return getCategoryByMcc(resolution.overrideMcc());
+            }
+            if (resolution.keywordCategory() != null) {
+                AuthorizationTrace.categoryResolvedBy(CategorySource.MERCHANT);
+                return resolution.keywordCategory();
+            }
+        }
+        AuthorizationTrace.categoryResolvedBy(CategorySource.MCC);
+        return getCategoryByMcc(transactionDTO.mcc());
+    }
+
+    static int parseMcc(String mcc) {
+        if (mcc == null || mcc.length() != MCC_LENGTH) return -1;
+        int code = 0;
+        for (int i = 0; i < MCC_LENGTH; i++) {
+            char digit = mcc.charAt(i);
+            if (digit < '0' || digit > '9') return -1;
+            code = code * 10 + (digit - '0');
+        }
+        return code;
+    }
+
+    /**
+     * Parses lines such as {@code 5411=FOOD} or {@code 5811-5812=MEAL}; blank lines and {@code #} comments are ignored.
+     */
+    static CategoryWallet[] readTable(Resource resource) {
+        CategoryWallet[] loaded = new CategoryWallet[MCC_SPACE];
+        Arrays.fill(loaded, CategoryWallet.CASH);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] entry = line.split("=", 2);
+                String[] range = entry[0].strip().split("-", 2);
+                int from = parseMcc(range[0].strip());
+                int to = range.length == 2 ? parseMcc(range[1].strip()) : from;
+                if (entry.length != 2 || from < 0 || to < from) {
+                    throw new IllegalArgumentException(String.format("Invalid MCC entry at line %d: %s", lineNumber, line));
+                }
+                CategoryWallet category = CategoryWallet.valueOf(entry[1].strip().toUpperCase());
+                Arrays.fill(loaded, from, to + 1, category);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read MCC table " + resource.getDescription(), e);
+        }
+        return loaded;
+    }
+
+    private static CategoryWallet[] defaultTable() {
+        CategoryWallet[] defaults = new CategoryWallet[MCC_SPACE];
+        Arrays.fill(defaults, CategoryWallet.CASH);
+        for (CategoryWallet category : CategoryWallet.values()) {
+            for (String code : category.getCodes()) {
+                int mcc = parseMcc(code);
+                if (mcc >= 0) defaults[mcc] = category;
+            }
+        }
+        return defaults;
+    }
+
+    private static long lastModified(Resource resource) {
+        try {
+            return resource.isFile() ? resource.lastModified() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.enums.TransactionResponseEnum;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Stores the answers of authorizations sent with an idempotency key, so a retry of the key gets the original response.
+ * Lookups read an in-memory index of {@code idempotency_keys}, whose primary key keeps each key unique.
+ */
+@Slf4j
+@Component
+public class IdempotencyStore {
+
+    static final int MAX_KEY_LENGTH = 64;
+    static final String CACHE = "idempotency-keys";
+
+    private static final String INSERT = "INSERT INTO idempotency_keys (id_account, idempotency_key, code, message, created_at) VALUES (?, ?, ?, ?, ?)";
+    private static final String INSERT_IF_ABSENT = "INSERT INTO idempotency_keys (id_account, idempotency_key, code, message, created_at) "
+            + "SELECT ?, ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM idempotency_keys WHERE id_account = ? AND idempotency_key = ?)";
+    private static final String SELECT = "SELECT id_account, idempotency_key, code, message, created_at FROM idempotency_keys";
+    private static final String SETTLE = "UPDATE idempotency_keys SET code = ?, message = ?, created_at = ? WHERE id_account = ? AND idempotency_key = ?";
+    private static final String DELETE = "DELETE FROM idempotency_keys WHERE id_account = ? AND idempotency_key = ?";
+    private static final String PURGE = "DELETE FROM idempotency_keys WHERE created_at < ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${caju.idempotency.ttl-hours:24}")
+    private long ttlHours = 24;
+    @Value("${caju.idempotency.max-size:200000}")
+    private long maxSize = 200_000;
+
+    private Cache<Key, Stored> index = newIndex();
+    private Counter replayed;
+    // the index holds every unexpired key until startup finds more than it holds or it evicts one for size
+    private volatile boolean complete;
+
+    /**
+     * Loads the most recent unexpired keys, up to the size of the index.
+     */
+    @PostConstruct
+    public void init() {
+        index = newIndex();
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, index, CACHE);
+            replayed = Counter.builder("caju.idempotency.replayed")
+                    .description("Authorizations answered with the response stored under their idempotency key")
+                    .register(meterRegistry);
+        }
+        long[] loaded = {0};
+        jdbcTemplate.query(SELECT + " WHERE created_at >= ? ORDER BY created_at DESC LIMIT ?", resultSet -> {
+            loaded[0]++;
+            index.put(new Key(resultSet.getLong("id_account"), resultSet.getString("idempotency_key")),
+                    new Stored(new ResponseDTO(resultSet.getString("code"), resultSet.getString("message")), resultSet.getTimestamp("created_at").toInstant()));
+        }, Timestamp.from(Instant.now().minus(ttl())), maxSize);
+        complete = loaded[0] < maxSize;
+        log.info("Loaded {} idempotency keys", index.estimatedSize());
+    }
+
+    /**
+     * Looks the request's key up in the index, without touching the database.
+     *
+     * @param  transactionDTO   the request
+     * @return                  the stored response, an error for a key that cannot be stored, or null to authorize
+     */
+    public ResponseDTO find(TransactionDTO transactionDTO) {
+        if (transactionDTO.idempotencyKey() == null) return null;
+        if (!isValid(transactionDTO.idempotencyKey())) {
+            return new ResponseDTO(TransactionResponseEnum.ERROR.getCode(),
+                    "Transaction error: idempotency key must have between 1 and %d characters".formatted(MAX_KEY_LENGTH));
+        }
+        Key key = Key.of(transactionDTO);
+        Stored stored = key == null ? null : index.getIfPresent(key);
+        if (stored == null) return null;
+        countReplay();
+        return stored.response();
+    }
+
+    /**
+     * Looks a key up in the index only.
+     *
+     * @return   the stored response, or null when the index does not know the key
+     */
+    public ResponseDTO findIndexed(Long accountId, String idempotencyKey) {
+        Stored stored = index.getIfPresent(new Key(accountId, idempotencyKey));
+        if (stored == null) return null;
+        countReplay();
+        return stored.response();
+    }
+
+    /**
+     * @return   whether the index holds every unexpired key, so a key it does not know was never stored
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Looks up the keys of a batch: the index first, then the database in a single query for the keys it does
+     * not know, since a batch cannot roll back only the item whose key turns out to be taken.
+     *
+     * @param  transactionDTOs   the requests of the batch
+     * @return                   the responses already stored, or errors for keys that cannot be stored, by key
+     */
+    public Map<Key, ResponseDTO> findAll(Collection<TransactionDTO> transactionDTOs) {
+        Map<Key, ResponseDTO> found = new HashMap<>();
+        List<Key> missing = new ArrayList<>();
+        for (TransactionDTO transactionDTO : transactionDTOs) {
+            Key key = Key.of(transactionDTO);
+            if (key == null || found.containsKey(key)) continue;
+            ResponseDTO response = find(transactionDTO);
+            if (response != null) {
+                found.put(key, response);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) return found;
+        StringJoiner keys = new StringJoiner(", ", SELECT + " WHERE (id_account, idempotency_key) IN (", ")");
+        List<Object> arguments = new ArrayList<>(missing.size() * 2);
+        for (Key key : missing) {
+            keys.add("(?, ?)");
+            arguments.add(key.accountId());
+            arguments.add(key.idempotencyKey());
+        }
+        jdbcTemplate.query(keys.toString(), resultSet -> {
+            Key key = new Key(resultSet.getLong("id_account"), resultSet.getString("idempotency_key"));
+            Stored stored = new Stored(new ResponseDTO(resultSet.getString("code"), resultSet.getString("message")), resultSet.getTimestamp("created_at").toInstant());
+            index.put(key, stored);
+            found.put(key, stored.response());
+            countReplay();
+        }, arguments.toArray());
+        return found;
+    }
+
+    /**
+     * Takes a key in the caller's transaction before it debits anything. The insert runs in a savepoint, so a key
+     * another authorization already holds leaves the caller's transaction usable.
+     *
+     * @param  accountId        the account of the request
+     * @param  idempotencyKey   the key of the request
+     * @return                  null once the key is taken, to be {@link #settle settled}; otherwise the stored response,
+     *                          or an error when the key is gone again
+     */
+    public ResponseDTO claim(Long accountId, String idempotencyKey) {
+        Boolean taken = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+            try {
+                jdbcTemplate.update(INSERT, accountId, idempotencyKey, "", "", Timestamp.from(Instant.now()));
+                if (savepoint != null) connection.releaseSavepoint(savepoint);
+                return true;
+            } catch (DuplicateKeyException duplicateKeyException) {
+                if (savepoint != null) connection.rollback(savepoint);
+                return false;
+            }
+        });
+        if (Boolean.TRUE.equals(taken)) return null;
+        ResponseDTO original = load(accountId, idempotencyKey);
+        return original != null ? original : new ResponseDTO(TransactionResponseEnum.ERROR.getCode(),
+                "Transaction error: idempotency key %s is in use by another authorization".formatted(idempotencyKey));
+    }
+
+    /**
+     * Stores the answer under a key taken with {@link #claim}, or releases the key when the answer is not stored.
+     */
+    public void settle(Long accountId, String idempotencyKey, ResponseDTO response) {
+        if (!isStored(response)) {
+            jdbcTemplate.update(DELETE, accountId, idempotencyKey);
+            return;
+        }
+        Instant createdAt = Instant.now();
+        jdbcTemplate.update(SETTLE, response.code(), response.message(), Timestamp.from(createdAt), accountId, idempotencyKey);
+        remember(accountId, idempotencyKey, response, createdAt);
+    }
+
+    /**
+     * Stores a response under its key, in the caller's transaction when there is one. The index only learns
+     * the key once that transaction commits.
+     *
+     * @param  accountId        the account of the request
+     * @param  idempotencyKey   the key of the request
+     * @param  response         the response; only approvals and insufficient funds are stored
+     * @throws DuplicateKeyException  if the key is already stored for the account
+     */
+    public void record(Long accountId, String idempotencyKey, ResponseDTO response) {
+        if (!isStored(response)) return;
+        Instant createdAt = Instant.now();
+        jdbcTemplate.update(INSERT, accountId, idempotencyKey, response.code(), response.message(), Timestamp.from(createdAt));
+        remember(accountId, idempotencyKey, response, createdAt);
+    }
+
+    /**
+     * Stores a response under its key in the caller's transaction, unless the key is already stored; the
+     * write-behind log applies a debit and its key with it, and may replay both after a crash.
+     *
+     * @param  createdAt   when the request was answered
+     */
+    public void recordIfAbsent(Long accountId, String idempotencyKey, ResponseDTO response, Instant createdAt) {
+        if (!isStored(response)) return;
+        int inserted = jdbcTemplate.update(INSERT_IF_ABSENT, accountId, idempotencyKey, response.code(), response.message(),
+                Timestamp.from(createdAt), accountId, idempotencyKey);
+        if (inserted > 0) remember(accountId, idempotencyKey, response, createdAt);
+    }
+
+    /**
+     * Adds a response already written to {@code idempotency_keys} to the index, once the current transaction commits.
+     */
+    public void remember(Long accountId, String idempotencyKey, ResponseDTO response, Instant createdAt) {
+        Key key = new Key(accountId, idempotencyKey);
+        Stored stored = new Stored(response, createdAt);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    index.put(key, stored);
+                }
+            });
+        } else {
+            index.put(key, stored);
+        }
+    }
+
+    /**
+     * Reads the response stored under a key the index did not know, after {@link #record} or {@link #claim} found it taken.
+     *
+     * @return   the stored response, or null if it is gone
+     */
+    public ResponseDTO load(Long accountId, String idempotencyKey) {
+        List<Stored> rows = jdbcTemplate.query(SELECT + " WHERE id_account = ? AND idempotency_key = ?",
+                (resultSet, row) -> new Stored(new ResponseDTO(resultSet.getString("code"), resultSet.getString("message")), resultSet.getTimestamp("created_at").toInstant()),
+                accountId, idempotencyKey);
+        if (rows.isEmpty()) return null;
+        index.put(new Key(accountId, idempotencyKey), rows.get(0));
+        countReplay();
+        return rows.get(0).response();
+    }
+
+    /**
+     * Drops a key whose approval was reversed after the deadline, so the retry of a {@code 91} is authorized again.
+     */
+    public void forget(Long accountId, String idempotencyKey) {
+        if (idempotencyKey == null) return;
+        Key key = new Key(accountId, idempotencyKey);
+        jdbcTemplate.update(DELETE, accountId, idempotencyKey);
+        index.invalidate(key);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    index.invalidate(key);
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the keys past their time to live; the index drops them on its own.
+     */
+    @Scheduled(fixedDelayString = "${caju.idempotency.purge-interval-ms:600000}")
+    public void purgeExpired() {
+        int purged = jdbcTemplate.update(PURGE, Timestamp.from(Instant.now().minus(ttl())));
+        if (purged > 0) log.debug("Purged {} expired idempotency keys", purged);
+    }
+
+    static boolean isStored(ResponseDTO response) {
+        return TransactionResponseEnum.APPROVED.getCode().equals(response.code())
+                || TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode().equals(response.code());
+    }
+
+    static boolean isValid(String idempotencyKey) {
+        return !idempotencyKey.isEmpty() && idempotencyKey.length() <= MAX_KEY_LENGTH;
+    }
+
+    private void countReplay() {
+        if (replayed != null) replayed.increment();
+    }
+
+    private Duration ttl() {
+        return Duration.ofHours(ttlHours);
+    }
+
+    /**
+     * An entry lives for what is left of its time to live, counted from when the key was stored rather than
+     * from when it was loaded.
+     */
+    private Cache<Key, Stored> newIndex() {
+        return Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<Key, Stored>() {
+                    @Override
+                    public long expireAfterCreate(Key key, Stored stored, long currentTime) {
+                        return Math.max(0, ttl().minus(Duration.between(stored.createdAt(), Instant.now())).toNanos());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Key key, Stored stored, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, stored, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Key key, Stored stored, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .evictionListener((Key key, Stored stored, RemovalCause cause) -> {
+                    if (cause == RemovalCause.SIZE) complete = false;
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param  accountId        the account of the request
+     * @param  idempotencyKey   the key, unique per account
+     */
+    public record Key(Long accountId, String idempotencyKey) {
+
+        /**
+         * @return   the key of the request, or null when it has none or its account is not a valid id
+         */
+        public static Key of(TransactionDTO transactionDTO) {
+            if (transactionDTO.idempotencyKey() == null || transactionDTO.account() == null) return null;
+            try {
+                return new Key(Long.valueOf(transactionDTO.account()), transactionDTO.idempotencyKey());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private record Stored(ResponseDTO response, Instant createdAt) {
+    }
+}
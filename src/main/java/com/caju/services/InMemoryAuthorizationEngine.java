@@ -0,0 +1,312 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.entities.Account;
+import com.caju.entities.Wallet;
+import com.caju.entities.WalletKey;
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionResponseEnum;
+import com.caju.exceptions.AccountNotFoundException;
+import com.caju.exceptions.DeadlineExceededException;
+import com.caju.exceptions.InsufficientFundsTransactionException;
+import com.caju.exceptions.UpdateAccountException;
+import com.caju.exceptions.WalletNotFoundException;
+import com.caju.metrics.AuthorizationTrace;
+import com.caju.metrics.AuthorizationTrace.Stage;
+import com.caju.repositories.AccountRepository;
+import com.caju.repositories.WalletRepository;
+import com.caju.utils.Money;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Authorizes transactions against wallet balances kept in memory.
+ * Decisions never touch the database: debits and credits, with the approvals stored under their idempotency keys,
+ * are appended to the {@link WriteBehindQueue} and applied to the wallets and transactions tables asynchronously.
+ * Enabled with {@code caju.authorization.engine=in-memory}.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "caju.authorization.engine", havingValue = "in-memory")
+@DependsOn("walletRecoveryService")
+public class InMemoryAuthorizationEngine {
+
+    @Autowired
+    private AccountRepository accountRepository;
+    @Autowired
+    private WalletRepository walletRepository;
+    @Autowired
+    private WriteBehindQueue writeBehindQueue;
+    @Autowired
+    private CategoryClassifier categoryClassifier;
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    private final Map<Long, AccountBalances> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * Rebuilds the in-memory balances: pending write-behind entries are applied to the database first,
+     * then every account and wallet is loaded from it.
+     */
+    @PostConstruct
+    public void recover() {
+        writeBehindQueue.replayPending();
+        accounts.clear();
+        for (Account account : accountRepository.findAll()) {
+            accounts.put(account.getId(), new AccountBalances(detach(account)));
+        }
+        int wallets = 0;
+        for (Wallet wallet : walletRepository.findAll()) {
+            registerWallet(wallet.getId().getAccount(), wallet.getId().getCategory(), wallet.getBalance());
+            wallets++;
+        }
+        writeBehindQueue.start();
+        log.info("In-memory authorization engine loaded {} accounts and {} wallets", accounts.size(), wallets);
+    }
+
+    /**
+     * Authorizes a transaction, answering with the same codes as {@link TransactionService}.
+     *
+     * @param  transactionDTO            the transaction details including the account ID, total amount, MCC, and merchant
+     * @param  isConsiderMerchantForMCC  flag indicating whether to consider the merchant for MCC
+     * @param  withFallback              whether the CASH wallet covers an insufficient category wallet
+     * @return                           a ResponseDTO object containing the transaction status code
+     */
+    public ResponseDTO authorize(TransactionDTO transactionDTO, boolean isConsiderMerchantForMCC, boolean withFallback) {
+        try {
+            long stage = AuthorizationTrace.start();
+            AccountBalances balances = getAccountBalances(transactionDTO.account());
+            AuthorizationTrace.stop(Stage.ACCOUNT_LOOKUP, stage);
+            AuthorizationDeadline.check(Stage.ACCOUNT_LOOKUP);
+            stage = AuthorizationTrace.start();
+            CategoryWallet categoryForTransaction = categoryClassifier.getCategoryForTransaction(transactionDTO, isConsiderMerchantForMCC);
+            AuthorizationTrace.stop(Stage.CATEGORY_RESOLUTION, stage);
+            AuthorizationDeadline.check(Stage.CATEGORY_RESOLUTION);
+            ResponseDTO response = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+            Debit debit = debit(balances, transactionDTO, categoryForTransaction, withFallback, response);
+            if (debit.original() != null) return debit.original();
+            // the decision is only final once the write-behind log is on disk
+            stage = AuthorizationTrace.start();
+            writeBehindQueue.awaitDurable(debit.sequence());
+            AuthorizationTrace.stop(Stage.TRANSACTION_INSERT, stage);
+            // the debit is already durable, so running out of time from here on is compensated with a credit
+            AuthorizationDeadline.onApproved(() -> compensate(balances.account, debit.charged(), transactionDTO));
+
+            return response;
+        } catch (InsufficientFundsTransactionException insufficientFundsTransactionException) {
+            ResponseDTO response = new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(), "Transaction rejected: %s".formatted(insufficientFundsTransactionException.getMessage()));
+            ResponseDTO original = recordIdempotencyKey(transactionDTO, response);
+            return original != null ? original : response;
+        } catch (DeadlineExceededException deadlineExceededException) {
+            return new ResponseDTO(TransactionResponseEnum.DEADLINE_EXCEEDED.getCode(), "Transaction error: %s".formatted(deadlineExceededException.getMessage()));
+        } catch (Exception | WalletNotFoundException | AccountNotFoundException exception) {
+            return new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(exception.getMessage()));
+        }
+    }
+
+    /**
+     * Credits a wallet in memory and queues the credit for the database.
+     *
+     * @param  account      the account that owns the wallet
+     * @param  category     the category of the wallet to credit
+     * @param  totalAmount  the amount to credit
+     * @throws WalletNotFoundException  if the wallet is not loaded
+     */
+    public void credit(Account account, CategoryWallet category, BigDecimal totalAmount) throws WalletNotFoundException {
+        credit(account, category, totalAmount, null);
+    }
+
+    /**
+     * @param  forgetKey  the idempotency key of the debit this credit reverses, dropped with it, or null
+     */
+    private void credit(Account account, CategoryWallet category, BigDecimal totalAmount, String forgetKey) throws WalletNotFoundException {
+        AccountBalances balances = accounts.get(account.getId());
+        if (balances == null) throw new WalletNotFoundException(String.format("Wallets not found for key %s", new WalletKey(account, category)));
+        long amountInCents = Money.toCents(totalAmount);
+        long sequence;
+        balances.lock.lock();
+        try {
+            // logged before the balance changes, so a failed append leaves the balance as it was
+            long balance = balances.getBalance(category);
+            sequence = writeBehindQueue.append(WriteBehindQueue.Operation.CREDIT, account.getId(), category, totalAmount, null, null, forgetKey, null);
+            balances.register(category, balance + amountInCents);
+        } finally {
+            balances.lock.unlock();
+        }
+        writeBehindQueue.awaitDurable(sequence);
+    }
+
+    /**
+     * Makes a wallet that was just created in the database visible to the engine.
+     */
+    public void registerWallet(Account account, CategoryWallet category, BigDecimal balance) {
+        AccountBalances balances = accounts.computeIfAbsent(account.getId(), id -> new AccountBalances(detach(account)));
+        balances.lock.lock();
+        try {
+            balances.register(category, balance == null ? 0 : Money.toCents(balance));
+        } finally {
+            balances.lock.unlock();
+        }
+    }
+
+    /**
+     * Debits the wallet that covers the amount and logs the debit with the approval stored under the request's
+     * idempotency key, so both reach the database together. The key is checked in the index under the account
+     * lock, so a concurrent retry is not debited twice; the table is only read, before the lock, once the index
+     * has dropped keys.
+     *
+     * @return  the debit, or the original answer of a key already stored
+     */
+    private Debit debit(AccountBalances balances, TransactionDTO transactionDTO, CategoryWallet category, boolean withFallback, ResponseDTO approval) throws UpdateAccountException, WalletNotFoundException, InsufficientFundsTransactionException {
+        if (Objects.isNull(transactionDTO.totalAmount())) throw new UpdateAccountException("Unable to identify the account or amount to be updated.");
+        long amountInCents = transactionDTO.totalAmountInCents();
+        String idempotencyKey = transactionDTO.idempotencyKey();
+        if (idempotencyKey != null && !idempotencyStore.isComplete()) {
+            ResponseDTO stored = idempotencyStore.load(balances.account.getId(), idempotencyKey);
+            if (stored != null) return new Debit(0, null, stored);
+        }
+        balances.lock.lock();
+        try {
+            if (idempotencyKey != null) {
+                ResponseDTO original = idempotencyStore.findIndexed(balances.account.getId(), idempotencyKey);
+                if (original != null) return new Debit(0, null, original);
+            }
+            long stage = AuthorizationTrace.start();
+            CategoryWallet charged;
+            try {
+                charged = chooseWallet(balances, amountInCents, category, withFallback);
+            } finally {
+                AuthorizationTrace.stop(Stage.FUNDS_CHECK, stage);
+            }
+
+            stage = AuthorizationTrace.start();
+            // logged before the balance changes, so a failed append leaves the balance as it was
+            long sequence = writeBehindQueue.append(WriteBehindQueue.Operation.DEBIT, balances.account.getId(), charged, transactionDTO.totalAmount(),
+                    transactionDTO.mcc(), transactionDTO.merchant(), idempotencyKey, idempotencyKey == null ? null : approval);
+            balances.debit(charged, amountInCents);
+            if (idempotencyKey != null) idempotencyStore.remember(balances.account.getId(), idempotencyKey, approval, Instant.now());
+            AuthorizationTrace.stop(Stage.DEBIT_WRITE, stage);
+            return new Debit(sequence, charged, null);
+        } finally {
+            balances.lock.unlock();
+        }
+    }
+
+    /**
+     * Stores a rejection under the request's idempotency key. Nothing was debited, so it is written right away
+     * rather than through the write-behind log; a key already stored is answered with what was stored.
+     *
+     * @return           the response to answer instead of the given one, or null once it is stored
+     */
+    private ResponseDTO recordIdempotencyKey(TransactionDTO transactionDTO, ResponseDTO response) {
+        if (transactionDTO.idempotencyKey() == null) return null;
+        Long accountId = Long.valueOf(transactionDTO.account());
+        try {
+            idempotencyStore.record(accountId, transactionDTO.idempotencyKey(), response);
+            return null;
+        } catch (DuplicateKeyException duplicateKeyException) {
+            ResponseDTO original = idempotencyStore.load(accountId, transactionDTO.idempotencyKey());
+            return original != null ? original : new ResponseDTO(TransactionResponseEnum.ERROR.getCode(),
+                    "Transaction error: idempotency key %s is in use by another authorization".formatted(transactionDTO.idempotencyKey()));
+        } catch (RuntimeException e) {
+            return new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(e.getMessage()));
+        }
+    }
+
+    private void compensate(Account account, CategoryWallet charged, TransactionDTO transactionDTO) {
+        BigDecimal totalAmount = transactionDTO.totalAmount();
+        try {
+            credit(account, charged, totalAmount, transactionDTO.idempotencyKey());
+            idempotencyStore.forget(account.getId(), transactionDTO.idempotencyKey());
+            log.warn("Reversed debit of {} on wallet {} of account {}: it was decided after the authorization deadline", totalAmount, charged, account.getId());
+        } catch (WalletNotFoundException | RuntimeException e) {
+            log.error("Unable to reverse debit of {} on wallet {} of account {} after the authorization deadline", totalAmount, charged, account.getId(), e);
+        }
+    }
+
+    /**
+     * Picks the wallet that covers the amount: the category wallet, or the CASH wallet with fallback.
+     */
+    private CategoryWallet chooseWallet(AccountBalances balances, long amountInCents, CategoryWallet category, boolean withFallback) throws WalletNotFoundException, InsufficientFundsTransactionException {
+        long currentBalance = balances.getBalance(category);
+        if (currentBalance >= amountInCents) return category;
+        if (!withFallback) {
+            throw new InsufficientFundsTransactionException(String.format("Insufficient funds for transaction. Current balance for MEAL $%s - Transaction value $%s",
+                    Money.fromCents(currentBalance), Money.fromCents(amountInCents)));
+        }
+        long currentBalanceCash = balances.getBalance(CategoryWallet.CASH);
+        if (currentBalanceCash < amountInCents) {
+            throw new InsufficientFundsTransactionException(String.format("Insufficient funds for transaction. Current balance for FOOD $%s - Current balance for CASH $%s - Transaction value $%s",
+                    Money.fromCents(currentBalance), Money.fromCents(currentBalanceCash), Money.fromCents(amountInCents)));
+        }
+        return CategoryWallet.CASH;
+    }
+
+    private AccountBalances getAccountBalances(String id) throws AccountNotFoundException {
+        AccountBalances balances = accounts.get(Long.valueOf(id));
+        if (balances == null) throw new AccountNotFoundException(String.format("No account found for id %s", id));
+        return balances;
+    }
+
+    /**
+     * Copies the account without its lazy wallet collection so it can outlive the persistence context.
+     */
+    private static Account detach(Account account) {
+        Account copy = new Account();
+        copy.setId(account.getId());
+        copy.setName(account.getName());
+        return copy;
+    }
+
+    /**
+     * @param  original  the answer stored under the request's idempotency key, when nothing was debited
+     */
+    private record Debit(long sequence, CategoryWallet charged, ResponseDTO original) {
+    }
+
+    /**
+     * Balances of an account in cents, indexed by wallet category, so a funds check and a debit allocate nothing.
+     */
+    private static final class AccountBalances {
+        private static final long NO_WALLET = Long.MIN_VALUE;
+
+        private final Account account;
+        private final long[] wallets = new long[CategoryWallet.values().length];
+        // held while appending to the write-behind log, so it must not be a monitor pinning a virtual thread
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private AccountBalances(Account account) {
+            this.account = account;
+            Arrays.fill(wallets, NO_WALLET);
+        }
+
+        private long getBalance(CategoryWallet category) throws WalletNotFoundException {
+            long balance = wallets[category.ordinal()];
+            if (balance == NO_WALLET) throw new WalletNotFoundException(String.format("Wallets not found for key %s", new WalletKey(account, category)));
+            return balance;
+        }
+
+        private void register(CategoryWallet category, long balance) {
+            wallets[category.ordinal()] = balance;
+        }
+
+        private void debit(CategoryWallet category, long amountInCents) {
+            wallets[category.ordinal()] -= amountInCents;
+        }
+
+    }
+}
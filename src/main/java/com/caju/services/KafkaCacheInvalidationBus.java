@@ -0,0 +1,42 @@
+package com.caju.services;
+
+import com.caju.dto.CacheInvalidationDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes invalidations to a Kafka topic that every instance consumes with its own group,
+ * see {@link com.caju.consumers.CacheInvalidationConsumer}. A lost message leaves an entry stale
+ * at most until it expires.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "caju.cache.bus", havingValue = "kafka")
+public class KafkaCacheInvalidationBus implements CacheInvalidationBus {
+
+    @Autowired
+    private KafkaTemplate<String, String> kafkaTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${caju.cache.bus.topic:cache-invalidations}")
+    private String topic;
+
+    @Override
+    public void publish(CacheInvalidationDTO invalidation) {
+        try {
+            kafkaTemplate.send(topic, String.valueOf(invalidation.key()), objectMapper.writeValueAsString(invalidation))
+                    .whenComplete((result, throwable) -> {
+                        if (throwable != null) log.warn("Unable to publish cache invalidation {}", invalidation, throwable);
+                    });
+        } catch (JsonProcessingException e) {
+            log.warn("Unable to serialize cache invalidation {}", invalidation, e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.caju.services;
+
+import com.caju.dto.CacheInvalidationDTO;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bus for a single instance: the local cache is already invalidated, so there is nobody else to tell.
+ */
+@Component
+@ConditionalOnProperty(name = "caju.cache.bus", havingValue = "local", matchIfMissing = true)
+public class LocalCacheInvalidationBus implements CacheInvalidationBus {
+
+    @Override
+    public void publish(CacheInvalidationDTO invalidation) {
+    }
+}
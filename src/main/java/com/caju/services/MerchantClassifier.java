@@ -0,0 +1,249 @@
+package com.caju.services;
+
+import com.caju.dto.MerchantOverrideDTO;
+import com.caju.entities.MerchantOverride;
+import com.caju.enums.CategoryWallet;
+import com.caju.repositories.MerchantOverrideRepository;
+import com.caju.utils.CallerLoadingCache;
+import com.caju.utils.KeywordAutomaton;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Resolves the wallet category from the merchant name with a keyword automaton, so a name is scanned once
+ * whatever the size of the dictionary. When keywords of several categories occur, the entry listed first wins.
+ *
+ * <p>The dictionary comes from {@code caju.merchant.keywords.location} or, with
+ * {@code caju.merchant.keywords.source=database}, from the {@code merchant_keywords} table ordered by priority.
+ * It is rebuilt and swapped atomically when the file or the table changes.
+ *
+ * <p>Exact-name overrides in {@code merchant_overrides} map a merchant to an MCC and win over the keywords.
+ * Resolutions are cached by normalized name in a bounded W-TinyLFU cache; entries expire after
+ * {@code caju.merchant.cache.expire-after-write-minutes} so overrides written by another instance are picked up.
+ */
+@Slf4j
+@Component
+public class MerchantClassifier {
+
+    private static final List<String> FOOD_KEYWORDS = List.of("comida", "food", "eat", "restaurante", "padaria");
+    private static final List<String> MEAL_KEYWORDS = List.of("mercado", "quitanda", "emporio", "meal", "market");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private MerchantOverrideRepository overrideRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // file | database
+    @Value("${caju.merchant.keywords.source:file}")
+    private String source = "file";
+    @Value("${caju.merchant.keywords.location:}")
+    private String location = "";
+    @Value("${caju.merchant.cache.max-size:100000}")
+    private long cacheMaxSize = 100_000;
+    @Value("${caju.merchant.cache.expire-after-write-minutes:10}")
+    private long cacheExpireAfterWriteMinutes = 10;
+
+    private volatile KeywordAutomaton<CategoryWallet> automaton = defaultAutomaton();
+    private Object loadedVersion;
+    private CallerLoadingCache<String, Resolution> cache = newCache();
+
+    @PostConstruct
+    public void load() {
+        cache = newCache();
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "merchant-categories");
+        }
+        if (!isConfigured()) return;
+        Object version = currentVersion();
+        automaton = readDictionary();
+        loadedVersion = version;
+        log.info("Merchant keywords loaded from {}", describe());
+    }
+
+    /**
+     * Rebuilds the dictionary when its source changed. A dictionary that fails to load is logged and the current one kept.
+     */
+    @Scheduled(fixedDelayString = "${caju.merchant.keywords.reload-interval-ms:30000}")
+    public void reloadIfChanged() {
+        if (!isConfigured()) return;
+        try {
+            Object version = currentVersion();
+            if (version == null || version.equals(loadedVersion)) return;
+            automaton = readDictionary();
+            loadedVersion = version;
+            cache.synchronous().invalidateAll();
+            log.info("Merchant keywords reloaded from {}", describe());
+        } catch (RuntimeException e) {
+            log.error("Unable to reload merchant keywords from {}, keeping the current ones", describe(), e);
+        }
+    }
+
+    /**
+     * Resolves what the merchant name says about the transaction: an explicit MCC override or a keyword category.
+     *
+     * @param  merchant  the merchant name
+     * @return           the resolution, {@link Resolution#NONE} if the name says nothing
+     */
+    public Resolution resolve(String merchant) {
+        if (merchant == null) return Resolution.NONE;
+        return cache.get(KeywordAutomaton.normalize(merchant), this::resolveUncached);
+    }
+
+    public List<MerchantOverride> getOverrides() {
+        return overrideRepository.findAll();
+    }
+
+    /**
+     * Maps a merchant name to an MCC, taking priority over the keywords from the next transaction on.
+     *
+     * @param  overrideDTO  the merchant name and its MCC
+     * @return              the saved override, keyed by the normalized name
+     * @throws IllegalArgumentException if the name has no letter or digit or the MCC is not four digits
+     */
+    public MerchantOverride saveOverride(MerchantOverrideDTO overrideDTO) {
+        String merchant = overrideDTO.merchant() == null ? "" : KeywordAutomaton.normalize(overrideDTO.merchant());
+        if (merchant.isEmpty()) {
+            throw new IllegalArgumentException("Merchant name has no letter or digit");
+        }
+        if (CategoryClassifier.parseMcc(overrideDTO.mcc()) < 0) {
+            throw new IllegalArgumentException("MCC must have four digits");
+        }
+        MerchantOverride saved = overrideRepository.save(new MerchantOverride(merchant, overrideDTO.mcc(), LocalDateTime.now()));
+        cache.synchronous().invalidate(merchant);
+        return saved;
+    }
+
+    /**
+     * Removes the override of a merchant name, returning it to keyword matching.
+     *
+     * @param  merchant  the merchant name, normalized or not
+     * @return           false if the name had no override
+     */
+    public boolean deleteOverride(String merchant) {
+        String normalized = KeywordAutomaton.normalize(merchant);
+        if (!overrideRepository.existsById(normalized)) return false;
+        overrideRepository.deleteById(normalized);
+        cache.synchronous().invalidate(normalized);
+        return true;
+    }
+
+    private Resolution resolveUncached(String normalizedMerchant) {
+        if (overrideRepository != null) {
+            String mcc = overrideRepository.findById(normalizedMerchant).map(MerchantOverride::getMcc).orElse(null);
+            if (mcc != null) return new Resolution(mcc, null);
+        }
+        CategoryWallet category = automaton.match(normalizedMerchant);
+        return category == null ? Resolution.NONE : new Resolution(null, category);
+    }
+
+    private CallerLoadingCache<String, Resolution> newCache() {
+        return new CallerLoadingCache<>(Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(Duration.ofMinutes(cacheExpireAfterWriteMinutes))
+                .recordStats());
+    }
+
+    private boolean isConfigured() {
+        return "database".equals(source) || !location.isBlank();
+    }
+
+    private KeywordAutomaton<CategoryWallet> readDictionary() {
+        List<String> keywords = new ArrayList<>();
+        List<CategoryWallet> categories = new ArrayList<>();
+        if ("database".equals(source)) {
+            jdbcTemplate.query("SELECT keyword, category FROM merchant_keywords ORDER BY priority DESC, id", resultSet -> {
+                keywords.add(resultSet.getString(1));
+                categories.add(CategoryWallet.valueOf(resultSet.getString(2)));
+            });
+        } else {
+            readFile(resource(), keywords, categories);
+        }
+        return KeywordAutomaton.build(keywords, categories);
+    }
+
+    /**
+     * Parses lines such as {@code padaria=FOOD}; blank lines and {@code #} comments are ignored.
+     */
+    static void readFile(Resource resource, List<String> keywords, List<CategoryWallet> categories) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                int separator = line.lastIndexOf('=');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException(String.format("Invalid merchant keyword at line %d: %s", lineNumber, line));
+                }
+                keywords.add(line.substring(0, separator).strip());
+                categories.add(CategoryWallet.valueOf(line.substring(separator + 1).strip().toUpperCase()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read merchant keywords " + resource.getDescription(), e);
+        }
+    }
+
+    private Object currentVersion() {
+        if ("database".equals(source)) {
+            return jdbcTemplate.queryForList("SELECT COUNT(*), MAX(id), MAX(updated_at) FROM merchant_keywords").get(0).values().stream()
+                    .map(Objects::toString).toList();
+        }
+        Resource resource = resource();
+        try {
+            return resource.isFile() ? resource.lastModified() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Resource resource() {
+        return new DefaultResourceLoader().getResource(location);
+    }
+
+    private String describe() {
+        return "database".equals(source) ? "table merchant_keywords" : location;
+    }
+
+    private static KeywordAutomaton<CategoryWallet> defaultAutomaton() {
+        List<String> keywords = new ArrayList<>(FOOD_KEYWORDS);
+        keywords.addAll(MEAL_KEYWORDS);
+        List<CategoryWallet> categories = new ArrayList<>();
+        FOOD_KEYWORDS.forEach(keyword -> categories.add(CategoryWallet.FOOD));
+        MEAL_KEYWORDS.forEach(keyword -> categories.add(CategoryWallet.MEAL));
+        return KeywordAutomaton.build(keywords, categories);
+    }
+
+    /**
+     * What a merchant name resolves to; at most one of the fields is set.
+     *
+     * @param overrideMcc      the MCC of an exact-name override
+     * @param keywordCategory  the category of the best matching keyword
+     */
+    public record Resolution(String overrideMcc, CategoryWallet keywordCategory) {
+        public static final Resolution NONE = new Resolution(null, null);
+    }
+}
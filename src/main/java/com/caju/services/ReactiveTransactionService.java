@@ -0,0 +1,217 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.dto.WalletChargeDTO;
+import com.caju.entities.Account;
+import com.caju.entities.Transaction;
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionResponseEnum;
+import com.caju.exceptions.AccountNotFoundException;
+import com.caju.exceptions.InsufficientFundsTransactionException;
+import com.caju.exceptions.UpdateAccountException;
+import com.caju.exceptions.WalletNotFoundException;
+import com.caju.metrics.AuthorizationMetrics;
+import com.caju.repositories.ReactiveAccountRepository;
+import com.caju.repositories.ReactiveTransactionRepository;
+import com.caju.repositories.ReactiveWalletRepository;
+import com.caju.utils.Money;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Non-blocking authorization path of the {@code reactive} profile. It makes the same single-statement debits as
+ * the database path of {@link TransactionService}, in an R2DBC transaction, without holding a thread while the
+ * database works. Requests are not serialized per account: the conditional debit already keeps a wallet from
+ * going negative.
+ *
+ * <p>Only the database storage is supported; the journal and the in-memory engine stay on the servlet stack.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveTransactionService {
+
+    @Autowired
+    private ReactiveAccountRepository accountRepository;
+    @Autowired
+    private ReactiveWalletRepository walletRepository;
+    @Autowired
+    private ReactiveTransactionRepository transactionRepository;
+    @Autowired
+    private TransactionalOperator transactionalOperator;
+    @Autowired
+    private CategoryClassifier categoryClassifier;
+    @Autowired
+    private AccountWalletCache cache;
+    @Autowired
+    private AuthorizationMetrics metrics;
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Value("${caju.authorization.deadline-ms:0}")
+    private long deadlineMs;
+    @Value("${caju.transaction.summary.enabled:true}")
+    private boolean summaryEnabled = true;
+
+    /**
+     * Authorizes a transaction. With {@code caju.authorization.deadline-ms} set, an authorization that has not
+     * finished its statements in time is rolled back and answered with {@code 91}; the commit itself is not timed.
+     *
+     * @param  transactionDTO            the transaction data transfer object
+     * @param  withFallback              whether the CASH wallet covers an insufficient category wallet
+     * @param  isConsiderMerchantForMCC  flag indicating whether to consider the merchant for MCC
+     * @return                           the response data transfer object
+     */
+    public Mono<ResponseDTO> authorize(TransactionDTO transactionDTO, boolean withFallback, boolean isConsiderMerchantForMCC) {
+        AuthorizationMetrics.Variant variant = AuthorizationMetrics.Variant.of(withFallback, isConsiderMerchantForMCC);
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            ResponseDTO original = idempotencyStore.find(transactionDTO);
+            Mono<ResponseDTO> authorization = original != null ? Mono.just(original) : Mono.fromCallable(() -> Long.valueOf(transactionDTO.account()))
+                    .flatMap(accountId -> authorize(accountId, transactionDTO, withFallback, isConsiderMerchantForMCC));
+            return authorization
+                    .onErrorResume(this::onError)
+                    .doOnNext(response -> metrics.recordTotal(variant, response.code(), System.nanoTime() - start));
+        });
+    }
+
+    /**
+     * Authorizes a batch of transactions one after the other, each in a transaction of its own.
+     *
+     * @param  transactionDTOs           the transactions to authorize, in the order they must be applied
+     * @param  withFallback              whether the CASH wallet covers an insufficient category wallet
+     * @param  isConsiderMerchantForMCC  flag indicating whether to consider the merchant for MCC
+     * @return                           one response per transaction, in the same order
+     */
+    public Mono<List<ResponseDTO>> authorizeBatch(List<TransactionDTO> transactionDTOs, boolean withFallback, boolean isConsiderMerchantForMCC) {
+        return Flux.fromIterable(transactionDTOs)
+                .concatMap(transactionDTO -> authorize(transactionDTO, withFallback, isConsiderMerchantForMCC))
+                .collectList();
+    }
+
+    /**
+     * Requests are not serialized per account here, so two tries of the same idempotency key can both miss the
+     * index; the second one fails to insert the key, is rolled back, and answers what the first one stored.
+     */
+    private Mono<ResponseDTO> authorize(Long accountId, TransactionDTO transactionDTO, boolean withFallback, boolean isConsiderMerchantForMCC) {
+        ResponseDTO approved = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        Instant createdAt = Instant.now();
+        Mono<WalletChargeDTO> authorization = resolveCategory(transactionDTO, isConsiderMerchantForMCC)
+                .flatMap(category -> debit(accountId, transactionDTO.totalAmount(), category, withFallback))
+                .flatMap(charged -> save(accountId, transactionDTO, charged).thenReturn(charged))
+                .flatMap(charged -> saveIdempotencyKey(accountId, transactionDTO, approved, createdAt).thenReturn(charged));
+        if (deadlineMs > 0) authorization = authorization.timeout(Duration.ofMillis(deadlineMs));
+
+        return transactionalOperator.transactional(authorization)
+                .doOnNext(charged -> cache.evictWallets(accountId))
+                .doOnNext(charged -> rememberIdempotencyKey(accountId, transactionDTO, approved, createdAt))
+                .map(charged -> approved)
+                .onErrorResume(InsufficientFundsTransactionException.class, insufficientFundsTransactionException -> {
+                    ResponseDTO rejected = new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(),
+                            "Transaction rejected: %s".formatted(insufficientFundsTransactionException.getMessage()));
+                    return saveIdempotencyKey(accountId, transactionDTO, rejected, createdAt)
+                            .then(Mono.fromRunnable(() -> rememberIdempotencyKey(accountId, transactionDTO, rejected, createdAt)))
+                            .thenReturn(rejected);
+                })
+                .onErrorResume(DuplicateKeyException.class, duplicateKeyException -> transactionRepository.findIdempotencyKey(accountId, transactionDTO.idempotencyKey())
+                        .switchIfEmpty(Mono.fromSupplier(() -> new ResponseDTO(TransactionResponseEnum.ERROR.getCode(),
+                                "Transaction error: idempotency key %s is in use by another authorization".formatted(transactionDTO.idempotencyKey())))));
+    }
+
+    private Mono<Void> saveIdempotencyKey(Long accountId, TransactionDTO transactionDTO, ResponseDTO response, Instant createdAt) {
+        if (transactionDTO.idempotencyKey() == null) return Mono.empty();
+        return transactionRepository.saveIdempotencyKey(accountId, transactionDTO.idempotencyKey(), response, createdAt);
+    }
+
+    /**
+     * Adds a committed answer to the index; the store cannot tell by itself when an R2DBC transaction commits.
+     */
+    private void rememberIdempotencyKey(Long accountId, TransactionDTO transactionDTO, ResponseDTO response, Instant createdAt) {
+        if (transactionDTO.idempotencyKey() != null) idempotencyStore.remember(accountId, transactionDTO.idempotencyKey(), response, createdAt);
+    }
+
+    /**
+     * Resolves the wallet to charge. A merchant missing from the classifier's cache is looked up in
+     * {@code merchant_overrides} over JDBC, so that variant runs off the event loop.
+     */
+    private Mono<CategoryWallet> resolveCategory(TransactionDTO transactionDTO, boolean isConsiderMerchantForMCC) {
+        Mono<CategoryWallet> category = Mono.fromCallable(() -> categoryClassifier.getCategoryForTransaction(transactionDTO, isConsiderMerchantForMCC));
+        return isConsiderMerchantForMCC ? category.subscribeOn(Schedulers.boundedElastic()) : category;
+    }
+
+    /**
+     * Debits the wallet in a single conditional update; wallets are only read when the debit is rejected,
+     * to tell a missing account or wallet from an insufficient balance.
+     */
+    private Mono<WalletChargeDTO> debit(Long accountId, BigDecimal totalAmount, CategoryWallet category, boolean withFallback) {
+        if (totalAmount == null) {
+            return Mono.error(new UpdateAccountException("Unable to identify the account or amount to be updated."));
+        }
+        // the DECIMAL(19, 2) column would round a fraction of a cent away instead of rejecting it
+        Money.toCents(totalAmount);
+        if (withFallback) {
+            return walletRepository.debitWithFallback(accountId, category, totalAmount)
+                    .switchIfEmpty(Mono.defer(() -> rejectWithFallback(accountId, totalAmount, category)));
+        }
+        return walletRepository.debitIfSufficientFunds(accountId, category, totalAmount)
+                .map(walletVersion -> new WalletChargeDTO(category, walletVersion))
+                .switchIfEmpty(Mono.defer(() -> reject(accountId, totalAmount, category)));
+    }
+
+    private Mono<WalletChargeDTO> reject(Long accountId, BigDecimal totalAmount, CategoryWallet category) {
+        return balance(accountId, category)
+                .flatMap(currentBalance -> Mono.error(new InsufficientFundsTransactionException(String.format(
+                        "Insufficient funds for transaction. Current balance for MEAL $%s - Transaction value $%s", currentBalance, totalAmount))));
+    }
+
+    private Mono<WalletChargeDTO> rejectWithFallback(Long accountId, BigDecimal totalAmount, CategoryWallet category) {
+        return balance(accountId, category)
+                .zipWith(balance(accountId, CategoryWallet.CASH))
+                .flatMap(balances -> Mono.error(new InsufficientFundsTransactionException(String.format(
+                        "Insufficient funds for transaction. Current balance for FOOD $%s - Current balance for CASH $%s - Transaction value $%s",
+                        balances.getT1(), balances.getT2(), totalAmount))));
+    }
+
+    private Mono<BigDecimal> balance(Long accountId, CategoryWallet category) {
+        return walletRepository.findBalance(accountId, category)
+                .switchIfEmpty(Mono.defer(() -> accountRepository.existsById(accountId)
+                        .flatMap(exists -> Mono.error(exists
+                                ? new WalletNotFoundException(String.format("No %s wallet found for account id %s", category.name(), accountId))
+                                : new AccountNotFoundException(String.format("No account found for id %s", accountId))))));
+    }
+
+    private Mono<Void> save(Long accountId, TransactionDTO transactionDTO, WalletChargeDTO charged) {
+        Account account = new Account();
+        account.setId(accountId);
+        Transaction transaction = Transaction.builder()
+                .account(account)
+                .totalAmount(transactionDTO.totalAmount())
+                .mcc(transactionDTO.mcc())
+                .merchant(transactionDTO.merchant())
+                .category(charged.category())
+                .walletVersion(charged.walletVersion())
+                .build();
+        Mono<Void> insert = transactionRepository.save(transaction);
+        return summaryEnabled ? insert.then(transactionRepository.addToSpendingSummary(transaction)) : insert;
+    }
+
+    private Mono<ResponseDTO> onError(Throwable throwable) {
+        if (throwable instanceof TimeoutException) {
+            return Mono.just(new ResponseDTO(TransactionResponseEnum.DEADLINE_EXCEEDED.getCode(), "Transaction error: authorization deadline of %d ms exceeded".formatted(deadlineMs)));
+        }
+        return Mono.just(new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(throwable.getMessage())));
+    }
+}
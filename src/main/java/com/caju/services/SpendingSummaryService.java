@@ -0,0 +1,183 @@
+package com.caju.services;
+
+import com.caju.dto.SpendingSummaryDTO;
+import com.caju.dto.SummaryBackfillDTO;
+import com.caju.entities.Transaction;
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Daily spending per account and wallet category, kept in {@code spending_summaries} so support and risk
+ * queries read a handful of rows instead of aggregating {@code transactions}.
+ *
+ * <p>Every path that writes approved debits calls {@link #record} in the same database transaction, so a
+ * summary never counts a transaction that was rolled back. Every upsert first locks the rows of its accounts
+ * in {@code accounts}, in id order, and holds them until that transaction ends; the backfill locks the same rows
+ * for its whole partition, so live upserts and a rebuild of the same accounts never interleave.
+ */
+@Slf4j
+@Service
+public class SpendingSummaryService {
+
+    private static final String UPSERT = "MERGE INTO spending_summaries s USING (VALUES (CAST(? AS BIGINT), CAST(? AS VARCHAR(10)), CAST(? AS DATE), " +
+            "CAST(? AS BIGINT), CAST(? AS DECIMAL(19, 2)), CAST(? AS DECIMAL(19, 2)))) " +
+            "v(id_account, category, spent_on, transaction_count, total_amount, max_amount) " +
+            "ON s.id_account = v.id_account AND s.category = v.category AND s.spent_on = v.spent_on " +
+            "WHEN MATCHED THEN UPDATE SET transaction_count = s.transaction_count + v.transaction_count, " +
+            "total_amount = s.total_amount + v.total_amount, max_amount = GREATEST(s.max_amount, v.max_amount) " +
+            "WHEN NOT MATCHED THEN INSERT (id_account, category, spent_on, transaction_count, total_amount, max_amount) " +
+            "VALUES (v.id_account, v.category, v.spent_on, v.transaction_count, v.total_amount, v.max_amount)";
+
+    private static final String LOCK_ACCOUNTS = "SELECT id FROM accounts WHERE id IN (%s) ORDER BY id FOR UPDATE";
+
+    private static final Comparator<Key> KEY_ORDER = Comparator.comparing(Key::idAccount)
+            .thenComparing(Key::day)
+            .thenComparing(Key::category);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${caju.transaction.summary.enabled:true}")
+    private boolean enabled = true;
+    @Value("${caju.transaction.summary.backfill-parallelism:4}")
+    private int backfillParallelism = 4;
+
+    /**
+     * Adds approved debits to their daily summaries. Transactions of the same day and wallet are folded
+     * first, so a batch costs one upsert per summary touched; accounts are locked and summaries written in
+     * key order so concurrent batches cannot deadlock. Credits and transactions without an amount are ignored.
+     *
+     * @param  transactions   the transactions just written, inside the transaction that wrote them
+     */
+    public void record(Collection<Transaction> transactions) {
+        if (!enabled || transactions.isEmpty()) return;
+        Map<Key, Delta> deltas = new TreeMap<>(KEY_ORDER);
+        for (Transaction transaction : transactions) {
+            if (transaction.getOperation() != TransactionOperation.DEBIT || transaction.getTotalAmount() == null || transaction.getCategory() == null) continue;
+            LocalDate day = transaction.getCreatedAt() == null ? LocalDate.now() : transaction.getCreatedAt().toLocalDate();
+            deltas.computeIfAbsent(new Key(transaction.getAccount().getId(), transaction.getCategory(), day), key -> new Delta())
+                    .add(transaction.getTotalAmount());
+        }
+        if (deltas.isEmpty()) return;
+        Object[] accounts = deltas.keySet().stream().map(Key::idAccount).distinct().toArray();
+        jdbcTemplate.queryForList(LOCK_ACCOUNTS.formatted(String.join(", ", Collections.nCopies(accounts.length, "?"))), Long.class, accounts);
+        List<Object[]> arguments = new ArrayList<>(deltas.size());
+        deltas.forEach((key, delta) -> arguments.add(new Object[]{
+                key.idAccount(), key.category().name(), Date.valueOf(key.day()), delta.count, delta.total, delta.max}));
+        jdbcTemplate.batchUpdate(UPSERT, arguments);
+    }
+
+    /**
+     * Reads the daily summaries of an account.
+     *
+     * @param  idAccount   the account
+     * @param  category    the wallet category, or null for all of them
+     * @param  from        the first day included, or null
+     * @param  to          the last day included, or null
+     * @return             the summaries in day and category order
+     */
+    public List<SpendingSummaryDTO> getSummaries(Long idAccount, CategoryWallet category, LocalDate from, LocalDate to) {
+        StringBuilder sql = new StringBuilder("SELECT id_account, category, spent_on, transaction_count, total_amount, max_amount FROM spending_summaries WHERE id_account = ?");
+        List<Object> arguments = new ArrayList<>(List.of(idAccount));
+        if (category != null) {
+            sql.append(" AND category = ?");
+            arguments.add(category.name());
+        }
+        if (from != null) {
+            sql.append(" AND spent_on >= ?");
+            arguments.add(Date.valueOf(from));
+        }
+        if (to != null) {
+            sql.append(" AND spent_on <= ?");
+            arguments.add(Date.valueOf(to));
+        }
+        sql.append(" ORDER BY spent_on, category");
+        return jdbcTemplate.query(sql.toString(), ROW_MAPPER, arguments.toArray());
+    }
+
+    /**
+     * Recomputes every summary from the transaction history. Accounts are split into
+     * {@code caju.transaction.summary.backfill-parallelism} partitions by id, each rebuilt by a set-based
+     * aggregate in its own database transaction, so partitions run in parallel and a failed one can be rerun.
+     * A partition first locks its accounts, which waits for the live upserts in flight on them and holds new ones
+     * back until it commits, so debits authorized during the backfill are counted exactly once.
+     *
+     * @return   the number of partitions and of summaries written
+     */
+    public SummaryBackfillDTO backfill() {
+        long start = System.nanoTime();
+        int partitions = Math.max(1, backfillParallelism);
+        ExecutorService executor = Executors.newFixedThreadPool(partitions);
+        try {
+            List<CompletableFuture<Integer>> futures = new ArrayList<>(partitions);
+            for (int partition = 0; partition < partitions; partition++) {
+                int current = partition;
+                futures.add(CompletableFuture.supplyAsync(() -> backfillPartition(current, partitions), executor));
+            }
+            long summaries = futures.stream().mapToLong(CompletableFuture::join).sum();
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            log.info("Spending summaries backfilled: {} summaries in {} partitions, {} ms", summaries, partitions, elapsedMillis);
+            return new SummaryBackfillDTO(partitions, summaries, elapsedMillis);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private int backfillPartition(int partition, int partitions) {
+        Integer written = transactionTemplate.execute(status -> {
+            jdbcTemplate.queryForList("SELECT id FROM accounts WHERE MOD(id, ?) = ? ORDER BY id FOR UPDATE", Long.class, partitions, partition);
+            jdbcTemplate.update("DELETE FROM spending_summaries WHERE MOD(id_account, ?) = ?", partitions, partition);
+            return jdbcTemplate.update("INSERT INTO spending_summaries (id_account, category, spent_on, transaction_count, total_amount, max_amount) " +
+                    "SELECT id_account, category, CAST(created_at AS DATE), COUNT(*), SUM(total_amount), MAX(total_amount) FROM transactions " +
+                    "WHERE operation = 'DEBIT' AND category IS NOT NULL AND total_amount IS NOT NULL AND MOD(id_account, ?) = ? " +
+                    "GROUP BY id_account, category, CAST(created_at AS DATE)", partitions, partition);
+        });
+        return written == null ? 0 : written;
+    }
+
+    private static final RowMapper<SpendingSummaryDTO> ROW_MAPPER = (resultSet, rowNum) -> new SpendingSummaryDTO(
+            resultSet.getLong("id_account"),
+            CategoryWallet.valueOf(resultSet.getString("category")),
+            resultSet.getDate("spent_on").toLocalDate(),
+            resultSet.getLong("transaction_count"),
+            resultSet.getBigDecimal("total_amount"),
+            resultSet.getBigDecimal("max_amount"));
+
+    private record Key(Long idAccount, CategoryWallet category, LocalDate day) {
+    }
+
+    private static final class Delta {
+        private long count;
+        private BigDecimal total = BigDecimal.ZERO;
+        private BigDecimal max;
+
+        private void add(BigDecimal amount) {
+            count++;
+            total = total.add(amount);
+            max = max == null ? amount : max.max(amount);
+        }
+    }
+}
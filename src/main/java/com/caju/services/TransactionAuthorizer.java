@@ -0,0 +1,147 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.enums.TransactionResponseEnum;
+import com.caju.exceptions.LaneTimeoutException;
+import com.caju.metrics.AuthorizationMetrics;
+import com.caju.metrics.AuthorizationTrace;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point for every authorization request, routed to the in-memory engine when it is enabled, otherwise to
+ * the database-backed {@link TransactionService}.
+ */
+@Service
+public class TransactionAuthorizer {
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired(required = false)
+    private InMemoryAuthorizationEngine authorizationEngine;
+
+    @Autowired
+    private AccountLaneDispatcher laneDispatcher;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private AuthorizationMetrics metrics;
+
+    @Value("${caju.authorization.deadline-ms:0}")
+    private long deadlineMs;
+
+    /**
+     * Authorizes a transaction. With {@code caju.authorization.deadline-ms} set, the calling thread waits at
+     * most that long and then answers {@code 91}; the lane stops at its next stage check, rolling the debit
+     * back, or compensates it if it had already committed.
+     *
+     * @param  transactionDTO            the transaction data transfer object
+     * @param  withFallback              whether the CASH wallet covers an insufficient category wallet
+     * @param  isConsiderMerchantForMCC  flag indicating whether to consider the merchant for MCC
+     * @return                           the response data transfer object
+     */
+    public ResponseDTO authorize(TransactionDTO transactionDTO, boolean withFallback, boolean isConsiderMerchantForMCC) {
+        long start = System.nanoTime();
+        AuthorizationMetrics.Variant variant = AuthorizationMetrics.Variant.of(withFallback, isConsiderMerchantForMCC);
+        AuthorizationDeadline deadline = deadlineMs > 0 ? AuthorizationDeadline.startingAt(start, TimeUnit.MILLISECONDS.toNanos(deadlineMs)) : null;
+        ResponseDTO response;
+        try {
+            Callable<ResponseDTO> task = () -> routeTraced(transactionDTO, withFallback, isConsiderMerchantForMCC, variant, deadline);
+            response = deadline == null
+                    ? laneDispatcher.dispatch(transactionDTO.account(), task)
+                    : laneDispatcher.dispatch(transactionDTO.account(), task, deadline.remainingNanos());
+        } catch (LaneTimeoutException laneTimeoutException) {
+            response = onLaneTimeout(deadline, variant, laneTimeoutException);
+        } catch (RejectedExecutionException | IllegalStateException exception) {
+            response = new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(exception.getMessage()));
+        }
+        metrics.recordTotal(variant, response.code(), System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * Authorizes a batch of transactions, answering one response per item in request order.
+     * On the database path the whole batch runs in a single transaction with its wallets locked up front;
+     * the in-memory engine authorizes item by item on the account lanes.
+     *
+     * @param  transactionDTOs           the transactions to authorize
+     * @param  withFallback              whether the CASH wallet covers an insufficient category wallet
+     * @param  isConsiderMerchantForMCC  flag indicating whether to consider the merchant for MCC
+     * @return                           the responses, in the same order as the transactions
+     */
+    public List<ResponseDTO> authorizeBatch(List<TransactionDTO> transactionDTOs, boolean withFallback, boolean isConsiderMerchantForMCC) {
+        if (authorizationEngine == null) {
+            return transactionService.createTransactions(transactionDTOs, withFallback, isConsiderMerchantForMCC);
+        }
+        List<ResponseDTO> responses = new ArrayList<>(transactionDTOs.size());
+        for (TransactionDTO transactionDTO : transactionDTOs) {
+            responses.add(authorize(transactionDTO, withFallback, isConsiderMerchantForMCC));
+        }
+        return responses;
+    }
+
+    /**
+     * Routes the request on the lane thread with its stage trace and deadline open, then records the stages
+     * under the code the caller answered: {@code 91} if it gave up waiting, whatever the lane decided.
+     */
+    private ResponseDTO routeTraced(TransactionDTO transactionDTO, boolean withFallback, boolean isConsiderMerchantForMCC,
+                                    AuthorizationMetrics.Variant variant, AuthorizationDeadline deadline) {
+        AuthorizationTrace.begin();
+        if (deadline != null) deadline.open();
+        ResponseDTO response = null;
+        try {
+            response = route(transactionDTO, withFallback, isConsiderMerchantForMCC);
+            return response;
+        } finally {
+            AuthorizationTrace trace = AuthorizationTrace.end();
+            String resultCode = response == null ? TransactionResponseEnum.ERROR.getCode() : response.code();
+            if (deadline != null) {
+                deadline.close();
+                if (deadline.isAbandoned()) resultCode = TransactionResponseEnum.DEADLINE_EXCEEDED.getCode();
+                if (deadline.exceededIn() != null || deadline.isAbandoned()) {
+                    metrics.deadlineExceeded(variant, deadline.exceededIn() == null ? AuthorizationMetrics.AFTER_LAST_CHECK : deadline.exceededIn().getTag());
+                }
+                if (deadline.isCompensated()) metrics.compensated(variant);
+            }
+            metrics.recordStages(variant, resultCode, trace);
+        }
+    }
+
+    /**
+     * Answers {@code 91} unless the lane claimed an approval in the meantime, in which case the approval stands.
+     */
+    private ResponseDTO onLaneTimeout(AuthorizationDeadline deadline, AuthorizationMetrics.Variant variant, LaneTimeoutException laneTimeoutException) {
+        if (!deadline.abandon()) {
+            return new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        }
+        // a task cancelled before it started never reaches the lane's own bookkeeping
+        if (laneTimeoutException.neverStarted()) metrics.deadlineExceeded(variant, AuthorizationMetrics.LANE_WAIT);
+        return new ResponseDTO(TransactionResponseEnum.DEADLINE_EXCEEDED.getCode(), "Transaction error: authorization deadline of %d ms exceeded".formatted(deadlineMs));
+    }
+
+    /**
+     * Answers a retried idempotency key from the index before anything else; on the lane, so a retry cannot
+     * overtake the authorization it repeats.
+     */
+    private ResponseDTO route(TransactionDTO transactionDTO, boolean withFallback, boolean isConsiderMerchantForMCC) {
+        ResponseDTO original = idempotencyStore.find(transactionDTO);
+        if (original != null) return original;
+        if (authorizationEngine != null) {
+            return authorizationEngine.authorize(transactionDTO, isConsiderMerchantForMCC, withFallback);
+        }
+        return withFallback
+                ? transactionService.createTransactionWithFallback(transactionDTO, isConsiderMerchantForMCC)
+                : transactionService.createTransaction(transactionDTO, isConsiderMerchantForMCC);
+    }
+}
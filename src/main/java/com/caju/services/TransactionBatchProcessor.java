@@ -0,0 +1,189 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.dto.TransactionMessageDTO;
+import com.caju.enums.TransactionResponseEnum;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Authorizes a micro-batch of transaction messages consumed from Kafka and publishes one reply per message.
+ * Records of the same account are processed in the order they were consumed; different accounts in the
+ * batch are processed in parallel. Replies carry the request correlation id and go to the request's
+ * reply topic header when present, so clients can use a {@code ReplyingKafkaTemplate}.
+ *
+ * <p>A batch that cannot be fully answered fails at its first unanswered record, so the container commits the
+ * records before it and redelivers the rest. Decisions are remembered by topic, partition and offset, and a
+ * redelivered record is answered with its decision again instead of being authorized twice. That memory is local
+ * to the process, so a message without an idempotency key gets one derived from its topic, partition and offset:
+ * a record redelivered to another instance after a rebalance is answered from the {@link IdempotencyStore}.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "caju.kafka.enabled", havingValue = "true")
+public class TransactionBatchProcessor {
+
+    @Autowired
+    private TransactionAuthorizer authorizer;
+    @Autowired
+    private KafkaTemplate<String, String> kafkaTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${caju.kafka.reply-topic:transaction-replies}")
+    private String replyTopic;
+
+    private final ExecutorService accountWorkers;
+    private final Cache<RecordId, ResponseDTO> decisions;
+
+    public TransactionBatchProcessor(@Value("${caju.kafka.batch-parallelism:8}") int parallelism,
+                                     @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                     @Value("${caju.kafka.decisions-max-size:100000}") long decisionsMaxSize) {
+        this.decisions = Caffeine.newBuilder().maximumSize(decisionsMaxSize).build();
+        this.accountWorkers = Executors.newFixedThreadPool(parallelism, virtualThreads ? Thread.ofVirtual().name("kafka-batch-worker").factory() : runnable -> {
+            Thread thread = new Thread(runnable, "kafka-batch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        accountWorkers.shutdown();
+    }
+
+    /**
+     * Authorizes every record of the batch and waits until all replies are acknowledged by the broker,
+     * so the batch offsets are only committed once every request has been answered.
+     *
+     * @param  records   the consumed batch
+     * @return           the responses, in the same order as the records
+     * @throws BatchListenerFailedException at the first record that was not authorized or whose reply failed
+     */
+    public List<ResponseDTO> process(List<ConsumerRecord<String, String>> records) {
+        ResponseDTO[] responses = new ResponseDTO[records.size()];
+        TransactionMessageDTO[] messages = new TransactionMessageDTO[records.size()];
+        Map<String, List<Integer>> positionsByAccount = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            ConsumerRecord<String, String> record = records.get(i);
+            responses[i] = decisions.getIfPresent(RecordId.of(record));
+            if (responses[i] != null) continue;
+            try {
+                messages[i] = objectMapper.readValue(record.value(), TransactionMessageDTO.class);
+            } catch (JsonProcessingException | IllegalArgumentException exception) {
+                log.warn("Unreadable transaction message at {}-{}@{}", record.topic(), record.partition(), record.offset());
+                responses[i] = decide(record, new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(exception.getMessage())));
+                continue;
+            }
+            if (messages[i].transaction() == null) {
+                responses[i] = decide(record, new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: message without transaction"));
+                continue;
+            }
+            if (messages[i].transaction().idempotencyKey() == null) messages[i] = withRecordKey(messages[i], record);
+            // the account in the message, not the record key, decides which requests must keep their order
+            positionsByAccount.computeIfAbsent(String.valueOf(messages[i].transaction().account()), key -> new ArrayList<>()).add(i);
+        }
+
+        List<CompletableFuture<Void>> accounts = new ArrayList<>(positionsByAccount.size());
+        for (List<Integer> positions : positionsByAccount.values()) {
+            accounts.add(CompletableFuture.runAsync(() -> {
+                for (int position : positions) {
+                    TransactionMessageDTO message = messages[position];
+                    try {
+                        responses[position] = decide(records.get(position), authorizer.authorize(message.transaction(), message.withFallback(), message.considerMerchantForMCC()));
+                    } catch (RuntimeException exception) {
+                        // the remaining records of the account stay unanswered, failing the batch below
+                        log.error("Authorization of transaction message at {}-{}@{} failed", records.get(position).topic(), records.get(position).partition(), records.get(position).offset(), exception);
+                        return;
+                    }
+                }
+            }, accountWorkers));
+        }
+        CompletableFuture.allOf(accounts.toArray(CompletableFuture[]::new)).join();
+
+        List<CompletableFuture<SendResult<String, String>>> replies = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            replies.add(responses[i] == null ? null : reply(records.get(i), responses[i]));
+        }
+        for (int i = 0; i < records.size(); i++) {
+            ConsumerRecord<String, String> record = records.get(i);
+            if (replies.get(i) == null) {
+                throw new BatchListenerFailedException("Transaction message at %s-%d@%d was not authorized".formatted(record.topic(), record.partition(), record.offset()), i);
+            }
+            try {
+                replies.get(i).join();
+            } catch (CompletionException exception) {
+                throw new BatchListenerFailedException("Reply to transaction message at %s-%d@%d failed".formatted(record.topic(), record.partition(), record.offset()), exception.getCause(), i);
+            }
+        }
+        return Arrays.asList(responses);
+    }
+
+    /**
+     * Keys the transaction by the position of its record, which stays the same on every redelivery.
+     */
+    static TransactionMessageDTO withRecordKey(TransactionMessageDTO message, ConsumerRecord<?, ?> record) {
+        TransactionDTO transaction = message.transaction();
+        String position = "%s-%d-%d".formatted(record.topic(), record.partition(), record.offset());
+        String idempotencyKey = "kafka-" + UUID.nameUUIDFromBytes(position.getBytes(StandardCharsets.UTF_8));
+        return new TransactionMessageDTO(new TransactionDTO(transaction.account(), transaction.totalAmount(), transaction.mcc(), transaction.merchant(), idempotencyKey),
+                message.withFallback(), message.considerMerchantForMCC());
+    }
+
+    private ResponseDTO decide(ConsumerRecord<String, String> record, ResponseDTO response) {
+        decisions.put(RecordId.of(record), response);
+        return response;
+    }
+
+    private CompletableFuture<SendResult<String, String>> reply(ConsumerRecord<String, String> record, ResponseDTO response) {
+        Header replyTopicHeader = record.headers().lastHeader(KafkaHeaders.REPLY_TOPIC);
+        String topic = replyTopicHeader != null ? new String(replyTopicHeader.value(), StandardCharsets.UTF_8) : replyTopic;
+        Header correlationHeader = record.headers().lastHeader(KafkaHeaders.CORRELATION_ID);
+        byte[] correlationId = correlationHeader != null
+                ? correlationHeader.value()
+                : "%s-%d-%d".formatted(record.topic(), record.partition(), record.offset()).getBytes(StandardCharsets.UTF_8);
+
+        try {
+            ProducerRecord<String, String> producerRecord = new ProducerRecord<>(topic, record.key(), objectMapper.writeValueAsString(response));
+            producerRecord.headers().add(KafkaHeaders.CORRELATION_ID, correlationId);
+            return kafkaTemplate.send(producerRecord);
+        } catch (JsonProcessingException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    private record RecordId(String topic, int partition, long offset) {
+
+        private static RecordId of(ConsumerRecord<?, ?> record) {
+            return new RecordId(record.topic(), record.partition(), record.offset());
+        }
+    }
+}
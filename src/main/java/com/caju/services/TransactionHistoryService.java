@@ -0,0 +1,163 @@
+package com.caju.services;
+
+import com.caju.dto.TransactionHistoryDTO;
+import com.caju.dto.TransactionPageDTO;
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionOperation;
+import com.caju.utils.JsonRowWriter;
+import com.caju.utils.PageCursor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the transaction history in {@code (created_at, id)} order without loading it whole. Pages continue from
+ * an opaque cursor holding the last row read, so every page is an index range scan whatever its depth, and
+ * exports stream rows from a JDBC cursor straight to the response.
+ */
+@Service
+public class TransactionHistoryService {
+
+    private static final String COLUMNS = "SELECT id, id_account, total_amount, mcc, merchant, category, operation, created_at FROM transactions";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${caju.transaction.history.max-page-size:1000}")
+    private int maxPageSize = 1000;
+    @Value("${caju.transaction.history.fetch-size:1000}")
+    private int fetchSize = 1000;
+
+    /**
+     * Reads one page of an account's transactions within a time range.
+     *
+     * @param  idAccount   the account
+     * @param  from        the first creation time included, or null
+     * @param  to          the first creation time excluded, or null
+     * @param  cursor      the {@code nextCursor} of the previous page, or null for the first page
+     * @param  limit       the page size, capped at {@code caju.transaction.history.max-page-size}
+     * @return             the page and the cursor of the next one
+     * @throws IllegalArgumentException if the cursor is malformed or the limit is not positive
+     */
+    public TransactionPageDTO getPage(Long idAccount, LocalDateTime from, LocalDateTime to, String cursor, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Page size must be positive");
+        int pageSize = Math.min(limit, maxPageSize);
+        Query query = filter(idAccount, from, to);
+        if (cursor != null && !cursor.isBlank()) {
+            Cursor position = Cursor.decode(cursor);
+            query.where("(created_at, id) > (?, ?)", Timestamp.valueOf(position.createdAt()), position.id());
+        }
+        query.sql.append(" ORDER BY created_at, id LIMIT ?");
+        query.arguments.add(pageSize + 1);
+
+        List<TransactionHistoryDTO> rows = jdbcTemplate.query(query.sql.toString(), ROW_MAPPER, query.arguments.toArray());
+        if (rows.size() <= pageSize) return new TransactionPageDTO(rows, null);
+        List<TransactionHistoryDTO> page = rows.subList(0, pageSize);
+        TransactionHistoryDTO last = page.get(pageSize - 1);
+        return new TransactionPageDTO(List.copyOf(page), new Cursor(last.createdAt(), last.id()).encode());
+    }
+
+    /**
+     * Writes the matching transactions as newline-delimited JSON, reading them through a cursor of
+     * {@code caju.transaction.history.fetch-size} rows so memory does not grow with the result.
+     *
+     * @param  idAccount   the account, or null for every account
+     * @param  from        the first creation time included, or null
+     * @param  to          the first creation time excluded, or null
+     * @param  output      where the lines are written
+     */
+    public void export(Long idAccount, LocalDateTime from, LocalDateTime to, OutputStream output) {
+        stream(idAccount, from, to, JsonRowWriter.ndjson(objectMapper, output));
+    }
+
+    /**
+     * Writes every transaction as a single JSON array, streamed the same way as {@link #export}.
+     *
+     * @param  output   where the array is written
+     */
+    public void exportAsArray(OutputStream output) {
+        JsonRowWriter writer = JsonRowWriter.array(objectMapper, output);
+        stream(null, null, null, writer);
+        writer.finish();
+    }
+
+    private void stream(Long idAccount, LocalDateTime from, LocalDateTime to, JsonRowWriter writer) {
+        Query query = filter(idAccount, from, to);
+        query.sql.append(" ORDER BY created_at, id");
+        JdbcTemplate streaming = new JdbcTemplate(dataSource);
+        streaming.setFetchSize(fetchSize);
+        // drivers such as PostgreSQL only honour the fetch size inside a transaction
+        RowCallbackHandler handler = resultSet -> writer.write(ROW_MAPPER.mapRow(resultSet, 0));
+        transactionTemplate.executeWithoutResult(status -> streaming.query(query.sql.toString(), handler, query.arguments.toArray()));
+    }
+
+    private static Query filter(Long idAccount, LocalDateTime from, LocalDateTime to) {
+        Query query = new Query();
+        if (idAccount != null) query.where("id_account = ?", idAccount);
+        if (from != null) query.where("created_at >= ?", Timestamp.valueOf(from));
+        if (to != null) query.where("created_at < ?", Timestamp.valueOf(to));
+        return query;
+    }
+
+    private static final RowMapper<TransactionHistoryDTO> ROW_MAPPER = (resultSet, rowNum) -> {
+        String category = resultSet.getString("category");
+        return new TransactionHistoryDTO(
+                resultSet.getLong("id"),
+                resultSet.getLong("id_account"),
+                resultSet.getBigDecimal("total_amount"),
+                resultSet.getString("mcc"),
+                resultSet.getString("merchant"),
+                category == null ? null : CategoryWallet.valueOf(category),
+                TransactionOperation.valueOf(resultSet.getString("operation")),
+                resultSet.getTimestamp("created_at").toLocalDateTime());
+    };
+
+    private static final class Query {
+        private final StringBuilder sql = new StringBuilder(COLUMNS);
+        private final List<Object> arguments = new ArrayList<>();
+        private boolean filtered;
+
+        private void where(String condition, Object... values) {
+            sql.append(filtered ? " AND " : " WHERE ").append(condition);
+            arguments.addAll(List.of(values));
+            filtered = true;
+        }
+    }
+
+    /**
+     * Position after the last row of a page, encoded as a {@link PageCursor} of {@code createdAt|id}.
+     */
+    record Cursor(LocalDateTime createdAt, long id) {
+
+        String encode() {
+            return PageCursor.encode(createdAt, id);
+        }
+
+        static Cursor decode(String cursor) {
+            String[] parts = PageCursor.decode(cursor, 2);
+            try {
+                return new Cursor(LocalDateTime.parse(parts[0]), Long.parseLong(parts[1]));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Malformed cursor " + cursor);
+            }
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package com.caju.services;
+
+import com.caju.enums.CategoryWallet;
+import com.caju.utils.Money;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of authorization decisions, written to memory-mapped segments instead of the transactions
+ * table and loaded into the database by the {@link TransactionJournalProjector}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "caju.transaction.storage", havingValue = "journal")
+public class TransactionJournal {
+
+    static final int RECORD_SIZE = 56;
+    private static final int CRC_OFFSET = RECORD_SIZE - Integer.BYTES;
+    private static final int FLAGS_OFFSET = 51;
+    private static final byte FLAG_VOID = 1;
+    private static final byte FLAG_PENDING = 2;
+    private static final int MCC_LENGTH = 4;
+    private static final String SEGMENT_PREFIX = "journal-";
+    // segments of the 48-byte layout, without the wallet version, were named .seg
+    private static final String SEGMENT_SUFFIX = ".v2.seg";
+    private static final String MERCHANTS_FILE = "merchants.dat";
+
+    @Value("${caju.journal.directory:./data/journal}")
+    private Path directory;
+    @Value("${caju.journal.segment-size-mb:64}")
+    private int segmentSizeMb = 64;
+
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+    private final List<Record> recoveredPending = new ArrayList<>();
+    // written under the lock, but read without it when records are read back
+    private final Map<String, Integer> merchantIds = new ConcurrentHashMap<>();
+    private final Map<Integer, String> merchantNames = new ConcurrentHashMap<>();
+    // guards the segment and additions to the merchant dictionary; not a monitor, which would pin a virtual thread that waits on it
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private FileChannel merchantsChannel;
+    private boolean merchantsDirty;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segmentBuffer;
+    private long segmentFirstSequence;
+    private int recordsPerSegment;
+    private long nextSequence;
+    private volatile long lastAppendedSequence;
+    private volatile long durableSequence;
+    private long flagUpdates;
+    private volatile long durableFlagUpdates;
+
+    public record Record(long sequence, long account, long amountInCents, String mcc, String merchant,
+                         LocalDateTime createdAt, String resultCode, CategoryWallet category, long walletVersion, boolean voided) {
+
+        public BigDecimal amount() {
+            return Money.fromCents(amountInCents);
+        }
+    }
+
+    /**
+     * Opens the journal, loading the merchant dictionary and positioning after the last valid record.
+     */
+    @PostConstruct
+    public void open() {
+        lock.lock();
+        try {
+            Files.createDirectories(directory);
+            recordsPerSegment = (int) ((long) segmentSizeMb * 1024 * 1024 / RECORD_SIZE);
+            loadMerchants();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX)).toList()) {
+                    if (!file.getFileName().toString().endsWith(SEGMENT_SUFFIX)) {
+                        throw new IllegalStateException("Journal segment %s has the previous record layout; let the previous version project it before upgrading".formatted(file));
+                    }
+                    segments.put(firstSequenceOf(file), file);
+                }
+            }
+            long last = 0;
+            int count = 0;
+            if (!segments.isEmpty()) {
+                Map.Entry<Long, Path> tail = segments.lastEntry();
+                mapSegment(tail.getKey(), tail.getValue());
+                while (count < recordsPerSegment && readRecord(segmentBuffer, count * RECORD_SIZE) != null) {
+                    count++;
+                }
+                last = count == 0 ? tail.getKey() - 1 : tail.getKey() + count - 1;
+                segmentBuffer.position(count * RECORD_SIZE);
+            }
+            nextSequence = last + 1;
+            lastAppendedSequence = last;
+            collectPending();
+            durableSequence = last;
+            if (segmentBuffer == null) rollSegment();
+            log.info("Transaction journal opened with {} segments, resuming at sequence {}", segments.size(), nextSequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open transaction journal", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.lock();
+        try {
+            force();
+            if (segmentChannel != null) segmentChannel.close();
+            if (merchantsChannel != null) merchantsChannel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close transaction journal", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a decision to the journal. When called inside a database transaction the record is written as
+     * pending, forced before the transaction commits and held back from the projector until it completes; it is
+     * confirmed once the transaction commits, and flagged as void if it rolls back. Outside a transaction the record is
+     * written but not yet forced; callers acknowledging an approval must {@link #awaitDurable(long)} the
+     * returned sequence first.
+     *
+     * @param  account       the account id
+     * @param  amount        the transaction amount, with at most two decimal places
+     * @param  mcc           the merchant category code
+     * @param  merchant      the merchant name
+     * @param  resultCode    the response code answered for the transaction
+     * @param  category      the wallet charged, or the wallet that had insufficient funds
+     * @param  walletVersion the version the charged wallet got from the debit
+     * @return               the sequence assigned to the record
+     * @throws ArithmeticException if the amount has more than two decimal places
+     * @throws IllegalArgumentException if the mcc does not fit the record, see {@link #checkMcc(String)}
+     */
+    public long append(long account, BigDecimal amount, String mcc, String merchant, String resultCode, CategoryWallet category, long walletVersion) {
+        long amountInCents = Money.toCents(amount);
+        checkMcc(mcc);
+        boolean transactional = TransactionSynchronizationManager.isSynchronizationActive();
+        long sequence;
+        lock.lock();
+        try {
+            sequence = write(account, amountInCents, mcc, merchant, resultCode, category, walletVersion, transactional ? FLAG_PENDING : 0);
+            inFlight.add(sequence);
+        } finally {
+            lock.unlock();
+        }
+        if (transactional) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    awaitDurable(sequence);
+                }
+
+                @Override
+                public void afterCommit() {
+                    awaitFlagUpdate(flagRecord(sequence, (byte) 0));
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    try {
+                        if (status != STATUS_COMMITTED) {
+                            log.warn("Transaction for journal record {} did not commit, flagging it as void", sequence);
+                            awaitFlagUpdate(flagRecord(sequence, FLAG_VOID));
+                        }
+                    } finally {
+                        inFlight.remove(sequence);
+                    }
+                }
+            });
+        } else {
+            inFlight.remove(sequence);
+        }
+        return sequence;
+    }
+
+    /**
+     * Records a previous run left pending, whose transaction may or may not have committed. They are held back
+     * from the projector until each one is resolved.
+     */
+    public List<Record> recoveredPending() {
+        lock.lock();
+        try {
+            return List.copyOf(recoveredPending);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Confirms or voids a record a previous run left pending and releases it to the projector.
+     *
+     * @param  sequence    the sequence of a record returned by {@link #recoveredPending()}
+     * @param  committed   whether its transaction committed
+     */
+    public void resolvePending(long sequence, boolean committed) {
+        awaitFlagUpdate(flagRecord(sequence, committed ? 0 : FLAG_VOID));
+        lock.lock();
+        try {
+            recoveredPending.removeIf(record -> record.sequence() == sequence);
+        } finally {
+            lock.unlock();
+        }
+        inFlight.remove(sequence);
+        log.info("Journal record {} left pending was resolved as {}", sequence, committed ? "committed" : "void");
+    }
+
+    /**
+     * Rejects an mcc the record has no room for, so it is never stored cut short. Callers check it before
+     * debiting a wallet they could not undo.
+     *
+     * @throws IllegalArgumentException if the mcc is longer than four ASCII characters
+     */
+    public void checkMcc(String mcc) {
+        if (mcc != null && mcc.getBytes(StandardCharsets.US_ASCII).length > MCC_LENGTH) {
+            throw new IllegalArgumentException("MCC %s is longer than %d characters".formatted(mcc, MCC_LENGTH));
+        }
+    }
+
+    /**
+     * Blocks until the record with the given sequence is on disk. Concurrent callers share a single force.
+     */
+    public void awaitDurable(long sequence) {
+        if (durableSequence >= sequence) return;
+        forceLock.lock();
+        try {
+            if (durableSequence >= sequence) return;
+            force();
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    /**
+     * Highest sequence appended so far, settled or not.
+     */
+    public long lastAppendedSequence() {
+        return lastAppendedSequence;
+    }
+
+    /**
+     * Highest sequence whose record is durable and whose transaction has completed, so the projector may load it.
+     */
+    public long settledSequence() {
+        awaitDurable(lastAppendedSequence);
+        long settled = durableSequence;
+        Long oldestInFlight = inFlight.isEmpty() ? null : inFlight.first();
+        return oldestInFlight == null ? settled : Math.min(settled, oldestInFlight - 1);
+    }
+
+    /**
+     * Reads up to {@code max} records starting at {@code fromSequence}, never past {@code toSequence}.
+     */
+    public List<Record> read(long fromSequence, long toSequence, int max) {
+        List<Record> records = new ArrayList<>();
+        long sequence = fromSequence;
+        try {
+            while (sequence <= toSequence && records.size() < max) {
+                Map.Entry<Long, Path> segment = segments.floorEntry(sequence);
+                if (segment == null) {
+                    Long first = segments.ceilingKey(sequence);
+                    if (first == null || first > toSequence) break;
+                    sequence = first;
+                    continue;
+                }
+                int index = (int) (sequence - segment.getKey());
+                if (index >= recordsPerSegment) {
+                    Long next = segments.higherKey(segment.getKey());
+                    if (next == null) break;
+                    sequence = next;
+                    continue;
+                }
+                int count = (int) Math.min(Math.min(toSequence - sequence + 1, max - records.size()), recordsPerSegment - index);
+                ByteBuffer buffer = ByteBuffer.allocate(count * RECORD_SIZE);
+                try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+                    channel.read(buffer, (long) index * RECORD_SIZE);
+                }
+                for (int i = 0; i < count; i++) {
+                    Record record = readRecord(buffer, i * RECORD_SIZE);
+                    if (record == null) return records;
+                    records.add(record);
+                }
+                sequence += count;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read transaction journal", e);
+        }
+        return records;
+    }
+
+    /**
+     * Deletes closed segments whose records are all at or below the given sequence.
+     */
+    public void deleteSegmentsUpTo(long sequence) {
+        long current;
+        lock.lock();
+        try {
+            current = segmentFirstSequence;
+        } finally {
+            lock.unlock();
+        }
+        for (Map.Entry<Long, Path> segment : segments.headMap(current).entrySet()) {
+            Long next = segments.higherKey(segment.getKey());
+            if (next == null || next - 1 > sequence) break;
+            try {
+                Files.deleteIfExists(segment.getValue());
+                segments.remove(segment.getKey());
+            } catch (IOException e) {
+                log.warn("Unable to delete journal segment {}", segment.getValue(), e);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the flags of a record in place. A record in a segment that was already rolled away is forced
+     * right here; one in the current segment waits for {@link #awaitFlagUpdate(long)}.
+     *
+     * @return  the number of the update, to wait for
+     */
+    private long flagRecord(long sequence, byte flags) {
+        lock.lock();
+        try {
+            Map.Entry<Long, Path> segment = segments.floorEntry(sequence);
+            int offset = (int) (sequence - segment.getKey()) * RECORD_SIZE;
+            if (segment.getKey() == segmentFirstSequence) {
+                segmentBuffer.put(offset + FLAGS_OFFSET, flags);
+                segmentBuffer.putInt(offset + CRC_OFFSET, checksum(segmentBuffer, offset));
+            } else {
+                try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+                    channel.read(record, offset);
+                    record.put(FLAGS_OFFSET, flags);
+                    record.putInt(CRC_OFFSET, checksum(record, 0));
+                    channel.write(record.rewind(), offset);
+                    channel.force(false);
+                }
+            }
+            return ++flagUpdates;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to flag transaction journal record " + sequence, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the given flag update is on disk; transactions committing together share a single force.
+     */
+    private void awaitFlagUpdate(long update) {
+        if (durableFlagUpdates >= update) return;
+        forceLock.lock();
+        try {
+            if (durableFlagUpdates >= update) return;
+            force();
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    private long write(long account, long amountInCents, String mcc, String merchant, String resultCode, CategoryWallet category, long walletVersion, byte flags) {
+        if (nextSequence - segmentFirstSequence >= recordsPerSegment) rollSegment();
+        long sequence = nextSequence;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.putLong(sequence);
+        buffer.putLong(account);
+        buffer.putLong(amountInCents);
+        buffer.putLong(Instant.now().toEpochMilli());
+        buffer.putLong(walletVersion);
+        buffer.putInt(merchant == null ? -1 : merchantId(merchant));
+        buffer.put(fixedAscii(mcc, MCC_LENGTH));
+        buffer.put(fixedAscii(resultCode, 2));
+        buffer.put((byte) (category == null ? 0 : category.ordinal() + 1));
+        buffer.put(flags);
+        buffer.putInt(CRC_OFFSET, checksum(buffer, 0));
+        segmentBuffer.put(buffer.array());
+        nextSequence++;
+        lastAppendedSequence = sequence;
+        return sequence;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset, CRC_OFFSET));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Forces the current segment and any new merchant names. Appenders are only blocked while the buffers are
+     * picked, not during the force itself; segments that were rolled away were already forced when closed.
+     */
+    private void force() {
+        long target;
+        long targetFlagUpdates;
+        MappedByteBuffer buffer;
+        boolean forceMerchants;
+        lock.lock();
+        try {
+            target = lastAppendedSequence;
+            targetFlagUpdates = flagUpdates;
+            buffer = segmentBuffer;
+            forceMerchants = merchantsDirty;
+            merchantsDirty = false;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (forceMerchants) merchantsChannel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to force journal merchant dictionary", e);
+        }
+        buffer.force();
+        durableSequence = Math.max(durableSequence, target);
+        durableFlagUpdates = Math.max(durableFlagUpdates, targetFlagUpdates);
+    }
+
+    private void rollSegment() {
+        try {
+            if (segmentBuffer != null) {
+                segmentBuffer.force();
+                segmentChannel.close();
+            }
+            Path file = directory.resolve("%s%020d%s".formatted(SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX));
+            mapSegment(nextSequence, file);
+            segments.put(nextSequence, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to roll transaction journal segment", e);
+        }
+    }
+
+    private void mapSegment(long firstSequence, Path file) throws IOException {
+        segmentChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentBuffer = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+        segmentFirstSequence = firstSequence;
+    }
+
+    /**
+     * Holds back the records a previous run left pending, until they are resolved.
+     */
+    private void collectPending() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(recordsPerSegment, 4096) * RECORD_SIZE);
+        for (Path segment : segments.values()) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                boolean end = false;
+                for (long position = 0; !end && position < (long) recordsPerSegment * RECORD_SIZE; position += buffer.capacity()) {
+                    buffer.clear();
+                    channel.read(buffer, position);
+                    for (int offset = 0; offset < buffer.position(); offset += RECORD_SIZE) {
+                        Record record = readRecord(buffer, offset);
+                        if (record == null) {
+                            end = true;
+                            break;
+                        }
+                        if (buffer.get(offset + FLAGS_OFFSET) != FLAG_PENDING) continue;
+                        recoveredPending.add(record);
+                        inFlight.add(record.sequence());
+                    }
+                    end |= buffer.position() < buffer.capacity();
+                }
+            }
+        }
+        if (!recoveredPending.isEmpty()) log.warn("Transaction journal has {} records left pending by the previous run", recoveredPending.size());
+    }
+
+    private Record readRecord(ByteBuffer buffer, int offset) {
+        long sequence = buffer.getLong(offset);
+        if (sequence == 0 || buffer.getInt(offset + CRC_OFFSET) != checksum(buffer, offset)) return null;
+        int merchantId = buffer.getInt(offset + 40);
+        int category = buffer.get(offset + 50);
+        return new Record(sequence,
+                buffer.getLong(offset + 8),
+                buffer.getLong(offset + 16),
+                readAscii(buffer, offset + 44, MCC_LENGTH),
+                merchantId < 0 ? null : merchantNames.get(merchantId),
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(buffer.getLong(offset + 24)), ZoneId.systemDefault()),
+                readAscii(buffer, offset + 48, 2),
+                category == 0 ? null : CategoryWallet.values()[category - 1],
+                buffer.getLong(offset + 32),
+                (buffer.get(offset + FLAGS_OFFSET) & FLAG_VOID) != 0);
+    }
+
+    private int merchantId(String merchant) {
+        Integer id = merchantIds.get(merchant);
+        if (id != null) return id;
+        int newId = merchantIds.size();
+        byte[] name = merchant.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(2 * Integer.BYTES + name.length);
+        entry.putInt(newId).putInt(name.length).put(name).flip();
+        try {
+            while (entry.hasRemaining()) {
+                merchantsChannel.write(entry);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to append to journal merchant dictionary", e);
+        }
+        merchantsDirty = true;
+        merchantIds.put(merchant, newId);
+        merchantNames.put(newId, merchant);
+        return newId;
+    }
+
+    private void loadMerchants() throws IOException {
+        merchantsChannel = FileChannel.open(directory.resolve(MERCHANTS_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer content = ByteBuffer.allocate((int) merchantsChannel.size());
+        merchantsChannel.read(content, 0);
+        content.flip();
+        while (content.remaining() >= 2 * Integer.BYTES) {
+            int id = content.getInt();
+            int length = content.getInt();
+            if (length < 0 || content.remaining() < length) {
+                content.position(content.position() - 2 * Integer.BYTES);
+                break;
+            }
+            byte[] name = new byte[length];
+            content.get(name);
+            String merchant = new String(name, StandardCharsets.UTF_8);
+            merchantIds.put(merchant, id);
+            merchantNames.put(id, merchant);
+        }
+        // a torn last entry was never referenced by a durable record
+        merchantsChannel.truncate(content.position());
+        merchantsChannel.position(content.position());
+    }
+
+    private static long firstSequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static byte[] fixedAscii(String value, int length) {
+        byte[] bytes = new byte[length];
+        if (value != null) {
+            byte[] source = value.getBytes(StandardCharsets.US_ASCII);
+            if (source.length > length) throw new IllegalArgumentException("%s is longer than %d characters".formatted(value, length));
+            System.arraycopy(source, 0, bytes, 0, source.length);
+        }
+        return bytes;
+    }
+
+    private static String readAscii(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        int end = length;
+        while (end > 0 && bytes[end - 1] == 0) end--;
+        return new String(bytes, 0, end, StandardCharsets.US_ASCII);
+    }
+}
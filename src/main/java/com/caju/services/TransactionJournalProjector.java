@@ -0,0 +1,183 @@
+package com.caju.services;
+
+import com.caju.entities.Account;
+import com.caju.entities.Transaction;
+import com.caju.entities.WriteBehindCheckpoint;
+import com.caju.enums.TransactionResponseEnum;
+import com.caju.repositories.TransactionRepository;
+import com.caju.repositories.WriteBehindCheckpointRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Loads approved records from the {@link TransactionJournal} into the transactions table so they can be queried.
+ * The last projected sequence is stored in the same database transaction as the rows, so a restart resumes
+ * exactly where the previous run stopped, and segments are deleted once fully projected. Records a crash left
+ * pending are resolved against the version of their wallet before projection starts.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "caju.transaction.storage", havingValue = "journal")
+public class TransactionJournalProjector {
+
+    private static final String CHECKPOINT_NAME = "transaction-journal";
+
+    @Autowired
+    private TransactionJournal journal;
+    @Autowired
+    private TransactionRepository transactionRepository;
+    @Autowired
+    private SpendingSummaryService summaryService;
+    @Autowired
+    private WriteBehindCheckpointRepository checkpointRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${caju.journal.projector.batch-size:500}")
+    private int batchSize = 500;
+    @Value("${caju.journal.projector.interval-ms:100}")
+    private long intervalMs = 100;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private Thread projector;
+    private volatile boolean running;
+    private volatile long projectedSequence;
+
+    @PostConstruct
+    public void start() {
+        projectedSequence = checkpointRepository.findById(CHECKPOINT_NAME).map(WriteBehindCheckpoint::getLastSequence).orElse(0L);
+        resolvePending();
+        running = true;
+        projector = new Thread(this::run, "transaction-journal-projector");
+        projector.setDaemon(true);
+        projector.start();
+    }
+
+    /**
+     * Lets the projector catch up with everything settled before the datasource goes away.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (projector != null) {
+            projector.join(TimeUnit.SECONDS.toMillis(30));
+        }
+    }
+
+    /**
+     * Projects every settled record not yet in the database.
+     *
+     * @return the number of records read from the journal
+     */
+    public int projectPending() {
+        lock.lock();
+        try {
+            int total = 0;
+            int read;
+            do {
+                read = projectBatch(journal.settledSequence());
+                total += read;
+            } while (read == batchSize);
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every record appended to the journal so far has been projected.
+     *
+     * @return false if the projector did not get there within the timeout
+     */
+    public boolean awaitProjected(long timeoutMs) {
+        long target = journal.lastAppendedSequence();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (projectedSequence < target) {
+            if (System.nanoTime() >= deadline) return false;
+            sleepQuietly();
+            if (Thread.currentThread().isInterrupted()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Resolves the records a crash left pending, before any new debit can move their wallets: the debit of a
+     * record committed if and only if its wallet already reached the version the debit gave it.
+     */
+    private void resolvePending() {
+        for (TransactionJournal.Record record : journal.recoveredPending()) {
+            List<Long> versions = jdbcTemplate.queryForList("SELECT version FROM wallets WHERE id_account = ? AND category = ?",
+                    Long.class, record.account(), record.category() == null ? null : record.category().name());
+            journal.resolvePending(record.sequence(), !versions.isEmpty() && versions.get(0) >= record.walletVersion());
+        }
+    }
+
+    private int projectBatch(long settledSequence) {
+        if (settledSequence <= projectedSequence) return 0;
+        List<TransactionJournal.Record> records = journal.read(projectedSequence + 1, settledSequence, batchSize);
+        if (records.isEmpty()) return 0;
+        long lastSequence = records.get(records.size() - 1).sequence();
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Transaction> transactions = new ArrayList<>(records.size());
+            for (TransactionJournal.Record record : records) {
+                if (record.voided() || !TransactionResponseEnum.APPROVED.getCode().equals(record.resultCode())) continue;
+                transactions.add(Transaction.builder()
+                        .account(entityManager.getReference(Account.class, record.account()))
+                        .totalAmount(record.amount())
+                        .mcc(record.mcc())
+                        .merchant(record.merchant())
+                        .category(record.category())
+                        .walletVersion(record.walletVersion())
+                        .createdAt(record.createdAt())
+                        .build());
+            }
+            transactionRepository.saveAll(transactions);
+            summaryService.record(transactions);
+            checkpointRepository.save(new WriteBehindCheckpoint(CHECKPOINT_NAME, lastSequence));
+        });
+        projectedSequence = lastSequence;
+        journal.deleteSegmentsUpTo(lastSequence);
+        return records.size();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (projectPending() == 0) TimeUnit.MILLISECONDS.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Transaction journal projection failed, retrying in {} ms", intervalMs, e);
+                sleepQuietly();
+            }
+        }
+        projectPending();
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(intervalMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
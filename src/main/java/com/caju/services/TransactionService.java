@@ -1,23 +1,34 @@
 package com.caju.services;
 
 import com.caju.entities.Account;
+import com.caju.entities.Wallet;
 import com.caju.enums.CategoryWallet;
 import com.caju.exceptions.AccountNotFoundException;
+import com.caju.exceptions.DeadlineExceededException;
 import com.caju.dto.TransactionDTO;
+import com.caju.dto.WalletChargeDTO;
 import com.caju.entities.Transaction;
 import com.caju.enums.TransactionResponseEnum;
+import com.caju.exceptions.UpdateAccountException;
 import com.caju.exceptions.WalletNotFoundException;
+import com.caju.metrics.AuthorizationTrace;
+import com.caju.metrics.AuthorizationTrace.Stage;
 import com.caju.repositories.TransactionRepository;
 import com.caju.exceptions.InsufficientFundsTransactionException;
 import com.caju.dto.ResponseDTO;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import static com.caju.enums.CategoryWallet.getCategoryByMcc;
-import static com.caju.utils.Utils.getMccByMerchant;
 
 @Service
 public class TransactionService {
@@ -31,14 +42,17 @@ public class TransactionService {
     @Autowired
     private WalletService walletService;
 
-    /**
-     * Retrieves all transactions from the repository.
-     *
-     * @return  A list of Transaction objects representing all transactions.
-     */
-    public List<Transaction> getAllTransactions() {
-        return repository.findAll();
-    }
+    @Autowired
+    private CategoryClassifier categoryClassifier;
+
+    @Autowired
+    private SpendingSummaryService summaryService;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired(required = false)
+    private TransactionJournal journal;
 
     /**
      * Authenticates a transaction by updating the account balance and saving the transaction details.
@@ -52,23 +66,41 @@ public class TransactionService {
     @Transactional
     public ResponseDTO createTransaction(TransactionDTO transactionDTO, boolean isConsiderMerchantForMCC) {
         try {
+            long stage = AuthorizationTrace.start();
             Account account = accountService.getAccountById(transactionDTO.account());
-            CategoryWallet categoryForTransaction = getCategoryForTransaction(transactionDTO, isConsiderMerchantForMCC);
-            walletService.updateAccountBalanceWallet(account, transactionDTO.totalAmount(), categoryForTransaction);
+            AuthorizationTrace.stop(Stage.ACCOUNT_LOOKUP, stage);
+            AuthorizationDeadline.check(Stage.ACCOUNT_LOOKUP);
+            ResponseDTO original = claimIdempotencyKey(account, transactionDTO);
+            if (original != null) return original;
+            stage = AuthorizationTrace.start();
+            CategoryWallet categoryForTransaction = categoryClassifier.getCategoryForTransaction(transactionDTO, isConsiderMerchantForMCC);
+            AuthorizationTrace.stop(Stage.CATEGORY_RESOLUTION, stage);
+            AuthorizationDeadline.check(Stage.CATEGORY_RESOLUTION);
+            long walletVersion = walletService.updateAccountBalanceWallet(account, transactionDTO.totalAmount(), categoryForTransaction);
+            AuthorizationDeadline.check(Stage.DEBIT_WRITE);
 
-            Transaction transaction = Transaction.builder()
-                    .account(account)
-                    .totalAmount(transactionDTO.totalAmount())
-                    .mcc(transactionDTO.mcc())
-                    .merchant(transactionDTO.merchant())
-                    .build();
+            stage = AuthorizationTrace.start();
+            ResponseDTO response = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+            settleIdempotencyKey(transactionDTO, response);
+            saveTransaction(account, transactionDTO, new WalletChargeDTO(categoryForTransaction, walletVersion));
+            AuthorizationTrace.stop(Stage.TRANSACTION_INSERT, stage);
+            AuthorizationDeadline.check(Stage.TRANSACTION_INSERT);
+            AuthorizationDeadline.onApproved(() -> walletService.compensateDebit(account, categoryForTransaction, transactionDTO));
 
-            repository.save(transaction);
-
-            return new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+            return response;
         } catch (InsufficientFundsTransactionException insufficientFundsTransactionException) {
-            return new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(), "Transaction rejected: %s".formatted(insufficientFundsTransactionException.getMessage()));
+            ResponseDTO response = new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(), "Transaction rejected: %s".formatted(insufficientFundsTransactionException.getMessage()));
+            try {
+                return settleIdempotencyKey(transactionDTO, response);
+            } catch (RuntimeException e) {
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                return new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(e.getMessage()));
+            }
+        } catch (DeadlineExceededException deadlineExceededException) {
+            return onDeadlineExceeded(deadlineExceededException);
         } catch (Exception | WalletNotFoundException | AccountNotFoundException exception) {
+            // errors are not stored, so a key taken for the request is released with whatever it wrote
+            if (transactionDTO.idempotencyKey() != null) TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             return new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(exception.getMessage()));
         }
     }
@@ -83,35 +115,192 @@ public class TransactionService {
     @Transactional
     public ResponseDTO createTransactionWithFallback(TransactionDTO transactionDTO, boolean isConsiderMerchantForMCC) {
         try {
+            long stage = AuthorizationTrace.start();
             Account account = accountService.getAccountById(transactionDTO.account());
-            CategoryWallet categoryForTransaction = getCategoryForTransaction(transactionDTO, isConsiderMerchantForMCC);
-            walletService.updateAccountBalanceWalletWithFallback(account, transactionDTO.totalAmount(), categoryForTransaction);
+            AuthorizationTrace.stop(Stage.ACCOUNT_LOOKUP, stage);
+            AuthorizationDeadline.check(Stage.ACCOUNT_LOOKUP);
+            ResponseDTO original = claimIdempotencyKey(account, transactionDTO);
+            if (original != null) return original;
+            stage = AuthorizationTrace.start();
+            CategoryWallet categoryForTransaction = categoryClassifier.getCategoryForTransaction(transactionDTO, isConsiderMerchantForMCC);
+            AuthorizationTrace.stop(Stage.CATEGORY_RESOLUTION, stage);
+            AuthorizationDeadline.check(Stage.CATEGORY_RESOLUTION);
+            WalletChargeDTO charged = walletService.updateAccountBalanceWalletWithFallback(account, transactionDTO.totalAmount(), categoryForTransaction);
+            AuthorizationDeadline.check(Stage.DEBIT_WRITE);
 
+            stage = AuthorizationTrace.start();
+            ResponseDTO response = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+            settleIdempotencyKey(transactionDTO, response);
+            saveTransaction(account, transactionDTO, charged);
+            AuthorizationTrace.stop(Stage.TRANSACTION_INSERT, stage);
+            AuthorizationDeadline.check(Stage.TRANSACTION_INSERT);
+            AuthorizationDeadline.onApproved(() -> walletService.compensateDebit(account, charged.category(), transactionDTO));
+
+            return response;
+        } catch (InsufficientFundsTransactionException insufficientFundsTransactionException) {
+            ResponseDTO response = new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(), "Transaction rejected: %s".formatted(insufficientFundsTransactionException.getMessage()));
+            try {
+                return settleIdempotencyKey(transactionDTO, response);
+            } catch (RuntimeException e) {
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                return new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(e.getMessage()));
+            }
+        } catch (DeadlineExceededException deadlineExceededException) {
+            return onDeadlineExceeded(deadlineExceededException);
+        } catch (Exception | WalletNotFoundException | AccountNotFoundException exception) {
+            // errors are not stored, so a key taken for the request is released with whatever it wrote
+            if (transactionDTO.idempotencyKey() != null) TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(exception.getMessage()));
+        }
+    }
+
+    /**
+     * Authenticates a batch of transactions in a single database transaction.
+     * Accounts and wallets are loaded with one query each, debits are applied in cents in request order
+     * and the approved transactions are written together at the end. Idempotency keys already answered,
+     * in the store or earlier in the batch, get their original response.
+     *
+     * @param  transactionDTOs           the transactions to authorize, in the order they must be applied
+     * @param  withFallback              whether the CASH wallet covers an insufficient category wallet
+     * @param  isConsiderMerchantForMCC  flag indicating whether to consider the merchant for MCC
+     * @return                           one response per transaction, in the same order
+     */
+    @Transactional
+    public List<ResponseDTO> createTransactions(List<TransactionDTO> transactionDTOs, boolean withFallback, boolean isConsiderMerchantForMCC) {
+        Set<Long> accountIds = new HashSet<>();
+        for (TransactionDTO transactionDTO : transactionDTOs) {
+            Long accountId = parseAccountId(transactionDTO.account());
+            if (accountId != null) accountIds.add(accountId);
+        }
+
+        Map<Long, Account> accounts = new HashMap<>();
+        for (Account account : accountService.getAccountsByIds(accountIds)) {
+            accounts.put(account.getId(), account);
+        }
+        Map<Long, Map<CategoryWallet, Wallet>> wallets = new HashMap<>();
+        for (Wallet wallet : walletService.getWalletsForUpdate(accounts.keySet())) {
+            wallets.computeIfAbsent(wallet.getId().getAccount().getId(), id -> new EnumMap<>(CategoryWallet.class))
+                    .put(wallet.getId().getCategory(), wallet);
+        }
+
+        Map<IdempotencyStore.Key, ResponseDTO> answered = idempotencyStore.findAll(transactionDTOs);
+        List<ResponseDTO> responses = new ArrayList<>(transactionDTOs.size());
+        List<Transaction> approved = new ArrayList<>();
+        for (TransactionDTO transactionDTO : transactionDTOs) {
+            IdempotencyStore.Key key = IdempotencyStore.Key.of(transactionDTO);
+            ResponseDTO original = key == null ? null : answered.get(key);
+            // a key taken by a concurrent authorization since the lookup is answered on its own, before any debit
+            if (original == null && key != null && accounts.containsKey(key.accountId())) original = idempotencyStore.claim(key.accountId(), key.idempotencyKey());
+            if (original != null) {
+                responses.add(original);
+                continue;
+            }
+            try {
+                Account account = accounts.get(parseAccountId(transactionDTO.account()));
+                if (account == null) throw new AccountNotFoundException(String.format("No account found for id %s", transactionDTO.account()));
+                CategoryWallet categoryForTransaction = categoryClassifier.getCategoryForTransaction(transactionDTO, isConsiderMerchantForMCC);
+                if (transactionDTO.totalAmount() == null) throw new UpdateAccountException("Unable to identify the account or amount to be updated.");
+                if (journal != null) journal.checkMcc(transactionDTO.mcc());
+                WalletChargeDTO charged = walletService.debitLoadedWallet(wallets.getOrDefault(account.getId(), Map.of()), account, transactionDTO.totalAmountInCents(), categoryForTransaction, withFallback);
+
+                if (journal != null) {
+                    journal.append(account.getId(), transactionDTO.totalAmount(), transactionDTO.mcc(), transactionDTO.merchant(), TransactionResponseEnum.APPROVED.getCode(), charged.category(), charged.walletVersion());
+                } else {
+                    approved.add(Transaction.builder()
+                            .account(account)
+                            .totalAmount(transactionDTO.totalAmount())
+                            .mcc(transactionDTO.mcc())
+                            .merchant(transactionDTO.merchant())
+                            .category(charged.category())
+                            .walletVersion(charged.walletVersion())
+                            .build());
+                }
+
+                responses.add(new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved"));
+            } catch (InsufficientFundsTransactionException insufficientFundsTransactionException) {
+                responses.add(new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(), "Transaction rejected: %s".formatted(insufficientFundsTransactionException.getMessage())));
+            } catch (Exception | WalletNotFoundException | AccountNotFoundException exception) {
+                responses.add(new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(exception.getMessage())));
+            }
+            if (key != null && accounts.containsKey(key.accountId())) {
+                ResponseDTO response = responses.get(responses.size() - 1);
+                idempotencyStore.settle(key.accountId(), key.idempotencyKey(), response);
+                if (IdempotencyStore.isStored(response)) answered.put(key, response);
+            }
+        }
+
+        if (journal == null) {
+            repository.saveAll(approved);
+            summaryService.record(approved);
+        }
+        return responses;
+    }
+
+    /**
+     * Records an approved transaction in the journal when it is enabled, otherwise in the transactions table.
+     * A journal failure marks the surrounding transaction for rollback, so the debit is undone with it; the
+     * journal forces the record before that transaction commits.
+     */
+    private void saveTransaction(Account account, TransactionDTO transactionDTO, WalletChargeDTO charged) {
+        if (journal == null) {
             Transaction transaction = Transaction.builder()
                     .account(account)
                     .totalAmount(transactionDTO.totalAmount())
                     .mcc(transactionDTO.mcc())
                     .merchant(transactionDTO.merchant())
+                    .category(charged.category())
+                    .walletVersion(charged.walletVersion())
                     .build();
 
-            repository.save(transaction);
+            // flushed here so the insert runs inside the TRANSACTION_INSERT timing instead of at commit
+            repository.saveAndFlush(transaction);
+            summaryService.record(List.of(transaction));
+            return;
+        }
+        try {
+            journal.append(account.getId(), transactionDTO.totalAmount(), transactionDTO.mcc(), transactionDTO.merchant(), TransactionResponseEnum.APPROVED.getCode(), charged.category(), charged.walletVersion());
+        } catch (RuntimeException e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the request's idempotency key before anything is debited.
+     *
+     * @return   the response already stored under the key, or null to authorize
+     */
+    private ResponseDTO claimIdempotencyKey(Account account, TransactionDTO transactionDTO) {
+        if (transactionDTO.idempotencyKey() == null) return null;
+        return idempotencyStore.claim(account.getId(), transactionDTO.idempotencyKey());
+    }
 
-            return new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
-        } catch (InsufficientFundsTransactionException insufficientFundsTransactionException) {
-            return new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(), "Transaction rejected: %s".formatted(insufficientFundsTransactionException.getMessage()));
-        } catch (Exception | WalletNotFoundException | AccountNotFoundException exception) {
-            return new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: %s".formatted(exception.getMessage()));
+    /**
+     * Stores the answer under the idempotency key claimed for the request, in the authorization's transaction.
+     *
+     * @return   the response
+     */
+    private ResponseDTO settleIdempotencyKey(TransactionDTO transactionDTO, ResponseDTO response) {
+        if (transactionDTO.idempotencyKey() != null) {
+            idempotencyStore.settle(parseAccountId(transactionDTO.account()), transactionDTO.idempotencyKey(), response);
         }
+        return response;
     }
 
-    private static CategoryWallet getCategoryForTransaction(TransactionDTO transactionDTO, boolean isConsiderMerchantForMCC) {
-        if (isConsiderMerchantForMCC) {
-            String mcc = getMccByMerchant(transactionDTO.merchant());
-            if (mcc != null) {
-                return getCategoryByMcc(mcc);
-            }
+    /**
+     * Rolls back whatever the authorization already wrote, so nothing outlives a {@code 91} answer.
+     */
+    private static ResponseDTO onDeadlineExceeded(DeadlineExceededException deadlineExceededException) {
+        TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        return new ResponseDTO(TransactionResponseEnum.DEADLINE_EXCEEDED.getCode(), "Transaction error: %s".formatted(deadlineExceededException.getMessage()));
+    }
+
+    private static Long parseAccountId(String account) {
+        try {
+            return Long.valueOf(account);
+        } catch (NumberFormatException | NullPointerException e) {
+            return null;
         }
-        return getCategoryByMcc(transactionDTO.mcc());
     }
 
 }
@@ -0,0 +1,352 @@
+package com.caju.services;
+
+import com.caju.dto.RecoveryReportDTO;
+import com.caju.dto.WalletDriftDTO;
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionOperation;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Rebuilds wallet balances from the last snapshot plus every transaction recorded after it, debits and credits,
+ * and reports any difference against the stored wallets.
+ *
+ * <p>Transaction ids are handed out in blocks and do not follow commit order, so the boundary of a snapshot is
+ * the version of each wallet instead: every row records the version its change gave the wallet, and versions are
+ * raised under the wallet's lock. A replay adds the rows above the snapshot's version and up to the version the
+ * stored wallet was read at, so it needs no lock and runs alongside authorizations. Rows and snapshots written
+ * before versions were recorded are replayed by transaction id. A rebuild locks one wallet at a time, and only
+ * to replay it again and write its correction.
+ *
+ * <p>The history is streamed in parallel over disjoint account ranges; balances are sums, so rows need no
+ * ordering. Set {@code caju.recovery.mode} to {@code verify} or {@code rebuild} to run once at startup, before the
+ * in-memory engine loads its balances.
+ */
+@Slf4j
+@Service
+public class WalletRecoveryService {
+
+    /**
+     * Rows after the snapshot of their wallet; rows without a version are kept when the snapshot has none either
+     * and their id is above the given one.
+     */
+    private static final String HISTORY_AFTER_SNAPSHOT = "SELECT t.id_account, t.category, t.operation, t.total_amount, t.mcc, t.wallet_version FROM transactions t "
+            + "LEFT JOIN wallet_snapshots s ON s.id_account = t.id_account AND s.category = t.category "
+            + "WHERE t.id_account BETWEEN ? AND ? "
+            + "AND (t.wallet_version > COALESCE(s.wallet_version, -1) OR (t.wallet_version IS NULL AND s.wallet_version IS NULL AND t.id > ?))";
+    private static final String WALLET_HISTORY_AFTER_SNAPSHOT = "SELECT id_account, category, operation, total_amount, mcc, wallet_version FROM transactions "
+            + "WHERE id_account = ? AND (category = ? OR category IS NULL) "
+            + "AND (wallet_version > ? OR (wallet_version IS NULL AND id > ?))";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private CategoryClassifier categoryClassifier;
+    @Autowired
+    private AccountWalletCache cache;
+    @Autowired(required = false)
+    private TransactionJournalProjector journalProjector;
+
+    // off | verify | rebuild
+    @Value("${caju.recovery.mode:off}")
+    private String startupMode = "off";
+    @Value("${caju.authorization.engine:database}")
+    private String authorizationEngine = "database";
+    @Value("${caju.recovery.parallelism:4}")
+    private int parallelism = 4;
+    @Value("${caju.recovery.fetch-size:10000}")
+    private int fetchSize = 10000;
+    @Value("${caju.recovery.projection-wait-ms:1000}")
+    private long projectionWaitMs = 1000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @PostConstruct
+    public void recoverOnStartup() {
+        switch (startupMode) {
+            case "verify" -> logReport(replay(false));
+            case "rebuild" -> logReport(replay(true));
+            default -> log.debug("Wallet recovery on startup is off");
+        }
+    }
+
+    /**
+     * Replays the history and reports the wallets whose stored balance differs, without changing or locking them.
+     * With the journal, a debit whose row is not projected yet shows up as a difference.
+     *
+     * @return  the replay report
+     */
+    public RecoveryReportDTO verify() {
+        return replay(false);
+    }
+
+    /**
+     * Replays the history and overwrites every wallet whose stored balance differs.
+     *
+     * @return  the replay report, listing the wallets that were corrected
+     * @throws IllegalStateException if the in-memory engine is enabled, since it holds the live balances
+     */
+    public RecoveryReportDTO rebuild() {
+        if ("in-memory".equals(authorizationEngine)) {
+            throw new IllegalStateException("The in-memory engine owns the balances; restart with caju.recovery.mode=rebuild instead");
+        }
+        return replay(true);
+    }
+
+    /**
+     * Replaces the snapshot with the current balance and version of every wallet. Each wallet is read in one row,
+     * so its balance and version always match without locking it.
+     *
+     * @return  the id of the last transaction when the snapshot was taken, for reference only
+     */
+    public long takeSnapshot() {
+        lock.lock();
+        try {
+            Long lastTransactionId = transactionTemplate.execute(status -> {
+                long lastId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM transactions", Long.class);
+                jdbcTemplate.update("DELETE FROM wallet_snapshots");
+                jdbcTemplate.update("INSERT INTO wallet_snapshots (id_account, category, balance, wallet_version, last_transaction_id, created_at) "
+                        + "SELECT id_account, category, balance, version, ?, CURRENT_TIMESTAMP FROM wallets", lastId);
+                return lastId;
+            });
+            log.info("Wallet snapshot taken at transaction {}", lastTransactionId);
+            return lastTransactionId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private RecoveryReportDTO replay(boolean rebuild) {
+        lock.lock();
+        try {
+            return replayLocked(rebuild);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Snapshots are read before the wallets and the history after both, so every wallet is at or past its snapshot
+     * and rows committed after the wallet was read are left out by their version.
+     */
+    private RecoveryReportDTO replayLocked(boolean rebuild) {
+        if (journalProjector != null) journalProjector.projectPending();
+        long start = System.nanoTime();
+
+        Map<Long, Map<CategoryWallet, WalletState>> snapshots = new HashMap<>();
+        jdbcTemplate.query("SELECT id_account, category, balance, wallet_version, last_transaction_id FROM wallet_snapshots", resultSet -> {
+            put(snapshots, resultSet.getLong(1), CategoryWallet.valueOf(resultSet.getString(2)),
+                    new WalletState(resultSet.getBigDecimal(3), resultSet.getObject(4, Long.class), resultSet.getLong(5)));
+        });
+        Map<Long, Map<CategoryWallet, WalletState>> stored = new HashMap<>();
+        jdbcTemplate.query("SELECT id_account, category, balance, version FROM wallets", resultSet -> {
+            put(stored, resultSet.getLong(1), CategoryWallet.valueOf(resultSet.getString(2)),
+                    new WalletState(resultSet.getBigDecimal(3), resultSet.getLong(4), 0));
+        });
+        long snapshotLastId = 0;
+        boolean versioned = false;
+        for (Map<CategoryWallet, WalletState> wallets : snapshots.values()) {
+            for (WalletState snapshot : wallets.values()) {
+                snapshotLastId = Math.max(snapshotLastId, snapshot.lastTransactionId());
+                versioned |= snapshot.version() != null;
+            }
+        }
+
+        Map<Long, Map<CategoryWallet, BigDecimal>> balances = new HashMap<>();
+        snapshots.forEach((account, wallets) -> wallets.forEach((category, snapshot) -> add(balances, account, category, snapshot.balance())));
+        long[] counts = replayHistory(versioned ? Long.MAX_VALUE : snapshotLastId, stored, balances);
+
+        List<WalletDriftDTO> mismatches = new ArrayList<>();
+        int walletsChecked = 0;
+        for (Map.Entry<Long, Map<CategoryWallet, WalletState>> account : stored.entrySet()) {
+            for (Map.Entry<CategoryWallet, WalletState> wallet : account.getValue().entrySet()) {
+                walletsChecked++;
+                BigDecimal replayed = balances.getOrDefault(account.getKey(), Map.of()).getOrDefault(wallet.getKey(), BigDecimal.ZERO);
+                if (replayed.compareTo(wallet.getValue().balance()) != 0) {
+                    mismatches.add(new WalletDriftDTO(account.getKey(), wallet.getKey(), wallet.getValue().balance(), replayed));
+                }
+            }
+        }
+        if (rebuild) {
+            List<WalletDriftDTO> corrected = new ArrayList<>(mismatches.size());
+            for (WalletDriftDTO drift : mismatches) {
+                WalletState snapshot = snapshots.getOrDefault(drift.idAccount(), Map.of()).get(drift.category());
+                WalletDriftDTO correction = correct(drift.idAccount(), drift.category(), snapshot, versioned ? Long.MAX_VALUE : snapshotLastId);
+                if (correction != null) corrected.add(correction);
+            }
+            mismatches = corrected;
+        }
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        return new RecoveryReportDTO(rebuild, snapshotLastId, counts[0], counts[1], elapsedMillis,
+                counts[0] * 1000 / Math.max(elapsedMillis, 1), walletsChecked, mismatches);
+    }
+
+    /**
+     * Locks one wallet, replays it again up to its current version and overwrites its balance if it still differs.
+     * With the journal, the rows of debits that committed before the lock are waited for first.
+     *
+     * @return  the correction made, or null if the wallet no longer differs or is gone
+     */
+    private WalletDriftDTO correct(long account, CategoryWallet category, WalletState snapshot, long legacyAfterId) {
+        WalletDriftDTO correction = transactionTemplate.execute(status -> {
+            List<WalletState> locked = jdbcTemplate.query("SELECT balance, version FROM wallets WHERE id_account = ? AND category = ? FOR UPDATE",
+                    (resultSet, row) -> new WalletState(resultSet.getBigDecimal(1), resultSet.getLong(2), 0), account, category.name());
+            if (locked.isEmpty()) return null;
+            WalletState wallet = locked.get(0);
+            if (journalProjector != null && !journalProjector.awaitProjected(projectionWaitMs)) {
+                log.warn("Wallet {} of account {} left uncorrected: the journal did not finish projecting in {} ms", category.name(), account, projectionWaitMs);
+                return null;
+            }
+
+            Map<Long, Map<CategoryWallet, BigDecimal>> balances = new HashMap<>();
+            if (snapshot != null) add(balances, account, category, snapshot.balance());
+            long afterVersion = snapshot == null || snapshot.version() == null ? -1 : snapshot.version();
+            jdbcTemplate.query(WALLET_HISTORY_AFTER_SNAPSHOT, resultSet -> {
+                accumulate(resultSet, balances, (ignored, rowCategory) -> rowCategory == category ? wallet.version() : null, new long[2]);
+            }, account, category.name(), afterVersion, legacyAfterId);
+            BigDecimal replayed = balances.getOrDefault(account, Map.of()).getOrDefault(category, BigDecimal.ZERO);
+            if (replayed.compareTo(wallet.balance()) == 0) return null;
+
+            jdbcTemplate.update("UPDATE wallets SET balance = ?, version = version + 1 WHERE id_account = ? AND category = ?", replayed, account, category.name());
+            return new WalletDriftDTO(account, category, wallet.balance(), replayed);
+        });
+        if (correction != null) cache.evictWallets(account);
+        return correction;
+    }
+
+    /**
+     * Streams the transactions recorded after the snapshot into the balances, one account range per thread.
+     * Each range is read on its own connection and sees only committed rows.
+     *
+     * @return  the number of rows replayed and how many of them had no charged wallet recorded
+     */
+    private long[] replayHistory(long legacyAfterId, Map<Long, Map<CategoryWallet, WalletState>> stored, Map<Long, Map<CategoryWallet, BigDecimal>> balances) {
+        Map<String, Object> range = jdbcTemplate.queryForMap("SELECT MIN(id_account) AS low, MAX(id_account) AS high FROM wallets");
+        if (range.get("low") == null) return new long[]{0, 0};
+        long low = ((Number) range.get("low")).longValue();
+        long high = ((Number) range.get("high")).longValue();
+        int shards = (int) Math.max(1, Math.min(parallelism, high - low + 1));
+        long width = (high - low) / shards + 1;
+
+        JdbcTemplate streaming = new JdbcTemplate(dataSource);
+        streaming.setFetchSize(fetchSize);
+        ExecutorService executor = Executors.newFixedThreadPool(shards, runnable -> new Thread(runnable, "wallet-recovery"));
+        try {
+            List<Future<ShardResult>> results = new ArrayList<>();
+            for (int shard = 0; shard < shards; shard++) {
+                long from = low + shard * width;
+                long to = Math.min(high, from + width - 1);
+                results.add(executor.submit(() -> replayRange(streaming, legacyAfterId, stored, from, to)));
+            }
+            long rows = 0;
+            long unattributed = 0;
+            for (Future<ShardResult> result : results) {
+                ShardResult shardResult = result.get();
+                shardResult.deltas().forEach((account, deltas) -> deltas.forEach((category, delta) -> add(balances, account, category, delta)));
+                rows += shardResult.rows();
+                unattributed += shardResult.unattributed();
+            }
+            return new long[]{rows, unattributed};
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while replaying transactions", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to replay transactions", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ShardResult replayRange(JdbcTemplate streaming, long legacyAfterId, Map<Long, Map<CategoryWallet, WalletState>> stored, long fromAccount, long toAccount) {
+        Map<Long, Map<CategoryWallet, BigDecimal>> deltas = new HashMap<>();
+        long[] counts = {0, 0};
+        streaming.query(HISTORY_AFTER_SNAPSHOT, resultSet -> {
+            accumulate(resultSet, deltas, (account, category) -> {
+                WalletState wallet = stored.getOrDefault(account, Map.of()).get(category);
+                return wallet == null ? null : wallet.version();
+            }, counts);
+        }, fromAccount, toAccount, legacyAfterId);
+        return new ShardResult(deltas, counts[0], counts[1]);
+    }
+
+    /**
+     * Adds one history row to the balances, unless it changed the wallet after the version it was read at.
+     *
+     * @param  readVersion   the version each wallet was read at, null for wallets that are not compared
+     * @param  counts        incremented with the rows replayed and the rows attributed by their mcc
+     */
+    private void accumulate(ResultSet resultSet, Map<Long, Map<CategoryWallet, BigDecimal>> balances,
+                            BiFunction<Long, CategoryWallet, Long> readVersion, long[] counts) throws SQLException {
+        long account = resultSet.getLong(1);
+        String category = resultSet.getString(2);
+        CategoryWallet wallet;
+        boolean unattributed = category == null;
+        if (unattributed) {
+            // rows written before the charged wallet was recorded are attributed by their mcc
+            wallet = categoryClassifier.getCategoryByMcc(resultSet.getString(5));
+        } else {
+            wallet = CategoryWallet.valueOf(category);
+        }
+        Long version = readVersion.apply(account, wallet);
+        Long walletVersion = resultSet.getObject(6, Long.class);
+        if (version == null || (walletVersion != null && walletVersion > version)) return;
+        BigDecimal amount = resultSet.getBigDecimal(4);
+        add(balances, account, wallet, TransactionOperation.CREDIT.name().equals(resultSet.getString(3)) ? amount : amount.negate());
+        counts[0]++;
+        if (unattributed) counts[1]++;
+    }
+
+    private void logReport(RecoveryReportDTO report) {
+        log.info("Wallet replay {} {} rows after transaction {} in {} ms ({} rows/s), {} of {} wallets differ",
+                report.rebuilt() ? "rebuilt from" : "verified against", report.rowsReplayed(), report.snapshotLastTransactionId(),
+                report.elapsedMillis(), report.rowsPerSecond(), report.mismatches().size(), report.walletsChecked());
+        for (WalletDriftDTO drift : report.mismatches()) {
+            log.warn("Wallet {} of account {}: stored {} - replayed {}", drift.category().name(), drift.idAccount(), drift.storedBalance(), drift.replayedBalance());
+        }
+    }
+
+    private static void add(Map<Long, Map<CategoryWallet, BigDecimal>> balances, long account, CategoryWallet category, BigDecimal amount) {
+        balances.computeIfAbsent(account, id -> new EnumMap<>(CategoryWallet.class)).merge(category, Objects.requireNonNullElse(amount, BigDecimal.ZERO), BigDecimal::add);
+    }
+
+    private static void put(Map<Long, Map<CategoryWallet, WalletState>> wallets, long account, CategoryWallet category, WalletState state) {
+        wallets.computeIfAbsent(account, id -> new EnumMap<>(CategoryWallet.class)).put(category, state);
+    }
+
+    /**
+     * @param  version             the wallet version, null for a snapshot taken before versions were recorded
+     * @param  lastTransactionId   the last transaction id when a snapshot was taken
+     */
+    private record WalletState(BigDecimal balance, Long version, long lastTransactionId) {
+    }
+
+    private record ShardResult(Map<Long, Map<CategoryWallet, BigDecimal>> deltas, long rows, long unattributed) {
+    }
+}
@@ -1,26 +1,42 @@
 package com.caju.services;
 
+import com.caju.dto.TransactionDTO;
+import com.caju.dto.WalletChargeDTO;
 import com.caju.dto.WalletDTO;
 import com.caju.entities.Account;
+import com.caju.entities.Transaction;
 import com.caju.entities.Wallet;
 import com.caju.entities.WalletKey;
 import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionOperation;
 import com.caju.exceptions.AccountNotFoundException;
 import com.caju.exceptions.IncorrectUpdateWallet;
 import com.caju.exceptions.InsufficientFundsTransactionException;
 import com.caju.exceptions.UpdateAccountException;
 import com.caju.exceptions.WalletNotFoundException;
+import com.caju.metrics.AuthorizationTrace;
+import com.caju.metrics.AuthorizationTrace.Stage;
+import com.caju.metrics.WalletContentionMetrics;
+import com.caju.repositories.TransactionRepository;
 import com.caju.repositories.WalletRepository;
+import com.caju.utils.Money;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
-import static com.caju.utils.Utils.MENOR;
-
+@Slf4j
 @Service
 public class WalletService {
 
@@ -28,36 +44,49 @@ public class WalletService {
     private WalletRepository walletRepository;
     @Autowired
     private AccountService accountService;
+    @Autowired(required = false)
+    private InMemoryAuthorizationEngine authorizationEngine;
+    @Autowired
+    private WalletContentionMetrics contentionMetrics;
+    @Autowired
+    private TransactionRepository transactionRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private AccountWalletCache cache;
+    @Autowired
+    private IdempotencyStore idempotencyStore;
 
-    /**
-     * Retrieves a list of all wallets from the repository.
-     *
-     * @return  a list of Wallet objects representing all wallets in the repository
-     */
-    public List<Wallet> getAllWallets() {
-        return walletRepository.findAll();
-    }
+    @Value("${caju.wallet.update.max-attempts:3}")
+    private int maxAttempts = 3;
 
     /**
-     * Retrieves a list of all wallets associated with a given account ID.
+     * Retrieves a list of all wallets associated with a given account ID, from the cached snapshot of the account.
      *
      * @param  idAccount   the ID of the account to retrieve wallets for
      * @return             a list of Wallet objects associated with the account
      * @throws WalletNotFoundException   if no wallets are found for the account ID
      */
     public List<Wallet> getAllWalletsByAccount(Long idAccount) throws WalletNotFoundException {
-        return walletRepository.findByAccountId(idAccount).orElseThrow(() -> new WalletNotFoundException(String.format("No wallets found for account id %s", idAccount)));
+        List<Wallet> wallets = cache.getWallets(idAccount, key -> walletRepository.findByAccountId(key).orElse(null));
+        if (wallets == null) throw new WalletNotFoundException(String.format("No wallets found for account id %s", idAccount));
+        return wallets;
     }
 
     /**
-     * Retrieves a Wallet object from the repository by its unique identifier.
+     * Retrieves a Wallet object by its unique identifier, from the cached snapshot of its account.
+     * The wallet is a read-only copy and must not be changed or saved.
      *
      * @param  walletKey   the unique identifier of the Wallet object
      * @return             the Wallet object with the specified identifier
      * @throws WalletNotFoundException   if no Wallet object is found with the specified identifier
      */
     public Wallet getWalletById(WalletKey walletKey) throws WalletNotFoundException {
-        return walletRepository.findById(walletKey).orElseThrow(() -> new WalletNotFoundException(String.format("Wallets not found for key %s", walletKey)));
+        List<Wallet> wallets = cache.getWallets(walletKey.getAccount().getId(), key -> walletRepository.findByAccountId(key).orElse(null));
+        return Objects.requireNonNullElse(wallets, List.<Wallet>of()).stream()
+                .filter(wallet -> wallet.getId().getCategory() == walletKey.getCategory())
+                .findFirst()
+                .orElseThrow(() -> new WalletNotFoundException(String.format("Wallets not found for key %s", walletKey)));
     }
 
     /**
@@ -72,104 +101,222 @@ public class WalletService {
                 .id(new WalletKey(account, walletDto.category()))
                 .balance(walletDto.balance()).build();
 
-        walletRepository.save(wallet);
-    }
-
-    /**
-     * Updates the wallet if it exists in the repository.
-     *
-     * @param  wallet  the wallet to update
-     * @throws WalletNotFoundException if the wallet is not found in the repository
-     */
-    private void updateWallet(Wallet wallet) throws WalletNotFoundException {
-        if(Objects.nonNull(wallet) && Objects.nonNull(wallet.getId()) && Objects.nonNull(this.getWalletById(wallet.getId()))) {
+        transactionTemplate.executeWithoutResult(status -> {
             walletRepository.save(wallet);
+            // the opening balance is recorded as a credit so the wallet can be rebuilt from its history
+            if (Objects.nonNull(walletDto.balance()) && walletDto.balance().signum() != 0) {
+                Transaction opening = creditTransaction(wallet.getId(), walletDto.balance());
+                opening.setWalletVersion(0L);
+                transactionRepository.save(opening);
+            }
+        });
+        cache.evictWallets(account.getId());
+        if (authorizationEngine != null) {
+            authorizationEngine.registerWallet(account, walletDto.category(), walletDto.balance());
         }
     }
 
     /**
      * Credits the specified amount to the wallet for the given account.
+     * Credits keep the full-entity path: the wallet is read, credited and saved under its version,
+     * and a save that loses a race with a debit is retried on a fresh copy.
      *
      * @param  walletDto   the wallet DTO containing the account ID and category
      * @throws AccountNotFoundException     if the account is not found
      * @throws UpdateAccountException       if there is an error updating the account
      * @throws WalletNotFoundException      if the wallet is not found
-     * @throws IncorrectUpdateWallet        if there is an error updating the wallet balance
+     * @throws IncorrectUpdateWallet        if the wallet kept changing concurrently after the maximum number of attempts
      */
     public void creditInWallet(WalletDTO walletDto) throws AccountNotFoundException, UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet {
         Account account = accountService.getAccountById(walletDto.idAccount());
-        Wallet wallet = walletRepository.findById(new WalletKey(account, walletDto.category())).orElseThrow();
-        updateBalanceAddCredits(wallet, walletDto.balance());
+        if (authorizationEngine != null) {
+            // the engine owns the balances, so the credit goes through its write-behind log
+            if (Objects.isNull(walletDto.balance())) throw new UpdateAccountException("Unable to identify the account, wallet or amount to be updated.");
+            authorizationEngine.credit(account, walletDto.category(), walletDto.balance());
+            return;
+        }
+        WalletKey walletKey = new WalletKey(account, walletDto.category());
+        for (int attempt = 1; ; attempt++) {
+            Wallet wallet = walletRepository.findById(walletKey).orElseThrow();
+            contentionMetrics.attempt(walletDto.category());
+            try {
+                updateBalanceAddCredits(wallet, walletDto.balance());
+                return;
+            } catch (OptimisticLockingFailureException optimisticLockingFailureException) {
+                onConcurrentUpdate(walletKey, attempt);
+            }
+        }
     }
 
     /**
-     * Updates the balance of a wallet for a given account.
+     * Debits the wallet of a given account in a single conditional update that also checks the funds,
+     * so the funds check is timed as part of the debit write.
+     * The wallet is only read when the debit is rejected, to tell a missing wallet from an insufficient balance.
      *
      * @param  account        the account for which the wallet balance is being updated
      * @param  totalAmount    the amount to debit from the wallet balance
      * @param  category       the category of the wallet to update
-     * @throws UpdateAccountException     if the account, wallet, or amount to be updated is not identified
+     * @return                the version the wallet got from the debit
+     * @throws UpdateAccountException     if the account or amount to be updated is not identified
      * @throws WalletNotFoundException    if the wallet is not found
-     * @throws IncorrectUpdateWallet      if there is an error updating the wallet
-     * @throws InsufficientFundsTransactionException if the initial wallet does not have sufficient funds
+     * @throws InsufficientFundsTransactionException if the wallet does not have sufficient funds
      */
-    public void updateAccountBalanceWallet(Account account, BigDecimal totalAmount, CategoryWallet category) throws UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet, InsufficientFundsTransactionException {
-        Wallet wallet = getWalletById(new WalletKey(account, category));
-        if(Objects.isNull(wallet) || Objects.isNull(totalAmount)) throw new UpdateAccountException("Unable to identify the account or amount to be updated.");
-        BigDecimal currentBalance = wallet.getBalance();
-
-        if(!isSufficientFunds(currentBalance, totalAmount)) {
-            throw new InsufficientFundsTransactionException(String.format("Insufficient funds for transaction. Current balance for MEAL $%s - Transaction value $%s", currentBalance, totalAmount));
+    public long updateAccountBalanceWallet(Account account, BigDecimal totalAmount, CategoryWallet category) throws UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet, InsufficientFundsTransactionException {
+        if(Objects.isNull(account) || Objects.isNull(totalAmount)) throw new UpdateAccountException("Unable to identify the account or amount to be updated.");
+        requireWholeCents(totalAmount);
+        long stage = AuthorizationTrace.start();
+        Optional<Long> walletVersion = walletRepository.debitIfSufficientFunds(account.getId(), category, totalAmount);
+        AuthorizationTrace.stop(Stage.DEBIT_WRITE, stage);
+        if (walletVersion.isPresent()) {
+            cache.evictWallets(account.getId());
+            return walletVersion.get();
         }
 
-        wallet.debit(totalAmount);
-        updateWallet(wallet);
+        stage = AuthorizationTrace.start();
+        BigDecimal currentBalance = getWalletById(new WalletKey(account, category)).getBalance();
+        AuthorizationTrace.stop(Stage.WALLET_READ, stage);
+        throw new InsufficientFundsTransactionException(String.format("Insufficient funds for transaction. Current balance for MEAL $%s - Transaction value $%s", currentBalance, totalAmount));
     }
 
     /**
-     * Updates the balance of a wallet for a given account, falling back to a cash wallet if the initial wallet does not have sufficient funds.
+     * Debits the wallet of a given account, falling back to the cash wallet if the initial wallet does not have sufficient funds.
+     * The choice of wallet and the debit happen in a single statement; wallets are only read when the debit is rejected.
      *
      * @param  account        the account for which the wallet balance is being updated
      * @param  totalAmount    the amount to debit from the wallet balance
      * @param  category       the category of the wallet to update
-     * @throws UpdateAccountException     if the account, wallet, or amount to be updated is not identified
+     * @return                the wallet that was charged and the version it got from the debit
+     * @throws UpdateAccountException     if the account or amount to be updated is not identified
      * @throws WalletNotFoundException    if the wallet is not found
-     * @throws IncorrectUpdateWallet      if there is an error updating the wallet
      * @throws InsufficientFundsTransactionException if the initial wallet does not have sufficient funds and the cash wallet does not have enough funds to cover the transaction
      */
-    public void updateAccountBalanceWalletWithFallback(Account account, BigDecimal totalAmount, CategoryWallet category) throws UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet, InsufficientFundsTransactionException {
-        Wallet wallet = getWalletById(new WalletKey(account, category));
-        if(Objects.isNull(wallet) || Objects.isNull(totalAmount)) throw new UpdateAccountException("Unable to identify the account, wallet or amount to be updated.");
-        BigDecimal currentBalance = wallet.getBalance();
+    public WalletChargeDTO updateAccountBalanceWalletWithFallback(Account account, BigDecimal totalAmount, CategoryWallet category) throws UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet, InsufficientFundsTransactionException {
+        if(Objects.isNull(account) || Objects.isNull(totalAmount)) throw new UpdateAccountException("Unable to identify the account, wallet or amount to be updated.");
+        requireWholeCents(totalAmount);
+        long stage = AuthorizationTrace.start();
+        Optional<WalletRepository.ChargedWallet> charged = walletRepository.debitWithFallback(account.getId(), category, totalAmount);
+        AuthorizationTrace.stop(Stage.DEBIT_WRITE, stage);
+        if (charged.isPresent()) {
+            cache.evictWallets(account.getId());
+            return new WalletChargeDTO(CategoryWallet.valueOf(charged.get().getCategory()), charged.get().getVersion());
+        }
 
-        if(!isSufficientFunds(currentBalance, totalAmount)) {
-            Wallet walletCash = getWalletById(new WalletKey(wallet.getId().getAccount(), CategoryWallet.CASH));
-            BigDecimal currentBalanceCash = walletCash.getBalance();
-            if(!isSufficientFunds(currentBalanceCash, totalAmount)) {
-                throw new InsufficientFundsTransactionException(String.format("Insufficient funds for transaction. Current balance for FOOD $%s - Current balance for CASH $%s - Transaction value $%s", currentBalance, currentBalanceCash, totalAmount));
-            }
-            walletCash.debit(totalAmount);
-            updateWallet(walletCash);
-            return;
+        stage = AuthorizationTrace.start();
+        BigDecimal currentBalance = getWalletById(new WalletKey(account, category)).getBalance();
+        BigDecimal currentBalanceCash = getWalletById(new WalletKey(account, CategoryWallet.CASH)).getBalance();
+        AuthorizationTrace.stop(Stage.WALLET_READ, stage);
+        throw new InsufficientFundsTransactionException(String.format("Insufficient funds for transaction. Current balance for FOOD $%s - Current balance for CASH $%s - Transaction value $%s", currentBalance, currentBalanceCash, totalAmount));
+    }
+
+    /**
+     * Reverses an approved debit that committed after the caller had already answered it as timed out.
+     * The amount is credited back and recorded as a credit in the history, in a transaction of its own,
+     * so replaying the history still rebuilds the balance; its idempotency key is dropped with it. A failure is logged with everything needed to
+     * reverse the debit by hand.
+     *
+     * @param  account          the account that was debited
+     * @param  category         the wallet that was charged
+     * @param  transactionDTO   the transaction that was debited
+     */
+    public void compensateDebit(Account account, CategoryWallet category, TransactionDTO transactionDTO) {
+        TransactionTemplate requiresNew = new TransactionTemplate(Objects.requireNonNull(transactionTemplate.getTransactionManager()));
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            requiresNew.executeWithoutResult(status -> {
+                Optional<Long> walletVersion = walletRepository.addToBalance(account.getId(), category, transactionDTO.totalAmount());
+                Transaction reversal = creditTransaction(new WalletKey(account, category), transactionDTO.totalAmount());
+                reversal.setWalletVersion(walletVersion.orElse(null));
+                reversal.setMcc(transactionDTO.mcc());
+                reversal.setMerchant(transactionDTO.merchant());
+                transactionRepository.save(reversal);
+                idempotencyStore.forget(account.getId(), transactionDTO.idempotencyKey());
+            });
+            cache.evictWallets(account.getId());
+            log.warn("Reversed debit of {} on wallet {} of account {}: it committed after the authorization deadline", transactionDTO.totalAmount(), category, account.getId());
+        } catch (RuntimeException e) {
+            log.error("Unable to reverse debit of {} on wallet {} of account {} after the authorization deadline", transactionDTO.totalAmount(), category, account.getId(), e);
+        }
+    }
+
+    /**
+     * Loads and locks every wallet of the given accounts in a single query, so a batch can decide its debits in memory.
+     *
+     * @param  accountIds   the ids of the accounts involved in the batch
+     * @return              the locked wallets
+     */
+    public List<Wallet> getWalletsForUpdate(Collection<Long> accountIds) {
+        if (accountIds.isEmpty()) return List.of();
+        return walletRepository.findForUpdateByAccountIdIn(accountIds);
+    }
+
+    /**
+     * Debits one of the locked wallets of an account, applying the same rules as the single-transaction paths.
+     * The wallet entity is changed in place and written when the batch transaction flushes, which raises its
+     * version by one however many debits it took.
+     *
+     * @param  wallets         the locked wallets of the account, by category
+     * @param  account         the account for which the wallet balance is being updated
+     * @param  amountInCents   the amount to debit from the wallet balance, in cents
+     * @param  category        the category of the wallet to update
+     * @param  withFallback    whether the cash wallet covers an insufficient category wallet
+     * @return                 the wallet that was charged and the version it gets when the batch flushes
+     * @throws WalletNotFoundException    if a required wallet is not found
+     * @throws InsufficientFundsTransactionException if the wallet, or both wallets with fallback, cannot cover the amount
+     */
+    public WalletChargeDTO debitLoadedWallet(Map<CategoryWallet, Wallet> wallets, Account account, long amountInCents, CategoryWallet category, boolean withFallback) throws WalletNotFoundException, InsufficientFundsTransactionException {
+        Wallet wallet = getLoadedWallet(wallets, account, category);
+        if (wallet.covers(amountInCents)) {
+            wallet.debit(amountInCents);
+            cache.evictWallets(account.getId());
+            return new WalletChargeDTO(category, wallet.getVersion() + 1);
+        }
+        if (!withFallback) {
+            throw new InsufficientFundsTransactionException(String.format("Insufficient funds for transaction. Current balance for MEAL $%s - Transaction value $%s", wallet.getBalance(), Money.fromCents(amountInCents)));
         }
 
-        wallet.debit(totalAmount);
-        updateWallet(wallet);
+        Wallet walletCash = getLoadedWallet(wallets, account, CategoryWallet.CASH);
+        if (!walletCash.covers(amountInCents)) {
+            throw new InsufficientFundsTransactionException(String.format("Insufficient funds for transaction. Current balance for FOOD $%s - Current balance for CASH $%s - Transaction value $%s", wallet.getBalance(), walletCash.getBalance(), Money.fromCents(amountInCents)));
+        }
+        walletCash.debit(amountInCents);
+        cache.evictWallets(account.getId());
+        return new WalletChargeDTO(CategoryWallet.CASH, walletCash.getVersion() + 1);
     }
 
     /**
-     * Determines if the current balance is sufficient to cover the total amount.
+     * The single-statement debits do their arithmetic in the database, whose {@code DECIMAL(19, 2)} column would
+     * round a fraction of a cent away instead of rejecting it.
+     */
+    private static void requireWholeCents(BigDecimal totalAmount) {
+        Money.toCents(totalAmount);
+    }
+
+    private Wallet getLoadedWallet(Map<CategoryWallet, Wallet> wallets, Account account, CategoryWallet category) throws WalletNotFoundException {
+        Wallet wallet = wallets.get(category);
+        if (wallet == null) throw new WalletNotFoundException(String.format("Wallets not found for key %s", new WalletKey(account, category)));
+        return wallet;
+    }
+
+    /**
+     * Records a lost optimistic update and decides whether the caller may try again.
      *
-     * @param  currentBalance  the current balance of the account
-     * @param  totalAmount     the total amount to be covered by the current balance
-     * @return                 true if the current balance is sufficient, false otherwise
+     * @param  walletKey   the wallet that was updated concurrently
+     * @param  attempt     the attempt that failed, starting at 1
+     * @throws IncorrectUpdateWallet if it was the last allowed attempt
      */
-    private boolean isSufficientFunds(BigDecimal currentBalance, BigDecimal totalAmount) {
-        return currentBalance.subtract(totalAmount).compareTo(BigDecimal.ZERO) != MENOR;
+    private void onConcurrentUpdate(WalletKey walletKey, int attempt) throws IncorrectUpdateWallet {
+        CategoryWallet category = walletKey.getCategory();
+        contentionMetrics.conflict(category);
+        log.debug("Concurrent update on wallet {} of account {} (attempt {}/{})", category.name(), walletKey.getAccount().getId(), attempt, maxAttempts);
+        if (attempt >= maxAttempts) {
+            contentionMetrics.exhausted(category);
+            throw new IncorrectUpdateWallet(String.format("Wallet %s of account %s was updated concurrently %d times", category.name(), walletKey.getAccount().getId(), attempt));
+        }
     }
 
     /**
-     * Updates the balance of a wallet by adding credits.
+     * Updates the balance of a wallet by adding credits. The wallet and the credit entry in the transaction
+     * history are saved in one database transaction, so the history can always rebuild the balance.
      *
      * @param  wallet        the wallet to update
      * @param  totalAmount   the amount of credits to add to the wallet balance
@@ -179,8 +326,24 @@ public class WalletService {
      */
     public void updateBalanceAddCredits(Wallet wallet, BigDecimal totalAmount) throws WalletNotFoundException, UpdateAccountException, IncorrectUpdateWallet {
         if(Objects.isNull(wallet) || Objects.isNull(totalAmount)) throw new UpdateAccountException("Unable to identify the account, wallet or amount to be updated.");
-        wallet.credit(totalAmount);
-        updateWallet(wallet);
+        wallet.credit(Money.toCents(totalAmount));
+        Transaction credit = creditTransaction(wallet.getId(), totalAmount);
+        // the save only succeeds if the wallet is still at the version it was read with
+        credit.setWalletVersion(wallet.getVersion() + 1);
+        transactionTemplate.executeWithoutResult(status -> {
+            walletRepository.save(wallet);
+            transactionRepository.save(credit);
+        });
+        cache.evictWallets(wallet.getId().getAccount().getId());
+    }
+
+    private static Transaction creditTransaction(WalletKey walletKey, BigDecimal totalAmount) {
+        return Transaction.builder()
+                .account(walletKey.getAccount())
+                .totalAmount(totalAmount)
+                .category(walletKey.getCategory())
+                .operation(TransactionOperation.CREDIT)
+                .build();
     }
 
 }
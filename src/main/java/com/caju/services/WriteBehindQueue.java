@@ -0,0 +1,411 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.entities.Account;
+import com.caju.entities.Transaction;
+import com.caju.entities.WriteBehindCheckpoint;
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionOperation;
+import com.caju.repositories.TransactionRepository;
+import com.caju.repositories.WalletRepository;
+import com.caju.repositories.WriteBehindCheckpointRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Durable log of the in-memory engine's balance changes, forced to disk before the caller is answered and applied
+ * to the database in batches by a background writer.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "caju.authorization.engine", havingValue = "in-memory")
+public class WriteBehindQueue implements HealthIndicator {
+
+    private static final String CHECKPOINT_NAME = "wallets";
+    private static final String LOG_FILE = "write-behind.log";
+    private static final String DEAD_LETTER_FILE = "write-behind.dead-letter";
+
+    @Autowired
+    private WalletRepository walletRepository;
+    @Autowired
+    private TransactionRepository transactionRepository;
+    @Autowired
+    private SpendingSummaryService summaryService;
+    @Autowired
+    private WriteBehindCheckpointRepository checkpointRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private AccountWalletCache cache;
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+    @PersistenceContext
+    private EntityManager entityManager;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${caju.write-behind.directory:./data/write-behind}")
+    private Path directory;
+    @Value("${caju.write-behind.batch-size:500}")
+    private int batchSize;
+    @Value("${caju.write-behind.flush-interval-ms:50}")
+    private long flushIntervalMs;
+    @Value("${caju.write-behind.max-attempts:5}")
+    private int maxAttempts = 5;
+
+    private final BlockingQueue<Entry> pending = new LinkedBlockingQueue<>();
+    // locks instead of monitors, so virtual threads waiting to append or for the fsync release their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private FileChannel logChannel;
+    private Thread writer;
+    private volatile boolean running;
+    private long nextSequence;
+    private volatile long lastAppendedSequence;
+    private volatile long durableSequence;
+    private volatile long persistedSequence;
+    private volatile int failedAttempts;
+    private final AtomicLong deadLettered = new AtomicLong();
+    private Counter batchFailures;
+
+    public enum Operation { DEBIT, CREDIT }
+
+    /**
+     * @param  idempotencyKey  the key of the request, stored with the debit's answer, or dropped by a credit reversing it
+     * @param  answer          the answer stored under the key, null on a credit dropping it
+     */
+    public record Entry(long sequence, Operation operation, Long idAccount, CategoryWallet category, BigDecimal amount,
+                        String mcc, String merchant, LocalDateTime createdAt, String idempotencyKey, ResponseDTO answer) {
+    }
+
+    /**
+     * Applies every entry left in the log by a previous run that is not yet in the database.
+     * Must be called before the balances are loaded from the database and before {@link #start()}.
+     */
+    public void replayPending() {
+        try {
+            Files.createDirectories(directory);
+            long checkpoint = checkpointRepository.findById(CHECKPOINT_NAME).map(WriteBehindCheckpoint::getLastSequence).orElse(0L);
+            List<Entry> batch = new ArrayList<>();
+            int replayed = 0;
+            Path logFile = directory.resolve(LOG_FILE);
+            if (Files.exists(logFile)) {
+                try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        Entry entry = readEntry(line);
+                        if (entry == null || entry.sequence() <= checkpoint) continue;
+                        batch.add(entry);
+                        replayed++;
+                        if (batch.size() >= batchSize) {
+                            persist(batch);
+                            batch.clear();
+                        }
+                    }
+                }
+            }
+            if (!batch.isEmpty()) persist(batch);
+            checkpoint = checkpointRepository.findById(CHECKPOINT_NAME).map(WriteBehindCheckpoint::getLastSequence).orElse(0L);
+            nextSequence = checkpoint + 1;
+            lastAppendedSequence = checkpoint;
+            durableSequence = checkpoint;
+            persistedSequence = checkpoint;
+            logChannel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            log.info("Write-behind log replayed {} pending entries, resuming at sequence {}", replayed, nextSequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to replay write-behind log", e);
+        }
+    }
+
+    /**
+     * Starts the background writer that moves appended entries into the database.
+     */
+    public void start() {
+        if (meterRegistry != null) {
+            batchFailures = Counter.builder("caju.write-behind.failures")
+                    .description("Write-behind batches that failed to apply and were retried")
+                    .register(meterRegistry);
+            Gauge.builder("caju.write-behind.dead-lettered", deadLettered, AtomicLong::get)
+                    .description("Entries the database rejected, moved to the dead-letter file")
+                    .register(meterRegistry);
+            Gauge.builder("caju.write-behind.backlog", pending, BlockingQueue::size)
+                    .description("Entries appended but not yet picked by the writer")
+                    .register(meterRegistry);
+        }
+        running = true;
+        writer = new Thread(this::drain, "write-behind-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Appends an entry to the log. The entry is written but not yet forced to disk; callers must
+     * {@link #awaitDurable(long)} the returned sequence before acknowledging the operation.
+     *
+     * @param  idempotencyKey  the key of the request, or null
+     * @param  answer          the answer to store under the key with this change, or null to drop the key
+     * @return                 the sequence assigned to the entry
+     */
+    public long append(Operation operation, Long idAccount, CategoryWallet category, BigDecimal amount, String mcc, String merchant,
+                       String idempotencyKey, ResponseDTO answer) {
+        lock.lock();
+        try {
+            Entry entry = new Entry(nextSequence++, operation, idAccount, category, amount, mcc, merchant, LocalDateTime.now(), idempotencyKey, answer);
+            try {
+                byte[] line = (objectMapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buffer = ByteBuffer.wrap(line);
+                while (buffer.hasRemaining()) {
+                    logChannel.write(buffer);
+                }
+            } catch (IOException e) {
+                nextSequence--;
+                throw new UncheckedIOException("Unable to append to write-behind log", e);
+            }
+            lastAppendedSequence = entry.sequence();
+            pending.add(entry);
+            return entry.sequence();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the entry with the given sequence is on disk. Concurrent callers share a single
+     * force, so the cost of the fsync is spread over every entry appended since the previous one.
+     */
+    public void awaitDurable(long sequence) {
+        if (durableSequence >= sequence) return;
+        forceLock.lock();
+        try {
+            if (durableSequence >= sequence) return;
+            long target = lastAppendedSequence;
+            try {
+                logChannel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to force write-behind log", e);
+            }
+            durableSequence = target;
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    /**
+     * Lets the writer flush everything still pending before the datasource goes away.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        try {
+            if (logChannel != null) logChannel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close write-behind log", e);
+        }
+    }
+
+    /**
+     * Down while the writer is failing to apply entries or once any entry was dead-lettered, which needs an operator.
+     */
+    @Override
+    public Health health() {
+        Health.Builder health = failedAttempts > 0 || deadLettered.get() > 0 ? Health.down() : Health.up();
+        return health.withDetail("backlog", lastAppendedSequence - persistedSequence)
+                .withDetail("failedAttempts", failedAttempts)
+                .withDetail("deadLettered", deadLettered.get())
+                .build();
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (running || !pending.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    Entry first = pending.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    pending.drainTo(batch, batchSize - 1);
+                }
+                if (failedAttempts < maxAttempts) {
+                    persist(batch);
+                    batch.clear();
+                } else {
+                    persistEachOrDeadLetter(batch);
+                }
+                failedAttempts = 0;
+                compactIfCaughtUp();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failedAttempts++;
+                if (batchFailures != null) batchFailures.increment();
+                log.error("Write-behind batch failed (attempt {} of {}), retrying in {} ms", failedAttempts, maxAttempts, flushIntervalMs, e);
+                sleepQuietly();
+            }
+        }
+    }
+
+    /**
+     * Applies a batch that kept failing one entry at a time, removing each entry from it once applied or
+     * dead-lettered. A failure reaching the database stops here, leaving the rest of the batch to retry.
+     */
+    private void persistEachOrDeadLetter(List<Entry> batch) {
+        while (!batch.isEmpty()) {
+            Entry entry = batch.get(0);
+            try {
+                persist(List.of(entry));
+            } catch (TransientDataAccessException | RecoverableDataAccessException | DataAccessResourceFailureException | CannotCreateTransactionException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                deadLetter(entry, e);
+            }
+            batch.remove(0);
+        }
+    }
+
+    /**
+     * Writes the entry to the dead-letter file and advances the checkpoint past it, so neither the writer nor a
+     * restart applies it again.
+     */
+    private void deadLetter(Entry entry, RuntimeException cause) {
+        try {
+            byte[] line = (objectMapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+            try (FileChannel channel = FileChannel.open(directory.resolve(DEAD_LETTER_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(line);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to dead-letter write-behind entry " + entry.sequence(), e);
+        }
+        transactionTemplate.executeWithoutResult(status -> checkpointRepository.save(new WriteBehindCheckpoint(CHECKPOINT_NAME, entry.sequence())));
+        persistedSequence = entry.sequence();
+        deadLettered.incrementAndGet();
+        log.error("Write-behind entry {} was rejected by the database and moved to {}; the in-memory balance of account {} no longer matches it",
+                entry.sequence(), DEAD_LETTER_FILE, entry.idAccount(), cause);
+    }
+
+    /**
+     * Applies the entries and advances the checkpoint in one database transaction.
+     */
+    private void persist(List<Entry> batch) {
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Transaction> transactions = new ArrayList<>(batch.size());
+            for (Entry entry : batch) {
+                Optional<Long> walletVersion = entry.operation() == Operation.CREDIT
+                        ? walletRepository.addToBalance(entry.idAccount(), entry.category(), entry.amount())
+                        : walletRepository.subtractFromBalance(entry.idAccount(), entry.category(), entry.amount());
+                transactions.add(Transaction.builder()
+                        .account(entityManager.getReference(Account.class, entry.idAccount()))
+                        .totalAmount(entry.amount())
+                        .mcc(entry.mcc())
+                        .merchant(entry.merchant())
+                        .category(entry.category())
+                        .operation(entry.operation() == Operation.CREDIT ? TransactionOperation.CREDIT : TransactionOperation.DEBIT)
+                        .walletVersion(walletVersion.orElse(null))
+                        .createdAt(entry.createdAt())
+                        .build());
+                if (entry.idempotencyKey() == null) continue;
+                if (entry.answer() != null) {
+                    idempotencyStore.recordIfAbsent(entry.idAccount(), entry.idempotencyKey(), entry.answer(), entry.createdAt().atZone(ZoneId.systemDefault()).toInstant());
+                } else {
+                    idempotencyStore.forget(entry.idAccount(), entry.idempotencyKey());
+                }
+            }
+            // saved after the native wallet updates so the inserts are not split by their auto-flushes
+            transactionRepository.saveAll(transactions);
+            summaryService.record(transactions);
+            checkpointRepository.save(new WriteBehindCheckpoint(CHECKPOINT_NAME, batch.get(batch.size() - 1).sequence()));
+        });
+        persistedSequence = batch.get(batch.size() - 1).sequence();
+        batch.stream().map(Entry::idAccount).distinct().forEach(cache::evictWallets);
+    }
+
+    /**
+     * Truncates the log once everything appended so far is in the database, keeping it from growing unbounded.
+     */
+    private void compactIfCaughtUp() {
+        if (persistedSequence != lastAppendedSequence) return;
+        lock.lock();
+        try {
+            forceLock.lock();
+            try {
+                if (persistedSequence != lastAppendedSequence) return;
+                try {
+                    logChannel.truncate(0);
+                    logChannel.position(0);
+                } catch (IOException e) {
+                    log.warn("Unable to compact write-behind log", e);
+                }
+            } finally {
+                forceLock.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry readEntry(String line) {
+        if (line.isBlank()) return null;
+        try {
+            return objectMapper.readValue(line, Entry.class);
+        } catch (IOException e) {
+            // a torn last line means the entry was never acknowledged to the caller
+            log.warn("Skipping unreadable write-behind entry: {}", line);
+            return null;
+        }
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(flushIntervalMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
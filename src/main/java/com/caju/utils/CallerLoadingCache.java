@@ -0,0 +1,82 @@
+package com.caju.utils;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Caffeine cache whose misses are loaded by the calling thread, outside the lock of the cache's map.
+ *
+ * <p>A synchronous Caffeine cache runs the loader inside {@code ConcurrentHashMap.compute}, a monitor that
+ * keeps a virtual thread pinned to its carrier for as long as the loader waits on the database. Here the
+ * entry is a future that the caller inserts and then completes, so concurrent callers still share a single
+ * load, and an entry invalidated while it loads is not put back once the load completes.
+ *
+ * @param <K> the key type
+ * @param <V> the value type; a null result is not cached
+ */
+public final class CallerLoadingCache<K, V> {
+
+    private final AsyncCache<K, V> cache;
+
+    public CallerLoadingCache(Caffeine<Object, Object> builder) {
+        this.cache = builder.buildAsync();
+    }
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> future = cache.get(key, (missing, executor) -> load);
+        if (future == load) complete(load, () -> loader.apply(key));
+        return join(future);
+    }
+
+    /**
+     * @param  keys     the keys to look up
+     * @param  loader   loads the missing keys with a single call, returning only those that exist
+     * @return          the entries found, by key
+     */
+    public Map<K, V> getAll(Iterable<? extends K> keys, Function<Set<? extends K>, Map<K, V>> loader) {
+        CompletableFuture<Map<K, V>> load = new CompletableFuture<>();
+        AtomicReference<Set<? extends K>> missing = new AtomicReference<>();
+        CompletableFuture<Map<K, V>> future = cache.getAll(keys, (keysToLoad, executor) -> {
+            missing.set(keysToLoad);
+            return load;
+        });
+        if (missing.get() != null) complete(load, () -> loader.apply(missing.get()));
+        return join(future);
+    }
+
+    /**
+     * @return  a synchronous view for invalidation, statistics and metrics; never use it to load
+     */
+    public Cache<K, V> synchronous() {
+        return cache.synchronous();
+    }
+
+    private static <T> void complete(CompletableFuture<T> load, Supplier<? extends T> loader) {
+        try {
+            load.complete(loader.get());
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            if (e.getCause() instanceof Error error) throw error;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.caju.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes rows to a stream as they are read, as newline-delimited JSON or as the elements of a single JSON array,
+ * so an export never holds more than one row in memory.
+ */
+public final class JsonRowWriter {
+
+    private static final byte[] NEWLINE = {'\n'};
+    private static final byte[] COMMA = {','};
+
+    private final ObjectMapper objectMapper;
+    private final OutputStream output;
+    private final boolean array;
+    private boolean first = true;
+
+    private JsonRowWriter(ObjectMapper objectMapper, OutputStream output, boolean array) {
+        this.objectMapper = objectMapper;
+        this.output = output;
+        this.array = array;
+        if (array) writeBytes(new byte[]{'['});
+    }
+
+    /**
+     * @return  a writer of one JSON object per line
+     */
+    public static JsonRowWriter ndjson(ObjectMapper objectMapper, OutputStream output) {
+        return new JsonRowWriter(objectMapper, output, false);
+    }
+
+    /**
+     * @return  a writer of a JSON array, closed by {@link #finish()}
+     */
+    public static JsonRowWriter array(ObjectMapper objectMapper, OutputStream output) {
+        return new JsonRowWriter(objectMapper, output, true);
+    }
+
+    public void write(Object row) {
+        if (array && !first) writeBytes(COMMA);
+        try {
+            writeBytes(objectMapper.writeValueAsBytes(row));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize " + row, e);
+        }
+        if (!array) writeBytes(NEWLINE);
+        first = false;
+    }
+
+    public void finish() {
+        if (array) writeBytes(new byte[]{']'});
+    }
+
+    private void writeBytes(byte[] bytes) {
+        try {
+            output.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.caju.utils;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton that finds every keyword occurring in a text in a single pass and returns the value
+ * of the best ranked hit. Text and keywords are folded the same way: lower case, accents removed, anything
+ * that is not a letter or digit turned into a single space. Matching does not allocate.
+ *
+ * @param <T> the value attached to each keyword
+ */
+public final class KeywordAutomaton<T> {
+
+    private static final int SPACE = 0;
+    private static final int ALPHABET = 1 + 26 + 10;
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+    private static final byte[] SYMBOLS = foldTable();
+
+    private final int[] transitions;
+    private final int[] bestRank;
+    private final Object[] values;
+
+    private KeywordAutomaton(int[] transitions, int[] bestRank, Object[] values) {
+        this.transitions = transitions;
+        this.bestRank = bestRank;
+        this.values = values;
+    }
+
+    /**
+     * Builds the automaton. Keywords are ranked by their position: when several match, the earliest one wins.
+     *
+     * @param  keywords  the keywords, best ranked first
+     * @param  values    the value of each keyword
+     * @return           the automaton
+     * @throws IllegalArgumentException if a keyword has no letter or digit
+     */
+    public static <T> KeywordAutomaton<T> build(List<String> keywords, List<T> values) {
+        if (keywords.size() != values.size()) {
+            throw new IllegalArgumentException("Every keyword needs exactly one value");
+        }
+        List<int[]> children = new ArrayList<>();
+        List<Integer> ranks = new ArrayList<>();
+        children.add(newNode());
+        ranks.add(NO_MATCH);
+        for (int rank = 0; rank < keywords.size(); rank++) {
+            int[] symbols = fold(keywords.get(rank));
+            if (symbols.length == 0) {
+                throw new IllegalArgumentException("Keyword has no letter or digit: " + keywords.get(rank));
+            }
+            int state = 0;
+            for (int symbol : symbols) {
+                if (children.get(state)[symbol] == 0) {
+                    children.get(state)[symbol] = children.size();
+                    children.add(newNode());
+                    ranks.add(NO_MATCH);
+                }
+                state = children.get(state)[symbol];
+            }
+            ranks.set(state, Math.min(ranks.get(state), rank));
+        }
+
+        // breadth first, so the failure state of a node is always complete before the node itself
+        int states = children.size();
+        int[] transitions = new int[states * ALPHABET];
+        int[] fail = new int[states];
+        int[] bestRank = new int[states];
+        bestRank[0] = ranks.get(0);
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int symbol = 0; symbol < ALPHABET; symbol++) {
+            int child = children.get(0)[symbol];
+            transitions[symbol] = child;
+            if (child != 0) {
+                bestRank[child] = ranks.get(child);
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int symbol = 0; symbol < ALPHABET; symbol++) {
+                int child = children.get(state)[symbol];
+                if (child == 0) {
+                    transitions[state * ALPHABET + symbol] = transitions[fail[state] * ALPHABET + symbol];
+                } else {
+                    transitions[state * ALPHABET + symbol] = child;
+                    fail[child] = transitions[fail[state] * ALPHABET + symbol];
+                    bestRank[child] = Math.min(ranks.get(child), bestRank[fail[child]]);
+                    queue.add(child);
+                }
+            }
+        }
+        return new KeywordAutomaton<>(transitions, bestRank, values.toArray());
+    }
+
+    /**
+     * Scans the text once and returns the value of the best ranked keyword found in it.
+     *
+     * @param  text  the text to scan
+     * @return       the value of the best ranked keyword, or null if none occurs
+     */
+    @SuppressWarnings("unchecked")
+    public T match(CharSequence text) {
+        int state = 0;
+        int best = NO_MATCH;
+        boolean afterSpace = true;
+        for (int i = 0; i < text.length() && best != 0; i++) {
+            int symbol = symbol(text.charAt(i));
+            if (symbol == SPACE) {
+                if (afterSpace) continue;
+                afterSpace = true;
+            } else {
+                afterSpace = false;
+            }
+            state = transitions[state * ALPHABET + symbol];
+            best = Math.min(best, bestRank[state]);
+        }
+        return best == NO_MATCH ? null : (T) values[best];
+    }
+
+    /**
+     * Folds a text the way it is matched, e.g. {@code "Empório  São-João"} to {@code "emporio sao joao"}.
+     *
+     * @param  text  the text to fold
+     * @return       the folded text
+     */
+    public static String normalize(CharSequence text) {
+        int[] symbols = fold(text);
+        StringBuilder normalized = new StringBuilder(symbols.length);
+        for (int symbol : symbols) {
+            normalized.append(symbol == SPACE ? ' ' : symbol <= 26 ? (char) ('a' + symbol - 1) : (char) ('0' + symbol - 27));
+        }
+        return normalized.toString();
+    }
+
+    private static int[] fold(CharSequence keyword) {
+        int[] symbols = new int[keyword.length()];
+        int length = 0;
+        boolean afterSpace = true;
+        for (int i = 0; i < keyword.length(); i++) {
+            int symbol = symbol(keyword.charAt(i));
+            if (symbol == SPACE) {
+                if (afterSpace) continue;
+                afterSpace = true;
+            } else {
+                afterSpace = false;
+            }
+            symbols[length++] = symbol;
+        }
+        if (length > 0 && symbols[length - 1] == SPACE) length--;
+        return Arrays.copyOf(symbols, length);
+    }
+
+    private static int symbol(char c) {
+        return c < SYMBOLS.length ? SYMBOLS[c] : SPACE;
+    }
+
+    private static int[] newNode() {
+        return new int[ALPHABET];
+    }
+
+    /**
+     * Maps Latin characters up to Latin Extended-B to their folded symbol, e.g. 'Ã' and 'a' to the same one.
+     */
+    private static byte[] foldTable() {
+        byte[] table = new byte[0x250];
+        for (char c = 0; c < table.length; c++) {
+            char base = Character.toLowerCase(Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD).charAt(0));
+            if (base >= 'a' && base <= 'z') {
+                table[c] = (byte) (1 + base - 'a');
+            } else if (base >= '0' && base <= '9') {
+                table[c] = (byte) (27 + base - '0');
+            } else {
+                table[c] = SPACE;
+            }
+        }
+        return table;
+    }
+}
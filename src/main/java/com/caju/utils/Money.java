@@ -0,0 +1,38 @@
+package com.caju.utils;
+
+import java.math.BigDecimal;
+
+/**
+ * Amounts as {@code long} cents. Wallet arithmetic on the authorization paths works in cents, so a funds check
+ * and a debit are a comparison and a subtraction; {@link BigDecimal} only appears at the edges, in JSON and in
+ * the {@code DECIMAL(19, 2)} columns.
+ *
+ * <p>Conversions are exact: an amount with a fraction of a cent is rejected, never rounded.
+ */
+public final class Money {
+
+    public static final int SCALE = 2;
+
+    private Money() {
+    }
+
+    /**
+     * @param  amount   the amount, at any scale
+     * @return          the amount in cents
+     * @throws ArithmeticException if the amount has a fraction of a cent or does not fit in a long
+     */
+    public static long toCents(BigDecimal amount) {
+        try {
+            return amount.movePointRight(SCALE).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Amount %s is not a whole number of cents".formatted(amount.toPlainString()));
+        }
+    }
+
+    /**
+     * @return   the amount at the scale of the money columns
+     */
+    public static BigDecimal fromCents(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+}
@@ -0,0 +1,39 @@
+package com.caju.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.StringJoiner;
+
+/**
+ * Opaque keyset cursor: the sort key of the last row of a page, joined by {@code |} and encoded as URL-safe base64.
+ */
+public final class PageCursor {
+
+    private PageCursor() {
+    }
+
+    public static String encode(Object... key) {
+        StringJoiner joined = new StringJoiner("|");
+        for (Object part : key) {
+            joined.add(String.valueOf(part));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(joined.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param  cursor   the encoded cursor
+     * @param  parts    the number of parts of the key
+     * @return          the parts of the key
+     * @throws IllegalArgumentException if the cursor is not valid base64 or does not hold that many parts
+     */
+    public static String[] decode(String cursor, int parts) {
+        String[] key;
+        try {
+            key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", parts);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+        if (key.length != parts) throw new IllegalArgumentException("Malformed cursor " + cursor);
+        return key;
+    }
+}
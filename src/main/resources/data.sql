@@ -1,6 +1,10 @@
+DELETE FROM IDEMPOTENCY_KEYS;
+DELETE FROM WALLET_SNAPSHOTS;
+DELETE FROM SPENDING_SUMMARIES;
 DELETE FROM TRANSACTIONS;
 DELETE FROM WALLETS;
 DELETE FROM ACCOUNTS;
+DELETE FROM MERCHANT_KEYWORDS;
 
 INSERT INTO ACCOUNTS (id, name)
 VALUES (1, 'Abel');
@@ -15,4 +19,11 @@ INSERT INTO WALLETS (balance, id_account, category)
 VALUES(100.00, 1, 'FOOD');
 
 INSERT INTO WALLETS (balance, id_account, category)
-VALUES  (100.00, 1, 'MEAL');
\ No newline at end of file
+VALUES  (100.00, 1, 'MEAL');
+
+INSERT INTO WALLET_SNAPSHOTS (id_account, category, balance, wallet_version, last_transaction_id, created_at)
+SELECT id_account, category, balance, version, 0, CURRENT_TIMESTAMP FROM WALLETS;
+
+INSERT INTO MERCHANT_KEYWORDS (keyword, category, priority)
+VALUES ('comida', 'FOOD', 1), ('food', 'FOOD', 1), ('eat', 'FOOD', 1), ('restaurante', 'FOOD', 1), ('padaria', 'FOOD', 1),
+       ('mercado', 'MEAL', 0), ('quitanda', 'MEAL', 0), ('emporio', 'MEAL', 0), ('meal', 'MEAL', 0), ('market', 'MEAL', 0);
\ No newline at end of file
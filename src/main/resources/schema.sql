@@ -5,20 +5,106 @@ CREATE TABLE IF NOT EXISTS accounts (
 );
 
 CREATE TABLE IF NOT EXISTS wallets (
-  balance DECIMAL,
+  balance DECIMAL(19, 2),
    id_account BIGINT NOT NULL,
-   category SMALLINT NOT NULL,
+   category VARCHAR(10) NOT NULL,
+   version BIGINT DEFAULT 0 NOT NULL,
    CONSTRAINT pk_wallets PRIMARY KEY (id_account, category),
    CONSTRAINT FK_WALLETS_ON_ID_ACCOUNT FOREIGN KEY (id_account) REFERENCES accounts (id)
 );
 
+ALTER TABLE wallets ALTER COLUMN category SET DATA TYPE VARCHAR(10);
+ALTER TABLE wallets ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
+-- a DECIMAL without scale keeps no cents in H2; converting to the type a column already has is a no-op
+ALTER TABLE wallets ALTER COLUMN balance SET DATA TYPE DECIMAL(19, 2);
+
 CREATE TABLE IF NOT EXISTS transactions (
   id BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
    id_account BIGINT NOT NULL,
-   total_amount DECIMAL,
+   total_amount DECIMAL(19, 2),
    mcc VARCHAR(255),
    merchant VARCHAR(255),
+   category VARCHAR(10),
+   operation VARCHAR(10) DEFAULT 'DEBIT' NOT NULL,
    created_at TIMESTAMP NOT NULL,
    CONSTRAINT pk_transactions PRIMARY KEY (id),
    CONSTRAINT FK_TRANSACTIONS_ON_ID_ACCOUNT FOREIGN KEY (id_account) REFERENCES accounts (id)
-);
\ No newline at end of file
+);
+
+ALTER TABLE transactions ADD COLUMN IF NOT EXISTS category VARCHAR(10);
+ALTER TABLE transactions ADD COLUMN IF NOT EXISTS operation VARCHAR(10) DEFAULT 'DEBIT' NOT NULL;
+ALTER TABLE transactions ALTER COLUMN total_amount SET DATA TYPE DECIMAL(19, 2);
+-- version the charged wallet got from this row's change; versions follow commit order, ids do not
+ALTER TABLE transactions ADD COLUMN IF NOT EXISTS wallet_version BIGINT;
+
+-- history pages are read in (created_at, id) order, per account or across all accounts
+CREATE INDEX IF NOT EXISTS idx_transactions_account_created_at ON transactions (id_account, created_at, id);
+CREATE INDEX IF NOT EXISTS idx_transactions_created_at ON transactions (created_at, id);
+-- wallet replays read the rows of each wallet after the version in its snapshot
+CREATE INDEX IF NOT EXISTS idx_transactions_wallet_version ON transactions (id_account, category, wallet_version);
+
+CREATE TABLE IF NOT EXISTS wallet_snapshots (
+  id_account BIGINT NOT NULL,
+   category VARCHAR(10) NOT NULL,
+   balance DECIMAL(19, 2),
+   wallet_version BIGINT,
+   last_transaction_id BIGINT NOT NULL,
+   created_at TIMESTAMP NOT NULL,
+   CONSTRAINT pk_wallet_snapshots PRIMARY KEY (id_account, category)
+);
+
+ALTER TABLE wallet_snapshots ALTER COLUMN balance SET DATA TYPE DECIMAL(19, 2);
+-- snapshots taken before it have no version and are replayed by transaction id
+ALTER TABLE wallet_snapshots ADD COLUMN IF NOT EXISTS wallet_version BIGINT;
+
+-- daily spending per account and category, upserted with every approved debit
+CREATE TABLE IF NOT EXISTS spending_summaries (
+  id_account BIGINT NOT NULL,
+   category VARCHAR(10) NOT NULL,
+   spent_on DATE NOT NULL,
+   transaction_count BIGINT NOT NULL,
+   total_amount DECIMAL(19, 2) NOT NULL,
+   max_amount DECIMAL(19, 2) NOT NULL,
+   CONSTRAINT pk_spending_summaries PRIMARY KEY (id_account, spent_on, category)
+);
+
+CREATE SEQUENCE IF NOT EXISTS transactions_seq START WITH 1 INCREMENT BY 50;
+-- ids are handed out with the pooled-lo optimizer: every value taken reserves value .. value + 49, and other
+-- instances may still hold blocks whose ids are not written yet. The restart therefore only ever moves the
+-- sequence forward, and past MAX(id) + 50, the last id a block that wrote MAX(id) can hand out
+ALTER SEQUENCE transactions_seq RESTART WITH (SELECT GREATEST(
+    (SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_SCHEMA = CURRENT_SCHEMA AND SEQUENCE_NAME = 'TRANSACTIONS_SEQ'),
+    (SELECT COALESCE(MAX(id), 0) + 51 FROM transactions)));
+
+CREATE TABLE IF NOT EXISTS write_behind_checkpoints (
+  name VARCHAR(64) NOT NULL,
+   last_sequence BIGINT NOT NULL,
+   CONSTRAINT pk_write_behind_checkpoints PRIMARY KEY (name)
+);
+
+CREATE TABLE IF NOT EXISTS merchant_keywords (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+   keyword VARCHAR(100) NOT NULL,
+   category VARCHAR(10) NOT NULL,
+   priority INT DEFAULT 0 NOT NULL,
+   updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL,
+   CONSTRAINT pk_merchant_keywords PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS merchant_overrides (
+  merchant VARCHAR(255) NOT NULL,
+   mcc VARCHAR(4) NOT NULL,
+   updated_at TIMESTAMP NOT NULL,
+   CONSTRAINT pk_merchant_overrides PRIMARY KEY (merchant)
+);
+
+-- answer given to an authorization sent with an idempotency key, so a retry of it is answered the same way
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+  id_account BIGINT NOT NULL,
+   idempotency_key VARCHAR(64) NOT NULL,
+   code VARCHAR(2) NOT NULL,
+   message VARCHAR(500) NOT NULL,
+   created_at TIMESTAMP NOT NULL,
+   CONSTRAINT pk_idempotency_keys PRIMARY KEY (id_account, idempotency_key)
+);
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_created_at ON idempotency_keys (created_at);
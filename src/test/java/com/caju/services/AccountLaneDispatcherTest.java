@@ -0,0 +1,146 @@
+package com.caju.services;
+
+import com.caju.exceptions.LaneTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AccountLaneDispatcherTest {
+
+    private AccountLaneDispatcher dispatcher;
+
+    @BeforeEach
+    void setup() {
+        dispatcher = new AccountLaneDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "enabled", true);
+        ReflectionTestUtils.setField(dispatcher, "laneCount", 4);
+        ReflectionTestUtils.setField(dispatcher, "queueCapacity", 10000);
+        dispatcher.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        dispatcher.stop();
+    }
+
+    @Test
+    @DisplayName("Requests for the same account always run on the same lane")
+    void shouldRunSameAccountOnSameLane() {
+        String first = dispatcher.dispatch("123", () -> Thread.currentThread().getName());
+        String second = dispatcher.dispatch("0123", () -> Thread.currentThread().getName());
+
+        assertThat(first).startsWith("account-lane-").isEqualTo(second);
+    }
+
+    @Test
+    @DisplayName("Concurrent read-modify-write on one account is never lost")
+    void shouldSerializeConcurrentRequestsForSameAccount() {
+        int[] balance = {1000};
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            calls.add(CompletableFuture.runAsync(() -> dispatcher.dispatch("123", () -> {
+                int current = balance[0];
+                Thread.yield();
+                balance[0] = current - 1;
+                return null;
+            }), callers));
+        }
+        CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).join();
+        callers.shutdown();
+
+        assertThat(balance[0]).isZero();
+    }
+
+    @Test
+    @DisplayName("Exceptions thrown by the task reach the caller")
+    void shouldPropagateTaskExceptions() {
+        assertThatThrownBy(() -> dispatcher.dispatch("123", () -> {
+            throw new IllegalArgumentException("boom");
+        })).isInstanceOf(IllegalArgumentException.class).hasMessage("boom");
+    }
+
+    @Test
+    @DisplayName("Runs on the calling thread when lanes are disabled")
+    void shouldRunInlineWhenDisabled() {
+        AccountLaneDispatcher inline = new AccountLaneDispatcher();
+        ReflectionTestUtils.setField(inline, "enabled", false);
+        inline.start();
+
+        String thread = inline.dispatch("123", () -> Thread.currentThread().getName());
+
+        assertThat(thread).isEqualTo(Thread.currentThread().getName());
+    }
+
+    @Test
+    @DisplayName("Lanes run on virtual threads when they are enabled")
+    void shouldRunOnVirtualThreadsWhenEnabled() throws InterruptedException {
+        AccountLaneDispatcher virtual = new AccountLaneDispatcher();
+        ReflectionTestUtils.setField(virtual, "enabled", true);
+        ReflectionTestUtils.setField(virtual, "laneCount", 4);
+        ReflectionTestUtils.setField(virtual, "queueCapacity", 10000);
+        ReflectionTestUtils.setField(virtual, "virtualThreads", true);
+        virtual.start();
+
+        Thread first = virtual.dispatch("123", Thread::currentThread);
+        Thread second = virtual.dispatch("0123", Thread::currentThread);
+        virtual.stop();
+
+        assertThat(first.isVirtual()).isTrue();
+        assertThat(first.getName()).startsWith("account-lane-").isEqualTo(second.getName());
+        assertThat(dispatcher.dispatch("123", () -> Thread.currentThread().isVirtual())).isFalse();
+    }
+
+    @Test
+    @DisplayName("The caller stops waiting at the timeout and a task still queued is cancelled")
+    void shouldTimeOutAndCancelQueuedTask() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean queuedRan = new AtomicBoolean();
+        CompletableFuture<Void> busy = CompletableFuture.runAsync(() -> dispatcher.dispatch("123", () -> {
+            release.await();
+            return null;
+        }));
+        Thread.sleep(50);
+
+        assertThatThrownBy(() -> dispatcher.dispatch("123", () -> queuedRan.getAndSet(true), TimeUnit.MILLISECONDS.toNanos(20)))
+                .isInstanceOfSatisfying(LaneTimeoutException.class, e -> assertThat(e.neverStarted()).isTrue());
+
+        release.countDown();
+        busy.join();
+        assertThat(dispatcher.dispatch("123", () -> queuedRan.get())).isFalse();
+    }
+
+    @Test
+    @DisplayName("A task already running when the caller times out is left to finish")
+    void shouldLetRunningTaskFinishAfterTimeout() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean finished = new AtomicBoolean();
+
+        assertThatThrownBy(() -> dispatcher.dispatch("123", () -> {
+            started.countDown();
+            release.await();
+            finished.set(true);
+            return null;
+        }, TimeUnit.MILLISECONDS.toNanos(50)))
+                .isInstanceOfSatisfying(LaneTimeoutException.class, e -> assertThat(e.neverStarted()).isFalse());
+
+        assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+        assertThat(dispatcher.dispatch("123", finished::get)).isTrue();
+    }
+}
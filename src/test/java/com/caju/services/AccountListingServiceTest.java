@@ -0,0 +1,129 @@
+package com.caju.services;
+
+import com.caju.dto.AccountPageDTO;
+import com.caju.dto.AccountSummaryDTO;
+import com.caju.dto.AccountWalletsDTO;
+import com.caju.dto.WalletBalanceDTO;
+import com.caju.dto.WalletPageDTO;
+import com.caju.enums.CategoryWallet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AccountListingServiceTest {
+
+    private AccountListingService listingService;
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setup() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE accounts (id BIGINT NOT NULL PRIMARY KEY, name VARCHAR(255))");
+        jdbcTemplate.execute("CREATE TABLE wallets (balance DECIMAL(19, 2), id_account BIGINT NOT NULL, category VARCHAR(10) NOT NULL, version BIGINT DEFAULT 0 NOT NULL, PRIMARY KEY (id_account, category))");
+        objectMapper = new ObjectMapper();
+
+        listingService = new AccountListingService();
+        ReflectionTestUtils.setField(listingService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(listingService, "dataSource", dataSource);
+        ReflectionTestUtils.setField(listingService, "transactionTemplate", new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+        ReflectionTestUtils.setField(listingService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(listingService, "maxPageSize", 2);
+
+        // accounts 1..5, each with the three wallets except account 4 which has none
+        for (long id = 1; id <= 5; id++) {
+            jdbcTemplate.update("INSERT INTO accounts (id, name) VALUES (?, ?)", id, "Account " + id);
+            if (id == 4) continue;
+            for (CategoryWallet category : CategoryWallet.values()) {
+                jdbcTemplate.update("INSERT INTO wallets (balance, id_account, category) VALUES (100, ?, ?)", id, category.name());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Account pages follow each other through the cursor, capped at the maximum page size")
+    void shouldWalkAccountPages() {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            AccountPageDTO page = listingService.getAccountPage(cursor, 50);
+            page.accounts().forEach(account -> ids.add(account.id()));
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertThat(ids).containsExactly(1L, 2L, 3L, 4L, 5L);
+        assertThat(pages).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Wallet pages follow each other through the cursor across accounts")
+    void shouldWalkWalletPages() {
+        List<WalletBalanceDTO> wallets = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            WalletPageDTO page = listingService.getWalletPage(cursor, 2);
+            wallets.addAll(page.wallets());
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null && pages <= 6);
+
+        assertThat(pages).isEqualTo(6);
+        assertThat(wallets).hasSize(4 * CategoryWallet.values().length);
+        assertThat(wallets).doesNotHaveDuplicates();
+        assertThat(wallets).extracting(WalletBalanceDTO::idAccount).isSorted();
+    }
+
+    @Test
+    @DisplayName("Malformed cursors and non-positive limits are rejected")
+    void shouldRejectInvalidRequests() {
+        assertThatThrownBy(() -> listingService.getAccountPage("not a cursor", 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> listingService.getWalletPage("bm90LWEtbnVtYmVyfEZPT0Q", 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> listingService.getAccountPage(null, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("The account export writes one account per line with its wallets, including accounts without wallets")
+    void shouldExportAccountsWithWallets() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        listingService.exportAccounts(output);
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(5);
+        AccountWalletsDTO first = objectMapper.readValue(lines[0], AccountWalletsDTO.class);
+        assertThat(first.id()).isEqualTo(1L);
+        assertThat(first.wallets()).hasSize(CategoryWallet.values().length);
+        assertThat(objectMapper.readValue(lines[3], AccountWalletsDTO.class).wallets()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("The full listings as arrays are valid JSON")
+    void shouldExportArrays() throws Exception {
+        ByteArrayOutputStream accounts = new ByteArrayOutputStream();
+        ByteArrayOutputStream wallets = new ByteArrayOutputStream();
+
+        listingService.exportAccountsAsArray(accounts);
+        listingService.exportWalletsAsArray(wallets);
+
+        assertThat(objectMapper.readValue(accounts.toByteArray(), AccountSummaryDTO[].class)).hasSize(5);
+        assertThat(objectMapper.readValue(wallets.toByteArray(), WalletBalanceDTO[].class)).hasSize(4 * CategoryWallet.values().length);
+    }
+}
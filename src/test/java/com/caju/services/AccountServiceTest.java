@@ -10,6 +10,7 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 
 import java.util.Optional;
 
@@ -24,6 +25,9 @@ public class AccountServiceTest {
     @Mock
     private AccountRepository repository;
 
+    @Spy
+    private AccountWalletCache cache = new AccountWalletCache();
+
     private AutoCloseable autoCloseable;
 
     @BeforeEach
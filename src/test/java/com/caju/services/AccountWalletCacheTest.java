@@ -0,0 +1,86 @@
+package com.caju.services;
+
+import com.caju.entities.Account;
+import com.caju.entities.Wallet;
+import com.caju.entities.WalletKey;
+import com.caju.enums.CategoryWallet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AccountWalletCacheTest {
+
+    private AccountWalletCache cache;
+
+    @BeforeEach
+    void setup() {
+        cache = new AccountWalletCache();
+        cache.init();
+    }
+
+    @Test
+    @DisplayName("A miss is loaded once on the calling thread and later lookups are served from the cache")
+    void shouldLoadMissOnCallingThread() {
+        AtomicInteger loads = new AtomicInteger();
+        Thread caller = Thread.currentThread();
+
+        Account first = cache.getAccount(1L, id -> {
+            loads.incrementAndGet();
+            assertThat(Thread.currentThread()).isSameAs(caller);
+            return account(id);
+        });
+        Account second = cache.getAccount(1L, id -> {
+            loads.incrementAndGet();
+            return account(id);
+        });
+
+        assertThat(loads).hasValue(1);
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    @DisplayName("A wallet snapshot evicted while it loads is not put back")
+    void shouldNotCacheSnapshotEvictedWhileLoading() {
+        List<Wallet> stale = cache.getWallets(1L, id -> {
+            cache.evictWallets(id);
+            return List.of(wallet(id, "100"));
+        });
+        List<Wallet> fresh = cache.getWallets(1L, id -> List.of(wallet(id, "90")));
+
+        assertThat(stale.get(0).getBalance()).isEqualByComparingTo("100");
+        assertThat(fresh.get(0).getBalance()).isEqualByComparingTo("90");
+    }
+
+    @Test
+    @DisplayName("Accounts that are not found and failed loads are not cached")
+    void shouldNotCacheMissingAccountsOrFailures() {
+        assertThat(cache.getAccount(1L, id -> null)).isNull();
+        assertThatThrownBy(() -> cache.getAccount(1L, id -> {
+            throw new IllegalStateException("database down");
+        })).isInstanceOf(IllegalStateException.class).hasMessage("database down");
+
+        assertThat(cache.getAccount(1L, AccountWalletCacheTest::account).getId()).isEqualTo(1L);
+    }
+
+    private static Account account(Long id) {
+        Account account = new Account();
+        account.setId(id);
+        account.setName("Account " + id);
+        return account;
+    }
+
+    private static Wallet wallet(Long accountId, String balance) {
+        return Wallet.builder()
+                .id(new WalletKey(account(accountId), CategoryWallet.FOOD))
+                .balance(new BigDecimal(balance))
+                .version(0L)
+                .build();
+    }
+}
@@ -0,0 +1,128 @@
+package com.caju.services;
+
+import com.caju.dto.TransactionDTO;
+import com.caju.entities.MerchantOverride;
+import com.caju.enums.CategoryWallet;
+import com.caju.repositories.MerchantOverrideRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CategoryClassifierTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Without a table file the codes of CategoryWallet are used")
+    void shouldUseEnumCodesByDefault() {
+        CategoryClassifier classifier = new CategoryClassifier();
+
+        assertThat(classifier.getCategoryByMcc("5411")).isEqualTo(CategoryWallet.FOOD);
+        assertThat(classifier.getCategoryByMcc("5412")).isEqualTo(CategoryWallet.FOOD);
+        assertThat(classifier.getCategoryByMcc("5811")).isEqualTo(CategoryWallet.MEAL);
+        assertThat(classifier.getCategoryByMcc("5812")).isEqualTo(CategoryWallet.MEAL);
+        assertThat(classifier.getCategoryByMcc("5999")).isEqualTo(CategoryWallet.CASH);
+    }
+
+    @Test
+    @DisplayName("Codes that are not four digits are charged to CASH")
+    void shouldChargeInvalidCodesToCash() {
+        CategoryClassifier classifier = new CategoryClassifier();
+
+        assertThat(classifier.getCategoryByMcc(null)).isEqualTo(CategoryWallet.CASH);
+        assertThat(classifier.getCategoryByMcc("")).isEqualTo(CategoryWallet.CASH);
+        assertThat(classifier.getCategoryByMcc("541")).isEqualTo(CategoryWallet.CASH);
+        assertThat(classifier.getCategoryByMcc("05411")).isEqualTo(CategoryWallet.CASH);
+        assertThat(classifier.getCategoryByMcc("54a1")).isEqualTo(CategoryWallet.CASH);
+    }
+
+    @Test
+    @DisplayName("The merchant name takes priority over the MCC when requested")
+    void shouldPreferMerchantWhenRequested() {
+        CategoryClassifier classifier = new CategoryClassifier();
+        TransactionDTO transaction = new TransactionDTO("123", BigDecimal.TEN, "5811", "PADARIA DO ZE               SAO PAULO BR");
+
+        assertThat(classifier.getCategoryForTransaction(transaction, true)).isEqualTo(CategoryWallet.FOOD);
+        assertThat(classifier.getCategoryForTransaction(transaction, false)).isEqualTo(CategoryWallet.MEAL);
+    }
+
+    @Test
+    @DisplayName("A merchant override is charged to the category of its MCC")
+    void shouldChargeOverridesByTheirMcc() {
+        MerchantOverrideRepository repository = mock(MerchantOverrideRepository.class);
+        when(repository.findById("padaria do ze sao paulo br")).thenReturn(Optional.of(new MerchantOverride("padaria do ze sao paulo br", "4121", LocalDateTime.now())));
+        MerchantClassifier merchantClassifier = new MerchantClassifier();
+        ReflectionTestUtils.setField(merchantClassifier, "overrideRepository", repository);
+        CategoryClassifier classifier = new CategoryClassifier();
+        ReflectionTestUtils.setField(classifier, "merchantClassifier", merchantClassifier);
+        TransactionDTO transaction = new TransactionDTO("123", BigDecimal.TEN, "5811", "PADARIA DO ZE               SAO PAULO BR");
+
+        assertThat(classifier.getCategoryForTransaction(transaction, true)).isEqualTo(CategoryWallet.CASH);
+    }
+
+    @Test
+    @DisplayName("Codes and ranges are loaded from the table file")
+    void shouldLoadCodesAndRanges() throws IOException {
+        Path table = Files.writeString(directory.resolve("mcc.txt"), "# comment\n\n5411=FOOD\n5811 - 5815 = meal\n");
+
+        CategoryClassifier classifier = classifier(table);
+
+        assertThat(classifier.getCategoryByMcc("5411")).isEqualTo(CategoryWallet.FOOD);
+        assertThat(classifier.getCategoryByMcc("5412")).isEqualTo(CategoryWallet.CASH);
+        assertThat(classifier.getCategoryByMcc("5814")).isEqualTo(CategoryWallet.MEAL);
+        assertThat(classifier.getCategoryByMcc("5816")).isEqualTo(CategoryWallet.CASH);
+    }
+
+    @Test
+    @DisplayName("A broken table file fails the initial load")
+    void shouldFailOnInvalidTable() throws IOException {
+        Path table = Files.writeString(directory.resolve("mcc.txt"), "5411=FOOD\n5812-5811=MEAL\n");
+
+        assertThatThrownBy(() -> classifier(table))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("line 2");
+    }
+
+    @Test
+    @DisplayName("A changed table file is swapped in and a broken one keeps the current table")
+    void shouldReloadChangedTable() throws IOException {
+        Path table = Files.writeString(directory.resolve("mcc.txt"), "5411=FOOD\n");
+        CategoryClassifier classifier = classifier(table);
+
+        Files.writeString(table, "5411=MEAL\n5999=FOOD\n");
+        Files.setLastModifiedTime(table, FileTime.from(Instant.now().plusSeconds(10)));
+        classifier.reloadIfChanged();
+
+        assertThat(classifier.getCategoryByMcc("5411")).isEqualTo(CategoryWallet.MEAL);
+        assertThat(classifier.getCategoryByMcc("5999")).isEqualTo(CategoryWallet.FOOD);
+
+        Files.writeString(table, "5411=UNKNOWN\n");
+        Files.setLastModifiedTime(table, FileTime.from(Instant.now().plusSeconds(20)));
+        classifier.reloadIfChanged();
+
+        assertThat(classifier.getCategoryByMcc("5411")).isEqualTo(CategoryWallet.MEAL);
+    }
+
+    private CategoryClassifier classifier(Path table) {
+        CategoryClassifier classifier = new CategoryClassifier();
+        ReflectionTestUtils.setField(classifier, "tableLocation", table.toUri().toString());
+        classifier.load();
+        return classifier;
+    }
+}
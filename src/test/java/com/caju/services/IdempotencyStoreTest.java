@@ -0,0 +1,177 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.enums.TransactionResponseEnum;
+import com.github.benmanes.caffeine.cache.Cache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IdempotencyStoreTest {
+
+    private static final ResponseDTO APPROVED = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+
+    private IdempotencyStore store;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setup() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        jdbcTemplate.execute("CREATE TABLE idempotency_keys (id_account BIGINT NOT NULL, idempotency_key VARCHAR(64) NOT NULL, code VARCHAR(2) NOT NULL, message VARCHAR(500) NOT NULL, created_at TIMESTAMP NOT NULL, PRIMARY KEY (id_account, idempotency_key))");
+
+        store = new IdempotencyStore();
+        ReflectionTestUtils.setField(store, "jdbcTemplate", jdbcTemplate);
+        store.init();
+    }
+
+    @Test
+    @DisplayName("A recorded response is found by its account and key, and a second record of the key fails")
+    void shouldFindRecordedResponse() {
+        store.record(1L, "retry-1", APPROVED);
+
+        assertThat(store.find(request("1", "retry-1"))).isEqualTo(APPROVED);
+        assertThat(store.find(request("2", "retry-1"))).isNull();
+        assertThat(store.find(request("1", null))).isNull();
+        assertThatThrownBy(() -> store.record(1L, "retry-1", APPROVED)).isInstanceOf(DuplicateKeyException.class);
+    }
+
+    @Test
+    @DisplayName("A key replayed from the write-behind log is stored once and never replaces the stored answer")
+    void shouldRecordIfAbsent() {
+        ResponseDTO insufficient = new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(), "Transaction rejected");
+        store.recordIfAbsent(1L, "retry-1", APPROVED, Instant.now());
+        store.recordIfAbsent(1L, "retry-1", insufficient, Instant.now());
+
+        assertThat(store.find(request("1", "retry-1"))).isEqualTo(APPROVED);
+        assertThat(store.load(1L, "retry-1")).isEqualTo(APPROVED);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM idempotency_keys", Long.class)).isEqualTo(1L);
+    }
+
+    @Test
+    @DisplayName("A claimed key is settled with the answer or released, and a key already taken is answered while the caller's transaction goes on")
+    void shouldClaimAndSettleKeys() {
+        ResponseDTO insufficient = new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(), "Transaction rejected");
+        transactionTemplate.executeWithoutResult(status -> {
+            assertThat(store.claim(1L, "retry-1")).isNull();
+            store.settle(1L, "retry-1", insufficient);
+            assertThat(store.claim(1L, "retry-2")).isNull();
+            store.settle(1L, "retry-2", new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: boom"));
+        });
+
+        ResponseDTO[] taken = new ResponseDTO[1];
+        transactionTemplate.executeWithoutResult(status -> {
+            taken[0] = store.claim(1L, "retry-1");
+            jdbcTemplate.update("INSERT INTO idempotency_keys (id_account, idempotency_key, code, message, created_at) VALUES (2, 'after', '00', 'ok', CURRENT_TIMESTAMP)");
+        });
+
+        assertThat(taken[0]).isEqualTo(insufficient);
+        assertThat(store.find(request("1", "retry-1"))).isEqualTo(insufficient);
+        assertThat(jdbcTemplate.queryForList("SELECT idempotency_key FROM idempotency_keys ORDER BY idempotency_key", String.class))
+                .containsExactly("after", "retry-1");
+    }
+
+    @Test
+    @DisplayName("Errors are not stored, and keys that cannot be stored are answered with an error")
+    void shouldOnlyStoreFinalResponses() {
+        store.record(1L, "retry-1", new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: boom"));
+
+        assertThat(store.find(request("1", "retry-1"))).isNull();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM idempotency_keys", Long.class)).isZero();
+        assertThat(store.find(request("1", "k".repeat(65))).code()).isEqualTo(TransactionResponseEnum.ERROR.getCode());
+        assertThat(store.find(request("1", "")).code()).isEqualTo(TransactionResponseEnum.ERROR.getCode());
+    }
+
+    @Test
+    @DisplayName("Startup loads the unexpired keys, and a key only in the table is loaded once its insert fails")
+    void shouldLoadStoredKeys() {
+        insert(1L, "recent", Instant.now().minus(1, ChronoUnit.HOURS));
+        insert(1L, "expired", Instant.now().minus(25, ChronoUnit.HOURS));
+        store.init();
+
+        assertThat(store.find(request("1", "recent"))).isEqualTo(APPROVED);
+        assertThat(store.find(request("1", "expired"))).isNull();
+
+        insert(1L, "other-instance", Instant.now());
+        assertThat(store.find(request("1", "other-instance"))).isNull();
+        assertThat(store.load(1L, "other-instance")).isEqualTo(APPROVED);
+        assertThat(store.find(request("1", "other-instance"))).isEqualTo(APPROVED);
+    }
+
+    @Test
+    @DisplayName("The index is complete while it holds every key, and stops being so once startup or eviction leaves keys out")
+    void shouldTrackWhetherIndexIsComplete() {
+        assertThat(store.isComplete()).isTrue();
+        store.record(1L, "retry-1", APPROVED);
+        store.record(1L, "retry-2", APPROVED);
+        assertThat(store.findIndexed(1L, "retry-1")).isEqualTo(APPROVED);
+
+        ReflectionTestUtils.setField(store, "maxSize", 2L);
+        store.init();
+        assertThat(store.isComplete()).isFalse();
+
+        ReflectionTestUtils.setField(store, "maxSize", 3L);
+        store.init();
+        assertThat(store.isComplete()).isTrue();
+        store.record(1L, "retry-3", APPROVED);
+        store.record(1L, "retry-4", APPROVED);
+        ((Cache<?, ?>) ReflectionTestUtils.getField(store, "index")).cleanUp();
+        assertThat(store.isComplete()).isFalse();
+    }
+
+    @Test
+    @DisplayName("A batch lookup answers from the index and reads the keys it does not know in one query")
+    void shouldFindAllKeysOfBatch() {
+        store.record(1L, "indexed", APPROVED);
+        insert(2L, "in-table", Instant.now());
+
+        Map<IdempotencyStore.Key, ResponseDTO> found = store.findAll(List.of(
+                request("1", "indexed"), request("2", "in-table"), request("2", "new"), request("2", null), request("abc", "key")));
+
+        assertThat(found).containsOnly(
+                Map.entry(new IdempotencyStore.Key(1L, "indexed"), APPROVED),
+                Map.entry(new IdempotencyStore.Key(2L, "in-table"), APPROVED));
+    }
+
+    @Test
+    @DisplayName("Forgotten keys and keys past their time to live are deleted from the table and the index")
+    void shouldForgetAndPurgeKeys() {
+        store.record(1L, "reversed", APPROVED);
+        insert(1L, "expired", Instant.now().minus(25, ChronoUnit.HOURS));
+
+        store.forget(1L, "reversed");
+        store.purgeExpired();
+
+        assertThat(store.find(request("1", "reversed"))).isNull();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM idempotency_keys", Long.class)).isZero();
+    }
+
+    private void insert(Long accountId, String idempotencyKey, Instant createdAt) {
+        jdbcTemplate.update("INSERT INTO idempotency_keys (id_account, idempotency_key, code, message, created_at) VALUES (?, ?, ?, ?, ?)",
+                accountId, idempotencyKey, APPROVED.code(), APPROVED.message(), Timestamp.from(createdAt));
+    }
+
+    private static TransactionDTO request(String account, String idempotencyKey) {
+        return new TransactionDTO(account, BigDecimal.TEN, "5811", null, idempotencyKey);
+    }
+}
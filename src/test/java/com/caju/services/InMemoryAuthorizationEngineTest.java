@@ -0,0 +1,198 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.entities.Account;
+import com.caju.entities.Wallet;
+import com.caju.entities.WalletKey;
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionResponseEnum;
+import com.caju.repositories.AccountRepository;
+import com.caju.repositories.WalletRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InMemoryAuthorizationEngineTest {
+
+    @InjectMocks
+    private InMemoryAuthorizationEngine engine;
+
+    @Mock
+    private AccountRepository accountRepository;
+    @Mock
+    private WalletRepository walletRepository;
+    @Mock
+    private WriteBehindQueue writeBehindQueue;
+    @Mock
+    private IdempotencyStore idempotencyStore;
+    @Spy
+    private CategoryClassifier categoryClassifier = new CategoryClassifier();
+
+    private AutoCloseable autoCloseable;
+
+    @BeforeEach
+    void setup() {
+        autoCloseable = MockitoAnnotations.openMocks(this);
+        Account account = createAccountTest();
+        when(accountRepository.findAll()).thenReturn(List.of(account));
+        when(walletRepository.findAll()).thenReturn(List.of(
+                createWalletTest(account, CategoryWallet.FOOD, BigDecimal.valueOf(50)),
+                createWalletTest(account, CategoryWallet.CASH, BigDecimal.valueOf(100))));
+        when(writeBehindQueue.append(any(), anyLong(), any(), any(), any(), any(), any(), any())).thenReturn(1L);
+        engine.recover();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        autoCloseable.close();
+    }
+
+    @Test
+    @DisplayName("Recovery replays the write-behind log before loading balances")
+    void shouldReplayWriteBehindLogOnRecovery() {
+        verify(writeBehindQueue, times(1)).replayPending();
+        verify(writeBehindQueue, times(1)).start();
+    }
+
+    @Test
+    @DisplayName("Approves a debit and queues it for the database")
+    void shouldApproveAndQueueDebit() {
+        TransactionDTO transactionDTO = new TransactionDTO("123", BigDecimal.valueOf(50), "5411", "PADARIA DO ZE               SAO PAULO BR");
+
+        ResponseDTO response = engine.authorize(transactionDTO, false, false);
+
+        assertThat(response.code()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+        verify(writeBehindQueue, times(1)).append(WriteBehindQueue.Operation.DEBIT, 123L, CategoryWallet.FOOD, BigDecimal.valueOf(50), "5411", "PADARIA DO ZE               SAO PAULO BR", null, null);
+        verify(writeBehindQueue, times(1)).awaitDurable(1L);
+
+        ResponseDTO second = engine.authorize(transactionDTO, false, false);
+        assertThat(second.code()).isEqualTo(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode());
+    }
+
+    @Test
+    @DisplayName("An approval sent with an idempotency key is logged with its debit, and a key already stored is not debited")
+    void shouldLogIdempotencyKeyWithDebit() {
+        ResponseDTO approved = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        when(idempotencyStore.load(123L, "stored")).thenReturn(approved);
+
+        ResponseDTO response = engine.authorize(new TransactionDTO("123", BigDecimal.TEN, "5411", "MERCHANT", "retry-1"), false, false);
+        ResponseDTO replayed = engine.authorize(new TransactionDTO("123", BigDecimal.TEN, "5411", "MERCHANT", "stored"), false, false);
+
+        assertThat(response).isEqualTo(approved);
+        assertThat(replayed).isSameAs(approved);
+        verify(writeBehindQueue, times(1)).append(WriteBehindQueue.Operation.DEBIT, 123L, CategoryWallet.FOOD, BigDecimal.TEN, "5411", "MERCHANT", "retry-1", approved);
+        verify(writeBehindQueue, times(1)).append(any(), anyLong(), any(), any(), any(), any(), any(), any());
+        verify(idempotencyStore, times(1)).remember(eq(123L), eq("retry-1"), eq(approved), any());
+        verify(idempotencyStore, never()).record(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("While the index holds every key, a retry is answered from it and the table is not read")
+    void shouldAnswerRetriesFromCompleteIndex() {
+        ResponseDTO approved = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        when(idempotencyStore.isComplete()).thenReturn(true);
+        when(idempotencyStore.findIndexed(123L, "stored")).thenReturn(approved);
+
+        ResponseDTO replayed = engine.authorize(new TransactionDTO("123", BigDecimal.TEN, "5411", "MERCHANT", "stored"), false, false);
+
+        assertThat(replayed).isSameAs(approved);
+        verify(idempotencyStore, never()).load(any(), any());
+        verify(writeBehindQueue, never()).append(any(), anyLong(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("A debit the write-behind log could not take leaves the balance untouched")
+    void shouldKeepBalanceWhenAppendFails() {
+        TransactionDTO transactionDTO = new TransactionDTO("123", BigDecimal.valueOf(50), "5411", "PADARIA DO ZE               SAO PAULO BR");
+        when(writeBehindQueue.append(any(), anyLong(), any(), any(), any(), any(), any(), any()))
+                .thenThrow(new UncheckedIOException("Unable to append to write-behind log", new IOException("disk full")))
+                .thenReturn(2L);
+
+        ResponseDTO failed = engine.authorize(transactionDTO, false, false);
+        ResponseDTO retried = engine.authorize(transactionDTO, false, false);
+
+        assertThat(failed.code()).isEqualTo(TransactionResponseEnum.ERROR.getCode());
+        assertThat(retried.code()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+    }
+
+    @Test
+    @DisplayName("Rejects with insufficient funds without queueing anything")
+    void shouldRejectInsufficientFunds() {
+        TransactionDTO transactionDTO = new TransactionDTO("123", BigDecimal.valueOf(80), "5411", "PADARIA DO ZE               SAO PAULO BR");
+
+        ResponseDTO response = engine.authorize(transactionDTO, false, false);
+
+        assertThat(response.code()).isEqualTo(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode());
+        verify(writeBehindQueue, never()).append(any(), anyLong(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Falls back to the cash wallet when the category wallet is insufficient")
+    void shouldFallbackToCash() {
+        TransactionDTO transactionDTO = new TransactionDTO("123", BigDecimal.valueOf(80), "5411", "PADARIA DO ZE               SAO PAULO BR");
+
+        ResponseDTO response = engine.authorize(transactionDTO, false, true);
+
+        assertThat(response.code()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+        verify(writeBehindQueue, times(1)).append(eq(WriteBehindQueue.Operation.DEBIT), eq(123L), eq(CategoryWallet.CASH), eq(BigDecimal.valueOf(80)), any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Answers with error for unknown accounts and wallets")
+    void shouldAnswerErrorForUnknownAccountOrWallet() {
+        ResponseDTO unknownAccount = engine.authorize(new TransactionDTO("999", BigDecimal.TEN, "5411", "MERCHANT"), false, false);
+        ResponseDTO unknownWallet = engine.authorize(new TransactionDTO("123", BigDecimal.TEN, "5811", "MERCHANT"), false, false);
+
+        assertThat(unknownAccount.code()).isEqualTo(TransactionResponseEnum.ERROR.getCode());
+        assertThat(unknownWallet.code()).isEqualTo(TransactionResponseEnum.ERROR.getCode());
+    }
+
+    /**
+     * Creates a test account with the given ID and name.
+     *
+     * @return the created test account
+     */
+    private Account createAccountTest() {
+        Account account = new Account();
+        account.setId(Long.valueOf("123"));
+        account.setName("User for test");
+
+        return account;
+    }
+
+    /**
+     * Creates a test Wallet object with the given Account, CategoryWallet, and balance.
+     *
+     * @param account    the Account object associated with the Wallet
+     * @param categoryWallet the CategoryWallet object associated with the Wallet
+     * @param balance    the balance of the Wallet
+     * @return the created Wallet object
+     */
+    private Wallet createWalletTest(Account account, CategoryWallet categoryWallet, BigDecimal balance) {
+        Wallet walletTest = new Wallet();
+        walletTest.setId(new WalletKey(account, categoryWallet));
+        walletTest.setBalance(balance);
+
+        return walletTest;
+    }
+}
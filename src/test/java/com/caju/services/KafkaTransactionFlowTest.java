@@ -0,0 +1,93 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.dto.TransactionMessageDTO;
+import com.caju.enums.TransactionResponseEnum;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:kafka-flow;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=none",
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.auto-offset-reset=earliest",
+        "caju.kafka.enabled=true"})
+@EmbeddedKafka(partitions = 1, topics = {"transaction-requests", "transaction-replies"})
+public class KafkaTransactionFlowTest {
+
+    @Autowired
+    private KafkaTemplate<String, String> kafkaTemplate;
+    @Autowired
+    private EmbeddedKafkaBroker broker;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @DisplayName("Requests sent to the request topic are authorized and answered on the reply topic with their correlation ids")
+    void shouldAnswerRequestsOnReplyTopic() throws Exception {
+        send("c-1", new TransactionDTO("1", new BigDecimal("30.00"), "5411", "PADARIA DO ZE"));
+        send("c-2", new TransactionDTO("1", new BigDecimal("500.00"), "5411", "PADARIA DO ZE"));
+        send("c-3", new TransactionDTO("1", new BigDecimal("10.00"), "5411", "PADARIA DO ZE", "acquirer-1"));
+
+        Map<String, ResponseDTO> replies = new HashMap<>();
+        try (Consumer<String, String> consumer = replyConsumer()) {
+            broker.consumeFromAnEmbeddedTopic(consumer, "transaction-replies");
+            long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+            while (replies.size() < 3 && System.nanoTime() < deadline) {
+                for (ConsumerRecord<String, String> reply : KafkaTestUtils.getRecords(consumer, Duration.ofSeconds(1), 3)) {
+                    String correlationId = new String(reply.headers().lastHeader(KafkaHeaders.CORRELATION_ID).value(), StandardCharsets.UTF_8);
+                    replies.put(correlationId, objectMapper.readValue(reply.value(), ResponseDTO.class));
+                }
+            }
+        }
+
+        assertThat(replies).containsOnlyKeys("c-1", "c-2", "c-3");
+        assertThat(replies.get("c-1").code()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+        assertThat(replies.get("c-2").code()).isEqualTo(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode());
+        assertThat(replies.get("c-3").code()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+        assertThat(jdbcTemplate.queryForObject("SELECT balance FROM wallets WHERE id_account = 1 AND category = 'FOOD'", BigDecimal.class))
+                .isEqualByComparingTo("60.00");
+        List<String> keys = new ArrayList<>(jdbcTemplate.queryForList("SELECT idempotency_key FROM idempotency_keys WHERE id_account = 1", String.class));
+        assertThat(keys).hasSize(3).contains("acquirer-1").filteredOn(key -> key.startsWith("kafka-")).hasSize(2);
+    }
+
+    private void send(String correlationId, TransactionDTO transaction) throws Exception {
+        ProducerRecord<String, String> request = new ProducerRecord<>("transaction-requests", transaction.account(),
+                objectMapper.writeValueAsString(new TransactionMessageDTO(transaction, false, false)));
+        request.headers().add(KafkaHeaders.CORRELATION_ID, correlationId.getBytes(StandardCharsets.UTF_8));
+        kafkaTemplate.send(request).get();
+    }
+
+    private Consumer<String, String> replyConsumer() {
+        Map<String, Object> properties = KafkaTestUtils.consumerProps("reply-reader", "false", broker);
+        properties.put("auto.offset.reset", "earliest");
+        return new DefaultKafkaConsumerFactory<>(properties, new StringDeserializer(), new StringDeserializer()).createConsumer();
+    }
+}
@@ -0,0 +1,155 @@
+package com.caju.services;
+
+import com.caju.dto.MerchantOverrideDTO;
+import com.caju.entities.MerchantOverride;
+import com.caju.enums.CategoryWallet;
+import com.caju.repositories.MerchantOverrideRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MerchantClassifierTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Built-in keywords match anywhere in the name ignoring case")
+    void shouldMatchBuiltInKeywords() {
+        MerchantClassifier classifier = new MerchantClassifier();
+
+        assertThat(category(classifier, "PADARIA DO ZE               SAO PAULO BR")).isEqualTo(CategoryWallet.FOOD);
+        assertThat(category(classifier, "SUPERMARKET 24H")).isEqualTo(CategoryWallet.MEAL);
+        assertThat(category(classifier, "UBER TRIP")).isNull();
+        assertThat(category(classifier, null)).isNull();
+    }
+
+    @Test
+    @DisplayName("A FOOD keyword wins over a MEAL keyword wherever it occurs")
+    void shouldResolvePriorityBetweenCategories() {
+        MerchantClassifier classifier = new MerchantClassifier();
+
+        assertThat(category(classifier, "MERCADO E RESTAURANTE")).isEqualTo(CategoryWallet.FOOD);
+    }
+
+    @Test
+    @DisplayName("Accents, punctuation and repeated spaces are folded before matching")
+    void shouldFoldAccentsAndSpacing() throws IOException {
+        Path keywords = Files.writeString(directory.resolve("keywords.txt"), "pão de açúcar=MEAL\nempório=MEAL\n");
+        MerchantClassifier classifier = classifier(keywords);
+
+        assertThat(category(classifier, "PAO-DE   ACUCAR #123")).isEqualTo(CategoryWallet.MEAL);
+        assertThat(category(classifier, "EMPORIO CENTRAL")).isEqualTo(CategoryWallet.MEAL);
+        assertThat(category(classifier, "PADARIA")).isNull();
+    }
+
+    @Test
+    @DisplayName("Overlapping keywords are all found in one pass")
+    void shouldFindOverlappingKeywords() throws IOException {
+        Path keywords = Files.writeString(directory.resolve("keywords.txt"), "restaurant=FOOD\nsta=MEAL\nrant=CASH\n");
+        MerchantClassifier classifier = classifier(keywords);
+
+        assertThat(category(classifier, "XRESTAURANTX")).isEqualTo(CategoryWallet.FOOD);
+        assertThat(category(classifier, "RESTAURAN RANT")).isEqualTo(CategoryWallet.MEAL);
+        assertThat(category(classifier, "GRANT")).isEqualTo(CategoryWallet.CASH);
+    }
+
+    @Test
+    @DisplayName("A changed dictionary is swapped in and a broken one keeps the current dictionary")
+    void shouldReloadChangedDictionary() throws IOException {
+        Path keywords = Files.writeString(directory.resolve("keywords.txt"), "padaria=FOOD\n");
+        MerchantClassifier classifier = classifier(keywords);
+
+        Files.writeString(keywords, "padaria=MEAL\n");
+        Files.setLastModifiedTime(keywords, FileTime.from(Instant.now().plusSeconds(10)));
+        classifier.reloadIfChanged();
+
+        assertThat(category(classifier, "PADARIA")).isEqualTo(CategoryWallet.MEAL);
+
+        Files.writeString(keywords, "padaria=UNKNOWN\n");
+        Files.setLastModifiedTime(keywords, FileTime.from(Instant.now().plusSeconds(20)));
+        classifier.reloadIfChanged();
+
+        assertThat(category(classifier, "PADARIA")).isEqualTo(CategoryWallet.MEAL);
+    }
+
+    @Test
+    @DisplayName("Keywords without letters or digits fail the initial load")
+    void shouldRejectEmptyKeywords() throws IOException {
+        Path keywords = Files.writeString(directory.resolve("keywords.txt"), "--=FOOD\n");
+
+        assertThatThrownBy(() -> classifier(keywords)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("An override wins over the keywords and is matched on the normalized name")
+    void shouldPreferOverrides() {
+        MerchantOverrideRepository repository = mock(MerchantOverrideRepository.class);
+        when(repository.findById(anyString())).thenReturn(Optional.empty());
+        when(repository.findById("uber eats sao paulo br")).thenReturn(Optional.of(new MerchantOverride("uber eats sao paulo br", "4121", LocalDateTime.now())));
+        MerchantClassifier classifier = new MerchantClassifier();
+        ReflectionTestUtils.setField(classifier, "overrideRepository", repository);
+
+        assertThat(classifier.resolve("Uber Eats  São Paulo BR")).isEqualTo(new MerchantClassifier.Resolution("4121", null));
+        assertThat(classifier.resolve("UBER EATS RIO BR")).isEqualTo(new MerchantClassifier.Resolution(null, CategoryWallet.FOOD));
+        assertThat(classifier.resolve("UBER TRIP")).isEqualTo(MerchantClassifier.Resolution.NONE);
+    }
+
+    @Test
+    @DisplayName("Repeated names are resolved once until an override for them is saved")
+    void shouldCacheResolutionsUntilOverridden() {
+        MerchantOverrideRepository repository = mock(MerchantOverrideRepository.class);
+        when(repository.findById(anyString())).thenReturn(Optional.empty());
+        when(repository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        MerchantClassifier classifier = new MerchantClassifier();
+        ReflectionTestUtils.setField(classifier, "overrideRepository", repository);
+
+        classifier.resolve("PADARIA DO ZE");
+        classifier.resolve("padaria do ze");
+        verify(repository, times(1)).findById("padaria do ze");
+
+        MerchantOverride saved = classifier.saveOverride(new MerchantOverrideDTO("Padaria do Zé", "5811"));
+        when(repository.findById("padaria do ze")).thenReturn(Optional.of(saved));
+
+        assertThat(saved.getMerchant()).isEqualTo("padaria do ze");
+        assertThat(classifier.resolve("PADARIA DO ZE").overrideMcc()).isEqualTo("5811");
+    }
+
+    @Test
+    @DisplayName("Overrides need a merchant name and a four digit MCC")
+    void shouldRejectInvalidOverrides() {
+        MerchantClassifier classifier = new MerchantClassifier();
+
+        assertThatThrownBy(() -> classifier.saveOverride(new MerchantOverrideDTO(" - ", "5811"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> classifier.saveOverride(new MerchantOverrideDTO("PADARIA", "58"))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static CategoryWallet category(MerchantClassifier classifier, String merchant) {
+        return classifier.resolve(merchant).keywordCategory();
+    }
+
+    private MerchantClassifier classifier(Path keywords) {
+        MerchantClassifier classifier = new MerchantClassifier();
+        ReflectionTestUtils.setField(classifier, "location", keywords.toUri().toString());
+        classifier.load();
+        return classifier;
+    }
+}
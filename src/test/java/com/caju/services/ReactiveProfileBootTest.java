@@ -0,0 +1,45 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.enums.TransactionResponseEnum;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:reactive-profile;DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.url=r2dbc:h2:mem:///reactive-profile?DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=none"})
+@ActiveProfiles("reactive")
+public class ReactiveProfileBootTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @DisplayName("The reactive profile boots on the shipped R2DBC driver and authorizes through the WebFlux routes")
+    void shouldAuthorizeThroughReactiveRoutes() {
+        ResponseDTO response = webTestClient.post().uri("/transaction/with-fallback")
+                .bodyValue(new TransactionDTO("1", new BigDecimal("30.00"), "5411", "PADARIA DO ZE"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ResponseDTO.class)
+                .returnResult().getResponseBody();
+
+        assertThat(response.code()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+        assertThat(jdbcTemplate.queryForObject("SELECT balance FROM wallets WHERE id_account = 1 AND category = 'FOOD'", BigDecimal.class))
+                .isEqualByComparingTo("70.00");
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM transactions WHERE id_account = 1", Long.class)).isEqualTo(1L);
+    }
+}
@@ -0,0 +1,192 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.enums.TransactionResponseEnum;
+import com.caju.metrics.AuthorizationMetrics;
+import com.caju.repositories.ReactiveAccountRepository;
+import com.caju.repositories.ReactiveTransactionRepository;
+import com.caju.repositories.ReactiveWalletRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.h2.H2ConnectionConfiguration;
+import io.r2dbc.h2.H2ConnectionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class ReactiveTransactionServiceTest {
+
+    private ReactiveTransactionService transactionService;
+    private JdbcTemplate jdbcTemplate;
+    private AccountWalletCache cache;
+
+    @BeforeEach
+    void setup() {
+        String database = "mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:" + database, "sa", ""));
+        jdbcTemplate.execute("CREATE TABLE accounts (id BIGINT NOT NULL PRIMARY KEY, name VARCHAR(255))");
+        jdbcTemplate.execute("CREATE TABLE wallets (balance DECIMAL, id_account BIGINT NOT NULL, category VARCHAR(10) NOT NULL, version BIGINT DEFAULT 0 NOT NULL, PRIMARY KEY (id_account, category))");
+        jdbcTemplate.execute("CREATE TABLE transactions (id BIGINT NOT NULL PRIMARY KEY, id_account BIGINT NOT NULL, total_amount DECIMAL, mcc VARCHAR(255), merchant VARCHAR(255), category VARCHAR(10), operation VARCHAR(10) DEFAULT 'DEBIT' NOT NULL, wallet_version BIGINT, created_at TIMESTAMP NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE spending_summaries (id_account BIGINT NOT NULL, category VARCHAR(10) NOT NULL, spent_on DATE NOT NULL, transaction_count BIGINT NOT NULL, total_amount DECIMAL(19, 2) NOT NULL, max_amount DECIMAL(19, 2) NOT NULL, PRIMARY KEY (id_account, spent_on, category))");
+        jdbcTemplate.execute("CREATE TABLE idempotency_keys (id_account BIGINT NOT NULL, idempotency_key VARCHAR(64) NOT NULL, code VARCHAR(2) NOT NULL, message VARCHAR(500) NOT NULL, created_at TIMESTAMP NOT NULL, PRIMARY KEY (id_account, idempotency_key))");
+        jdbcTemplate.execute("CREATE SEQUENCE transactions_seq START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.update("INSERT INTO accounts (id, name) VALUES (1, 'Abel'), (2, 'Adam')");
+        jdbcTemplate.update("INSERT INTO wallets (balance, id_account, category) VALUES (100, 1, 'CASH'), (100, 1, 'FOOD'), (100, 1, 'MEAL')");
+
+        H2ConnectionFactory connectionFactory = new H2ConnectionFactory(H2ConnectionConfiguration.builder().url(database).username("sa").build());
+        DatabaseClient databaseClient = DatabaseClient.create(connectionFactory);
+        ReactiveAccountRepository accountRepository = new ReactiveAccountRepository();
+        ReactiveWalletRepository walletRepository = new ReactiveWalletRepository();
+        ReactiveTransactionRepository transactionRepository = new ReactiveTransactionRepository();
+        ReflectionTestUtils.setField(accountRepository, "databaseClient", databaseClient);
+        ReflectionTestUtils.setField(walletRepository, "databaseClient", databaseClient);
+        ReflectionTestUtils.setField(transactionRepository, "databaseClient", databaseClient);
+
+        cache = Mockito.mock(AccountWalletCache.class);
+        transactionService = new ReactiveTransactionService();
+        ReflectionTestUtils.setField(transactionService, "accountRepository", accountRepository);
+        ReflectionTestUtils.setField(transactionService, "walletRepository", walletRepository);
+        ReflectionTestUtils.setField(transactionService, "transactionRepository", transactionRepository);
+        ReflectionTestUtils.setField(transactionService, "transactionalOperator", TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory)));
+        ReflectionTestUtils.setField(transactionService, "categoryClassifier", new CategoryClassifier());
+        ReflectionTestUtils.setField(transactionService, "cache", cache);
+        ReflectionTestUtils.setField(transactionService, "metrics", new AuthorizationMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(transactionService, "idempotencyStore", idempotencyStore());
+    }
+
+    @Test
+    @DisplayName("An approved debit updates the wallet, records the transaction and its summary, and evicts the cached wallets")
+    void shouldDebitAndRecordTransaction() {
+        ResponseDTO response = transactionService.authorize(new TransactionDTO("1", new BigDecimal("30"), "5811", "PADARIA"), false, false).block();
+
+        assertThat(response.code()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+        assertThat(balance("MEAL")).isEqualByComparingTo("70");
+        Map<String, Object> transaction = jdbcTemplate.queryForMap("SELECT id_account, total_amount, mcc, merchant, category, operation FROM transactions");
+        assertThat(transaction).containsEntry("ID_ACCOUNT", 1L).containsEntry("MCC", "5811").containsEntry("MERCHANT", "PADARIA")
+                .containsEntry("CATEGORY", "MEAL").containsEntry("OPERATION", "DEBIT");
+        assertThat(jdbcTemplate.queryForObject("SELECT total_amount FROM spending_summaries WHERE id_account = 1 AND category = 'MEAL'", BigDecimal.class))
+                .isEqualByComparingTo("30");
+        verify(cache).evictWallets(1L);
+    }
+
+    @Test
+    @DisplayName("An insufficient balance is rejected with the current balance and nothing is written")
+    void shouldRejectInsufficientFunds() {
+        ResponseDTO response = transactionService.authorize(new TransactionDTO("1", new BigDecimal("130"), "5811", null), false, false).block();
+
+        assertThat(response).isEqualTo(new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(),
+                "Transaction rejected: Insufficient funds for transaction. Current balance for MEAL $100 - Transaction value $130"));
+        assertThat(balance("MEAL")).isEqualByComparingTo("100");
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM transactions", Long.class)).isZero();
+        verify(cache, never()).evictWallets(any());
+    }
+
+    @Test
+    @DisplayName("With fallback an insufficient category wallet is covered by CASH, and both wallets too short are rejected")
+    void shouldFallBackToCash() {
+        ResponseDTO food = transactionService.authorize(new TransactionDTO("1", new BigDecimal("80"), "5411", null), true, false).block();
+        ResponseDTO cash = transactionService.authorize(new TransactionDTO("1", new BigDecimal("50"), "5411", null), true, false).block();
+        ResponseDTO rejected = transactionService.authorize(new TransactionDTO("1", new BigDecimal("60"), "5411", null), true, false).block();
+
+        assertThat(food.code()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+        assertThat(cash.code()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+        assertThat(balance("FOOD")).isEqualByComparingTo("20");
+        assertThat(balance("CASH")).isEqualByComparingTo("50");
+        assertThat(jdbcTemplate.queryForList("SELECT category FROM transactions ORDER BY id", String.class)).containsExactly("FOOD", "CASH");
+        assertThat(rejected).isEqualTo(new ResponseDTO(TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(),
+                "Transaction rejected: Insufficient funds for transaction. Current balance for FOOD $20 - Current balance for CASH $50 - Transaction value $60"));
+    }
+
+    @Test
+    @DisplayName("Unknown accounts and missing wallets are answered with an error")
+    void shouldAnswerErrorForUnknownAccountOrWallet() {
+        assertThat(transactionService.authorize(new TransactionDTO("9", BigDecimal.TEN, "5811", null), false, false).block())
+                .isEqualTo(new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: No account found for id 9"));
+        assertThat(transactionService.authorize(new TransactionDTO("2", BigDecimal.TEN, "5811", null), true, false).block())
+                .isEqualTo(new ResponseDTO(TransactionResponseEnum.ERROR.getCode(), "Transaction error: No MEAL wallet found for account id 2"));
+        assertThat(transactionService.authorize(new TransactionDTO("1", null, "5811", null), false, false).block().code())
+                .isEqualTo(TransactionResponseEnum.ERROR.getCode());
+    }
+
+    @Test
+    @DisplayName("An authorization past the deadline is answered with 91 and leaves the wallets untouched")
+    void shouldAnswerDeadlineExceeded() {
+        CategoryClassifier slowClassifier = Mockito.spy(new CategoryClassifier());
+        doAnswer(invocation -> {
+            Thread.sleep(200);
+            return invocation.callRealMethod();
+        }).when(slowClassifier).getCategoryForTransaction(any(), anyBoolean());
+        ReflectionTestUtils.setField(transactionService, "categoryClassifier", slowClassifier);
+        ReflectionTestUtils.setField(transactionService, "deadlineMs", 50L);
+
+        ResponseDTO response = transactionService.authorize(new TransactionDTO("1", BigDecimal.TEN, "5811", null), false, true).block();
+
+        assertThat(response).isEqualTo(new ResponseDTO(TransactionResponseEnum.DEADLINE_EXCEEDED.getCode(), "Transaction error: authorization deadline of 50 ms exceeded"));
+        assertThat(balance("MEAL")).isEqualByComparingTo("100");
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM transactions", Long.class)).isZero();
+    }
+
+    @Test
+    @DisplayName("A batch is authorized in request order, each item on its own, with ids from one block of transactions_seq")
+    void shouldAuthorizeBatchInOrder() {
+        List<ResponseDTO> responses = transactionService.authorizeBatch(List.of(
+                new TransactionDTO("1", new BigDecimal("60"), "5811", null),
+                new TransactionDTO("1", new BigDecimal("60"), "5811", null),
+                new TransactionDTO("1", new BigDecimal("40"), "5811", null)), false, false).block();
+
+        assertThat(responses).extracting(ResponseDTO::code).containsExactly(
+                TransactionResponseEnum.APPROVED.getCode(), TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(), TransactionResponseEnum.APPROVED.getCode());
+        assertThat(balance("MEAL")).isZero();
+        assertThat(jdbcTemplate.queryForList("SELECT id FROM transactions ORDER BY id", Long.class)).containsExactly(1L, 2L);
+        assertThat(jdbcTemplate.queryForObject("VALUES NEXT VALUE FOR transactions_seq", Long.class)).isEqualTo(51L);
+    }
+
+    @Test
+    @DisplayName("A retried idempotency key is answered with the original response, from the index or from the table, and debits once")
+    void shouldReplayIdempotencyKey() {
+        TransactionDTO transactionDTO = new TransactionDTO("1", new BigDecimal("30"), "5811", null, "retry-1");
+        ResponseDTO first = transactionService.authorize(transactionDTO, false, false).block();
+        ResponseDTO fromIndex = transactionService.authorize(transactionDTO, false, false).block();
+        ReflectionTestUtils.setField(transactionService, "idempotencyStore", idempotencyStore());
+        ResponseDTO fromTable = transactionService.authorize(transactionDTO, false, false).block();
+
+        assertThat(first.code()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+        assertThat(fromIndex).isEqualTo(first);
+        assertThat(fromTable).isEqualTo(first);
+        assertThat(balance("MEAL")).isEqualByComparingTo("70");
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM transactions", Long.class)).isOne();
+    }
+
+    /**
+     * A store that has not seen any key yet, like one on another instance.
+     */
+    private IdempotencyStore idempotencyStore() {
+        IdempotencyStore idempotencyStore = new IdempotencyStore();
+        ReflectionTestUtils.setField(idempotencyStore, "jdbcTemplate", jdbcTemplate);
+        idempotencyStore.init();
+        return idempotencyStore;
+    }
+
+    private BigDecimal balance(String category) {
+        return jdbcTemplate.queryForObject("SELECT balance FROM wallets WHERE id_account = 1 AND category = ?", BigDecimal.class, category);
+    }
+}
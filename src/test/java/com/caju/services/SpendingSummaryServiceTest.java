@@ -0,0 +1,172 @@
+package com.caju.services;
+
+import com.caju.dto.SpendingSummaryDTO;
+import com.caju.dto.SummaryBackfillDTO;
+import com.caju.entities.Account;
+import com.caju.entities.Transaction;
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionOperation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SpendingSummaryServiceTest {
+
+    private static final LocalDateTime DAY_ONE = LocalDateTime.of(2024, 8, 1, 10, 0);
+    private static final LocalDateTime DAY_TWO = DAY_ONE.plusDays(1);
+
+    private SpendingSummaryService summaryService;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setup() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE accounts (id BIGINT NOT NULL PRIMARY KEY, name VARCHAR(255))");
+        jdbcTemplate.update("INSERT INTO accounts (id, name) VALUES (1, 'one'), (2, 'two'), (3, 'three')");
+        jdbcTemplate.execute("CREATE TABLE transactions (id BIGINT NOT NULL PRIMARY KEY, id_account BIGINT NOT NULL, total_amount DECIMAL(19, 2), mcc VARCHAR(255), merchant VARCHAR(255), category VARCHAR(10), operation VARCHAR(10) DEFAULT 'DEBIT' NOT NULL, created_at TIMESTAMP NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE spending_summaries (id_account BIGINT NOT NULL, category VARCHAR(10) NOT NULL, spent_on DATE NOT NULL, transaction_count BIGINT NOT NULL, total_amount DECIMAL(19, 2) NOT NULL, max_amount DECIMAL(19, 2) NOT NULL, PRIMARY KEY (id_account, spent_on, category))");
+
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        summaryService = new SpendingSummaryService();
+        ReflectionTestUtils.setField(summaryService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(summaryService, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(summaryService, "backfillParallelism", 3);
+    }
+
+    @Test
+    @DisplayName("Recorded debits are folded into count, sum and max per account, category and day; credits are ignored")
+    void shouldRecordDebitsIncrementally() {
+        summaryService.record(List.of(
+                transaction(1, CategoryWallet.FOOD, "10.50", DAY_ONE, TransactionOperation.DEBIT),
+                transaction(1, CategoryWallet.FOOD, "30.00", DAY_ONE.plusHours(2), TransactionOperation.DEBIT),
+                transaction(1, CategoryWallet.FOOD, "500.00", DAY_ONE, TransactionOperation.CREDIT)));
+        summaryService.record(List.of(transaction(1, CategoryWallet.FOOD, "20.00", DAY_ONE.plusHours(5), TransactionOperation.DEBIT)));
+        summaryService.record(List.of(transaction(1, CategoryWallet.MEAL, "7.00", DAY_TWO, TransactionOperation.DEBIT)));
+
+        List<SpendingSummaryDTO> summaries = summaryService.getSummaries(1L, null, null, null);
+
+        assertThat(summaries).containsExactly(
+                new SpendingSummaryDTO(1L, CategoryWallet.FOOD, DAY_ONE.toLocalDate(), 3, new BigDecimal("60.50"), new BigDecimal("30.00")),
+                new SpendingSummaryDTO(1L, CategoryWallet.MEAL, DAY_TWO.toLocalDate(), 1, new BigDecimal("7.00"), new BigDecimal("7.00")));
+        assertThat(summaryService.getSummaries(1L, CategoryWallet.MEAL, null, null)).hasSize(1);
+        assertThat(summaryService.getSummaries(1L, null, DAY_TWO.toLocalDate(), DAY_TWO.toLocalDate())).hasSize(1);
+        assertThat(summaryService.getSummaries(2L, null, null, null)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("The backfill rebuilds from the history the same summaries the incremental path keeps")
+    void shouldBackfillFromHistory() {
+        List<Transaction> history = List.of(
+                transaction(1, CategoryWallet.FOOD, "10.00", DAY_ONE, TransactionOperation.DEBIT),
+                transaction(1, CategoryWallet.FOOD, "15.00", DAY_ONE.plusHours(1), TransactionOperation.DEBIT),
+                transaction(2, CategoryWallet.CASH, "3.25", DAY_ONE, TransactionOperation.DEBIT),
+                transaction(3, CategoryWallet.MEAL, "8.00", DAY_TWO, TransactionOperation.DEBIT),
+                transaction(3, CategoryWallet.MEAL, "100.00", DAY_TWO, TransactionOperation.CREDIT));
+        long id = 1;
+        for (Transaction transaction : history) {
+            insertHistory(id++, transaction);
+        }
+        summaryService.record(history);
+        List<SpendingSummaryDTO> incremental = allSummaries();
+        // a stale row that the backfill must replace
+        jdbcTemplate.update("UPDATE spending_summaries SET transaction_count = 99");
+
+        SummaryBackfillDTO report = summaryService.backfill();
+
+        assertThat(report.partitions()).isEqualTo(3);
+        assertThat(report.summaries()).isEqualTo(3);
+        assertThat(allSummaries()).isEqualTo(incremental);
+    }
+
+    @Test
+    @DisplayName("A live upsert on an account being backfilled waits for the backfill and is counted exactly once")
+    void shouldHoldLiveUpsertsBackDuringBackfill() throws Exception {
+        insertHistory(1, transaction(2, CategoryWallet.FOOD, "10.00", DAY_ONE, TransactionOperation.DEBIT));
+        CountDownLatch deleted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        JdbcTemplate pausing = new JdbcTemplate(jdbcTemplate.getDataSource()) {
+            @Override
+            public int update(String sql, Object... args) {
+                if (sql.startsWith("INSERT INTO spending_summaries")) {
+                    deleted.countDown();
+                    awaitQuietly(release);
+                }
+                return super.update(sql, args);
+            }
+        };
+        ReflectionTestUtils.setField(summaryService, "jdbcTemplate", pausing);
+        ReflectionTestUtils.setField(summaryService, "backfillParallelism", 1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<SummaryBackfillDTO> backfill = executor.submit(summaryService::backfill);
+            assertThat(deleted.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<?> live = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                Transaction debit = transaction(2, CategoryWallet.FOOD, "5.00", DAY_ONE.plusHours(1), TransactionOperation.DEBIT);
+                insertHistory(2, debit);
+                summaryService.record(List.of(debit));
+            }));
+
+            assertThatThrownBy(() -> live.get(300, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+            release.countDown();
+            assertThat(backfill.get(5, TimeUnit.SECONDS).summaries()).isEqualTo(1);
+            live.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        assertThat(summaryService.getSummaries(2L, null, null, null)).containsExactly(
+                new SpendingSummaryDTO(2L, CategoryWallet.FOOD, DAY_ONE.toLocalDate(), 2, new BigDecimal("15.00"), new BigDecimal("10.00")));
+    }
+
+    private void insertHistory(long id, Transaction transaction) {
+        jdbcTemplate.update("INSERT INTO transactions (id, id_account, total_amount, category, operation, created_at) VALUES (?, ?, ?, ?, ?, ?)",
+                id, transaction.getAccount().getId(), transaction.getTotalAmount(), transaction.getCategory().name(), transaction.getOperation().name(), transaction.getCreatedAt());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<SpendingSummaryDTO> allSummaries() {
+        return List.of(1L, 2L, 3L).stream().flatMap(account -> summaryService.getSummaries(account, null, null, null).stream()).toList();
+    }
+
+    private static Transaction transaction(long idAccount, CategoryWallet category, String amount, LocalDateTime createdAt, TransactionOperation operation) {
+        Account account = new Account();
+        account.setId(idAccount);
+        return Transaction.builder()
+                .account(account)
+                .totalAmount(new BigDecimal(amount))
+                .category(category)
+                .operation(operation)
+                .createdAt(createdAt)
+                .build();
+    }
+}
@@ -0,0 +1,224 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.dto.TransactionDTO;
+import com.caju.dto.TransactionMessageDTO;
+import com.caju.enums.TransactionResponseEnum;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.backoff.FixedBackOff;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TransactionBatchProcessorTest {
+
+    @Mock
+    private TransactionAuthorizer authorizer;
+    @Mock
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private TransactionBatchProcessor processor;
+    private AutoCloseable autoCloseable;
+
+    @BeforeEach
+    void setup() {
+        autoCloseable = MockitoAnnotations.openMocks(this);
+        processor = new TransactionBatchProcessor(4, false, 1000);
+        ReflectionTestUtils.setField(processor, "authorizer", authorizer);
+        ReflectionTestUtils.setField(processor, "kafkaTemplate", kafkaTemplate);
+        ReflectionTestUtils.setField(processor, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(processor, "replyTopic", "transaction-replies");
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        processor.stop();
+        autoCloseable.close();
+    }
+
+    @Test
+    @DisplayName("Answers every record in order and keeps per-account ordering")
+    void shouldAuthorizeBatchKeepingAccountOrder() throws Exception {
+        List<String> seen = Collections.synchronizedList(new CopyOnWriteArrayList<>());
+        when(authorizer.authorize(any(TransactionDTO.class), anyBoolean(), anyBoolean())).thenAnswer(invocation -> {
+            TransactionDTO transaction = invocation.getArgument(0);
+            seen.add(transaction.account() + ":" + transaction.totalAmount());
+            return new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        });
+        List<ConsumerRecord<String, String>> records = List.of(
+                record(0, "1", message("1", 10), "c-0"),
+                record(1, "2", message("2", 20), "c-1"),
+                record(2, "1", message("1", 30), "c-2"));
+
+        List<ResponseDTO> responses = processor.process(records);
+
+        assertThat(responses).hasSize(3).allMatch(response -> response.code().equals(TransactionResponseEnum.APPROVED.getCode()));
+        assertThat(seen.stream().filter(entry -> entry.startsWith("1:")).toList()).containsExactly("1:10", "1:30");
+
+        ArgumentCaptor<ProducerRecord<String, String>> replies = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate, times(3)).send(replies.capture());
+        assertThat(replies.getAllValues()).extracting(reply -> new String(reply.headers().lastHeader(KafkaHeaders.CORRELATION_ID).value(), StandardCharsets.UTF_8))
+                .containsExactly("c-0", "c-1", "c-2");
+        assertThat(replies.getAllValues()).extracting(ProducerRecord::topic).containsOnly("transaction-replies");
+    }
+
+    @Test
+    @DisplayName("Unreadable messages are answered with error without failing the batch")
+    void shouldAnswerErrorForUnreadableMessage() throws Exception {
+        when(authorizer.authorize(any(TransactionDTO.class), anyBoolean(), anyBoolean()))
+                .thenReturn(new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved"));
+        List<ConsumerRecord<String, String>> records = List.of(
+                record(0, "1", "not json", "c-0"),
+                record(1, "1", message("1", 10), "c-1"));
+
+        List<ResponseDTO> responses = processor.process(records);
+
+        assertThat(responses).extracting(ResponseDTO::code)
+                .containsExactly(TransactionResponseEnum.ERROR.getCode(), TransactionResponseEnum.APPROVED.getCode());
+    }
+
+    @Test
+    @DisplayName("Records are grouped by the account in the message, whatever their key")
+    void shouldGroupByMessageAccount() throws Exception {
+        List<String> seen = Collections.synchronizedList(new CopyOnWriteArrayList<>());
+        when(authorizer.authorize(any(TransactionDTO.class), anyBoolean(), anyBoolean())).thenAnswer(invocation -> {
+            TransactionDTO transaction = invocation.getArgument(0);
+            seen.add(transaction.account() + ":" + transaction.totalAmount());
+            return new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        });
+        List<ConsumerRecord<String, String>> records = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            records.add(record(i, "key-" + i, message("1", i), "c-" + i));
+        }
+
+        processor.process(records);
+
+        assertThat(seen).containsExactlyElementsOf(IntStream.range(0, 20).mapToObj(i -> "1:" + i).toList());
+    }
+
+    @Test
+    @DisplayName("A failed reply commits the records before it and the redelivered rest are answered without authorizing them again")
+    void shouldRedeliverFromFailedReplyWithoutReauthorizing() throws Exception {
+        when(authorizer.authorize(any(TransactionDTO.class), anyBoolean(), anyBoolean()))
+                .thenReturn(new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved"));
+        when(kafkaTemplate.send(any(ProducerRecord.class)))
+                .thenReturn(CompletableFuture.completedFuture(null))
+                .thenReturn(CompletableFuture.failedFuture(new TimeoutException("broker unavailable")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        TopicPartition partition = new TopicPartition("transaction-requests", 0);
+        MockConsumer<String, String> broker = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        broker.assign(List.of(partition));
+        broker.updateBeginningOffsets(Map.of(partition, 0L));
+        List<ConsumerRecord<String, String>> sent = List.of(
+                record(0, "1", message("1", 10), "c-0"),
+                record(1, "2", message("2", 20), "c-1"),
+                record(2, "3", message("3", 30), "c-2"));
+        sent.forEach(broker::addRecord);
+        ConsumerRecords<String, String> batch = broker.poll(Duration.ZERO);
+
+        BatchListenerFailedException failure = catchThrowableOfType(() -> processor.process(recordsOf(batch)), BatchListenerFailedException.class);
+        assertThat(failure.getIndex()).isEqualTo(1);
+        MessageListenerContainer container = mock(MessageListenerContainer.class);
+        when(container.getContainerProperties()).thenReturn(new ContainerProperties("transaction-requests"));
+        // the handler rethrows once it has sought, so the container polls again
+        assertThatThrownBy(() -> new DefaultErrorHandler(new FixedBackOff(0L, 1L)).handleBatch(failure, batch, broker, container, () -> { }))
+                .isInstanceOf(KafkaException.class);
+
+        assertThat(broker.committed(Set.of(partition)).get(partition).offset()).isEqualTo(1L);
+        assertThat(broker.position(partition)).isEqualTo(1L);
+        sent.subList(1, 3).forEach(broker::addRecord);
+        List<ResponseDTO> redelivered = processor.process(recordsOf(broker.poll(Duration.ZERO)));
+
+        assertThat(redelivered).extracting(ResponseDTO::code).containsOnly(TransactionResponseEnum.APPROVED.getCode());
+        verify(authorizer, times(3)).authorize(any(TransactionDTO.class), anyBoolean(), anyBoolean());
+        verify(kafkaTemplate, times(5)).send(any(ProducerRecord.class));
+    }
+
+    @Test
+    @DisplayName("A record redelivered to another instance carries the same idempotency key, and a key set by the producer is kept")
+    void shouldKeyRecordsByPositionForOtherInstances() throws Exception {
+        List<String> keys = new CopyOnWriteArrayList<>();
+        when(authorizer.authorize(any(TransactionDTO.class), anyBoolean(), anyBoolean())).thenAnswer(invocation -> {
+            keys.add(invocation.<TransactionDTO>getArgument(0).idempotencyKey());
+            return new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        });
+        TransactionDTO keyed = new TransactionDTO("2", BigDecimal.TEN, "5411", "PADARIA DO ZE               SAO PAULO BR", "acquirer-1");
+        List<ConsumerRecord<String, String>> records = List.of(
+                record(7, "1", message("1", 10), "c-7"),
+                record(8, "2", objectMapper.writeValueAsString(new TransactionMessageDTO(keyed, false, false)), "c-8"));
+        TransactionBatchProcessor otherInstance = new TransactionBatchProcessor(4, false, 1000);
+        ReflectionTestUtils.setField(otherInstance, "authorizer", authorizer);
+        ReflectionTestUtils.setField(otherInstance, "kafkaTemplate", kafkaTemplate);
+        ReflectionTestUtils.setField(otherInstance, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(otherInstance, "replyTopic", "transaction-replies");
+
+        processor.process(records.subList(0, 1));
+        otherInstance.process(records.subList(0, 1));
+        processor.process(records.subList(1, 2));
+        otherInstance.stop();
+
+        assertThat(keys).hasSize(3);
+        assertThat(keys.get(0)).startsWith("kafka-").hasSizeLessThanOrEqualTo(64).isEqualTo(keys.get(1));
+        assertThat(keys.get(2)).isEqualTo("acquirer-1");
+    }
+
+    private static List<ConsumerRecord<String, String>> recordsOf(ConsumerRecords<String, String> batch) {
+        List<ConsumerRecord<String, String>> records = new ArrayList<>();
+        batch.forEach(records::add);
+        return records;
+    }
+
+    private String message(String account, long amount) throws Exception {
+        TransactionDTO transaction = new TransactionDTO(account, BigDecimal.valueOf(amount), "5411", "PADARIA DO ZE               SAO PAULO BR");
+        return objectMapper.writeValueAsString(new TransactionMessageDTO(transaction, false, false));
+    }
+
+    private ConsumerRecord<String, String> record(long offset, String key, String value, String correlationId) {
+        ConsumerRecord<String, String> record = new ConsumerRecord<>("transaction-requests", 0, offset, key, value);
+        record.headers().add(KafkaHeaders.CORRELATION_ID, correlationId.getBytes(StandardCharsets.UTF_8));
+        return record;
+    }
+}
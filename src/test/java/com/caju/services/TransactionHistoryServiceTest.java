@@ -0,0 +1,118 @@
+package com.caju.services;
+
+import com.caju.dto.TransactionHistoryDTO;
+import com.caju.dto.TransactionPageDTO;
+import com.caju.enums.CategoryWallet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TransactionHistoryServiceTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 8, 1, 12, 0);
+
+    private TransactionHistoryService historyService;
+    private JdbcTemplate jdbcTemplate;
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setup() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE transactions (id BIGINT NOT NULL PRIMARY KEY, id_account BIGINT NOT NULL, total_amount DECIMAL(19, 2), mcc VARCHAR(255), merchant VARCHAR(255), category VARCHAR(10), operation VARCHAR(10) DEFAULT 'DEBIT' NOT NULL, created_at TIMESTAMP NOT NULL)");
+        objectMapper = new ObjectMapper().registerModule(new JavaTimeModule()).disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        historyService = new TransactionHistoryService();
+        ReflectionTestUtils.setField(historyService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(historyService, "dataSource", dataSource);
+        ReflectionTestUtils.setField(historyService, "transactionTemplate", new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+        ReflectionTestUtils.setField(historyService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(historyService, "maxPageSize", 3);
+
+        // rows 1..10 for account 1, one per minute except 4 and 5 which share a timestamp; row 11 for account 2
+        for (long id = 1; id <= 10; id++) {
+            insertTransaction(id, 1, START.plusMinutes(id == 5 ? 4 : id));
+        }
+        insertTransaction(11, 2, START.plusMinutes(3));
+    }
+
+    @Test
+    @DisplayName("Pages follow each other through the cursor without skipping rows that share a timestamp")
+    void shouldWalkPagesWithCursor() {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            TransactionPageDTO page = historyService.getPage(1L, null, null, cursor, 50);
+            page.transactions().forEach(transaction -> ids.add(transaction.id()));
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertThat(ids).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+        assertThat(pages).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Pages are limited to the account and the time range")
+    void shouldFilterByAccountAndTimeRange() {
+        TransactionPageDTO page = historyService.getPage(1L, START.plusMinutes(3), START.plusMinutes(5), null, 3);
+
+        assertThat(page.transactions()).extracting(TransactionHistoryDTO::id).containsExactly(3L, 4L, 5L);
+        assertThat(page.nextCursor()).isNull();
+        assertThat(page.transactions().get(0).category()).isEqualTo(CategoryWallet.FOOD);
+    }
+
+    @Test
+    @DisplayName("Malformed cursors and non-positive limits are rejected")
+    void shouldRejectInvalidRequests() {
+        assertThatThrownBy(() -> historyService.getPage(1L, null, null, "not-a-cursor", 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> historyService.getPage(1L, null, null, null, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Exports write one JSON object per line in creation order")
+    void shouldExportNdjson() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        historyService.export(null, START.plusMinutes(3), START.plusMinutes(4), output);
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(objectMapper.readValue(lines[0], TransactionHistoryDTO.class).id()).isIn(3L, 11L);
+        assertThat(objectMapper.readValue(lines[1], TransactionHistoryDTO.class).id()).isIn(3L, 11L);
+    }
+
+    @Test
+    @DisplayName("The full export as an array is valid JSON")
+    void shouldExportArray() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        historyService.exportAsArray(output);
+
+        assertThat(objectMapper.readValue(output.toByteArray(), TransactionHistoryDTO[].class)).hasSize(11);
+    }
+
+    private void insertTransaction(long id, long account, LocalDateTime createdAt) {
+        jdbcTemplate.update("INSERT INTO transactions (id, id_account, total_amount, mcc, merchant, category, created_at) VALUES (?, ?, 1, '5411', 'PADARIA', 'FOOD', ?)",
+                id, account, createdAt);
+    }
+}
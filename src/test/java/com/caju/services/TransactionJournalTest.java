@@ -0,0 +1,175 @@
+package com.caju.services;
+
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionResponseEnum;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TransactionJournalTest {
+
+    private static final String MERCHANT = "PADARIA DO ZE               SAO PAULO BR";
+
+    @TempDir
+    Path directory;
+
+    private TransactionJournal journal;
+
+    @BeforeEach
+    void setup() {
+        journal = openJournal();
+    }
+
+    @AfterEach
+    void tearDown() {
+        journal.close();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("Records are read back with every field after the journal is reopened")
+    void shouldReadRecordsAfterReopen() {
+        long first = journal.append(123L, new BigDecimal("10.50"), "5411", MERCHANT, TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.FOOD, 1L);
+        long second = journal.append(123L, BigDecimal.valueOf(7), "5811", MERCHANT, TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.CASH, 2L);
+        journal.awaitDurable(second);
+        journal.close();
+
+        journal = openJournal();
+        long third = journal.append(456L, BigDecimal.ONE, "5000", "OTHER MERCHANT", TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.CASH, 1L);
+        List<TransactionJournal.Record> records = journal.read(1, journal.settledSequence(), 10);
+
+        assertThat(List.of(first, second, third)).containsExactly(1L, 2L, 3L);
+        assertThat(records).hasSize(3);
+        TransactionJournal.Record record = records.get(0);
+        assertThat(record.account()).isEqualTo(123L);
+        assertThat(record.amount()).isEqualByComparingTo("10.50");
+        assertThat(record.mcc()).isEqualTo("5411");
+        assertThat(record.merchant()).isEqualTo(MERCHANT);
+        assertThat(record.resultCode()).isEqualTo(TransactionResponseEnum.APPROVED.getCode());
+        assertThat(record.category()).isEqualTo(CategoryWallet.FOOD);
+        assertThat(record.walletVersion()).isEqualTo(1L);
+        assertThat(record.voided()).isFalse();
+        assertThat(records.get(2).merchant()).isEqualTo("OTHER MERCHANT");
+    }
+
+    @Test
+    @DisplayName("Appends roll over to a new segment and reads span segments")
+    void shouldRollSegments() {
+        int perSegment = 1024 * 1024 / TransactionJournal.RECORD_SIZE;
+        for (int i = 0; i < perSegment + 10; i++) {
+            journal.append(1L, BigDecimal.ONE, "5411", MERCHANT, TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.FOOD, 1L);
+        }
+
+        List<TransactionJournal.Record> records = journal.read(perSegment - 4, journal.settledSequence(), 20);
+
+        assertThat(records).extracting(TransactionJournal.Record::sequence).startsWith((long) perSegment - 4).hasSize(15);
+        assertThat(directory.toFile().list((dir, name) -> name.endsWith(".seg"))).hasSize(2);
+
+        journal.deleteSegmentsUpTo(perSegment);
+        assertThat(directory.toFile().list((dir, name) -> name.endsWith(".seg"))).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("Records stay unsettled until their transaction completes and are voided on rollback")
+    void shouldHoldBackAndVoidRecordsOfRolledBackTransactions() {
+        TransactionSynchronizationManager.initSynchronization();
+        long sequence = journal.append(1L, BigDecimal.TEN, "5411", MERCHANT, TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.FOOD, 1L);
+
+        assertThat(journal.settledSequence()).isEqualTo(sequence - 1);
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+
+        assertThat(journal.settledSequence()).isEqualTo(sequence);
+        assertThat(journal.read(sequence, sequence, 1)).singleElement().extracting(TransactionJournal.Record::voided).isEqualTo(true);
+    }
+
+    @Test
+    @DisplayName("Records of a transaction are forced before it commits, confirmed once it did, and held back when a crash left them pending")
+    void shouldConfirmRecordsOnCommitOnly() {
+        TransactionSynchronizationManager.initSynchronization();
+        long committed = journal.append(1L, BigDecimal.TEN, "5411", MERCHANT, TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.FOOD, 1L);
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.beforeCommit(false);
+            assertThat((long) ReflectionTestUtils.getField(journal, "durableSequence")).isEqualTo(committed);
+            synchronization.afterCommit();
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationManager.initSynchronization();
+        long interrupted = journal.append(1L, BigDecimal.ONE, "5411", MERCHANT, TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.FOOD, 2L);
+        journal.close();
+
+        journal = openJournal();
+
+        assertThat(journal.settledSequence()).isEqualTo(committed);
+        assertThat(journal.recoveredPending()).extracting(TransactionJournal.Record::sequence).containsExactly(interrupted);
+        journal.resolvePending(interrupted, false);
+        assertThat(journal.recoveredPending()).isEmpty();
+        assertThat(journal.settledSequence()).isEqualTo(interrupted);
+        assertThat(journal.read(committed, interrupted, 2)).extracting(TransactionJournal.Record::voided).containsExactly(false, true);
+    }
+
+    @Test
+    @DisplayName("The projector resolves records left pending as committed when their wallet reached the debit's version, and as void otherwise")
+    void shouldResolvePendingRecordsAgainstWalletVersions() {
+        TransactionSynchronizationManager.initSynchronization();
+        long committed = journal.append(1L, BigDecimal.TEN, "5411", MERCHANT, TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.FOOD, 3L);
+        long rolledBack = journal.append(1L, BigDecimal.ONE, "5411", MERCHANT, TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.MEAL, 5L);
+        TransactionSynchronizationManager.clearSynchronization();
+        journal.close();
+        journal = openJournal();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbcTemplate.execute("CREATE TABLE wallets (balance DECIMAL, id_account BIGINT NOT NULL, category VARCHAR(10) NOT NULL, version BIGINT DEFAULT 0 NOT NULL, PRIMARY KEY (id_account, category))");
+        jdbcTemplate.update("INSERT INTO wallets (balance, id_account, category, version) VALUES (90, 1, 'FOOD', 3), (100, 1, 'MEAL', 4)");
+        TransactionJournalProjector projector = new TransactionJournalProjector();
+        ReflectionTestUtils.setField(projector, "journal", journal);
+        ReflectionTestUtils.setField(projector, "jdbcTemplate", jdbcTemplate);
+
+        ReflectionTestUtils.invokeMethod(projector, "resolvePending");
+
+        assertThat(journal.recoveredPending()).isEmpty();
+        assertThat(journal.read(committed, rolledBack, 2)).extracting(TransactionJournal.Record::voided).containsExactly(false, true);
+    }
+
+    @Test
+    @DisplayName("MCCs longer than the record holds are rejected instead of cut short")
+    void shouldRejectLongMcc() {
+        assertThatThrownBy(() -> journal.append(1L, BigDecimal.ONE, "54111", MERCHANT, TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.FOOD, 1L))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(journal.lastAppendedSequence()).isZero();
+    }
+
+    @Test
+    @DisplayName("Amounts with fractions of a cent are rejected")
+    void shouldRejectFractionalCents() {
+        assertThatThrownBy(() -> journal.append(1L, new BigDecimal("1.005"), "5411", MERCHANT, TransactionResponseEnum.APPROVED.getCode(), CategoryWallet.FOOD, 1L))
+                .isInstanceOf(ArithmeticException.class);
+    }
+
+    private TransactionJournal openJournal() {
+        TransactionJournal opened = new TransactionJournal();
+        ReflectionTestUtils.setField(opened, "directory", directory);
+        ReflectionTestUtils.setField(opened, "segmentSizeMb", 1);
+        opened.open();
+        return opened;
+    }
+}
@@ -10,10 +10,14 @@ import com.caju.exceptions.AccountNotFoundException;
 import com.caju.exceptions.IncorrectUpdateWallet;
 import com.caju.exceptions.UpdateAccountException;
 import com.caju.dto.TransactionDTO;
+import com.caju.dto.WalletChargeDTO;
 import com.caju.entities.Transaction;
 import com.caju.exceptions.WalletNotFoundException;
 import com.caju.repositories.TransactionRepository;
 import com.caju.exceptions.InsufficientFundsTransactionException;
+import com.caju.metrics.AuthorizationMetrics;
+import com.caju.metrics.AuthorizationTrace;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -21,15 +25,31 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class TransactionServiceTest {
@@ -41,6 +61,13 @@ public class TransactionServiceTest {
 
     @Mock
     private TransactionRepository transactionRepository;
+    @Mock
+    private SpendingSummaryService summaryService;
+    @Mock
+    private IdempotencyStore idempotencyStore;
+
+    @Spy
+    private CategoryClassifier categoryClassifier = new CategoryClassifier();
 
     @InjectMocks
     private TransactionService transactionService;
@@ -51,11 +78,13 @@ public class TransactionServiceTest {
     private Wallet walletMeal;
 
     @BeforeEach
-    public void setup() {
+    public void setup() throws WalletNotFoundException, InsufficientFundsTransactionException {
         MockitoAnnotations.initMocks(this);
         account = new Account();
         account.setId(1L);
         account.setName("Test Account");
+        when(walletService.debitLoadedWallet(anyMap(), any(), anyLong(), any(), anyBoolean()))
+                .thenAnswer(invocation -> new WalletChargeDTO(invocation.getArgument(3), 1L));
     }
 
     @Test
@@ -71,7 +100,8 @@ public class TransactionServiceTest {
 
         assertEquals(TransactionResponseEnum.APPROVED.getCode(), response.code());
         verify(walletService, times(1)).updateAccountBalanceWallet(account, BigDecimal.valueOf(100L), CategoryWallet.CASH);
-        verify(transactionRepository, times(1)).save(any(Transaction.class));
+        verify(transactionRepository, times(1)).saveAndFlush(any(Transaction.class));
+        verify(summaryService, times(1)).record(anyList());
     }
     @Test
     @DisplayName("Create transaction when account meal is found and transaction is successful")
@@ -86,7 +116,7 @@ public class TransactionServiceTest {
 
         assertEquals(TransactionResponseEnum.APPROVED.getCode(), response.code());
         verify(walletService, times(1)).updateAccountBalanceWallet(account, BigDecimal.valueOf(100L), CategoryWallet.MEAL);
-        verify(transactionRepository, times(1)).save(any(Transaction.class));
+        verify(transactionRepository, times(1)).saveAndFlush(any(Transaction.class));
     }
 
 
@@ -103,7 +133,181 @@ public class TransactionServiceTest {
 
         assertEquals(TransactionResponseEnum.APPROVED.getCode(), response.code());
         verify(walletService, times(1)).updateAccountBalanceWallet(account, BigDecimal.valueOf(100L), CategoryWallet.FOOD);
-        verify(transactionRepository, times(1)).save(any(Transaction.class));
+        verify(transactionRepository, times(1)).saveAndFlush(any(Transaction.class));
+    }
+
+    @Test
+    @DisplayName("Batch answers each transaction in order and saves only the approved ones")
+    public void testCreateTransactionsAnswersInOrderAndSavesApproved() throws WalletNotFoundException, UpdateAccountException, InsufficientFundsTransactionException {
+        Account account = createAccountTest();
+        Wallet walletFood = createWalletTest(account, CategoryWallet.FOOD, new BigDecimal("100"));
+        when(accountService.getAccountsByIds(Set.of(123L, 999L))).thenReturn(List.of(account));
+        when(walletService.getWalletsForUpdate(Set.of(123L))).thenReturn(List.of(walletFood));
+        doThrow(new InsufficientFundsTransactionException("Insufficient funds for transaction."))
+                .when(walletService).debitLoadedWallet(anyMap(), eq(account), eq(20000L), any(), anyBoolean());
+        List<TransactionDTO> transactionDTOs = List.of(
+                new TransactionDTO("123", BigDecimal.valueOf(50L), "5411", "PADARIA DO ZE               SAO PAULO BR"),
+                new TransactionDTO("123", BigDecimal.valueOf(200L), "5411", "PADARIA DO ZE               SAO PAULO BR"),
+                new TransactionDTO("999", BigDecimal.valueOf(10L), "5411", "PADARIA DO ZE               SAO PAULO BR"),
+                new TransactionDTO("abc", BigDecimal.valueOf(10L), "5411", "PADARIA DO ZE               SAO PAULO BR"));
+
+        List<ResponseDTO> responses = transactionService.createTransactions(transactionDTOs, false, false);
+
+        assertThat(responses).extracting(ResponseDTO::code).containsExactly(
+                TransactionResponseEnum.APPROVED.getCode(),
+                TransactionResponseEnum.INSUFFICIENT_FUNDS.getCode(),
+                TransactionResponseEnum.ERROR.getCode(),
+                TransactionResponseEnum.ERROR.getCode());
+        ArgumentCaptor<List<Transaction>> saved = ArgumentCaptor.forClass(List.class);
+        verify(transactionRepository, times(1)).saveAll(saved.capture());
+        assertThat(saved.getValue()).extracting(Transaction::getTotalAmount).containsExactly(BigDecimal.valueOf(50L));
+    }
+
+    @Test
+    @DisplayName("An approval sent with an idempotency key stores its response under the key")
+    public void testCreateTransactionRecordsIdempotencyKey() throws AccountNotFoundException {
+        Account account = createAccountTest();
+        TransactionDTO transactionDTO = new TransactionDTO(account.getId().toString(), BigDecimal.valueOf(10L), "5811", "PADARIA DO ZE               SAO PAULO BR", "retry-1");
+        when(accountService.getAccountById(account.getId().toString())).thenReturn(account);
+
+        ResponseDTO response = transactionService.createTransaction(transactionDTO, false);
+
+        assertEquals(TransactionResponseEnum.APPROVED.getCode(), response.code());
+        verify(idempotencyStore, times(1)).claim(123L, "retry-1");
+        verify(idempotencyStore, times(1)).settle(123L, "retry-1", response);
+        verify(transactionRepository, times(1)).saveAndFlush(any(Transaction.class));
+    }
+
+    @Test
+    @DisplayName("A key another authorization already holds is answered with its response before anything is debited")
+    public void testCreateTransactionAnswersClaimedKeyWithoutDebiting() throws AccountNotFoundException {
+        Account account = createAccountTest();
+        ResponseDTO stored = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        when(accountService.getAccountById(account.getId().toString())).thenReturn(account);
+        when(idempotencyStore.claim(123L, "retry-1")).thenReturn(stored);
+
+        ResponseDTO response = transactionService.createTransaction(new TransactionDTO("123", BigDecimal.TEN, "5811", null, "retry-1"), false);
+
+        assertThat(response).isSameAs(stored);
+        verifyNoInteractions(walletService, transactionRepository);
+        verify(idempotencyStore, never()).settle(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Batch answers keys already stored, and keys repeated within the batch, without debiting them again")
+    public void testCreateTransactionsReplaysIdempotencyKeys() throws WalletNotFoundException, UpdateAccountException, InsufficientFundsTransactionException {
+        Account account = createAccountTest();
+        ResponseDTO stored = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        when(accountService.getAccountsByIds(Set.of(123L))).thenReturn(List.of(account));
+        when(idempotencyStore.findAll(anyList())).thenReturn(new HashMap<>(Map.of(new IdempotencyStore.Key(123L, "retry-1"), stored)));
+        List<TransactionDTO> transactionDTOs = List.of(
+                new TransactionDTO("123", BigDecimal.valueOf(50L), "5411", null, "retry-1"),
+                new TransactionDTO("123", BigDecimal.valueOf(30L), "5411", null, "retry-2"),
+                new TransactionDTO("123", BigDecimal.valueOf(30L), "5411", null, "retry-2"));
+
+        List<ResponseDTO> responses = transactionService.createTransactions(transactionDTOs, false, false);
+
+        assertThat(responses).extracting(ResponseDTO::code).containsOnly(TransactionResponseEnum.APPROVED.getCode());
+        assertThat(responses.get(0)).isSameAs(stored);
+        verify(walletService, times(1)).debitLoadedWallet(anyMap(), eq(account), anyLong(), any(), anyBoolean());
+        verify(walletService, times(1)).debitLoadedWallet(anyMap(), eq(account), eq(3000L), any(), anyBoolean());
+        verify(idempotencyStore, times(1)).claim(123L, "retry-2");
+        verify(idempotencyStore, times(1)).settle(eq(123L), eq("retry-2"), any());
+    }
+
+    @Test
+    @DisplayName("Batch answers a key taken by a concurrent authorization on its own, without debiting it or failing the other items")
+    public void testCreateTransactionsAnswersClaimedKeyPerItem() throws WalletNotFoundException, UpdateAccountException, InsufficientFundsTransactionException {
+        Account account = createAccountTest();
+        ResponseDTO stored = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        when(accountService.getAccountsByIds(Set.of(123L))).thenReturn(List.of(account));
+        when(idempotencyStore.findAll(anyList())).thenReturn(new HashMap<>());
+        when(idempotencyStore.claim(123L, "taken")).thenReturn(stored);
+
+        List<ResponseDTO> responses = transactionService.createTransactions(List.of(
+                new TransactionDTO("123", BigDecimal.valueOf(50L), "5411", null, "taken"),
+                new TransactionDTO("123", BigDecimal.valueOf(30L), "5411", null, "fresh")), false, false);
+
+        assertThat(responses).extracting(ResponseDTO::code).containsOnly(TransactionResponseEnum.APPROVED.getCode());
+        assertThat(responses.get(0)).isSameAs(stored);
+        verify(walletService, times(1)).debitLoadedWallet(anyMap(), eq(account), eq(3000L), any(), anyBoolean());
+        verify(walletService, times(1)).debitLoadedWallet(anyMap(), eq(account), anyLong(), any(), anyBoolean());
+        verify(idempotencyStore, never()).settle(eq(123L), eq("taken"), any());
+    }
+
+    @Test
+    @DisplayName("Stages of a traced authorization are recorded with the variant and result code")
+    public void testCreateTransactionRecordsStageTimers() throws AccountNotFoundException {
+        Account account = createAccountTest();
+        TransactionDTO transactionDTO = new TransactionDTO(account.getId().toString(), BigDecimal.valueOf(10L), "5811", "PADARIA DO ZE               SAO PAULO BR");
+        when(accountService.getAccountById(account.getId().toString())).thenReturn(account);
+        // the insert runs in the flush, which the transaction_insert stage must include
+        when(transactionRepository.saveAndFlush(any(Transaction.class))).thenAnswer(invocation -> {
+            TimeUnit.MILLISECONDS.sleep(20);
+            return invocation.getArgument(0);
+        });
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AuthorizationMetrics metrics = new AuthorizationMetrics(registry);
+
+        AuthorizationTrace.begin();
+        ResponseDTO response = transactionService.createTransaction(transactionDTO, true);
+        metrics.recordStages(AuthorizationMetrics.Variant.L2, response.code(), AuthorizationTrace.end());
+        metrics.recordTotal(AuthorizationMetrics.Variant.L2, response.code(), 1_000);
+
+        assertThat(stageCount(registry, "account_lookup")).isEqualTo(1);
+        assertThat(stageCount(registry, "category_resolution")).isEqualTo(1);
+        assertThat(stageCount(registry, "transaction_insert")).isEqualTo(1);
+        assertThat(registry.get("caju.authorization.stage").tags("stage", "transaction_insert", "variant", "l2", "result", "00").timer()
+                .totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(20);
+        assertThat(stageCount(registry, "funds_check")).isZero();
+        assertThat(registry.get("caju.authorization.category.source").tags("source", "merchant", "variant", "l2").counter().count()).isEqualTo(1);
+        assertThat(registry.get("caju.authorization").tags("variant", "l2", "result", "00").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("An approval committed before the deadline claims the answer, so a late timeout cannot abandon it")
+    public void testCreateTransactionClaimsAnswerBeforeDeadline() throws AccountNotFoundException {
+        Account account = createAccountTest();
+        TransactionDTO transactionDTO = new TransactionDTO(account.getId().toString(), BigDecimal.valueOf(10L), "5811", "PADARIA DO ZE               SAO PAULO BR");
+        when(accountService.getAccountById(account.getId().toString())).thenReturn(account);
+        AuthorizationDeadline deadline = AuthorizationDeadline.startingAt(System.nanoTime(), TimeUnit.SECONDS.toNanos(10));
+
+        deadline.open();
+        ResponseDTO response = transactionService.createTransaction(transactionDTO, false);
+        deadline.close();
+
+        assertEquals(TransactionResponseEnum.APPROVED.getCode(), response.code());
+        assertThat(deadline.abandon()).isFalse();
+        verify(walletService, never()).compensateDebit(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("A debit that commits after the caller gave up is compensated")
+    public void testCreateTransactionCompensatesDebitCommittedAfterDeadline() throws AccountNotFoundException {
+        Account account = createAccountTest();
+        TransactionDTO transactionDTO = new TransactionDTO(account.getId().toString(), BigDecimal.valueOf(10L), "5811", "PADARIA DO ZE               SAO PAULO BR");
+        when(accountService.getAccountById(account.getId().toString())).thenReturn(account);
+        AuthorizationDeadline deadline = AuthorizationDeadline.startingAt(System.nanoTime(), TimeUnit.SECONDS.toNanos(10));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            deadline.open();
+            ResponseDTO response = transactionService.createTransaction(transactionDTO, false);
+            deadline.close();
+            assertEquals(TransactionResponseEnum.APPROVED.getCode(), response.code());
+
+            assertThat(deadline.abandon()).isTrue();
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(deadline.isCompensated()).isTrue();
+        verify(walletService, times(1)).compensateDebit(account, CategoryWallet.MEAL, transactionDTO);
+    }
+
+    private static long stageCount(SimpleMeterRegistry registry, String stage) {
+        return registry.get("caju.authorization.stage").tags("stage", stage, "variant", "l2", "result", "00").timer().count();
     }
 
     /**
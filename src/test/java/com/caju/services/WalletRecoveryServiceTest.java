@@ -0,0 +1,153 @@
+package com.caju.services;
+
+import com.caju.dto.RecoveryReportDTO;
+import com.caju.enums.CategoryWallet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WalletRecoveryServiceTest {
+
+    private WalletRecoveryService recoveryService;
+    private JdbcTemplate jdbcTemplate;
+    private DriverManagerDataSource dataSource;
+
+    @BeforeEach
+    void setup() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE wallets (balance DECIMAL(19, 2), id_account BIGINT NOT NULL, category VARCHAR(10) NOT NULL, version BIGINT DEFAULT 0 NOT NULL, PRIMARY KEY (id_account, category))");
+        jdbcTemplate.execute("CREATE TABLE transactions (id BIGINT NOT NULL PRIMARY KEY, id_account BIGINT NOT NULL, total_amount DECIMAL(19, 2), mcc VARCHAR(255), category VARCHAR(10), operation VARCHAR(10) DEFAULT 'DEBIT' NOT NULL, wallet_version BIGINT)");
+        jdbcTemplate.execute("CREATE TABLE wallet_snapshots (id_account BIGINT NOT NULL, category VARCHAR(10) NOT NULL, balance DECIMAL(19, 2), wallet_version BIGINT, last_transaction_id BIGINT NOT NULL, created_at TIMESTAMP NOT NULL, PRIMARY KEY (id_account, category))");
+
+        recoveryService = new WalletRecoveryService();
+        ReflectionTestUtils.setField(recoveryService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(recoveryService, "dataSource", dataSource);
+        ReflectionTestUtils.setField(recoveryService, "transactionTemplate", new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+        ReflectionTestUtils.setField(recoveryService, "categoryClassifier", new CategoryClassifier());
+        ReflectionTestUtils.setField(recoveryService, "cache", new AccountWalletCache());
+        ReflectionTestUtils.setField(recoveryService, "parallelism", 2);
+
+        for (long account = 1; account <= 4; account++) {
+            jdbcTemplate.update("INSERT INTO wallets (balance, id_account, category) VALUES (100, ?, 'FOOD')", account);
+            jdbcTemplate.update("INSERT INTO wallets (balance, id_account, category) VALUES (100, ?, 'CASH')", account);
+        }
+    }
+
+    @Test
+    @DisplayName("Replays debits and credits after the snapshot and finds no drift on consistent wallets")
+    void shouldVerifyConsistentWallets() {
+        recoveryService.takeSnapshot();
+        insertTransaction(1, 1, "30.00", "5411", "FOOD", "DEBIT", 1L);
+        insertTransaction(2, 1, "10.00", null, "CASH", "CREDIT", 1L);
+        insertTransaction(3, 4, "20.00", "5411", "FOOD", "DEBIT", 1L);
+        chargeWallet(1, "FOOD", "70");
+        chargeWallet(1, "CASH", "110");
+        chargeWallet(4, "FOOD", "80");
+
+        RecoveryReportDTO report = recoveryService.verify();
+
+        assertThat(report.rowsReplayed()).isEqualTo(3);
+        assertThat(report.unattributedRows()).isZero();
+        assertThat(report.walletsChecked()).isEqualTo(8);
+        assertThat(report.mismatches()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("A row with a lower id that commits after the snapshot is still replayed")
+    void shouldReplayRowsCommittedOutOfIdOrder() {
+        insertTransaction(60, 3, "10.00", "5411", "FOOD", "DEBIT", 1L);
+        chargeWallet(3, "FOOD", "90");
+        recoveryService.takeSnapshot();
+        insertTransaction(10, 3, "15.00", "5411", "FOOD", "DEBIT", 2L);
+        chargeWallet(3, "FOOD", "75");
+
+        RecoveryReportDTO report = recoveryService.verify();
+
+        assertThat(report.rowsReplayed()).isEqualTo(1);
+        assertThat(report.mismatches()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Verify leaves out rows committed after the wallet was read and does not wait on locked wallets")
+    void shouldVerifyWithoutLockingWallets() throws SQLException {
+        recoveryService.takeSnapshot();
+        insertTransaction(1, 2, "30.00", "5411", "FOOD", "DEBIT", 1L);
+        chargeWallet(2, "FOOD", "70");
+        // committed after the wallet was read, as if it raced the replay
+        insertTransaction(2, 2, "5.00", "5411", "FOOD", "DEBIT", 2L);
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.createStatement().execute("SELECT * FROM wallets WHERE id_account = 2 FOR UPDATE");
+
+            RecoveryReportDTO report = recoveryService.verify();
+
+            assertThat(report.rowsReplayed()).isEqualTo(1);
+            assertThat(report.mismatches()).isEmpty();
+            connection.rollback();
+        }
+    }
+
+    @Test
+    @DisplayName("A snapshot taken before versions were recorded replays the rows after its transaction id")
+    void shouldReplayLegacySnapshotByTransactionId() {
+        insertTransaction(1, 1, "30.00", "5411", "FOOD", "DEBIT", null);
+        jdbcTemplate.update("INSERT INTO wallet_snapshots (id_account, category, balance, last_transaction_id, created_at) "
+                + "SELECT id_account, category, CASE WHEN id_account = 1 AND category = 'FOOD' THEN 70 ELSE balance END, 1, CURRENT_TIMESTAMP FROM wallets");
+        jdbcTemplate.update("UPDATE wallets SET balance = 70 WHERE id_account = 1 AND category = 'FOOD'");
+        insertTransaction(2, 4, "20.00", "5411", null, "DEBIT", null);
+        jdbcTemplate.update("UPDATE wallets SET balance = 80 WHERE id_account = 4 AND category = 'FOOD'");
+
+        RecoveryReportDTO report = recoveryService.verify();
+
+        assertThat(report.snapshotLastTransactionId()).isEqualTo(1);
+        assertThat(report.rowsReplayed()).isEqualTo(1);
+        assertThat(report.unattributedRows()).isEqualTo(1);
+        assertThat(report.mismatches()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Rebuild reports drifted wallets and restores their replayed balance")
+    void shouldRebuildDriftedWallets() {
+        insertTransaction(1, 2, "30.00", "5411", "FOOD", "DEBIT", 1L);
+        chargeWallet(2, "FOOD", "70");
+        recoveryService.takeSnapshot();
+        insertTransaction(2, 2, "25.00", "5811", "CASH", "DEBIT", 1L);
+        chargeWallet(2, "CASH", "1000");
+
+        RecoveryReportDTO report = recoveryService.rebuild();
+
+        assertThat(report.snapshotLastTransactionId()).isEqualTo(1);
+        assertThat(report.rowsReplayed()).isEqualTo(1);
+        assertThat(report.mismatches()).singleElement().satisfies(drift -> {
+            assertThat(drift.idAccount()).isEqualTo(2L);
+            assertThat(drift.category()).isEqualTo(CategoryWallet.CASH);
+            assertThat(drift.replayedBalance()).isEqualByComparingTo("75.00");
+        });
+        BigDecimal rebuilt = jdbcTemplate.queryForObject("SELECT balance FROM wallets WHERE id_account = 2 AND category = 'CASH'", BigDecimal.class);
+        assertThat(rebuilt).isEqualByComparingTo("75.00");
+        assertThat(recoveryService.verify().mismatches()).isEmpty();
+    }
+
+    private void insertTransaction(long id, long account, String amount, String mcc, String category, String operation, Long walletVersion) {
+        jdbcTemplate.update("INSERT INTO transactions (id, id_account, total_amount, mcc, category, operation, wallet_version) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                id, account, new BigDecimal(amount), mcc, category, operation, walletVersion);
+    }
+
+    private void chargeWallet(long account, String category, String balance) {
+        jdbcTemplate.update("UPDATE wallets SET balance = ?, version = version + 1 WHERE id_account = ? AND category = ?", new BigDecimal(balance), account, category);
+    }
+}
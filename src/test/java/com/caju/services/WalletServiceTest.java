@@ -1,13 +1,20 @@
 package com.caju.services;
 
+import com.caju.dto.WalletChargeDTO;
+import com.caju.dto.WalletDTO;
 import com.caju.entities.Account;
+import com.caju.entities.Transaction;
 import com.caju.entities.Wallet;
 import com.caju.entities.WalletKey;
 import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionOperation;
+import com.caju.exceptions.AccountNotFoundException;
 import com.caju.exceptions.IncorrectUpdateWallet;
 import com.caju.exceptions.InsufficientFundsTransactionException;
 import com.caju.exceptions.UpdateAccountException;
 import com.caju.exceptions.WalletNotFoundException;
+import com.caju.metrics.WalletContentionMetrics;
+import com.caju.repositories.TransactionRepository;
 import com.caju.repositories.WalletRepository;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -17,13 +24,22 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -36,6 +52,21 @@ public class WalletServiceTest {
     @Mock
     private WalletRepository repository;
 
+    @Mock
+    private AccountService accountService;
+
+    @Mock
+    private WalletContentionMetrics contentionMetrics;
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    @Spy
+    private TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+
+    @Spy
+    private AccountWalletCache cache = new AccountWalletCache();
+
     private AutoCloseable autoCloseable;
 
     @BeforeEach
@@ -48,31 +79,15 @@ public class WalletServiceTest {
         autoCloseable.close();
     }
 
-@Test
-@DisplayName("Should get all wallets successfully")
-void shouldGetAllWallets_Success() {
-    List<Wallet> wallets = List.of(
-            new Wallet(),
-            new Wallet(),
-            new Wallet()
-    );
-    when(repository.findAll()).thenReturn(wallets);
-
-    List<Wallet> result = walletService.getAllWallets();
-
-    assertThat(result).hasSize(3);
-    verify(repository, times(1)).findAll();
-}
-
-
 @Test
 @DisplayName("Should get all wallets by account successfully")
 void shouldGetAllWalletsByAccount_Success() throws WalletNotFoundException {
     Long accountId = 123L;
+    Account account = createAccountTest();
     List<Wallet> wallets = List.of(
-            new Wallet(),
-            new Wallet(),
-            new Wallet()
+            createWalletTest(account, CategoryWallet.CASH, BigDecimal.TEN),
+            createWalletTest(account, CategoryWallet.FOOD, BigDecimal.TEN),
+            createWalletTest(account, CategoryWallet.MEAL, BigDecimal.TEN)
     );
     when(repository.findByAccountId(accountId)).thenReturn(Optional.of(wallets));
 
@@ -101,13 +116,13 @@ void shouldThrowWalletNotFoundException_WhenNoWalletsFound() {
 void shouldGetWalletById_Success() throws WalletNotFoundException {
     Account account = createAccountTest();
     WalletKey walletKey = new WalletKey(account, CategoryWallet.CASH);
-    Wallet wallet = new Wallet();
-    when(repository.findById(walletKey)).thenReturn(Optional.of(wallet));
+    Wallet wallet = createWalletTest(account, CategoryWallet.CASH, BigDecimal.TEN);
+    when(repository.findByAccountId(account.getId())).thenReturn(Optional.of(List.of(wallet)));
 
     Wallet result = walletService.getWalletById(walletKey);
 
-    assertThat(result).isSameAs(wallet);
-    verify(repository, times(1)).findById(walletKey);
+    assertThat(result).isEqualTo(wallet);
+    verify(repository, times(1)).findByAccountId(account.getId());
 }
 
 
@@ -116,12 +131,29 @@ void shouldGetWalletById_Success() throws WalletNotFoundException {
 void shouldThrowWalletNotFoundException_WhenWalletNotFound() {
     Account account = createAccountTest();
     WalletKey walletKey = new WalletKey(account, CategoryWallet.CASH);
-    when(repository.findById(walletKey)).thenReturn(Optional.empty());
+    when(repository.findByAccountId(account.getId())).thenReturn(Optional.of(List.of(createWalletTest(account, CategoryWallet.FOOD, BigDecimal.TEN))));
 
     assertThatThrownBy(() -> walletService.getWalletById(walletKey))
             .isInstanceOf(WalletNotFoundException.class)
             .hasMessage("Wallets not found for key " + walletKey);
-    verify(repository, times(1)).findById(walletKey);
+    verify(repository, times(1)).findByAccountId(account.getId());
+}
+
+
+@Test
+@DisplayName("Wallet snapshots are served from the cache until a debit evicts them")
+void shouldServeWalletsFromCacheUntilDebit() throws WalletNotFoundException, UpdateAccountException, IncorrectUpdateWallet, InsufficientFundsTransactionException {
+    Account account = createAccountTest();
+    when(repository.findByAccountId(account.getId())).thenReturn(Optional.of(List.of(createWalletTest(account, CategoryWallet.FOOD, BigDecimal.TEN))));
+    when(repository.debitIfSufficientFunds(account.getId(), CategoryWallet.FOOD, BigDecimal.ONE)).thenReturn(Optional.of(1L));
+
+    walletService.getAllWalletsByAccount(account.getId());
+    walletService.getWalletById(new WalletKey(account, CategoryWallet.FOOD));
+    verify(repository, times(1)).findByAccountId(account.getId());
+
+    walletService.updateAccountBalanceWallet(account, BigDecimal.ONE, CategoryWallet.FOOD);
+    walletService.getAllWalletsByAccount(account.getId());
+    verify(repository, times(2)).findByAccountId(account.getId());
 }
 
 
@@ -130,17 +162,13 @@ void shouldThrowWalletNotFoundException_WhenWalletNotFound() {
     void shouldUpdateAccountFoodBalance_Success() throws InsufficientFundsTransactionException, UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet {
         Account account = createAccountTest();
         BigDecimal totalAmount = BigDecimal.valueOf(50);
-        Wallet walletFood = createWalletTest(account, CategoryWallet.FOOD, BigDecimal.valueOf(50));
-        when(repository.findById(new WalletKey(account, CategoryWallet.FOOD))).thenReturn(Optional.of(walletFood));
+        when(repository.debitIfSufficientFunds(account.getId(), CategoryWallet.FOOD, totalAmount)).thenReturn(Optional.of(1L));
 
         walletService.updateAccountBalanceWallet(account, totalAmount, CategoryWallet.FOOD);
 
-        ArgumentCaptor<Wallet> walletCaptor = ArgumentCaptor.forClass(Wallet.class);
-        verify(repository, times(1)).save(walletCaptor.capture());
-        Wallet updatedWallet = walletCaptor.getValue();
-        assertThat(updatedWallet.getBalance()).usingComparator(BigDecimal::compareTo).isZero();
-        assertThat(updatedWallet.getId().getCategory()).isEqualTo(CategoryWallet.FOOD);
-        assertThat(updatedWallet.getId().getAccount()).isSameAs(account);
+        verify(repository, times(1)).debitIfSufficientFunds(account.getId(), CategoryWallet.FOOD, totalAmount);
+        verify(repository, never()).findById(any(WalletKey.class));
+        verify(repository, never()).save(any(Wallet.class));
     }
 
     @Test
@@ -148,17 +176,13 @@ void shouldThrowWalletNotFoundException_WhenWalletNotFound() {
     void shouldUpdateAccountMealBalance_Success() throws InsufficientFundsTransactionException, UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet {
         Account account = createAccountTest();
         BigDecimal totalAmount = BigDecimal.valueOf(50);
-        Wallet walletMeal = createWalletTest(account, CategoryWallet.MEAL, BigDecimal.valueOf(50));
-        when(repository.findById(new WalletKey(account, CategoryWallet.MEAL))).thenReturn(Optional.of(walletMeal));
+        when(repository.debitIfSufficientFunds(account.getId(), CategoryWallet.MEAL, totalAmount)).thenReturn(Optional.of(1L));
 
         walletService.updateAccountBalanceWallet(account, totalAmount, CategoryWallet.MEAL);
 
-        ArgumentCaptor<Wallet> walletCaptor = ArgumentCaptor.forClass(Wallet.class);
-        verify(repository, times(1)).save(walletCaptor.capture());
-        Wallet updatedWallet = walletCaptor.getValue();
-        assertThat(updatedWallet.getBalance()).usingComparator(BigDecimal::compareTo).isZero();
-        assertThat(updatedWallet.getId().getCategory()).isEqualTo(CategoryWallet.MEAL);
-        assertThat(updatedWallet.getId().getAccount()).isSameAs(account);
+        verify(repository, times(1)).debitIfSufficientFunds(account.getId(), CategoryWallet.MEAL, totalAmount);
+        verify(repository, never()).findById(any(WalletKey.class));
+        verify(repository, never()).save(any(Wallet.class));
     }
 
     @Test
@@ -166,17 +190,13 @@ void shouldThrowWalletNotFoundException_WhenWalletNotFound() {
     void shouldUpdateAccountCashBalance_Success() throws InsufficientFundsTransactionException, UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet {
         Account account = createAccountTest();
         BigDecimal totalAmount = BigDecimal.valueOf(50);
-        Wallet walletCash = createWalletTest(account, CategoryWallet.CASH, BigDecimal.valueOf(50));
-        when(repository.findById(new WalletKey(account, CategoryWallet.CASH))).thenReturn(Optional.of(walletCash));
+        when(repository.debitIfSufficientFunds(account.getId(), CategoryWallet.CASH, totalAmount)).thenReturn(Optional.of(1L));
 
         walletService.updateAccountBalanceWallet(account, totalAmount, CategoryWallet.CASH);
 
-        ArgumentCaptor<Wallet> walletCaptor = ArgumentCaptor.forClass(Wallet.class);
-        verify(repository, times(1)).save(walletCaptor.capture());
-        Wallet updatedWallet = walletCaptor.getValue();
-        assertThat(updatedWallet.getBalance()).usingComparator(BigDecimal::compareTo).isZero();
-        assertThat(updatedWallet.getId().getCategory()).isEqualTo(CategoryWallet.CASH);
-        assertThat(updatedWallet.getId().getAccount()).isSameAs(account);
+        verify(repository, times(1)).debitIfSufficientFunds(account.getId(), CategoryWallet.CASH, totalAmount);
+        verify(repository, never()).findById(any(WalletKey.class));
+        verify(repository, never()).save(any(Wallet.class));
     }
 
     @Test
@@ -184,19 +204,13 @@ void shouldThrowWalletNotFoundException_WhenWalletNotFound() {
     void shouldUpdateWalletCashWhenFoodBalanceIsInsufficient() throws InsufficientFundsTransactionException, UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet {
         Account account = createAccountTest();
         BigDecimal totalAmount = BigDecimal.valueOf(100);
-        Wallet walletFood = createWalletTest(account, CategoryWallet.FOOD, BigDecimal.valueOf(50));
-        Wallet walletCash = createWalletTest(account, CategoryWallet.CASH, BigDecimal.valueOf(100));
-        when(repository.findById(new WalletKey(account, CategoryWallet.FOOD))).thenReturn(Optional.of(walletFood));
-        when(repository.findById(new WalletKey(account, CategoryWallet.CASH))).thenReturn(Optional.of(walletCash));
+        when(repository.debitWithFallback(account.getId(), CategoryWallet.FOOD, totalAmount)).thenReturn(Optional.of(chargedWallet("CASH", 4L)));
 
-        walletService.updateAccountBalanceWalletWithFallback(account, totalAmount, CategoryWallet.FOOD);
+        WalletChargeDTO charged = walletService.updateAccountBalanceWalletWithFallback(account, totalAmount, CategoryWallet.FOOD);
 
-        ArgumentCaptor<Wallet> walletCaptor = ArgumentCaptor.forClass(Wallet.class);
-        verify(repository, times(1)).save(walletCaptor.capture());
-        Wallet updatedWallet = walletCaptor.getValue();
-        assertThat(updatedWallet.getBalance()).usingComparator(BigDecimal::compareTo).isZero();
-        assertThat(updatedWallet.getId().getCategory()).isEqualTo(CategoryWallet.CASH);
-        assertThat(updatedWallet.getId().getAccount()).isSameAs(account);
+        assertThat(charged).isEqualTo(new WalletChargeDTO(CategoryWallet.CASH, 4L));
+        verify(repository, times(1)).debitWithFallback(account.getId(), CategoryWallet.FOOD, totalAmount);
+        verify(repository, never()).findById(any(WalletKey.class));
     }
 
     @Test
@@ -204,19 +218,123 @@ void shouldThrowWalletNotFoundException_WhenWalletNotFound() {
     void shouldUpdateWalletCashWhenMealBalanceIsInsufficient() throws InsufficientFundsTransactionException, UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet {
         Account account = createAccountTest();
         BigDecimal totalAmount = BigDecimal.valueOf(100);
-        Wallet walletFood = createWalletTest(account, CategoryWallet.MEAL, BigDecimal.valueOf(50));
-        Wallet walletCash = createWalletTest(account, CategoryWallet.CASH, BigDecimal.valueOf(100));
-        when(repository.findById(new WalletKey(account, CategoryWallet.MEAL))).thenReturn(Optional.of(walletFood));
-        when(repository.findById(new WalletKey(account, CategoryWallet.CASH))).thenReturn(Optional.of(walletCash));
+        when(repository.debitWithFallback(account.getId(), CategoryWallet.MEAL, totalAmount)).thenReturn(Optional.of(chargedWallet("CASH", 4L)));
 
-        walletService.updateAccountBalanceWalletWithFallback(account, totalAmount, CategoryWallet.MEAL);
+        WalletChargeDTO charged = walletService.updateAccountBalanceWalletWithFallback(account, totalAmount, CategoryWallet.MEAL);
 
-        ArgumentCaptor<Wallet> walletCaptor = ArgumentCaptor.forClass(Wallet.class);
-        verify(repository, times(1)).save(walletCaptor.capture());
-        Wallet updatedWallet = walletCaptor.getValue();
-        assertThat(updatedWallet.getBalance()).usingComparator(BigDecimal::compareTo).isZero();
-        assertThat(updatedWallet.getId().getCategory()).isEqualTo(CategoryWallet.CASH);
-        assertThat(updatedWallet.getId().getAccount()).isSameAs(account);
+        assertThat(charged).isEqualTo(new WalletChargeDTO(CategoryWallet.CASH, 4L));
+        verify(repository, times(1)).debitWithFallback(account.getId(), CategoryWallet.MEAL, totalAmount);
+        verify(repository, never()).findById(any(WalletKey.class));
+    }
+
+    @Test
+    @DisplayName("Fallback rejection reports both balances")
+    void shouldRejectFallbackWhenBothWalletsAreInsufficient() {
+        Account account = createAccountTest();
+        BigDecimal totalAmount = BigDecimal.valueOf(100);
+        when(repository.debitWithFallback(account.getId(), CategoryWallet.FOOD, totalAmount)).thenReturn(Optional.empty());
+        when(repository.findByAccountId(account.getId())).thenReturn(Optional.of(List.of(
+                createWalletTest(account, CategoryWallet.FOOD, BigDecimal.valueOf(50)),
+                createWalletTest(account, CategoryWallet.CASH, BigDecimal.valueOf(20)))));
+
+        assertThatThrownBy(() -> walletService.updateAccountBalanceWalletWithFallback(account, totalAmount, CategoryWallet.FOOD))
+                .isInstanceOf(InsufficientFundsTransactionException.class)
+                .hasMessageContaining("FOOD $50")
+                .hasMessageContaining("CASH $20");
+    }
+
+    @Test
+    @DisplayName("Debit is rejected with the current balance when funds are insufficient")
+    void shouldRejectInsufficientFunds() {
+        Account account = createAccountTest();
+        BigDecimal totalAmount = BigDecimal.valueOf(50);
+        Wallet walletFood = createWalletTest(account, CategoryWallet.FOOD, BigDecimal.valueOf(10));
+        when(repository.debitIfSufficientFunds(account.getId(), CategoryWallet.FOOD, totalAmount)).thenReturn(Optional.empty());
+        when(repository.findByAccountId(account.getId())).thenReturn(Optional.of(List.of(walletFood)));
+
+        assertThatThrownBy(() -> walletService.updateAccountBalanceWallet(account, totalAmount, CategoryWallet.FOOD))
+                .isInstanceOf(InsufficientFundsTransactionException.class)
+                .hasMessageContaining("$10");
+    }
+
+    @Test
+    @DisplayName("Debit on a missing wallet fails with WalletNotFoundException")
+    void shouldFailDebitOnMissingWallet() {
+        Account account = createAccountTest();
+        BigDecimal totalAmount = BigDecimal.valueOf(50);
+        when(repository.debitIfSufficientFunds(account.getId(), CategoryWallet.FOOD, totalAmount)).thenReturn(Optional.empty());
+        when(repository.findByAccountId(account.getId())).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> walletService.updateAccountBalanceWallet(account, totalAmount, CategoryWallet.FOOD))
+                .isInstanceOf(WalletNotFoundException.class);
+    }
+
+    @Test
+    @DisplayName("A fraction of a cent is rejected before the balance column could round it")
+    void shouldRejectFractionOfCent() {
+        Account account = createAccountTest();
+
+        assertThatThrownBy(() -> walletService.updateAccountBalanceWallet(account, new BigDecimal("10.005"), CategoryWallet.FOOD))
+                .isInstanceOf(ArithmeticException.class);
+        verify(repository, never()).debitIfSufficientFunds(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Credit re-reads the wallet and retries when a concurrent debit wins")
+    void shouldRetryCreditAfterConcurrentUpdate() throws AccountNotFoundException, InsufficientFundsTransactionException, UpdateAccountException, WalletNotFoundException, IncorrectUpdateWallet {
+        Account account = createAccountTest();
+        WalletKey walletKey = new WalletKey(account, CategoryWallet.FOOD);
+        Wallet stale = createWalletTest(account, CategoryWallet.FOOD, BigDecimal.valueOf(100));
+        Wallet fresh = createWalletTest(account, CategoryWallet.FOOD, BigDecimal.valueOf(90));
+        when(accountService.getAccountById("123")).thenReturn(account);
+        when(repository.findById(walletKey)).thenReturn(Optional.of(stale), Optional.of(fresh));
+        when(repository.save(stale)).thenThrow(new ObjectOptimisticLockingFailureException(Wallet.class, walletKey));
+
+        walletService.creditInWallet(new WalletDTO("123", BigDecimal.TEN, CategoryWallet.FOOD));
+
+        verify(repository, times(1)).save(fresh);
+        assertThat(fresh.getBalance()).usingComparator(BigDecimal::compareTo).isEqualTo(BigDecimal.valueOf(100));
+        verify(contentionMetrics, times(1)).conflict(CategoryWallet.FOOD);
+        ArgumentCaptor<Transaction> credit = ArgumentCaptor.forClass(Transaction.class);
+        verify(transactionRepository, times(1)).save(credit.capture());
+        assertThat(credit.getValue().getOperation()).isEqualTo(TransactionOperation.CREDIT);
+        assertThat(credit.getValue().getCategory()).isEqualTo(CategoryWallet.FOOD);
+    }
+
+    @Test
+    @DisplayName("Credit gives up after the maximum number of conflicting attempts")
+    void shouldGiveUpCreditAfterMaxAttempts() throws AccountNotFoundException {
+        Account account = createAccountTest();
+        WalletKey walletKey = new WalletKey(account, CategoryWallet.FOOD);
+        when(accountService.getAccountById("123")).thenReturn(account);
+        when(repository.findById(walletKey)).thenAnswer(invocation -> Optional.of(createWalletTest(account, CategoryWallet.FOOD, BigDecimal.valueOf(100))));
+        when(repository.save(any(Wallet.class))).thenThrow(new ObjectOptimisticLockingFailureException(Wallet.class, walletKey));
+
+        assertThatThrownBy(() -> walletService.creditInWallet(new WalletDTO("123", BigDecimal.TEN, CategoryWallet.FOOD)))
+                .isInstanceOf(IncorrectUpdateWallet.class);
+        verify(repository, times(3)).save(any(Wallet.class));
+        verify(contentionMetrics, times(1)).exhausted(CategoryWallet.FOOD);
+    }
+
+    @Test
+    @DisplayName("Batch debit charges the loaded wallet, then falls back to cash once it runs out")
+    void shouldDebitLoadedWalletsWithFallback() throws WalletNotFoundException, UpdateAccountException, InsufficientFundsTransactionException {
+        Account account = createAccountTest();
+        Map<CategoryWallet, Wallet> wallets = new EnumMap<>(CategoryWallet.class);
+        wallets.put(CategoryWallet.FOOD, createWalletTest(account, CategoryWallet.FOOD, BigDecimal.valueOf(60)));
+        wallets.put(CategoryWallet.CASH, createWalletTest(account, CategoryWallet.CASH, BigDecimal.valueOf(100)));
+
+        WalletChargeDTO first = walletService.debitLoadedWallet(wallets, account, 5000L, CategoryWallet.FOOD, true);
+        WalletChargeDTO second = walletService.debitLoadedWallet(wallets, account, 5000L, CategoryWallet.FOOD, true);
+
+        assertThat(first).isEqualTo(new WalletChargeDTO(CategoryWallet.FOOD, 1L));
+        assertThat(second).isEqualTo(new WalletChargeDTO(CategoryWallet.CASH, 1L));
+        assertThat(wallets.get(CategoryWallet.FOOD).getBalance()).usingComparator(BigDecimal::compareTo).isEqualTo(BigDecimal.TEN);
+        assertThat(wallets.get(CategoryWallet.CASH).getBalance()).usingComparator(BigDecimal::compareTo).isEqualTo(BigDecimal.valueOf(50));
+        assertThatThrownBy(() -> walletService.debitLoadedWallet(wallets, account, 5000L, CategoryWallet.FOOD, false))
+                .isInstanceOf(InsufficientFundsTransactionException.class);
+        assertThatThrownBy(() -> walletService.debitLoadedWallet(wallets, account, 1000L, CategoryWallet.MEAL, false))
+                .isInstanceOf(WalletNotFoundException.class);
     }
 
     /**
@@ -240,10 +358,25 @@ void shouldThrowWalletNotFoundException_WhenWalletNotFound() {
      * @param balance    the balance of the Wallet
      * @return the created Wallet object
      */
+    private static WalletRepository.ChargedWallet chargedWallet(String category, long version) {
+        return new WalletRepository.ChargedWallet() {
+            @Override
+            public String getCategory() {
+                return category;
+            }
+
+            @Override
+            public Long getVersion() {
+                return version;
+            }
+        };
+    }
+
     private Wallet createWalletTest(Account account, CategoryWallet categoryWallet, BigDecimal balance) {
         Wallet walletTest = new Wallet();
         walletTest.setId(new WalletKey(account, categoryWallet));
         walletTest.setBalance(balance);
+        walletTest.setVersion(0L);
 
         return walletTest;
     }
@@ -0,0 +1,121 @@
+package com.caju.services;
+
+import com.caju.dto.ResponseDTO;
+import com.caju.entities.WriteBehindCheckpoint;
+import com.caju.enums.CategoryWallet;
+import com.caju.enums.TransactionResponseEnum;
+import com.caju.repositories.TransactionRepository;
+import com.caju.repositories.WalletRepository;
+import com.caju.repositories.WriteBehindCheckpointRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WriteBehindQueueTest {
+
+    @TempDir
+    Path directory;
+
+    @InjectMocks
+    private WriteBehindQueue queue;
+
+    @Mock
+    private WalletRepository walletRepository;
+    @Mock
+    private TransactionRepository transactionRepository;
+    @Mock
+    private SpendingSummaryService summaryService;
+    @Mock
+    private WriteBehindCheckpointRepository checkpointRepository;
+    @Mock
+    private AccountWalletCache cache;
+    @Mock
+    private EntityManager entityManager;
+    @Mock
+    private IdempotencyStore idempotencyStore;
+
+    private AutoCloseable autoCloseable;
+
+    @BeforeEach
+    void setup() {
+        autoCloseable = MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(queue, "transactionTemplate", new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(queue, "objectMapper", new ObjectMapper().registerModule(new JavaTimeModule()));
+        ReflectionTestUtils.setField(queue, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(queue, "entityManager", entityManager);
+        ReflectionTestUtils.setField(queue, "directory", directory);
+        ReflectionTestUtils.setField(queue, "batchSize", 10);
+        ReflectionTestUtils.setField(queue, "flushIntervalMs", 10L);
+        ReflectionTestUtils.setField(queue, "maxAttempts", 2);
+        when(checkpointRepository.findById(any())).thenReturn(Optional.empty());
+        queue.replayPending();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        queue.stop();
+        autoCloseable.close();
+    }
+
+    @Test
+    @DisplayName("The key an approval was answered under is stored with its debit, also when the log is replayed after a crash")
+    void shouldStoreIdempotencyKeyWithDebitOnReplay() throws Exception {
+        ResponseDTO approved = new ResponseDTO(TransactionResponseEnum.APPROVED.getCode(), "Transaction approved");
+        when(walletRepository.subtractFromBalance(eq(1L), any(), any())).thenReturn(Optional.of(1L));
+        queue.append(WriteBehindQueue.Operation.DEBIT, 1L, CategoryWallet.FOOD, BigDecimal.TEN, "5411", "MERCHANT", "retry-1", approved);
+        queue.awaitDurable(1L);
+        // the process dies before the writer runs; the next one replays the log
+        queue.stop();
+
+        queue.replayPending();
+
+        verify(walletRepository).subtractFromBalance(1L, CategoryWallet.FOOD, BigDecimal.TEN);
+        verify(idempotencyStore).recordIfAbsent(eq(1L), eq("retry-1"), eq(approved), any());
+    }
+
+    @Test
+    @DisplayName("An entry the database keeps rejecting is dead-lettered and the rest of its batch is applied")
+    void shouldDeadLetterRejectedEntry() throws Exception {
+        when(walletRepository.subtractFromBalance(eq(1L), any(), any())).thenThrow(new DataIntegrityViolationException("balance check"));
+        when(walletRepository.subtractFromBalance(eq(2L), any(), any())).thenReturn(Optional.of(1L));
+        queue.append(WriteBehindQueue.Operation.DEBIT, 1L, CategoryWallet.FOOD, BigDecimal.TEN, "5411", "MERCHANT", null, null);
+        queue.append(WriteBehindQueue.Operation.DEBIT, 2L, CategoryWallet.FOOD, BigDecimal.ONE, "5411", "MERCHANT", null, null);
+
+        queue.start();
+
+        ArgumentCaptor<WriteBehindCheckpoint> checkpoints = ArgumentCaptor.forClass(WriteBehindCheckpoint.class);
+        verify(checkpointRepository, timeout(5000).times(2)).save(checkpoints.capture());
+        assertThat(checkpoints.getAllValues()).extracting(WriteBehindCheckpoint::getLastSequence).containsExactly(1L, 2L);
+        assertThat(Files.readAllLines(directory.resolve("write-behind.dead-letter"))).singleElement().asString().contains("\"idAccount\":1");
+        assertThat(queue.health().getStatus()).isEqualTo(Status.DOWN);
+        assertThat(queue.health().getDetails()).containsEntry("deadLettered", 1L);
+    }
+}